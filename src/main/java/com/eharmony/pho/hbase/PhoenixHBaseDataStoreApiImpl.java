@@ -1,18 +1,55 @@
 package com.eharmony.pho.hbase;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eharmony.pho.api.DataStoreApi;
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.bulk.BulkImportResult;
+import com.eharmony.pho.hbase.bulk.PhoenixHBaseBulkImporter;
+import com.eharmony.pho.hbase.query.CoalescingWriter;
+import com.eharmony.pho.hbase.query.ColumnarResult;
+import com.eharmony.pho.hbase.query.CountEstimate;
+import com.eharmony.pho.hbase.query.MultiQueryResult;
+import com.eharmony.pho.hbase.query.PhoenixBatchLoader;
 import com.eharmony.pho.hbase.query.PhoenixHBaseQueryExecutor;
+import com.eharmony.pho.hbase.query.RowKeyBloomFilter;
+import com.eharmony.pho.hbase.query.SpillableResult;
+import com.eharmony.pho.hbase.translator.RowKeyScatterPlanner;
+import com.eharmony.pho.hbase.translator.QueryTemplate;
 import com.eharmony.pho.hbase.util.PhoenixConnectionManager;
+import com.eharmony.pho.query.Aggregates;
+import com.eharmony.pho.query.GroupKey;
+import com.eharmony.pho.query.QueryOperationType;
 import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.QuerySelectImpl;
 import com.eharmony.pho.query.builder.QueryBuilder;
 import com.eharmony.pho.query.builder.QueryUpdateBuilder;
+import com.eharmony.pho.query.criterion.Projections;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
+import com.eharmony.pho.query.criterion.projection.Projection;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Datastore api implementation for HBase store. Using apache phoenix (http://phoenix.apache.org/) as sql layer to hbase
@@ -24,6 +61,17 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
 
     private final PhoenixHBaseQueryExecutor queryExecutor;
     private final String connectionUrl;
+    private volatile ExecutorService multiQueryExecutor;
+    private int multiQueryThreads = 8;
+    private long multiQueryTimeoutMillis = 10000;
+    private final RowKeyScatterPlanner scatterPlanner;
+    private boolean scatterGatherEnabled;
+    private final ConcurrentMap<Class<?>, RowKeyBloomFilter> rowKeyFilters =
+            new ConcurrentHashMap<Class<?>, RowKeyBloomFilter>();
+    private ScheduledExecutorService rowKeyFilterScheduler;
+    private volatile CoalescingWriter coalescingWriter;
+    private final ConcurrentMap<Class<?>, PhoenixBatchLoader<?>> batchLoaders =
+            new ConcurrentHashMap<Class<?>, PhoenixBatchLoader<?>>();
     private static final Logger logger = LoggerFactory.getLogger(PhoenixHBaseDataStoreApiImpl.class);
 
     public PhoenixHBaseDataStoreApiImpl(final String connectionUrl, final PhoenixHBaseQueryExecutor queryExecutor)
@@ -35,6 +83,8 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
             throws Exception {
         this.connectionUrl = connectionUrl;
         this.queryExecutor = Preconditions.checkNotNull(queryExecutor);
+        this.scatterPlanner = new RowKeyScatterPlanner(queryExecutor.getQueryTranslator()
+                .getEntityPropertiesResolver());
         
         // Below code will ensure that connection string is valid, if not will stop the context loading
         if(testConnection) {
@@ -54,6 +104,7 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
             conn = PhoenixConnectionManager.getConnection(connectionUrl);
             T returnEntity = queryExecutor.save(entity, conn);
             conn.commit();
+            addRowKey(entity);
             return returnEntity;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
@@ -62,6 +113,23 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
         }
     }
 
+    private void addRowKey(Object entity) {
+        if (!rowKeyFilters.isEmpty() && entity != null) {
+            RowKeyBloomFilter filter = rowKeyFilters.get(entity.getClass());
+            if (filter != null) {
+                filter.put(entity);
+            }
+        }
+    }
+
+    private <T> void addRowKeys(Iterable<T> entities) {
+        if (!rowKeyFilters.isEmpty()) {
+            for (T entity : entities) {
+                addRowKey(entity);
+            }
+        }
+    }
+
     private void closeConnectionSafe(Connection conn) {
         try {
             if (conn != null) {
@@ -79,6 +147,7 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
             conn = PhoenixConnectionManager.getConnection(connectionUrl);
             Iterable<T> results = queryExecutor.save(entities, conn);
             conn.commit();
+            addRowKeys(entities);
             return results;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
@@ -94,6 +163,7 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
             conn = PhoenixConnectionManager.getConnection(connectionUrl);
             int[] results = queryExecutor.saveBatch(entities, conn);
             conn.commit();
+            addRowKeys(entities);
             return results;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
@@ -102,8 +172,57 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
         }
     }
 
+    /**
+     * Import the entities in parallel, each writer thread using its own connection. See
+     * {@link PhoenixHBaseBulkImporter} for partitioning, batching and retry behavior.
+     * 
+     * @param <T>
+     *            entity class
+     * @param entities
+     *            the entities to import
+     * @param writerThreads
+     *            number of writer threads and connections
+     * @return the import report
+     */
+    public <T> BulkImportResult bulkImport(final Iterator<T> entities, int writerThreads) {
+        Iterator<T> imported = entities;
+        if (!rowKeyFilters.isEmpty()) {
+            // keys are added as the writers take them, a row that fails to import only costs a round trip
+            imported = new ForwardingIterator<T>() {
+                @Override
+                protected Iterator<T> delegate() {
+                    return entities;
+                }
+
+                @Override
+                public T next() {
+                    T entity = super.next();
+                    addRowKey(entity);
+                    return entity;
+                }
+            };
+        }
+        PhoenixHBaseBulkImporter importer = new PhoenixHBaseBulkImporter(connectionUrl,
+                queryExecutor.getQueryTranslator());
+        importer.setWriterThreads(writerThreads);
+        return importer.importAll(imported);
+    }
+
+    public <T> BulkImportResult bulkImport(Stream<T> entities, int writerThreads) {
+        return bulkImport(entities.iterator(), writerThreads);
+    }
+
     @Override
     public <T, R> Iterable<R> findAll(QuerySelect<T, R> query) {
+        if (isAbsentRowKey(query)) {
+            return Collections.emptyList();
+        }
+        if (scatterGatherEnabled) {
+            List<QuerySelect<T, R>> branches = scatterPlanner.split(query);
+            if (branches != null) {
+                return scatterGather(query, branches);
+            }
+        }
         Connection conn = null;
         try {
             conn = PhoenixConnectionManager.getConnection(connectionUrl);
@@ -115,8 +234,28 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
         }
     }
 
+    private boolean isAbsentRowKey(QuerySelect<?, ?> query) {
+        if (rowKeyFilters.isEmpty()) {
+            return false;
+        }
+        RowKeyBloomFilter filter = rowKeyFilters.get(query.getEntityClass());
+        return filter != null && !filter.mightMatch(query);
+    }
+
+    private <T, R> List<R> scatterGather(QuerySelect<T, R> query, List<QuerySelect<T, R>> branches) {
+        MultiQueryResult result = findAllMulti(new ArrayList<QuerySelect<?, ?>>(branches));
+        List<Iterable<R>> branchResults = new ArrayList<Iterable<R>>(branches.size());
+        for (QuerySelect<T, R> branch : branches) {
+            branchResults.add(result.get(branch));
+        }
+        return scatterPlanner.merge(query, branchResults);
+    }
+
     @Override
     public <T, R> R findOne(QuerySelect<T, R> query) {
+        if (isAbsentRowKey(query)) {
+            return null;
+        }
         Connection conn = null;
         try {
             conn = PhoenixConnectionManager.getConnection(connectionUrl);
@@ -128,6 +267,605 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
         }
     }
 
+    /**
+     * Run a select and materialize its entities in a re-iterable result that spills to a memory mapped file past the
+     * heap budget of the executor, see {@link PhoenixHBaseQueryExecutor#setSpillHeapBudgetBytes(long)}. Close the
+     * result when done to delete the file.
+     * 
+     * @param query
+     *            the select, returning its entity class
+     * @return the result
+     */
+    public <T> SpillableResult<T> materialize(QuerySelect<T, T> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.materialize(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Run a select of a single numeric column, e.g. a list of ids, and return its values without boxing. Null values
+     * are skipped. Wrap the array with <code>LongStream.of</code> to process it as a stream.
+     * 
+     * @param query
+     *            the select, with one return field or one aggregate projection
+     * @return the values, in the order of the rows
+     */
+    public <T, R> long[] findLongs(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.findLongs(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Run a select of a single numeric column and return its values as ints, see {@link #findLongs(QuerySelect)}.
+     */
+    public <T, R> int[] findInts(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.findInts(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Run a select of a single numeric column and return its values as doubles, see {@link #findLongs(QuerySelect)}.
+     */
+    public <T, R> double[] findDoubles(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.findDoubles(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Count the rows matching the criteria of a select with a <code>COUNT(*)</code> computed by Phoenix. Ordering,
+     * limit and projections of the select are ignored.
+     * 
+     * @param query
+     *            the select
+     * @return the number of matching rows
+     */
+    public <T, R> long count(QuerySelect<T, R> query) {
+        long[] count = findLongs(aggregateOf(query, Projections.count("*")));
+        return count.length == 0 ? 0 : count[0];
+    }
+
+    /**
+     * Sum a property over the rows matching the criteria of a select, in Phoenix.
+     * 
+     * @param query
+     *            the select
+     * @param propertyName
+     *            the integral property to sum
+     * @return the sum, 0 when no row matches
+     */
+    public <T, R> long sumLongs(QuerySelect<T, R> query, String propertyName) {
+        long[] sum = findLongs(aggregateOf(query, Projections.sum(propertyName)));
+        return sum.length == 0 ? 0 : sum[0];
+    }
+
+    /**
+     * Sum a property over the rows matching the criteria of a select, in Phoenix.
+     * 
+     * @param query
+     *            the select
+     * @param propertyName
+     *            the property to sum
+     * @return the sum, 0 when no row matches
+     */
+    public <T, R> double sumDoubles(QuerySelect<T, R> query, String propertyName) {
+        double[] sum = findDoubles(aggregateOf(query, Projections.sum(propertyName)));
+        return sum.length == 0 ? 0 : sum[0];
+    }
+
+    // the hint is dropped, a hinted select always projects every column
+    private static <T, R> QuerySelect<T, Long> aggregateOf(QuerySelect<T, R> query, AggregateProjection aggregate) {
+        return new QuerySelectImpl<T, Long>(query.getEntityClass(), Long.class, query.getCriteria(), null, null, null,
+                Collections.<String> emptyList(), Collections.<Projection> singletonList(aggregate),
+                QueryOperationType.SELECT, null);
+    }
+
+    /**
+     * Run a select and return its rows as primitive columns instead of entities. Meant for analytic reads of a few
+     * numeric or string fields over many rows.
+     * 
+     * @param query
+     *            the select, usually with the few return fields to read
+     * @return the columns, named after the entity properties
+     */
+    public <T, R> ColumnarResult findColumns(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.findColumns(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Run a select with group by and aggregate projections, returning the aggregates keyed by group instead of
+     * mapped to the return type.
+     * 
+     * @param query
+     *            the aggregated select
+     * @return the aggregates of every group, in the order of the rows
+     */
+    public <T, R> Map<GroupKey, Aggregates> aggregate(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.aggregate(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Estimate the number of rows matching a select from the Phoenix statistics instead of a <code>COUNT(*)</code>
+     * scan.
+     * 
+     * @param query
+     *            the select
+     * @return the estimate and its error bound
+     */
+    public <T, R> CountEstimate estimateCount(QuerySelect<T, R> query) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.estimateCount(query, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Compile a select whose restrictions use {@link com.eharmony.pho.query.criterion.Parameter} placeholders into
+     * a template that can be executed many times without building or translating the query again.
+     * 
+     * @param query
+     *            the select
+     * @return the compiled template
+     */
+    public <T, R> QueryTemplate<T, R> compile(QuerySelect<T, R> query) {
+        return queryExecutor.compile(query);
+    }
+
+    /**
+     * @param template
+     *            the compiled select
+     * @param values
+     *            one value per parameter, in the order of {@link QueryTemplate#getParameterNames()}
+     * @return the results
+     */
+    public <T, R> Iterable<R> findAll(QueryTemplate<T, R> template, Object... values) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.find(template, values, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (conn != null) {
+                queryExecutor.release(conn);
+            }
+            closeConnectionSafe(conn);
+        }
+    }
+
+    public <T, R> R findOne(QueryTemplate<T, R> template, Object... values) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            return queryExecutor.findOne(template, values, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (conn != null) {
+                queryExecutor.release(conn);
+            }
+            closeConnectionSafe(conn);
+        }
+    }
+
+    /**
+     * Execute independent selects concurrently, waiting at most the default multi query timeout, see
+     * {@link #findAllMulti(List, long, TimeUnit)}.
+     * 
+     * @param queries
+     *            the selects
+     * @return the results, in the order of the queries
+     */
+    public MultiQueryResult findAllMulti(List<QuerySelect<?, ?>> queries) {
+        return findAllMulti(queries, multiQueryTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Execute independent selects concurrently on the multi query pool. At most one worker per pool thread takes
+     * part and each worker runs its share of the queries on a single connection. Queries that fail, or have not
+     * completed when the timeout expires, are reported as errors of the result while the others are returned.
+     * 
+     * @param queries
+     *            the selects
+     * @param timeout
+     *            the overall deadline, measured from this call
+     * @param unit
+     *            unit of the timeout
+     * @return the results, in the order of the queries
+     */
+    public MultiQueryResult findAllMulti(List<QuerySelect<?, ?>> queries, long timeout, TimeUnit unit) {
+        Preconditions.checkNotNull(queries);
+        List<QuerySelect<?, ?>> snapshot = new ArrayList<QuerySelect<?, ?>>(queries);
+        Iterable<?>[] results = new Iterable<?>[snapshot.size()];
+        DataStoreException[] errors = new DataStoreException[snapshot.size()];
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        AtomicInteger next = new AtomicInteger();
+
+        int workers = Math.min(snapshot.size(), multiQueryThreads);
+        ExecutorService pool = getMultiQueryExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(pool.submit(new MultiQueryWorker(snapshot, results, errors, next, deadline)));
+        }
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            try {
+                if (interrupted) {
+                    future.cancel(true);
+                } else {
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                future.cancel(true);
+            } catch (ExecutionException ex) {
+                logger.warn("Multi query worker failed", ex.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (results) {
+            Iterable<?>[] completedResults = results.clone();
+            DataStoreException[] completedErrors = errors.clone();
+            for (int i = 0; i < completedResults.length; i++) {
+                if (completedResults[i] == null && completedErrors[i] == null) {
+                    completedErrors[i] = new DataStoreException("Query " + i + " did not complete within " + timeout
+                            + " " + unit, new TimeoutException());
+                }
+            }
+            return new MultiQueryResult(snapshot, completedResults, completedErrors);
+        }
+    }
+
+    /**
+     * Takes the next query until none are left or the deadline passed, on one connection for all of them.
+     */
+    private final class MultiQueryWorker implements Runnable {
+
+        private final List<QuerySelect<?, ?>> queries;
+        private final Iterable<?>[] results;
+        private final DataStoreException[] errors;
+        private final AtomicInteger next;
+        private final long deadline;
+
+        MultiQueryWorker(List<QuerySelect<?, ?>> queries, Iterable<?>[] results, DataStoreException[] errors,
+                AtomicInteger next, long deadline) {
+            this.queries = queries;
+            this.results = results;
+            this.errors = errors;
+            this.next = next;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            Connection conn = null;
+            try {
+                int index;
+                while ((index = next.getAndIncrement()) < queries.size()) {
+                    if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    Iterable<?> result = null;
+                    DataStoreException error = null;
+                    try {
+                        if (conn == null) {
+                            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+                        }
+                        result = queryExecutor.find(queries.get(index), conn);
+                    } catch (DataStoreException ex) {
+                        error = ex;
+                    } catch (Exception ex) {
+                        error = new DataStoreException(ex.getMessage(), ex);
+                    }
+                    synchronized (results) {
+                        results[index] = result;
+                        errors[index] = error;
+                    }
+                }
+            } finally {
+                closeConnectionSafe(conn);
+            }
+        }
+    }
+
+    /**
+     * @return the pool running {@link #findAllMulti(List)}, created with {@link #getMultiQueryThreads()} daemon
+     *         threads on first use unless one was set
+     */
+    public ExecutorService getMultiQueryExecutor() {
+        ExecutorService pool = multiQueryExecutor;
+        if (pool == null) {
+            synchronized (this) {
+                pool = multiQueryExecutor;
+                if (pool == null) {
+                    pool = Executors.newFixedThreadPool(multiQueryThreads, new ThreadFactoryBuilder()
+                            .setDaemon(true).setNameFormat("pho-multi-query-%d").build());
+                    multiQueryExecutor = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Use an application managed pool for multi queries, its lifecycle stays with the caller.
+     * 
+     * @param multiQueryExecutor
+     *            the pool
+     */
+    public void setMultiQueryExecutor(ExecutorService multiQueryExecutor) {
+        this.multiQueryExecutor = Preconditions.checkNotNull(multiQueryExecutor);
+    }
+
+    public int getMultiQueryThreads() {
+        return multiQueryThreads;
+    }
+
+    /**
+     * Maximum number of queries of one multi query running at the same time, and size of the default pool when set
+     * before its first use.
+     * 
+     * @param multiQueryThreads
+     *            the number of threads
+     */
+    public void setMultiQueryThreads(int multiQueryThreads) {
+        Preconditions.checkArgument(multiQueryThreads > 0, "multiQueryThreads must be positive");
+        this.multiQueryThreads = multiQueryThreads;
+    }
+
+    public long getMultiQueryTimeoutMillis() {
+        return multiQueryTimeoutMillis;
+    }
+
+    public void setMultiQueryTimeoutMillis(long multiQueryTimeoutMillis) {
+        Preconditions.checkArgument(multiQueryTimeoutMillis > 0, "multiQueryTimeoutMillis must be positive");
+        this.multiQueryTimeoutMillis = multiQueryTimeoutMillis;
+    }
+
+    public boolean isScatterGatherEnabled() {
+        return scatterGatherEnabled;
+    }
+
+    /**
+     * Run selects with a disjunction over distinct leading row key values as one range scan per branch on the multi
+     * query pool, merging ordering and limit on the client. See {@link RowKeyScatterPlanner} for the queries that
+     * qualify, every other select runs unchanged.
+     * 
+     * @param scatterGatherEnabled
+     *            true to split qualifying selects
+     */
+    public void setScatterGatherEnabled(boolean scatterGatherEnabled) {
+        this.scatterGatherEnabled = scatterGatherEnabled;
+    }
+
+    public RowKeyScatterPlanner getScatterPlanner() {
+        return scatterPlanner;
+    }
+
+    /**
+     * Keep a Bloom filter of the row keys of an entity class, so point reads of absent keys by {@link #findOne} and
+     * {@link #findAll} return without a round trip. The filter is built now from a scan of the row key columns, kept
+     * up to date by the saves of this data store, and rebuilt by {@link #rebuildRowKeyFilters()}. Rows written by
+     * other clients are only seen after a rebuild, see {@link #startRowKeyFilterRebuilds(long, TimeUnit)}.
+     * 
+     * @param entityClass
+     *            entity class
+     * @param expectedKeys
+     *            the number of rows the filter is sized for
+     * @param falsePositiveRate
+     *            the rate of absent keys still read at the expected number of rows
+     * @return the filter, reporting its size and lookups
+     */
+    public RowKeyBloomFilter addRowKeyFilter(Class<?> entityClass, long expectedKeys, double falsePositiveRate) {
+        RowKeyBloomFilter filter = new RowKeyBloomFilter(entityClass, queryExecutor.getQueryTranslator()
+                .getEntityPropertiesResolver().getRowKeyPropertyBindings(entityClass), expectedKeys,
+                falsePositiveRate);
+        // registered before the scan so no save between the scan and the registration is missed
+        rowKeyFilters.put(entityClass, filter);
+        try {
+            rebuild(filter);
+        } catch (RuntimeException ex) {
+            rowKeyFilters.remove(entityClass, filter);
+            throw ex;
+        }
+        return filter;
+    }
+
+    /**
+     * Save the entity through the {@link CoalescingWriter}, merged with the other saves of its row in the current flush
+     * window.
+     * 
+     * @param entity
+     *            the entity
+     * @return the future completed once the merged row is committed
+     */
+    public <T> CompletableFuture<Void> saveCoalesced(T entity) {
+        return saveCoalesced(entity, null);
+    }
+
+    /**
+     * Save the selected properties of the entity through the {@link CoalescingWriter}, merged by column with the other
+     * saves of its row in the current flush window.
+     * 
+     * @param entity
+     *            the entity
+     * @param selectedFields
+     *            the properties to save besides the row key, empty for all
+     * @return the future completed once the merged row is committed
+     */
+    public <T> CompletableFuture<Void> saveCoalesced(final T entity, List<String> selectedFields) {
+        CompletableFuture<Void> saved = getCoalescingWriter().save(entity, selectedFields);
+        if (!rowKeyFilters.isEmpty()) {
+            saved.thenRun(new Runnable() {
+                @Override
+                public void run() {
+                    addRowKey(entity);
+                }
+            });
+        }
+        return saved;
+    }
+
+    /**
+     * @return the writer of {@link #saveCoalesced(Object, List)}, created on first use
+     */
+    public CoalescingWriter getCoalescingWriter() {
+        CoalescingWriter writer = coalescingWriter;
+        if (writer == null) {
+            synchronized (this) {
+                writer = coalescingWriter;
+                if (writer == null) {
+                    writer = new CoalescingWriter(connectionUrl, queryExecutor);
+                    coalescingWriter = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * The loader batching the concurrent point reads of an entity class, see {@link PhoenixBatchLoader}. There is one
+     * loader per entity class, configure it before its first load.
+     * 
+     * @param entityClass
+     *            entity class
+     * @return the loader
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PhoenixBatchLoader<T> getBatchLoader(Class<T> entityClass) {
+        PhoenixBatchLoader<T> loader = (PhoenixBatchLoader<T>) batchLoaders.get(entityClass);
+        if (loader == null) {
+            PhoenixBatchLoader<T> created = new PhoenixBatchLoader<T>(entityClass, connectionUrl, queryExecutor);
+            loader = (PhoenixBatchLoader<T>) batchLoaders.putIfAbsent(entityClass, created);
+            if (loader == null) {
+                loader = created;
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Close the batch loaders, reading their pending keys.
+     */
+    public void closeBatchLoaders() {
+        for (PhoenixBatchLoader<?> loader : batchLoaders.values()) {
+            loader.close();
+        }
+        batchLoaders.clear();
+    }
+
+    public RowKeyBloomFilter getRowKeyFilter(Class<?> entityClass) {
+        return rowKeyFilters.get(entityClass);
+    }
+
+    public void removeRowKeyFilter(Class<?> entityClass) {
+        rowKeyFilters.remove(entityClass);
+    }
+
+    /**
+     * Rebuild every row key filter from a scan of its table. A filter whose scan fails keeps its keys.
+     */
+    public void rebuildRowKeyFilters() {
+        for (RowKeyBloomFilter filter : rowKeyFilters.values()) {
+            try {
+                rebuild(filter);
+            } catch (RuntimeException ex) {
+                logger.warn("Unable to rebuild the row key filter of " + filter.getEntityClass().getName(), ex);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the row key filters at a fixed rate on a daemon thread, replacing any previous schedule.
+     * 
+     * @param period
+     *            the time between two rebuilds
+     * @param unit
+     *            the unit of the period
+     */
+    public synchronized void startRowKeyFilterRebuilds(long period, TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        stopRowKeyFilterRebuilds();
+        rowKeyFilterScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("pho-row-key-filter-%d").build());
+        rowKeyFilterScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                rebuildRowKeyFilters();
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopRowKeyFilterRebuilds() {
+        if (rowKeyFilterScheduler != null) {
+            rowKeyFilterScheduler.shutdown();
+            rowKeyFilterScheduler = null;
+        }
+    }
+
+    private void rebuild(RowKeyBloomFilter filter) {
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            filter.rebuild(queryExecutor, conn);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            closeConnectionSafe(conn);
+        }
+    }
+
     public <T> Iterable<T> findAllEntities(String key, Class<T> clz, String[] projection) throws Exception {
         Connection conn = null;
         try {
@@ -151,6 +889,7 @@ public class PhoenixHBaseDataStoreApiImpl implements DataStoreApi {
 			QueryUpdateBuilder updateBuilder = QueryUpdateBuilder.builderFor(entity).update(selectedFields);
 			T returnEntity = (T) queryExecutor.save(updateBuilder.build(), conn);
 			conn.commit();
+			addRowKey(entity);
 			return returnEntity;
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
@@ -0,0 +1,38 @@
+package com.eharmony.pho.hbase.bulk;
+
+/**
+ * A row that could not be imported.
+ */
+public class BulkImportError {
+
+    private final long sequence;
+    private final Object entity;
+    private final Exception cause;
+
+    public BulkImportError(long sequence, Object entity, Exception cause) {
+        this.sequence = sequence;
+        this.entity = entity;
+        this.cause = cause;
+    }
+
+    /**
+     * @return zero based position of the row in the imported stream
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Object getEntity() {
+        return entity;
+    }
+
+    public Exception getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportError [sequence=" + sequence + ", cause=" + cause + "]";
+    }
+
+}
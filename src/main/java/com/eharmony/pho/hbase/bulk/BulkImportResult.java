@@ -0,0 +1,77 @@
+package com.eharmony.pho.hbase.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: row counts, throughput, retries and the failed rows in input order.
+ */
+public class BulkImportResult {
+
+    private final long rowsSubmitted;
+    private final long rowsWritten;
+    private final long retries;
+    private final long elapsedMillis;
+    private final List<BulkImportError> errors;
+
+    public BulkImportResult(long rowsSubmitted, long rowsWritten, long retries, long elapsedMillis,
+            Collection<BulkImportError> errors) {
+        this.rowsSubmitted = rowsSubmitted;
+        this.rowsWritten = rowsWritten;
+        this.retries = retries;
+        this.elapsedMillis = elapsedMillis;
+        List<BulkImportError> sortedErrors = new ArrayList<BulkImportError>(errors);
+        Collections.sort(sortedErrors, new Comparator<BulkImportError>() {
+            @Override
+            public int compare(BulkImportError o1, BulkImportError o2) {
+                return Long.compare(o1.getSequence(), o2.getSequence());
+            }
+        });
+        this.errors = Collections.unmodifiableList(sortedErrors);
+    }
+
+    public long getRowsSubmitted() {
+        return rowsSubmitted;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getRowsFailed() {
+        return errors.size();
+    }
+
+    /**
+     * @return number of commit windows that were replayed after a failure
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedMillis > 0 ? rowsWritten * 1000d / elapsedMillis : rowsWritten;
+    }
+
+    /**
+     * @return the failed rows, ordered by their position in the imported stream
+     */
+    public List<BulkImportError> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportResult [rowsSubmitted=" + rowsSubmitted + ", rowsWritten=" + rowsWritten + ", rowsFailed="
+                + getRowsFailed() + ", retries=" + retries + ", elapsedMillis=" + elapsedMillis + ", rowsPerSecond="
+                + getRowsPerSecond() + "]";
+    }
+
+}
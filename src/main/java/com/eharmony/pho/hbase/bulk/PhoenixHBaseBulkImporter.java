@@ -0,0 +1,399 @@
+package com.eharmony.pho.hbase.bulk;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.translator.ParameterizedStatement;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.hbase.util.PhoenixConnectionManager;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.builder.QueryUpdateBuilder;
+import com.google.common.base.Preconditions;
+
+/**
+ * Imports a large stream of entities through several writer threads, each with its own phoenix connection.
+ *
+ * Rows are routed to writers by the hash of their row key (see {@link com.eharmony.pho.mapper.annotation.RowKey}), so
+ * all writes of one row go through the same writer, in input order. Entities without a declared row key are spread
+ * round robin. Every writer upserts with parameterized batches and commits every <code>commitSize</code> rows; a batch
+ * holds consecutive rows of the same upsert, and is executed as soon as a row with other columns follows. A
+ * failed commit window is rolled back and replayed up to <code>maxRetries</code> times, after which its rows are
+ * written one by one so that only the rows that really fail are reported.
+ */
+public class PhoenixHBaseBulkImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(PhoenixHBaseBulkImporter.class);
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final String connectionUrl;
+    private final PhoenixHBaseQueryTranslator queryTranslator;
+    private int writerThreads = 4;
+    private int batchSize = 500;
+    private int commitSize = 5000;
+    private int maxRetries = 3;
+    private long retryBackoffMillis = 200;
+    private int queueCapacity = 10000;
+
+    public PhoenixHBaseBulkImporter(final String connectionUrl, final PhoenixHBaseQueryTranslator queryTranslator) {
+        this.connectionUrl = Preconditions.checkNotNull(connectionUrl);
+        this.queryTranslator = Preconditions.checkNotNull(queryTranslator);
+    }
+
+    public <T> BulkImportResult importAll(Stream<T> entities) {
+        return importAll(entities.iterator());
+    }
+
+    public <T> BulkImportResult importAll(Iterator<T> entities) {
+        long start = System.currentTimeMillis();
+        ImportState state = new ImportState();
+        List<BlockingQueue<Row>> queues = new ArrayList<BlockingQueue<Row>>(writerThreads);
+        List<Future<Void>> writers = new ArrayList<Future<Void>>(writerThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(writerThreads);
+        long sequence = 0;
+        try {
+            for (int i = 0; i < writerThreads; i++) {
+                BlockingQueue<Row> queue = new ArrayBlockingQueue<Row>(queueCapacity);
+                queues.add(queue);
+                writers.add(pool.submit(new Writer(queue, state)));
+            }
+            while (entities.hasNext()) {
+                Object entity = entities.next();
+                int writer = partition(entity, sequence);
+                enqueue(queues.get(writer), writers.get(writer), new Row(sequence++, entity));
+            }
+            for (int i = 0; i < writerThreads; i++) {
+                enqueue(queues.get(i), writers.get(i), Row.END);
+            }
+            for (Future<Void> writer : writers) {
+                writer.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Bulk import interrupted after " + sequence + " rows", ex);
+        } catch (ExecutionException ex) {
+            throw new DataStoreException("Bulk import writer failed after " + sequence + " rows", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        BulkImportResult result = new BulkImportResult(sequence, state.written.get(), state.retries.get(),
+                System.currentTimeMillis() - start, state.errors);
+        log.info("Bulk import finished {}", result);
+        return result;
+    }
+
+    private void enqueue(BlockingQueue<Row> queue, Future<Void> writer, Row row) throws InterruptedException,
+            ExecutionException {
+        while (!queue.offer(row, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (writer.isDone()) {
+                // surfaces the writer failure instead of blocking on its full queue
+                writer.get();
+                throw new DataStoreException("Bulk import writer stopped unexpectedly");
+            }
+        }
+    }
+
+    private int partition(Object entity, long sequence) {
+        List<EntityPropertyBinding> rowKeyBindings = queryTranslator.getEntityPropertiesResolver()
+                .getRowKeyPropertyBindings(entity.getClass());
+        if (rowKeyBindings.isEmpty()) {
+            return (int) (sequence % writerThreads);
+        }
+        Object[] rowKey = new Object[rowKeyBindings.size()];
+        try {
+            for (int i = 0; i < rowKey.length; i++) {
+                rowKey[i] = PropertyUtils.getProperty(entity, rowKeyBindings.get(i).getNameFullPath());
+            }
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to read row key of " + entity.getClass().getSimpleName(), ex);
+        }
+        return Math.abs(Arrays.hashCode(rowKey) % writerThreads);
+    }
+
+    private static final class Row {
+
+        private static final Row END = new Row(-1, null);
+
+        private final long sequence;
+        private final Object entity;
+        private ParameterizedStatement statement;
+
+        private Row(long sequence, Object entity) {
+            this.sequence = sequence;
+            this.entity = entity;
+        }
+    }
+
+    private static final class ImportState {
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final Queue<BulkImportError> errors = new ConcurrentLinkedQueue<BulkImportError>();
+    }
+
+    private final class Writer implements Callable<Void> {
+
+        private final BlockingQueue<Row> queue;
+        private final ImportState state;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+        // one batch at a time, so rows of different column sets are executed in input order
+        private String pendingSql;
+        private int pendingRows;
+        private final List<Row> uncommitted = new ArrayList<Row>();
+
+        private Writer(BlockingQueue<Row> queue, ImportState state) {
+            this.queue = queue;
+            this.state = state;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Connection conn;
+            try {
+                conn = PhoenixConnectionManager.getConnection(connectionUrl);
+                conn.setAutoCommit(false);
+            } catch (Exception ex) {
+                log.warn("Unable to open bulk import connection", ex);
+                drainFailed(ex);
+                return null;
+            }
+            try {
+                for (Row row = queue.take(); row != Row.END; row = queue.take()) {
+                    add(row, conn);
+                }
+                if (!uncommitted.isEmpty()) {
+                    commitWindow(conn, 0, false);
+                }
+            } finally {
+                for (PreparedStatement ps : statements.values()) {
+                    closeSafe(ps);
+                }
+                closeSafe(conn);
+            }
+            return null;
+        }
+
+        private void add(Row row, Connection conn) throws InterruptedException {
+            try {
+                row.statement = queryTranslator.translateParameterized(QueryUpdateBuilder.builderFor(row.entity)
+                        .build());
+            } catch (Exception ex) {
+                state.errors.add(new BulkImportError(row.sequence, row.entity, ex));
+                return;
+            }
+            uncommitted.add(row);
+            try {
+                addBatch(row, conn);
+            } catch (SQLException ex) {
+                log.warn("Bulk import batch failed, replaying window of {} rows", uncommitted.size(), ex);
+                rollbackSafe(conn);
+                clearBatches();
+                commitWindow(conn, 1, true);
+                return;
+            }
+            if (uncommitted.size() >= commitSize) {
+                commitWindow(conn, 0, false);
+            }
+        }
+
+        private void addBatch(Row row, Connection conn) throws SQLException {
+            String sql = row.statement.getSql();
+            if (!sql.equals(pendingSql)) {
+                executeBatch();
+                pendingSql = sql;
+            }
+            PreparedStatement ps = statement(sql, conn);
+            row.statement.bind(ps);
+            ps.addBatch();
+            if (++pendingRows >= batchSize) {
+                executeBatch();
+            }
+        }
+
+        private void executeBatch() throws SQLException {
+            if (pendingRows > 0) {
+                statements.get(pendingSql).executeBatch();
+                pendingRows = 0;
+            }
+        }
+
+        private PreparedStatement statement(String sql, Connection conn) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        private void commitWindow(Connection conn, int attempt, boolean replay) throws InterruptedException {
+            while (true) {
+                if (attempt > 0) {
+                    if (attempt == 1) {
+                        // counts the window once, however many times it is replayed
+                        state.retries.incrementAndGet();
+                    }
+                    Thread.sleep(retryBackoffMillis * attempt);
+                }
+                try {
+                    if (replay) {
+                        for (Row row : uncommitted) {
+                            addBatch(row, conn);
+                        }
+                    }
+                    executeBatch();
+                    conn.commit();
+                    state.written.addAndGet(uncommitted.size());
+                    uncommitted.clear();
+                    return;
+                } catch (SQLException ex) {
+                    rollbackSafe(conn);
+                    clearBatches();
+                    if (attempt >= maxRetries) {
+                        log.warn("Bulk import window of {} rows failed after {} retries, writing rows one by one",
+                                uncommitted.size(), attempt, ex);
+                        writeIndividually(conn);
+                        return;
+                    }
+                    attempt++;
+                    replay = true;
+                }
+            }
+        }
+
+        private void writeIndividually(Connection conn) {
+            for (Row row : uncommitted) {
+                try {
+                    PreparedStatement ps = statement(row.statement.getSql(), conn);
+                    row.statement.bind(ps);
+                    ps.executeUpdate();
+                    conn.commit();
+                    state.written.incrementAndGet();
+                } catch (Exception ex) {
+                    rollbackSafe(conn);
+                    state.errors.add(new BulkImportError(row.sequence, row.entity, ex));
+                }
+            }
+            uncommitted.clear();
+        }
+
+        private void drainFailed(Exception cause) throws InterruptedException {
+            for (Row row = queue.take(); row != Row.END; row = queue.take()) {
+                state.errors.add(new BulkImportError(row.sequence, row.entity, cause));
+            }
+        }
+
+        private void clearBatches() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.clearBatch();
+                } catch (SQLException ex) {
+                    log.debug("Unable to clear batch", ex);
+                }
+            }
+            pendingSql = null;
+            pendingRows = 0;
+        }
+
+        private void rollbackSafe(Connection conn) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                log.warn("Exception while rolling back bulk import window", ex);
+            }
+        }
+
+        private void closeSafe(AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception ex) {
+                log.warn("Exception while closing bulk import resource", ex);
+            }
+        }
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        Preconditions.checkArgument(writerThreads > 0, "writerThreads must be positive");
+        this.writerThreads = writerThreads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * @param commitSize
+     *            rows written by each writer between commits
+     */
+    public void setCommitSize(int commitSize) {
+        Preconditions.checkArgument(commitSize > 0, "commitSize must be positive");
+        this.commitSize = commitSize;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        Preconditions.checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity
+     *            rows buffered per writer before the reading thread blocks
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        this.queueCapacity = queueCapacity;
+    }
+
+}
@@ -1,23 +1,45 @@
 
 package com.eharmony.pho.hbase.mapper;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.eharmony.pho.hbase.metrics.PhoenixFlightRecorder;
+import com.eharmony.pho.hbase.query.ColumnarResult;
+import com.eharmony.pho.hbase.query.ColumnarResult.ColumnType;
+import com.eharmony.pho.hbase.query.SpillableResult;
+import com.eharmony.pho.mapper.EntityBinaryCodec;
+import com.eharmony.pho.mapper.EntityChangeTracker;
 import com.eharmony.pho.mapper.EntityPropertiesResolver;
 import com.eharmony.pho.mapper.EntityPropertyBinding;
 import com.eharmony.pho.mapper.ProjectedResultMapper;
+import com.eharmony.pho.mapper.ProjectionPlan;
+import com.eharmony.pho.query.Aggregates;
+import com.eharmony.pho.query.GroupKey;
 import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
+import com.eharmony.pho.query.criterion.projection.Projection;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
 
 /**
  * Maps the results from hbase to entity object based on entity annotations.
@@ -29,6 +51,9 @@ public class PhoenixProjectedResultMapper {
     
     private final ProjectedResultMapper mapper;
     private final EntityPropertiesResolver entityPropertiesResolver;
+    private EntityChangeTracker changeTracker;
+    private final ConcurrentMap<Class<?>, EntityBinaryCodec<?>> codecs =
+            new ConcurrentHashMap<Class<?>, EntityBinaryCodec<?>>();
     
     private static final Logger log = LoggerFactory.getLogger(PhoenixProjectedResultMapper.class);
     
@@ -62,42 +87,380 @@ public class PhoenixProjectedResultMapper {
         return returnList;
     }
     
+    /**
+     * Map the rows to the return type of the query. Entities, numbers and other mapped classes are populated by
+     * property, any other return type is bound directly to its constructor, setters or fields through a cached
+     * {@link ProjectionPlan}.
+     */
     public <T, R> Iterable<R> mapResults(ResultSet resultSet, final QuerySelect<T, R> query) throws SQLException,
             InstantiationException, IllegalAccessException, InvocationTargetException {
-        return mapResults(resultSet, query.getReturnType());
+        Class<R> returnType = query.getReturnType();
+        if (CollectionUtils.isNotEmpty(query.getProjection()) && !Number.class.isAssignableFrom(returnType)) {
+            // group keys and aggregates bind by property name, an aggregate to the property it aggregates
+            return mapProjection(resultSet, returnType, new AggregateLayout(query.getProjection()).propertyNames());
+        }
+        if (returnType.equals(query.getEntityClass()) || Number.class.isAssignableFrom(returnType)
+                || isMapped(returnType)) {
+            return mapResults(resultSet, returnType);
+        }
+        ResultSetMetaData metadata = resultSet.getMetaData();
+        String[] propertyNames = new String[metadata.getColumnCount()];
+        for (int i = 0; i < propertyNames.length; i++) {
+            String columnName = metadata.getColumnName(i + 1);
+            EntityPropertyBinding binding = entityPropertiesResolver == null ? null
+                    : entityPropertiesResolver.resolveEntityPropertyBindingByStoreMappingName(columnName,
+                            query.getEntityClass());
+            propertyNames[i] = binding != null ? binding.getName() : columnName;
+        }
+        return mapProjection(resultSet, returnType, propertyNames);
+    }
+
+    /**
+     * Map the rows of a select with group by and aggregate projections to its groups, in the order of the rows.
+     *
+     * @param resultSet
+     *            the rows
+     * @param query
+     *            the aggregated select
+     * @return the aggregates of every group
+     * @throws SQLException
+     *             if the rows can not be read
+     */
+    public <T, R> Map<GroupKey, Aggregates> mapAggregates(ResultSet resultSet, QuerySelect<T, R> query)
+            throws SQLException {
+        Object event = PhoenixFlightRecorder.beginMap();
+        AggregateLayout layout = new AggregateLayout(query.getProjection());
+        Map<GroupKey, Aggregates> groups = new LinkedHashMap<GroupKey, Aggregates>();
+        while (resultSet.next()) {
+            Object[] key = new Object[layout.keyColumns.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = resultSet.getObject(layout.keyColumns[i] + 1);
+            }
+            Object[] aggregates = new Object[layout.aggregateColumns.length];
+            for (int i = 0; i < aggregates.length; i++) {
+                aggregates[i] = resultSet.getObject(layout.aggregateColumns[i] + 1);
+            }
+            groups.put(new GroupKey(layout.groupBy, key), new Aggregates(layout.aggregates, aggregates));
+        }
+        PhoenixFlightRecorder.commitMap(event, GroupKey.class, groups.size());
+        return groups;
+    }
+
+    /**
+     * Read the rows of a select into primitive columns named after the entity properties, see {@link ColumnarResult}.
+     * Columns are stored after the type of their property, or of their sql type when they do not map to one.
+     * 
+     * @param resultSet
+     *            the rows
+     * @param query
+     *            the select
+     * @param expectedRows
+     *            the initial capacity of the columns
+     * @return the columns
+     * @throws SQLException
+     *             if the rows can not be read
+     */
+    public <T, R> ColumnarResult mapColumns(ResultSet resultSet, QuerySelect<T, R> query, int expectedRows)
+            throws SQLException {
+        Object event = PhoenixFlightRecorder.beginMap();
+        ResultSetMetaData metadata = resultSet.getMetaData();
+        String[] names = new String[metadata.getColumnCount()];
+        ColumnType[] types = new ColumnType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String columnName = metadata.getColumnName(i + 1);
+            EntityPropertyBinding binding = entityPropertiesResolver == null ? null
+                    : entityPropertiesResolver.resolveEntityPropertyBindingByStoreMappingName(columnName,
+                            query.getEntityClass());
+            names[i] = binding != null ? binding.getName() : columnName;
+            types[i] = ColumnType.of(binding != null && binding.getType() instanceof Class
+                    ? (Class<?>) binding.getType() : null, metadata.getColumnType(i + 1));
+        }
+        ColumnarResult result = ColumnarResult.read(resultSet, names, types, expectedRows);
+        PhoenixFlightRecorder.commitMap(event, ColumnarResult.class, result.getRowCount());
+        return result;
+    }
+
+    /**
+     * Read the single column of a scalar select with {@link ResultSet#getLong(int)}, without boxing. Null values are
+     * skipped.
+     * 
+     * @param resultSet
+     *            the rows
+     * @param expectedRows
+     *            the initial capacity of the array, at most {@link ColumnarResult#MAX_INITIAL_CAPACITY}
+     * @return the values, in the order of the rows
+     * @throws SQLException
+     *             if the rows can not be read
+     * @throws IllegalArgumentException
+     *             if the select returns more than one column
+     */
+    public long[] mapLongs(ResultSet resultSet, int expectedRows) throws SQLException {
+        checkSingleColumn(resultSet);
+        long[] values = new long[ColumnarResult.initialCapacity(expectedRows)];
+        int count = 0;
+        while (resultSet.next()) {
+            long value = resultSet.getLong(1);
+            if (!resultSet.wasNull()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = value;
+            }
+        }
+        return values.length == count ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Read the single column of a scalar select with {@link ResultSet#getInt(int)}, see {@link #mapLongs}.
+     */
+    public int[] mapInts(ResultSet resultSet, int expectedRows) throws SQLException {
+        checkSingleColumn(resultSet);
+        int[] values = new int[ColumnarResult.initialCapacity(expectedRows)];
+        int count = 0;
+        while (resultSet.next()) {
+            int value = resultSet.getInt(1);
+            if (!resultSet.wasNull()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = value;
+            }
+        }
+        return values.length == count ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Read the single column of a scalar select with {@link ResultSet#getDouble(int)}, see {@link #mapLongs}.
+     */
+    public double[] mapDoubles(ResultSet resultSet, int expectedRows) throws SQLException {
+        checkSingleColumn(resultSet);
+        double[] values = new double[ColumnarResult.initialCapacity(expectedRows)];
+        int count = 0;
+        while (resultSet.next()) {
+            double value = resultSet.getDouble(1);
+            if (!resultSet.wasNull()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = value;
+            }
+        }
+        return values.length == count ? values : Arrays.copyOf(values, count);
+    }
+
+    private static void checkSingleColumn(ResultSet resultSet) throws SQLException {
+        int columnCount = resultSet.getMetaData().getColumnCount();
+        Preconditions.checkArgument(columnCount == 1, "Expected a single column but the select returns %s",
+                columnCount);
+    }
+
+    /**
+     * @param query
+     *            the select
+     * @return the columns of the select without rows, for criteria that can not match any row
+     */
+    public <T, R> ColumnarResult emptyColumns(QuerySelect<T, R> query) {
+        Map<String, EntityPropertyBinding> bindings = entityPropertiesResolver
+                .getEntityPropertyNamePropertyBindingMap(query.getEntityClass());
+        if (bindings == null) {
+            bindings = new HashMap<String, EntityPropertyBinding>();
+        }
+        List<String> propertyNames = CollectionUtils.isEmpty(query.getReturnFields())
+                ? new ArrayList<String>(bindings.keySet()) : query.getReturnFields();
+        String[] names = new String[propertyNames.size()];
+        ColumnType[] types = new ColumnType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            EntityPropertyBinding binding = bindings.get(propertyNames.get(i));
+            names[i] = propertyNames.get(i);
+            types[i] = ColumnType.of(binding != null && binding.getType() instanceof Class
+                    ? (Class<?>) binding.getType() : null, Types.OTHER);
+        }
+        return ColumnarResult.empty(names, types);
+    }
+
+    private <R> List<R> mapProjection(ResultSet resultSet, Class<R> returnType, String[] columnNames)
+            throws SQLException {
+        Object event = PhoenixFlightRecorder.beginMap();
+        // columns without a name have no property to go to
+        List<Integer> columns = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i] != null) {
+                columns.add(i + 1);
+                names.add(columnNames[i]);
+            }
+        }
+        int columnCount = columns.size();
+        String[] propertyNames = names.toArray(new String[columnCount]);
+        ProjectionPlan<R> plan = mapper.plan(returnType, propertyNames);
+        List<R> resultsList = new ArrayList<R>();
+        while (resultSet.next()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = resultSet.getObject(columns.get(i));
+            }
+            if (columnCount == 1 && returnType.isInstance(row[0])) {
+                resultsList.add(returnType.cast(row[0]));
+            } else {
+                resultsList.add(mapper.mapTo(returnType, plan, row, propertyNames));
+            }
+        }
+        PhoenixFlightRecorder.commitMap(event, returnType, resultsList.size());
+        return resultsList;
+    }
+
+    /**
+     * Positions of the group keys and aggregates in the select list, which follows the order of the projections.
+     */
+    private static final class AggregateLayout {
+
+        private final List<String> groupBy = new ArrayList<String>();
+        private final List<AggregateProjection> aggregates = new ArrayList<AggregateProjection>();
+        private final int[] keyColumns;
+        private final int[] aggregateColumns;
+
+        AggregateLayout(List<Projection> projections) {
+            List<Integer> keys = new ArrayList<Integer>();
+            List<Integer> values = new ArrayList<Integer>();
+            int column = 0;
+            for (Projection projection : projections) {
+                if (projection instanceof AggregateProjection) {
+                    aggregates.add((AggregateProjection) projection);
+                    values.add(column++);
+                } else {
+                    for (String propertyName : projection.getPropertyNames()) {
+                        groupBy.add(propertyName);
+                        keys.add(column++);
+                    }
+                }
+            }
+            keyColumns = Ints.toArray(keys);
+            aggregateColumns = Ints.toArray(values);
+        }
+
+        /**
+         * @return the property of each column, null for the columns of aggregates over a property already bound
+         */
+        String[] propertyNames() {
+            String[] names = new String[keyColumns.length + aggregateColumns.length];
+            Set<String> used = new HashSet<String>(groupBy);
+            for (int i = 0; i < keyColumns.length; i++) {
+                names[keyColumns[i]] = groupBy.get(i);
+            }
+            for (int i = 0; i < aggregateColumns.length; i++) {
+                AggregateProjection aggregate = aggregates.get(i);
+                names[aggregateColumns[i]] = used.add(aggregate.getPropertyName()) ? aggregate.getPropertyName()
+                        : null;
+            }
+            return names;
+        }
+    }
+
+    private boolean isMapped(Class<?> clz) {
+        if (entityPropertiesResolver == null) {
+            return false;
+        }
+        Map<String, EntityPropertyBinding> bindings = entityPropertiesResolver.getStoreFieldNamePropertyBindingMap(clz);
+        return bindings != null && !bindings.isEmpty();
     }
 
-    @SuppressWarnings("unchecked")
     public <R> Iterable<R> mapResults(ResultSet resultSet, final Class<R> clz) throws SQLException,
             InstantiationException, IllegalAccessException, InvocationTargetException {
+        Object event = PhoenixFlightRecorder.beginMap();
         Set<String> metadataColumns = extractColumnNames(resultSet);
         List<R> resultsList = new ArrayList<R>();
         boolean resultIsNumber = Number.class.isAssignableFrom(clz);
         while (resultSet.next()) {
-            R instance = null;
-            if (!resultIsNumber) {
-                instance = clz.newInstance();
-            }
-            for (String columnName : metadataColumns) {
-                Object value = resultSet.getObject(columnName);
-                if (value != null) {
-                    log.debug(value.toString());
-                    if (resultIsNumber) {
-                        instance = (R) value;
-                        break;
-                    }
-                    
-                    EntityPropertyBinding entityProperty = entityPropertiesResolver.resolveEntityPropertyBindingByStoreMappingName(columnName, clz);
-                    if (entityProperty != null) {
-                        BeanUtils.copyProperty(instance, entityProperty.getNameFullPath(), value);
-                    }
+            resultsList.add(mapRow(resultSet, clz, metadataColumns, resultIsNumber));
+        }
+        PhoenixFlightRecorder.commitMap(event, clz, resultsList.size());
 
+        return resultsList;
+    }
+
+    /**
+     * Map the rows to entities appended to a result that spills to disk past its heap budget. The result is sealed
+     * once all rows are read.
+     * 
+     * @param resultSet
+     *            the rows
+     * @param clz
+     *            the entity class
+     * @param results
+     *            the result to fill
+     * @return the sealed result
+     */
+    public <R> SpillableResult<R> mapResults(ResultSet resultSet, final Class<R> clz, SpillableResult<R> results)
+            throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException,
+            IOException {
+        Object event = PhoenixFlightRecorder.beginMap();
+        Set<String> metadataColumns = extractColumnNames(resultSet);
+        while (resultSet.next()) {
+            results.add(mapRow(resultSet, clz, metadataColumns, false));
+        }
+        results.seal();
+        PhoenixFlightRecorder.commitMap(event, clz, results.size());
+        return results;
+    }
+
+    /**
+     * @param entityClass
+     *            the entity class
+     * @return the cached binary codec of the entity
+     * @throws IllegalArgumentException
+     *             if the entity can not be encoded
+     */
+    @SuppressWarnings("unchecked")
+    public <R> EntityBinaryCodec<R> getBinaryCodec(Class<R> entityClass) {
+        EntityBinaryCodec<?> codec = codecs.get(entityClass);
+        if (codec == null) {
+            codec = EntityBinaryCodec.forEntity(entityClass, entityPropertiesResolver);
+            codecs.putIfAbsent(entityClass, codec);
+        }
+        return (EntityBinaryCodec<R>) codec;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R mapRow(ResultSet resultSet, Class<R> clz, Set<String> metadataColumns, boolean resultIsNumber)
+            throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        R instance = null;
+        if (!resultIsNumber) {
+            instance = clz.newInstance();
+        }
+        for (String columnName : metadataColumns) {
+            Object value = resultSet.getObject(columnName);
+            if (value != null) {
+                log.debug(value.toString());
+                if (resultIsNumber) {
+                    instance = (R) value;
+                    break;
                 }
+
+                EntityPropertyBinding entityProperty = entityPropertiesResolver.resolveEntityPropertyBindingByStoreMappingName(columnName, clz);
+                if (entityProperty != null) {
+                    BeanUtils.copyProperty(instance, entityProperty.getNameFullPath(), value);
+                }
+
             }
-            resultsList.add(instance);
         }
+        if (changeTracker != null && !resultIsNumber) {
+            changeTracker.snapshot(instance);
+        }
+        return instance;
+    }
 
-        return resultsList;
+    public EntityChangeTracker getChangeTracker() {
+        return changeTracker;
+    }
+
+    /**
+     * Snapshot every mapped entity with the given tracker, so that saves can be limited to changed properties.
+     * 
+     * @param changeTracker
+     *            the tracker, null disables tracking
+     */
+    public void setChangeTracker(EntityChangeTracker changeTracker) {
+        this.changeTracker = changeTracker;
     }
     
     private Set<String> extractColumnNames(ResultSet resultSet) throws SQLException {
@@ -0,0 +1,136 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits the pho Java Flight Recorder events (<code>com.eharmony.pho.Query</code>, <code>com.eharmony.pho.Translate</code>
+ * and <code>com.eharmony.pho.Map</code>). The events are disabled by default, enable them in the recording settings,
+ * e.g. <code>jcmd &lt;pid&gt; JFR.start settings=pho.jfc</code> with <code>com.eharmony.pho.Query#enabled=true</code>.
+ *
+ * Every <code>begin</code> method returns null when flight recorder is not available or the event is disabled, and the
+ * matching <code>commit</code> method ignores a null token, so instrumented code costs a null check when off.
+ *
+ * The event classes need <code>jdk.jfr</code>: they live in <code>src/main/jfr</code>, compiled by the
+ * <code>jfr</code> profile that is active when building on JDK 11 or later, and are looked up by name. Builds on
+ * JDK 8, and JVMs without <code>jdk.jfr</code>, never load them and emit no events.
+ */
+public final class PhoenixFlightRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(PhoenixFlightRecorder.class);
+
+    private static final String EVENTS_CLASS = "com.eharmony.pho.hbase.metrics.jfr.JfrEvents";
+
+    private static final MethodHandle BEGIN_QUERY;
+    private static final MethodHandle COMMIT_QUERY;
+    private static final MethodHandle BEGIN_TRANSLATE;
+    private static final MethodHandle COMMIT_TRANSLATE;
+    private static final MethodHandle BEGIN_MAP;
+    private static final MethodHandle COMMIT_MAP;
+    private static final boolean AVAILABLE;
+
+    static {
+        MethodHandle[] handles = new MethodHandle[6];
+        boolean available = false;
+        try {
+            Class<?> events = Class.forName(EVENTS_CLASS);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType begin = MethodType.methodType(Object.class);
+            handles[0] = lookup.findStatic(events, "beginQuery", begin);
+            handles[1] = lookup.findStatic(events, "commitQuery", MethodType.methodType(void.class, Object.class,
+                    Class.class, String.class, String.class, long.class, long.class, long.class, long.class,
+                    int.class, boolean.class));
+            handles[2] = lookup.findStatic(events, "beginTranslate", begin);
+            handles[3] = lookup.findStatic(events, "commitTranslate", MethodType.methodType(void.class,
+                    Object.class, Class.class, String.class, String.class));
+            handles[4] = lookup.findStatic(events, "beginMap", begin);
+            handles[5] = lookup.findStatic(events, "commitMap", MethodType.methodType(void.class, Object.class,
+                    Class.class, long.class));
+            available = (boolean) lookup.findStatic(events, "isAvailable", MethodType.methodType(boolean.class))
+                    .invokeExact();
+        } catch (ClassNotFoundException ex) {
+            log.debug("Flight recorder events not built in");
+        } catch (Throwable ex) {
+            log.debug("Flight recorder events disabled", ex);
+        }
+        BEGIN_QUERY = handles[0];
+        COMMIT_QUERY = handles[1];
+        BEGIN_TRANSLATE = handles[2];
+        COMMIT_TRANSLATE = handles[3];
+        BEGIN_MAP = handles[4];
+        COMMIT_MAP = handles[5];
+        AVAILABLE = available;
+    }
+
+    private PhoenixFlightRecorder() {
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    public static Object beginQuery() {
+        return AVAILABLE ? begin(BEGIN_QUERY) : null;
+    }
+
+    public static void commitQuery(Object token, Class<?> entityClass, String operation, String sql,
+            long translateNanos, long executeNanos, long mapNanos, long rows, int batchSize, boolean failed) {
+        if (token != null) {
+            try {
+                COMMIT_QUERY.invokeExact(token, entityClass, operation, sql, translateNanos, executeNanos, mapNanos,
+                        rows, batchSize, failed);
+            } catch (Throwable ex) {
+                throw propagate(ex);
+            }
+        }
+    }
+
+    public static Object beginTranslate() {
+        return AVAILABLE ? begin(BEGIN_TRANSLATE) : null;
+    }
+
+    public static void commitTranslate(Object token, Class<?> entityClass, String operation, String sql) {
+        if (token != null) {
+            try {
+                COMMIT_TRANSLATE.invokeExact(token, entityClass, operation, sql);
+            } catch (Throwable ex) {
+                throw propagate(ex);
+            }
+        }
+    }
+
+    public static Object beginMap() {
+        return AVAILABLE ? begin(BEGIN_MAP) : null;
+    }
+
+    public static void commitMap(Object token, Class<?> resultClass, long rows) {
+        if (token != null) {
+            try {
+                COMMIT_MAP.invokeExact(token, resultClass, rows);
+            } catch (Throwable ex) {
+                throw propagate(ex);
+            }
+        }
+    }
+
+    private static Object begin(MethodHandle handle) {
+        try {
+            return (Object) handle.invokeExact();
+        } catch (Throwable ex) {
+            throw propagate(ex);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        } else if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex);
+    }
+}
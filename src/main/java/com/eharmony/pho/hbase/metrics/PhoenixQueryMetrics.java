@@ -0,0 +1,94 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how queries are translated and executed. All counters are thread safe and monotonic until
+ * {@link #reset()} is called.
+ */
+public class PhoenixQueryMetrics {
+
+    private static final String NO_INDEX = "<none>";
+
+    private final ConcurrentMap<String, AtomicLong> indexHints = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong columnsWritten = new AtomicLong();
+    private final AtomicLong columnsSkipped = new AtomicLong();
+
+    /**
+     * Record the secondary index chosen for a select query.
+     * 
+     * @param tableName
+     *            the queried table
+     * @param indexName
+     *            the hinted index, or null when no declared index matched the query
+     */
+    public void recordIndexHint(String tableName, String indexName) {
+        increment(indexHints, tableName + "." + (indexName != null ? indexName : NO_INDEX));
+    }
+
+    /**
+     * @return number of select queries per table and hinted index, keyed as <code>table.index</code>. Queries on
+     *         tables with declared indexes that matched none of them are counted under <code>table.&lt;none&gt;</code>
+     */
+    public Map<String, Long> getIndexHintCounts() {
+        return snapshot(indexHints);
+    }
+
+    /**
+     * Record the columns of a single entity save.
+     * 
+     * @param written
+     *            number of columns sent in the upsert
+     * @param skipped
+     *            number of mapped columns left out because they did not change
+     */
+    public void recordColumnWrites(int written, int skipped) {
+        columnsWritten.addAndGet(written);
+        columnsSkipped.addAndGet(skipped);
+    }
+
+    public long getColumnsWritten() {
+        return columnsWritten.get();
+    }
+
+    public long getColumnsSkipped() {
+        return columnsSkipped.get();
+    }
+
+    public void reset() {
+        indexHints.clear();
+        columnsWritten.set(0);
+        columnsSkipped.set(0);
+    }
+
+    protected static void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    protected static Map<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counters) {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoenixQueryMetrics [indexHints=" + getIndexHintCounts() + ", columnsWritten=" + columnsWritten
+                + ", columnsSkipped=" + columnsSkipped + "]";
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe execution statistics of all statements sharing one {@link SqlFingerprint}.
+ */
+public class QueryStatistics {
+
+    private final String fingerprint;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    public QueryStatistics(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public void record(long nanos, long rowCount, boolean error) {
+        calls.incrementAndGet();
+        if (error) {
+            errors.incrementAndGet();
+        }
+        if (rowCount > 0) {
+            rows.addAndGet(rowCount);
+        }
+        totalNanos.addAndGet(nanos);
+        latencies.record(nanos);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public QueryStatisticsSnapshot snapshot() {
+        return new QueryStatisticsSnapshot(fingerprint, calls.get(), errors.get(), rows.get(),
+                millis(totalNanos.get()), millis((long) latencies.getMeanNanos()),
+                millis(latencies.getPercentileNanos(50)), millis(latencies.getPercentileNanos(99)),
+                millis(latencies.getPercentileNanos(99.9)), millis(latencies.getMaxNanos()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000d;
+    }
+}
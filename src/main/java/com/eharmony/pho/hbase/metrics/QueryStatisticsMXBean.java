@@ -0,0 +1,24 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of a {@link QueryStatisticsRegistry}.
+ */
+public interface QueryStatisticsMXBean {
+
+    int getFingerprintCount();
+
+    int getMaxFingerprints();
+
+    int getTopN();
+
+    void setTopN(int topN);
+
+    /**
+     * @return the <code>topN</code> query shapes with the highest total execution time
+     */
+    List<QueryStatisticsSnapshot> getTopQueries();
+
+    void reset();
+}
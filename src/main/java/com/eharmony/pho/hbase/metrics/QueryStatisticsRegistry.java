@@ -0,0 +1,162 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Collects {@link QueryStatistics} per {@link SqlFingerprint}. The number of tracked shapes is bounded by
+ * <code>maxFingerprints</code>; executions of shapes seen after the limit is reached are accumulated under
+ * {@link #OTHER_FINGERPRINT}, so memory stays bounded whatever the application sends.
+ */
+public class QueryStatisticsRegistry implements QueryStatisticsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryStatisticsRegistry.class);
+
+    public static final String OTHER_FINGERPRINT = "<other>";
+
+    private static final Comparator<QueryStatistics> BY_TOTAL_TIME = new Comparator<QueryStatistics>() {
+        @Override
+        public int compare(QueryStatistics o1, QueryStatistics o2) {
+            return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+        }
+    };
+
+    private final ConcurrentMap<String, QueryStatistics> statistics = new ConcurrentHashMap<String, QueryStatistics>();
+    private volatile int maxFingerprints = 500;
+    private volatile int topN = 20;
+    private ObjectName objectName;
+
+    /**
+     * Record one execution of a statement.
+     *
+     * @param sql
+     *            the executed sql, with its literal values
+     * @param nanos
+     *            execution time
+     * @param rows
+     *            rows returned or written
+     * @param error
+     *            true if the execution failed
+     */
+    public void record(String sql, long nanos, long rows, boolean error) {
+        statistics(SqlFingerprint.of(sql)).record(nanos, rows, error);
+    }
+
+    private QueryStatistics statistics(String fingerprint) {
+        QueryStatistics stats = statistics.get(fingerprint);
+        if (stats == null) {
+            if (statistics.size() >= maxFingerprints) {
+                fingerprint = OTHER_FINGERPRINT;
+                stats = statistics.get(fingerprint);
+                if (stats != null) {
+                    return stats;
+                }
+            }
+            QueryStatistics created = new QueryStatistics(fingerprint);
+            stats = statistics.putIfAbsent(fingerprint, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    public QueryStatistics getStatistics(String fingerprint) {
+        return statistics.get(fingerprint);
+    }
+
+    public List<QueryStatisticsSnapshot> getTopQueries(int n) {
+        List<QueryStatistics> all = new ArrayList<QueryStatistics>(statistics.values());
+        Collections.sort(all, BY_TOTAL_TIME);
+        List<QueryStatisticsSnapshot> top = new ArrayList<QueryStatisticsSnapshot>(Math.min(n, all.size()));
+        for (QueryStatistics stats : all.subList(0, Math.min(n, all.size()))) {
+            top.add(stats.snapshot());
+        }
+        return top;
+    }
+
+    @Override
+    public List<QueryStatisticsSnapshot> getTopQueries() {
+        return getTopQueries(topN);
+    }
+
+    @Override
+    public int getFingerprintCount() {
+        return statistics.size();
+    }
+
+    @Override
+    public int getMaxFingerprints() {
+        return maxFingerprints;
+    }
+
+    public void setMaxFingerprints(int maxFingerprints) {
+        Preconditions.checkArgument(maxFingerprints > 0, "maxFingerprints must be positive");
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    @Override
+    public int getTopN() {
+        return topN;
+    }
+
+    @Override
+    public void setTopN(int topN) {
+        Preconditions.checkArgument(topN > 0, "topN must be positive");
+        this.topN = topN;
+    }
+
+    @Override
+    public void reset() {
+        statistics.clear();
+    }
+
+    /**
+     * Register this registry with the platform MBean server as
+     * <code>com.eharmony.pho:type=QueryStatistics,name=&lt;name&gt;</code>.
+     *
+     * @param name
+     *            distinguishes the registries of several executors
+     * @return the registered object name
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName("com.eharmony.pho:type=QueryStatistics,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(candidate)) {
+                server.unregisterMBean(candidate);
+            }
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Unable to register query statistics MBean " + name, ex);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                log.warn("Unable to unregister {}", objectName, ex);
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable view of the {@link QueryStatistics} of one query shape, as exposed through {@link QueryStatisticsMXBean}.
+ * Times are in milliseconds.
+ */
+public class QueryStatisticsSnapshot {
+
+    private final String fingerprint;
+    private final long calls;
+    private final long errors;
+    private final long rows;
+    private final double totalMillis;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+    private final double maxMillis;
+
+    @ConstructorProperties({ "fingerprint", "calls", "errors", "rows", "totalMillis", "meanMillis", "p50Millis",
+            "p99Millis", "p999Millis", "maxMillis" })
+    public QueryStatisticsSnapshot(String fingerprint, long calls, long errors, long rows, double totalMillis,
+            double meanMillis, double p50Millis, double p99Millis, double p999Millis, double maxMillis) {
+        this.fingerprint = fingerprint;
+        this.calls = calls;
+        this.errors = errors;
+        this.rows = rows;
+        this.totalMillis = totalMillis;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.p999Millis = p999Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getP999Millis() {
+        return p999Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatisticsSnapshot [fingerprint=" + fingerprint + ", calls=" + calls + ", errors=" + errors
+                + ", rows=" + rows + ", totalMillis=" + totalMillis + ", p99Millis=" + p99Millis + "]";
+    }
+}
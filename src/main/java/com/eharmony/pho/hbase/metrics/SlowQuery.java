@@ -0,0 +1,102 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.beans.ConstructorProperties;
+import java.util.Date;
+
+/**
+ * One execution recorded by {@link SlowQueryLog}. Times are in milliseconds.
+ */
+public class SlowQuery {
+
+    private final Date timestamp;
+    private final String sql;
+    private final String entityClass;
+    private final String operation;
+    private final String thread;
+    private final double translateMillis;
+    private final double executeMillis;
+    private final double mapMillis;
+    private final double totalMillis;
+    private final long rows;
+    private final int batchSize;
+    private final boolean failed;
+
+    @ConstructorProperties({ "timestamp", "sql", "entityClass", "operation", "thread", "translateMillis",
+            "executeMillis", "mapMillis", "totalMillis", "rows", "batchSize", "failed" })
+    public SlowQuery(Date timestamp, String sql, String entityClass, String operation, String thread,
+            double translateMillis, double executeMillis, double mapMillis, double totalMillis, long rows,
+            int batchSize, boolean failed) {
+        this.timestamp = timestamp;
+        this.sql = sql;
+        this.entityClass = entityClass;
+        this.operation = operation;
+        this.thread = thread;
+        this.translateMillis = translateMillis;
+        this.executeMillis = executeMillis;
+        this.mapMillis = mapMillis;
+        this.totalMillis = totalMillis;
+        this.rows = rows;
+        this.batchSize = batchSize;
+        this.failed = failed;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the executed sql, or its {@link SqlFingerprint} when the log redacts literals
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public String getEntityClass() {
+        return entityClass;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public double getTranslateMillis() {
+        return translateMillis;
+    }
+
+    public double getExecuteMillis() {
+        return executeMillis;
+    }
+
+    /**
+     * @return time spent fetching and mapping the results of a select
+     */
+    public double getMapMillis() {
+        return mapMillis;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery [timestamp=" + timestamp + ", operation=" + operation + ", totalMillis=" + totalMillis
+                + ", rows=" + rows + ", thread=" + thread + ", sql=" + sql + "]";
+    }
+}
@@ -0,0 +1,187 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the last <code>capacity</code> executions that took at least <code>thresholdMillis</code> in a lock free ring
+ * buffer. An execution below the threshold costs one volatile read; a slow one claims a slot with a single atomic
+ * increment and overwrites the oldest entry, so recording threads never wait on each other or on readers.
+ */
+public class SlowQueryLog implements SlowQueryLogMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    public static final int DEFAULT_CAPACITY = 128;
+    public static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+
+    private final AtomicReferenceArray<SlowQuery> entries;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD_MILLIS);
+    private volatile boolean redactLiterals;
+    private ObjectName objectName;
+
+    public SlowQueryLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SlowQueryLog(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.entries = new AtomicReferenceArray<SlowQuery>(capacity);
+    }
+
+    /**
+     * @param totalNanos
+     *            elapsed time of the whole execution
+     * @return true if an execution of this length is recorded
+     */
+    public boolean isSlow(long totalNanos) {
+        return totalNanos >= thresholdNanos;
+    }
+
+    /**
+     * Record an execution if it reached the threshold.
+     *
+     * @param sql
+     *            the executed sql, with its literal values
+     * @param entityClass
+     *            the queried or saved entity class, may be null
+     * @param operation
+     *            e.g. select or upsert
+     * @param translateNanos
+     *            time spent translating the query
+     * @param executeNanos
+     *            time spent executing the statement
+     * @param mapNanos
+     *            time spent fetching and mapping results
+     * @param totalNanos
+     *            elapsed time of the whole execution
+     * @param rows
+     *            rows returned or written
+     * @param batchSize
+     *            number of statements of a batch, 0 otherwise
+     * @param failed
+     *            true if the execution failed
+     */
+    public void record(String sql, Class<?> entityClass, String operation, long translateNanos, long executeNanos,
+            long mapNanos, long totalNanos, long rows, int batchSize, boolean failed) {
+        if (!isSlow(totalNanos)) {
+            return;
+        }
+        SlowQuery entry = new SlowQuery(new Date(), redactLiterals ? SqlFingerprint.of(sql) : sql,
+                entityClass != null ? entityClass.getName() : null, operation, Thread.currentThread().getName(),
+                millis(translateNanos), millis(executeNanos), millis(mapNanos), millis(totalNanos), rows, batchSize,
+                failed);
+        long slot = sequence.getAndIncrement();
+        entries.set((int) (slot % entries.length()), entry);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public List<SlowQuery> getSlowQueries() {
+        long last = sequence.get();
+        int capacity = entries.length();
+        List<SlowQuery> recent = new ArrayList<SlowQuery>((int) Math.min(last, capacity));
+        for (long i = last - 1; i >= 0 && i >= last - capacity; i--) {
+            SlowQuery entry = entries.get((int) (i % capacity));
+            if (entry != null) {
+                recent.add(entry);
+            }
+        }
+        return recent;
+    }
+
+    @Override
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    @Override
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    @Override
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    @Override
+    public void setThresholdMillis(long thresholdMillis) {
+        Preconditions.checkArgument(thresholdMillis >= 0, "thresholdMillis must not be negative");
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    @Override
+    public boolean isRedactLiterals() {
+        return redactLiterals;
+    }
+
+    /**
+     * Replace literal values in the recorded sql with <code>?</code>, for applications whose queries carry personal
+     * data.
+     */
+    @Override
+    public void setRedactLiterals(boolean redactLiterals) {
+        this.redactLiterals = redactLiterals;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+        sequence.set(0);
+    }
+
+    /**
+     * Register this log with the platform MBean server as
+     * <code>com.eharmony.pho:type=SlowQueryLog,name=&lt;name&gt;</code>.
+     *
+     * @param name
+     *            distinguishes the logs of several executors
+     * @return the registered object name
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName("com.eharmony.pho:type=SlowQueryLog,name=" + ObjectName.quote(name));
+            if (server.isRegistered(candidate)) {
+                server.unregisterMBean(candidate);
+            }
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Unable to register slow query log MBean " + name, ex);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                log.warn("Unable to unregister {}", objectName, ex);
+            }
+            objectName = null;
+        }
+    }
+}
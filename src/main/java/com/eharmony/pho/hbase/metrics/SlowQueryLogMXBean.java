@@ -0,0 +1,31 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of a {@link SlowQueryLog}.
+ */
+public interface SlowQueryLogMXBean {
+
+    long getThresholdMillis();
+
+    void setThresholdMillis(long thresholdMillis);
+
+    boolean isRedactLiterals();
+
+    void setRedactLiterals(boolean redactLiterals);
+
+    int getCapacity();
+
+    /**
+     * @return the number of slow executions seen since the last clear, including those overwritten since
+     */
+    long getRecordedCount();
+
+    /**
+     * @return the retained slow executions, most recent first
+     */
+    List<SlowQuery> getSlowQueries();
+
+    void clear();
+}
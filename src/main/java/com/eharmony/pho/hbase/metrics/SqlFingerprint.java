@@ -0,0 +1,70 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces a sql statement to its shape by replacing string and numeric literals with <code>?</code>, collapsing
+ * <code>IN</code> lists to a single placeholder and normalizing whitespace. Statements that differ only in their
+ * literal values share a fingerprint.
+ */
+public final class SqlFingerprint {
+
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private SqlFingerprint() {
+    }
+
+    public static String of(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        StringBuilder shape = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        boolean space = false;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = shape.length() > 0;
+                i++;
+                continue;
+            }
+            if (space) {
+                shape.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                shape.append('?');
+            } else if (Character.isDigit(c) && !partOfIdentifier(shape)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                shape.append('?');
+            } else {
+                shape.append(c);
+                i++;
+            }
+        }
+        return IN_LIST.matcher(shape).replaceAll("IN (?)");
+    }
+
+    private static boolean partOfIdentifier(StringBuilder shape) {
+        if (shape.length() == 0) {
+            return false;
+        }
+        char previous = shape.charAt(shape.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+}
@@ -0,0 +1,336 @@
+package com.eharmony.pho.hbase.query;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.util.PhoenixConnectionManager;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.builder.QueryUpdateBuilder;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Merges the saves of the same row within a flush window into a single upsert, for rows updated several times a
+ * second such as counters and status fields. The values of a save are read when it is made and merged by column:
+ * every column gets the last non null value saved to it, the way the separate upserts would have left the row, so a
+ * save of selected fields only overrides these fields. At the end of the window, or once too many rows are pending,
+ * every merged row is upserted and the rows are committed together.
+ *
+ * Saves return a future completed once their row is committed, or failed with a {@link DataStoreException}. Only
+ * entities whose saved properties are top level properties can be merged. Close the writer to write the pending rows.
+ */
+public class CoalescingWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingWriter.class);
+
+    private final String connectionUrl;
+    private final PhoenixHBaseQueryExecutor queryExecutor;
+    private final EntityPropertiesResolver entityPropertiesResolver;
+    private long flushWindowMillis = 100;
+    private int maxPendingRows = 10000;
+    private ScheduledExecutorService flusher;
+    private Map<List<Object>, PendingRow> pending = new LinkedHashMap<List<Object>, PendingRow>();
+    private ScheduledFuture<?> scheduledFlush;
+    private final Object flushLock = new Object();
+    private boolean closed;
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+
+    public CoalescingWriter(String connectionUrl, PhoenixHBaseQueryExecutor queryExecutor) {
+        this.connectionUrl = Preconditions.checkNotNull(connectionUrl);
+        this.queryExecutor = Preconditions.checkNotNull(queryExecutor);
+        this.entityPropertiesResolver = queryExecutor.getQueryTranslator().getEntityPropertiesResolver();
+    }
+
+    /**
+     * Save all mapped properties of the entity in the next flush.
+     *
+     * @param entity
+     *            the entity
+     * @return the future completed once the row is committed
+     */
+    public <T> CompletableFuture<Void> save(T entity) {
+        return save(entity, null);
+    }
+
+    /**
+     * Save the selected properties of the entity in the next flush, the row key properties are always saved.
+     *
+     * @param entity
+     *            the entity, with its row key properties set
+     * @param selectedFields
+     *            the property names to save, empty for all mapped properties
+     * @return the future completed once the row is committed
+     * @throws DataStoreException
+     *             if a selected field is not a mapped property
+     * @throws IllegalArgumentException
+     *             if a selected field is a nested property
+     */
+    public <T> CompletableFuture<Void> save(T entity, List<String> selectedFields) {
+        Preconditions.checkNotNull(entity);
+        Class<?> entityClass = entity.getClass();
+        Map<String, EntityPropertyBinding> bindings = entityPropertiesResolver
+                .getEntityPropertyNamePropertyBindingMap(entityClass);
+        List<EntityPropertyBinding> rowKeyBindings = entityPropertiesResolver.getRowKeyPropertyBindings(entityClass);
+        if (bindings == null || bindings.isEmpty() || rowKeyBindings.isEmpty()) {
+            throw new DataStoreException(entityClass.getSimpleName() + " is not a mapped entity with a row key");
+        }
+        Set<String> fields = new LinkedHashSet<String>();
+        Object[] rowKey = new Object[rowKeyBindings.size() + 1];
+        rowKey[0] = entityClass;
+        for (int i = 0; i < rowKeyBindings.size(); i++) {
+            fields.add(rowKeyBindings.get(i).getName());
+            rowKey[i + 1] = propertyValue(entity, rowKeyBindings.get(i));
+        }
+        fields.addAll(CollectionUtils.isEmpty(selectedFields) ? bindings.keySet() : selectedFields);
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (String field : fields) {
+            EntityPropertyBinding binding = bindings.get(field);
+            if (binding == null) {
+                throw new DataStoreException("Invalid bean property " + field + " for bean "
+                        + entityClass.getSimpleName());
+            }
+            Preconditions.checkArgument(binding.getNameFullPath().indexOf('.') < 0,
+                    "The nested property %s can not be merged", binding.getNameFullPath());
+            Object value = propertyValue(entity, binding);
+            if (value != null) {
+                // the saved value, not the one the caller may change until the flush
+                values.put(field, value instanceof Date ? ((Date) value).clone() : value);
+            }
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        synchronized (this) {
+            Preconditions.checkState(!closed, "The writer is closed");
+            saves.incrementAndGet();
+            List<Object> key = Arrays.asList(rowKey);
+            PendingRow row = pending.get(key);
+            if (row == null) {
+                row = new PendingRow(entityClass);
+                pending.put(key, row);
+            }
+            row.values.putAll(values);
+            row.waiting.add(future);
+            boolean full = pending.size() >= maxPendingRows;
+            if (full && scheduledFlush != null && scheduledFlush.cancel(false)) {
+                // flush now instead of at the end of the window
+                scheduledFlush = null;
+            }
+            if (scheduledFlush == null) {
+                scheduledFlush = flusher().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, full ? 0 : flushWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Write the pending rows now, on the calling thread.
+     */
+    public void flush() {
+        // flushes write one after the other, so a row is never overwritten by an older merge
+        synchronized (flushLock) {
+            Map<List<Object>, PendingRow> rows;
+            synchronized (this) {
+                rows = takePending();
+            }
+            if (!rows.isEmpty()) {
+                write(rows.values());
+            }
+        }
+    }
+
+    /**
+     * Write the pending rows and stop the flush thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flush();
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows waiting for the next flush
+     */
+    public synchronized int getPendingRows() {
+        return pending.size();
+    }
+
+    public long getFlushWindowMillis() {
+        return flushWindowMillis;
+    }
+
+    /**
+     * @param flushWindowMillis
+     *            how long the first save of a flush waits for others, 100 ms by default
+     */
+    public void setFlushWindowMillis(long flushWindowMillis) {
+        Preconditions.checkArgument(flushWindowMillis >= 0, "flushWindowMillis must not be negative");
+        this.flushWindowMillis = flushWindowMillis;
+    }
+
+    public int getMaxPendingRows() {
+        return maxPendingRows;
+    }
+
+    /**
+     * @param maxPendingRows
+     *            the number of distinct rows that flushes before the window ends, 10000 by default
+     */
+    public void setMaxPendingRows(int maxPendingRows) {
+        Preconditions.checkArgument(maxPendingRows > 0, "maxPendingRows must be positive");
+        this.maxPendingRows = maxPendingRows;
+    }
+
+    /**
+     * @return the number of saves made
+     */
+    public long getSaves() {
+        return saves.get();
+    }
+
+    /**
+     * @return the number of upserts the saves were merged into and committed
+     */
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getFailedRows() {
+        return failedRows.get();
+    }
+
+    private Map<List<Object>, PendingRow> takePending() {
+        Map<List<Object>, PendingRow> rows = pending;
+        pending = new LinkedHashMap<List<Object>, PendingRow>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return rows;
+    }
+
+    private synchronized ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("pho-coalescing-writer-%d").build());
+        }
+        return flusher;
+    }
+
+    private void write(Collection<PendingRow> rows) {
+        List<PendingRow> remaining = new ArrayList<PendingRow>(rows);
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            Iterator<PendingRow> upserts = remaining.iterator();
+            while (upserts.hasNext()) {
+                PendingRow row = upserts.next();
+                try {
+                    queryExecutor.save(QueryUpdateBuilder.builderFor(row.toEntity())
+                            .update(new ArrayList<String>(row.values.keySet())).build(), conn);
+                } catch (Exception ex) {
+                    fail(row, ex);
+                    upserts.remove();
+                }
+            }
+            conn.commit();
+            rowsWritten.addAndGet(remaining.size());
+            for (PendingRow row : remaining) {
+                for (CompletableFuture<Void> future : row.waiting) {
+                    future.complete(null);
+                }
+            }
+            log.debug("Wrote {} merged rows", remaining.size());
+        } catch (Exception ex) {
+            log.warn("Unable to write " + remaining.size() + " merged rows", ex);
+            for (PendingRow row : remaining) {
+                fail(row, ex);
+            }
+        } finally {
+            try {
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (Exception ex) {
+                log.warn("Exception while closing the connection...", ex);
+            }
+        }
+    }
+
+    private void fail(PendingRow row, Exception ex) {
+        failedRows.incrementAndGet();
+        DataStoreException error = ex instanceof DataStoreException ? (DataStoreException) ex
+                : new DataStoreException("Unable to write a merged " + row.entityClass.getSimpleName() + " row", ex);
+        for (CompletableFuture<Void> future : row.waiting) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    private static Object propertyValue(Object entity, EntityPropertyBinding binding) {
+        try {
+            return PropertyUtils.getProperty(entity, binding.getNameFullPath());
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to read " + binding.getNameFullPath() + " of "
+                    + entity.getClass().getSimpleName(), ex);
+        }
+    }
+
+    private static final class PendingRow {
+
+        private final Class<?> entityClass;
+        /** the last non null value saved to every property */
+        private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        private final List<CompletableFuture<Void>> waiting = new ArrayList<CompletableFuture<Void>>(1);
+
+        PendingRow(Class<?> entityClass) {
+            this.entityClass = entityClass;
+        }
+
+        Object toEntity() throws Exception {
+            Object entity = entityClass.newInstance();
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                PropertyUtils.setProperty(entity, value.getKey(), value.getValue());
+            }
+            return entity;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.eharmony.pho.hbase.query;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The rows of a select stored by column instead of as one object per row. Numeric columns are primitive arrays read
+ * with <code>getLong</code>, <code>getInt</code> and <code>getDouble</code>, strings are dictionary encoded and nulls
+ * are kept in a bitmap per column, so reading millions of rows allocates a few arrays instead of millions of entities
+ * and boxed values. Columns of other types, decimals included, hold the objects returned by the driver.
+ */
+public final class ColumnarResult {
+
+    /**
+     * The most rows allocated per column before reading, larger results grow the arrays as rows are read.
+     */
+    public static final int MAX_INITIAL_CAPACITY = 1024;
+
+    /**
+     * How the values of a column are stored.
+     */
+    public enum ColumnType {
+        LONG, INT, DOUBLE, STRING, OBJECT;
+
+        /**
+         * @param javaType
+         *            the type of the entity property, may be null
+         * @param sqlType
+         *            the {@link Types} of the column, used when the property type is unknown
+         * @return the storage for the column
+         */
+        public static ColumnType of(Class<?> javaType, int sqlType) {
+            // decimals and big integers do not fit a long or a double without losing digits, they stay objects
+            if (javaType != null) {
+                if (javaType == long.class || javaType == Long.class) {
+                    return LONG;
+                } else if (javaType == int.class || javaType == Integer.class || javaType == short.class
+                        || javaType == Short.class || javaType == byte.class || javaType == Byte.class) {
+                    return INT;
+                } else if (javaType == double.class || javaType == Double.class || javaType == float.class
+                        || javaType == Float.class) {
+                    return DOUBLE;
+                } else if (javaType == String.class || javaType.isEnum()) {
+                    return STRING;
+                }
+                return OBJECT;
+            }
+            switch (sqlType) {
+            case Types.BIGINT:
+                return LONG;
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return INT;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+                return DOUBLE;
+            case Types.VARCHAR:
+            case Types.CHAR:
+                return STRING;
+            default:
+                return OBJECT;
+            }
+        }
+    }
+
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    private ColumnarResult(int rowCount, Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Read all rows of a result set into columns.
+     *
+     * @param resultSet
+     *            the rows
+     * @param names
+     *            the name of every column, in the order of the select list
+     * @param types
+     *            the storage of every column
+     * @param expectedRows
+     *            the initial capacity of the arrays, e.g. the limit or fetch size of the query, at most
+     *            {@link #MAX_INITIAL_CAPACITY}
+     * @return the columns, trimmed to the number of rows read
+     * @throws SQLException
+     *             if the rows can not be read
+     */
+    public static ColumnarResult read(ResultSet resultSet, String[] names, ColumnType[] types, int expectedRows)
+            throws SQLException {
+        Preconditions.checkArgument(names.length == types.length, "Expected %s column types but got %s",
+                names.length, types.length);
+        int capacity = initialCapacity(expectedRows);
+        ColumnReader[] readers = new ColumnReader[names.length];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new ColumnReader(types[i], i + 1, capacity);
+        }
+        int row = 0;
+        while (resultSet.next()) {
+            for (ColumnReader reader : readers) {
+                reader.read(resultSet, row);
+            }
+            row++;
+        }
+        return build(names, readers, row);
+    }
+
+    /**
+     * @param names
+     *            the name of every column
+     * @param types
+     *            the storage of every column
+     * @return columns without rows
+     */
+    public static ColumnarResult empty(String[] names, ColumnType[] types) {
+        Preconditions.checkArgument(names.length == types.length, "Expected %s column types but got %s",
+                names.length, types.length);
+        ColumnReader[] readers = new ColumnReader[names.length];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new ColumnReader(types[i], i + 1, 0);
+        }
+        return build(names, readers, 0);
+    }
+
+    private static ColumnarResult build(String[] names, ColumnReader[] readers, int rowCount) {
+        Map<String, Column> columns = new LinkedHashMap<String, Column>();
+        for (int i = 0; i < readers.length; i++) {
+            columns.put(names[i], readers[i].build(names[i], rowCount));
+        }
+        return new ColumnarResult(rowCount, Collections.unmodifiableMap(columns));
+    }
+
+    /**
+     * Read all rows of a result set into columns typed after the sql types of the result set metadata.
+     *
+     * @param resultSet
+     *            the rows
+     * @param expectedRows
+     *            the initial capacity of the arrays
+     * @return the columns, named after the result set columns
+     * @throws SQLException
+     *             if the rows can not be read
+     */
+    public static ColumnarResult read(ResultSet resultSet, int expectedRows) throws SQLException {
+        ResultSetMetaData metadata = resultSet.getMetaData();
+        String[] names = new String[metadata.getColumnCount()];
+        ColumnType[] types = new ColumnType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metadata.getColumnName(i + 1);
+            types[i] = ColumnType.of(null, metadata.getColumnType(i + 1));
+        }
+        return read(resultSet, names, types, expectedRows);
+    }
+
+    /**
+     * @param expectedRows
+     *            the number of rows a select is expected to return, e.g. its limit
+     * @return the length of the arrays to allocate before reading the rows
+     */
+    public static int initialCapacity(int expectedRows) {
+        return Math.min(Math.max(16, expectedRows), MAX_INITIAL_CAPACITY);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public List<String> getColumnNames() {
+        return new ArrayList<String>(columns.keySet());
+    }
+
+    /**
+     * @param name
+     *            the property name of the column
+     * @return the column
+     * @throws IllegalArgumentException
+     *             if the result has no such column
+     */
+    public Column getColumn(String name) {
+        Column column = columns.get(name);
+        if (column == null) {
+            for (Map.Entry<String, Column> entry : columns.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+            throw new IllegalArgumentException("No column " + name + " in " + columns.keySet());
+        }
+        return column;
+    }
+
+    public LongColumn getLongColumn(String name) {
+        return typed(name, LongColumn.class);
+    }
+
+    public IntColumn getIntColumn(String name) {
+        return typed(name, IntColumn.class);
+    }
+
+    public DoubleColumn getDoubleColumn(String name) {
+        return typed(name, DoubleColumn.class);
+    }
+
+    public StringColumn getStringColumn(String name) {
+        return typed(name, StringColumn.class);
+    }
+
+    private <C extends Column> C typed(String name, Class<C> type) {
+        Column column = getColumn(name);
+        if (!type.isInstance(column)) {
+            throw new IllegalArgumentException("Column " + name + " is stored as " + column.getType());
+        }
+        return type.cast(column);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarResult [rowCount=" + rowCount + ", columns=" + columns.values() + "]";
+    }
+
+    /**
+     * The values of one column. Null values read as 0 (or the empty code) in the arrays and are set in the null
+     * bitmap.
+     */
+    public abstract static class Column {
+
+        private final String name;
+        private final ColumnType type;
+        private final BitSet nulls;
+
+        Column(String name, ColumnType type, BitSet nulls) {
+            this.name = name;
+            this.type = type;
+            this.nulls = nulls;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnType getType() {
+            return type;
+        }
+
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public int getNullCount() {
+            return nulls.cardinality();
+        }
+
+        /**
+         * @return a copy of the null bitmap, bit <code>i</code> set when row <code>i</code> is null
+         */
+        public BitSet getNulls() {
+            return (BitSet) nulls.clone();
+        }
+
+        /**
+         * @param row
+         *            the row
+         * @return the boxed value, null for null values
+         */
+        public abstract Object get(int row);
+
+        @Override
+        public String toString() {
+            return name + ":" + type;
+        }
+    }
+
+    public static final class LongColumn extends Column {
+
+        private final long[] values;
+
+        LongColumn(String name, BitSet nulls, long[] values) {
+            super(name, ColumnType.LONG, nulls);
+            this.values = values;
+        }
+
+        public long getLong(int row) {
+            return values[row];
+        }
+
+        /**
+         * @return the values, one per row; the array is not copied
+         */
+        public long[] values() {
+            return values;
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+    }
+
+    public static final class IntColumn extends Column {
+
+        private final int[] values;
+
+        IntColumn(String name, BitSet nulls, int[] values) {
+            super(name, ColumnType.INT, nulls);
+            this.values = values;
+        }
+
+        public int getInt(int row) {
+            return values[row];
+        }
+
+        /**
+         * @return the values, one per row; the array is not copied
+         */
+        public int[] values() {
+            return values;
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+    }
+
+    public static final class DoubleColumn extends Column {
+
+        private final double[] values;
+
+        DoubleColumn(String name, BitSet nulls, double[] values) {
+            super(name, ColumnType.DOUBLE, nulls);
+            this.values = values;
+        }
+
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        /**
+         * @return the values, one per row; the array is not copied
+         */
+        public double[] values() {
+            return values;
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+    }
+
+    /**
+     * Strings stored as codes into a dictionary of the distinct values, in the order they were first read. Null values
+     * have the code -1.
+     */
+    public static final class StringColumn extends Column {
+
+        private final int[] codes;
+        private final String[] dictionary;
+
+        StringColumn(String name, BitSet nulls, int[] codes, String[] dictionary) {
+            super(name, ColumnType.STRING, nulls);
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        public String getString(int row) {
+            int code = codes[row];
+            return code < 0 ? null : dictionary[code];
+        }
+
+        /**
+         * @return the dictionary code of every row; the array is not copied
+         */
+        public int[] codes() {
+            return codes;
+        }
+
+        /**
+         * @return the distinct values; the array is not copied
+         */
+        public String[] dictionary() {
+            return dictionary;
+        }
+
+        @Override
+        public Object get(int row) {
+            return getString(row);
+        }
+    }
+
+    public static final class ObjectColumn extends Column {
+
+        private final Object[] values;
+
+        ObjectColumn(String name, BitSet nulls, Object[] values) {
+            super(name, ColumnType.OBJECT, nulls);
+            this.values = values;
+        }
+
+        /**
+         * @return the values, one per row; the array is not copied
+         */
+        public Object[] values() {
+            return values;
+        }
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * Appends the values of one column to a growing array.
+     */
+    private static final class ColumnReader {
+
+        private final ColumnType type;
+        private final int index;
+        private final BitSet nulls = new BitSet();
+        private long[] longs;
+        private int[] ints;
+        private double[] doubles;
+        private Object[] objects;
+        private Map<String, Integer> codes;
+        private List<String> dictionary;
+
+        ColumnReader(ColumnType type, int index, int capacity) {
+            this.type = type;
+            this.index = index;
+            switch (type) {
+            case LONG:
+                longs = new long[capacity];
+                break;
+            case INT:
+                ints = new int[capacity];
+                break;
+            case DOUBLE:
+                doubles = new double[capacity];
+                break;
+            case STRING:
+                ints = new int[capacity];
+                codes = new HashMap<String, Integer>();
+                dictionary = new ArrayList<String>();
+                break;
+            default:
+                objects = new Object[capacity];
+            }
+        }
+
+        void read(ResultSet resultSet, int row) throws SQLException {
+            switch (type) {
+            case LONG:
+                if (row == longs.length) {
+                    longs = Arrays.copyOf(longs, row * 2);
+                }
+                longs[row] = resultSet.getLong(index);
+                break;
+            case INT:
+                if (row == ints.length) {
+                    ints = Arrays.copyOf(ints, row * 2);
+                }
+                ints[row] = resultSet.getInt(index);
+                break;
+            case DOUBLE:
+                if (row == doubles.length) {
+                    doubles = Arrays.copyOf(doubles, row * 2);
+                }
+                doubles[row] = resultSet.getDouble(index);
+                break;
+            case STRING:
+                if (row == ints.length) {
+                    ints = Arrays.copyOf(ints, row * 2);
+                }
+                ints[row] = encode(resultSet.getString(index));
+                break;
+            default:
+                if (row == objects.length) {
+                    objects = Arrays.copyOf(objects, row * 2);
+                }
+                objects[row] = resultSet.getObject(index);
+            }
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        private int encode(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(value, code);
+                dictionary.add(value);
+            }
+            return code;
+        }
+
+        Column build(String name, int rowCount) {
+            switch (type) {
+            case LONG:
+                return new LongColumn(name, nulls, trim(longs, rowCount));
+            case INT:
+                return new IntColumn(name, nulls, trim(ints, rowCount));
+            case DOUBLE:
+                return new DoubleColumn(name, nulls, trim(doubles, rowCount));
+            case STRING:
+                return new StringColumn(name, nulls, trim(ints, rowCount),
+                        dictionary.toArray(new String[dictionary.size()]));
+            default:
+                return new ObjectColumn(name, nulls,
+                        objects.length == rowCount ? objects : Arrays.copyOf(objects, rowCount));
+            }
+        }
+
+        private static long[] trim(long[] values, int length) {
+            return values.length == length ? values : Arrays.copyOf(values, length);
+        }
+
+        private static int[] trim(int[] values, int length) {
+            return values.length == length ? values : Arrays.copyOf(values, length);
+        }
+
+        private static double[] trim(double[] values, int length) {
+            return values.length == length ? values : Arrays.copyOf(values, length);
+        }
+    }
+}
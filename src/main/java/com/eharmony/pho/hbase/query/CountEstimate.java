@@ -0,0 +1,107 @@
+package com.eharmony.pho.hbase.query;
+
+/**
+ * Approximate number of rows matching a select, from the Phoenix statistics. The estimate counts the rows of the
+ * scanned key range at guidepost granularity, so both ends of the range may be off by up to one guidepost. When the
+ * criteria also filter on columns outside the row key, the rows scanned are an upper bound of the rows matched.
+ */
+public class CountEstimate {
+
+    private static final CountEstimate NONE = new CountEstimate(0, 0, 0, false, null);
+    private static final CountEstimate UNAVAILABLE = new CountEstimate(-1, -1, -1, false, null);
+
+    private final long estimatedRows;
+    private final long estimatedBytes;
+    private final long errorBound;
+    private final boolean filtered;
+    private final Long statisticsTimestamp;
+
+    /**
+     * @param estimatedRows
+     *            rows in the scanned key range, -1 if unknown
+     * @param estimatedBytes
+     *            bytes in the scanned key range, -1 if unknown
+     * @param errorBound
+     *            the estimate may be off by this many rows in either direction, -1 if unknown
+     * @param filtered
+     *            true if the criteria filter on more than the row key
+     * @param statisticsTimestamp
+     *            when the statistics the estimate is based on were collected, null if unknown
+     */
+    public CountEstimate(long estimatedRows, long estimatedBytes, long errorBound, boolean filtered,
+            Long statisticsTimestamp) {
+        this.estimatedRows = estimatedRows;
+        this.estimatedBytes = estimatedBytes;
+        this.errorBound = errorBound;
+        this.filtered = filtered;
+        this.statisticsTimestamp = statisticsTimestamp;
+    }
+
+    /**
+     * @return the estimate of criteria that can not match any row
+     */
+    public static CountEstimate none() {
+        return NONE;
+    }
+
+    /**
+     * @return the estimate of a table without statistics
+     */
+    public static CountEstimate unavailable() {
+        return UNAVAILABLE;
+    }
+
+    /**
+     * @return false if no statistics were collected for the table, a <code>COUNT(*)</code> is the only answer then
+     */
+    public boolean isAvailable() {
+        return estimatedRows >= 0;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    public boolean isFiltered() {
+        return filtered;
+    }
+
+    public Long getStatisticsTimestamp() {
+        return statisticsTimestamp;
+    }
+
+    /**
+     * @return the smallest count compatible with the estimate, -1 if unknown
+     */
+    public long getLowerBound() {
+        if (!isAvailable() || errorBound < 0) {
+            return -1;
+        }
+        return filtered ? 0 : Math.max(0, estimatedRows - errorBound);
+    }
+
+    /**
+     * @return the largest count compatible with the estimate, -1 if unknown
+     */
+    public long getUpperBound() {
+        if (!isAvailable() || errorBound < 0) {
+            return -1;
+        }
+        return estimatedRows + errorBound;
+    }
+
+    @Override
+    public String toString() {
+        return "CountEstimate [estimatedRows=" + estimatedRows + ", estimatedBytes=" + estimatedBytes
+                + ", errorBound=" + errorBound + ", filtered=" + filtered + ", statisticsTimestamp="
+                + statisticsTimestamp + "]";
+    }
+}
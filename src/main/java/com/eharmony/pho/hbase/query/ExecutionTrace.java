@@ -0,0 +1,78 @@
+package com.eharmony.pho.hbase.query;
+
+import com.eharmony.pho.hbase.metrics.PhoenixFlightRecorder;
+
+/**
+ * Phase timestamps of one statement executed by {@link PhoenixHBaseQueryExecutor}: translation, execution and, for
+ * selects, fetching and mapping the results.
+ */
+final class ExecutionTrace {
+
+    private Class<?> entityClass;
+    private final String operation;
+    private final Object flightRecorderEvent;
+    private final long start;
+    private String sql;
+    private long translated;
+    private long executed;
+
+    ExecutionTrace(Class<?> entityClass, String operation) {
+        this.entityClass = entityClass;
+        this.operation = operation;
+        this.flightRecorderEvent = PhoenixFlightRecorder.beginQuery();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Set the entity class once known, for statements built in a single pass over their entities.
+     */
+    void setEntityClass(Class<?> entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    void translated(String sql) {
+        this.sql = sql;
+        this.translated = System.nanoTime();
+    }
+
+    /**
+     * Mark the end of the execution, later calls are ignored.
+     */
+    void executed() {
+        if (executed == 0) {
+            this.executed = System.nanoTime();
+        }
+    }
+
+    Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    String getOperation() {
+        return operation;
+    }
+
+    Object getFlightRecorderEvent() {
+        return flightRecorderEvent;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long translateNanos() {
+        return translated == 0 ? 0 : translated - start;
+    }
+
+    long executeNanos() {
+        return executed == 0 || translated == 0 ? 0 : executed - translated;
+    }
+
+    long mapNanos(long end) {
+        return executed == 0 ? 0 : end - executed;
+    }
+}
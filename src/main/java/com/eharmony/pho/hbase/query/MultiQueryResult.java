@@ -0,0 +1,86 @@
+package com.eharmony.pho.hbase.query;
+
+import java.util.List;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.query.QuerySelect;
+import com.google.common.base.Preconditions;
+
+/**
+ * Results of several selects executed together, in the order the queries were given. A query that failed or did not
+ * finish before the deadline has an error instead of results, the others are still available.
+ */
+public class MultiQueryResult {
+
+    private final List<QuerySelect<?, ?>> queries;
+    private final Iterable<?>[] results;
+    private final DataStoreException[] errors;
+
+    public MultiQueryResult(List<QuerySelect<?, ?>> queries, Iterable<?>[] results, DataStoreException[] errors) {
+        Preconditions.checkArgument(queries.size() == results.length && results.length == errors.length,
+                "queries, results and errors must have the same size");
+        this.queries = queries;
+        this.results = results;
+        this.errors = errors;
+    }
+
+    public int size() {
+        return results.length;
+    }
+
+    /**
+     * @return true if every query returned its results
+     */
+    public boolean isComplete() {
+        for (DataStoreException error : errors) {
+            if (error != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isSuccessful(int index) {
+        return errors[index] == null;
+    }
+
+    /**
+     * @param index
+     *            position of the query
+     * @return the failure of the query, or null if it succeeded
+     */
+    public DataStoreException getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * @param index
+     *            position of the query
+     * @return the results of the query
+     * @throws DataStoreException
+     *             if the query failed or timed out
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Iterable<R> get(int index) {
+        if (errors[index] != null) {
+            throw errors[index];
+        }
+        return (Iterable<R>) results[index];
+    }
+
+    /**
+     * @param query
+     *            one of the executed queries, looked up by identity
+     * @return the results of the query
+     * @throws DataStoreException
+     *             if the query failed or timed out
+     */
+    public <T, R> Iterable<R> get(QuerySelect<T, R> query) {
+        for (int i = 0; i < queries.size(); i++) {
+            if (queries.get(i) == query) {
+                return get(i);
+            }
+        }
+        throw new IllegalArgumentException("The query was not part of this execution");
+    }
+}
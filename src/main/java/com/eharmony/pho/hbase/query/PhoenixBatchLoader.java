@@ -0,0 +1,327 @@
+package com.eharmony.pho.hbase.query;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.util.PhoenixConnectionManager;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Restrictions;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Batches concurrent point reads of one entity class by row key. Keys loaded within the batch window, or until the
+ * batch is full, are read with a single select: an <code>IN</code> over the last row key property per distinct prefix
+ * of the other row key properties, which phoenix runs as a skip scan. Every caller gets a future completed with its
+ * entity, or null if the row does not exist; a key loaded several times in one batch is read once. A failed select
+ * fails the futures of its batch with a {@link DataStoreException}.
+ *
+ * Batches are read on a small pool of daemon threads, each with its own connection. Configure the loader before the
+ * first load and close it when done, pending keys are read before the threads stop.
+ *
+ * @param <T>
+ *            the entity type
+ */
+public class PhoenixBatchLoader<T> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PhoenixBatchLoader.class);
+
+    private final Class<T> entityClass;
+    private final String connectionUrl;
+    private final PhoenixHBaseQueryExecutor queryExecutor;
+    private final List<EntityPropertyBinding> rowKeyBindings;
+    private long batchWindowMicros = 2000;
+    private int maxBatchSize = 100;
+    private int dispatchThreads = 4;
+    private ScheduledExecutorService dispatcher;
+    private Map<List<Object>, List<CompletableFuture<T>>> pending =
+            new LinkedHashMap<List<Object>, List<CompletableFuture<T>>>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public PhoenixBatchLoader(Class<T> entityClass, String connectionUrl, PhoenixHBaseQueryExecutor queryExecutor) {
+        this.entityClass = Preconditions.checkNotNull(entityClass);
+        this.connectionUrl = Preconditions.checkNotNull(connectionUrl);
+        this.queryExecutor = Preconditions.checkNotNull(queryExecutor);
+        this.rowKeyBindings = queryExecutor.getQueryTranslator().getEntityPropertiesResolver()
+                .getRowKeyPropertyBindings(entityClass);
+        Preconditions.checkArgument(!rowKeyBindings.isEmpty(), "%s declares no @RowKey properties",
+                entityClass.getName());
+    }
+
+    /**
+     * Load the entity with the given row key in the next batch.
+     *
+     * @param rowKey
+     *            the values of all <code>@RowKey</code> properties, in row key order
+     * @return the future of the entity, completed with null if there is no such row
+     */
+    public CompletableFuture<T> load(Object... rowKey) {
+        Preconditions.checkArgument(rowKey.length == rowKeyBindings.size(), "%s row key values expected, got %s",
+                rowKeyBindings.size(), rowKey.length);
+        List<Object> key = new ArrayList<Object>(rowKey.length);
+        for (Object value : rowKey) {
+            key.add(normalize(Preconditions.checkNotNull(value, "row key values must not be null")));
+        }
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        Map<List<Object>, List<CompletableFuture<T>>> full = null;
+        synchronized (this) {
+            Preconditions.checkState(!closed, "The loader is closed");
+            loads.incrementAndGet();
+            List<CompletableFuture<T>> waiting = pending.get(key);
+            if (waiting == null) {
+                waiting = new ArrayList<CompletableFuture<T>>(1);
+                pending.put(key, waiting);
+            }
+            waiting.add(future);
+            if (pending.size() >= maxBatchSize) {
+                full = takePending();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = dispatcher().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, batchWindowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * Read the pending keys now instead of at the end of the batch window.
+     */
+    public void flush() {
+        Map<List<Object>, List<CompletableFuture<T>>> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        if (!batch.isEmpty()) {
+            read(batch);
+        }
+    }
+
+    /**
+     * Read the pending keys and stop the dispatch threads once they completed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flush();
+        synchronized (this) {
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
+    }
+
+    public long getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+
+    /**
+     * @param batchWindowMicros
+     *            how long the first key of a batch waits for others, 2 ms by default
+     */
+    public void setBatchWindowMicros(long batchWindowMicros) {
+        Preconditions.checkArgument(batchWindowMicros >= 0, "batchWindowMicros must not be negative");
+        this.batchWindowMicros = batchWindowMicros;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *            the number of distinct keys read at once before the window ends, 100 by default
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * @param dispatchThreads
+     *            the number of batches read concurrently, 4 by default
+     */
+    public void setDispatchThreads(int dispatchThreads) {
+        Preconditions.checkArgument(dispatchThreads > 0, "dispatchThreads must be positive");
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    /**
+     * @return the number of keys loaded
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return the number of selects the loaded keys were read with
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    private Map<List<Object>, List<CompletableFuture<T>>> takePending() {
+        Map<List<Object>, List<CompletableFuture<T>>> batch = pending;
+        pending = new LinkedHashMap<List<Object>, List<CompletableFuture<T>>>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private synchronized ScheduledExecutorService dispatcher() {
+        if (dispatcher == null) {
+            dispatcher = Executors.newScheduledThreadPool(dispatchThreads, new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("pho-batch-loader-" + entityClass.getSimpleName() + "-%d").build());
+        }
+        return dispatcher;
+    }
+
+    private void dispatch(final Map<List<Object>, List<CompletableFuture<T>>> batch) {
+        dispatcher().execute(new Runnable() {
+            @Override
+            public void run() {
+                read(batch);
+            }
+        });
+    }
+
+    private void read(Map<List<Object>, List<CompletableFuture<T>>> batch) {
+        batches.incrementAndGet();
+        Connection conn = null;
+        try {
+            conn = PhoenixConnectionManager.getConnection(connectionUrl);
+            QuerySelect<T, T> query = QueryBuilder.builderFor(entityClass).select().add(criteria(batch.keySet()))
+                    .build();
+            for (T entity : queryExecutor.find(query, conn)) {
+                List<CompletableFuture<T>> waiting = batch.remove(rowKey(entity));
+                if (waiting != null) {
+                    for (CompletableFuture<T> future : waiting) {
+                        future.complete(entity);
+                    }
+                }
+            }
+            for (List<CompletableFuture<T>> waiting : batch.values()) {
+                for (CompletableFuture<T> future : waiting) {
+                    future.complete(null);
+                }
+            }
+        } catch (Exception ex) {
+            DataStoreException error = ex instanceof DataStoreException ? (DataStoreException) ex
+                    : new DataStoreException("Unable to load " + batch.size() + " " + entityClass.getSimpleName()
+                            + " rows", ex);
+            for (List<CompletableFuture<T>> waiting : batch.values()) {
+                for (CompletableFuture<T> future : waiting) {
+                    future.completeExceptionally(error);
+                }
+            }
+        } finally {
+            try {
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (Exception ex) {
+                log.warn("Exception while closing the connection...", ex);
+            }
+        }
+    }
+
+    /**
+     * An <code>IN</code> over the last row key property for every distinct prefix of the other properties.
+     */
+    private Criterion criteria(Iterable<List<Object>> keys) {
+        int last = rowKeyBindings.size() - 1;
+        Map<List<Object>, List<Object>> byPrefix = new LinkedHashMap<List<Object>, List<Object>>();
+        for (List<Object> key : keys) {
+            List<Object> prefix = key.subList(0, last);
+            List<Object> values = byPrefix.get(prefix);
+            if (values == null) {
+                values = new ArrayList<Object>();
+                byPrefix.put(prefix, values);
+            }
+            values.add(key.get(last));
+        }
+        String lastProperty = rowKeyBindings.get(last).getNameFullPath();
+        Criterion[] branches = new Criterion[byPrefix.size()];
+        int b = 0;
+        for (Map.Entry<List<Object>, List<Object>> group : byPrefix.entrySet()) {
+            Criterion[] conjuncts = new Criterion[last + 1];
+            for (int i = 0; i < last; i++) {
+                conjuncts[i] = Restrictions.eq(rowKeyBindings.get(i).getNameFullPath(), group.getKey().get(i));
+            }
+            List<Object> values = group.getValue();
+            conjuncts[last] = values.size() == 1 ? Restrictions.eq(lastProperty, values.get(0))
+                    : Restrictions.in(lastProperty, values);
+            branches[b++] = conjuncts.length == 1 ? conjuncts[0] : Restrictions.and(conjuncts);
+        }
+        return branches.length == 1 ? branches[0] : Restrictions.or(branches);
+    }
+
+    private List<Object> rowKey(T entity) {
+        Object[] key = new Object[rowKeyBindings.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = normalize(OrderingComparator.propertyValue(entity, rowKeyBindings.get(i).getNameFullPath()));
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Make key values read from the entity equal to the values the callers loaded, whatever their numeric width or
+     * decimal scale.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros();
+        }
+        if (value instanceof Date && value.getClass() != Date.class) {
+            return new Date(((Date) value).getTime());
+        }
+        return value;
+    }
+}
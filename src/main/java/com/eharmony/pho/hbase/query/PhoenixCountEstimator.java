@@ -0,0 +1,179 @@
+package com.eharmony.pho.hbase.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.expression.Expression;
+import com.eharmony.pho.query.criterion.junction.Junction;
+
+/**
+ * Estimates row counts without scanning: the row and byte estimates of an <code>EXPLAIN</code> of the select cover
+ * the key range its criteria imply, and the average rows per guidepost from <code>SYSTEM.STATS</code> bound the error
+ * of the estimate. Guidepost averages are cached per table since statistics only change on compaction or
+ * <code>UPDATE STATISTICS</code>.
+ */
+public class PhoenixCountEstimator {
+
+    private static final String GUIDEPOST_QUERY = "SELECT COUNT(*), SUM(GUIDE_POSTS_ROW_COUNT) FROM SYSTEM.STATS"
+            + " WHERE PHYSICAL_NAME = ?";
+
+    private static final Logger log = LoggerFactory.getLogger(PhoenixCountEstimator.class);
+
+    private final PhoenixHBaseQueryTranslator queryTranslator;
+    private final ConcurrentMap<String, long[]> guidepostRows = new ConcurrentHashMap<String, long[]>();
+    private volatile long statisticsCacheMillis = TimeUnit.MINUTES.toMillis(10);
+
+    public PhoenixCountEstimator(PhoenixHBaseQueryTranslator queryTranslator) {
+        this.queryTranslator = queryTranslator;
+    }
+
+    /**
+     * Estimate the number of rows matching the criteria of a select.
+     *
+     * @param query
+     *            the select, its ordering, limit and projections are ignored
+     * @param conn
+     *            the connection
+     * @return the estimate, {@link CountEstimate#isAvailable()} is false if the table has no statistics
+     */
+    public <T, R> CountEstimate estimate(QuerySelect<T, R> query, Connection conn) {
+        String explain = queryTranslator.translateExplain(query);
+        if (explain == null) {
+            return CountEstimate.none();
+        }
+        Long rows = null;
+        Long bytes = null;
+        Long timestamp = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = conn.createStatement();
+            resultSet = statement.executeQuery(explain);
+            // every line of the plan carries the same estimates
+            while (rows == null && resultSet.next()) {
+                rows = longColumn(resultSet, "EST_ROWS_READ");
+                bytes = longColumn(resultSet, "EST_BYTES_READ");
+                timestamp = longColumn(resultSet, "EST_INFO_TS");
+            }
+        } catch (SQLException ex) {
+            throw new DataStoreException(ex.getMessage(), ex);
+        } finally {
+            closeSafe(resultSet, statement);
+        }
+        if (rows == null) {
+            return CountEstimate.unavailable();
+        }
+        long perGuidepost = rowsPerGuidepost(queryTranslator.resolveTableName(query.getEntityClass()), conn);
+        // the first and the last guidepost of the range may each be counted whole or missed
+        long errorBound = perGuidepost < 0 ? -1 : 2 * perGuidepost;
+        return new CountEstimate(rows, bytes != null ? bytes : -1, errorBound, filtersBeyondRowKey(query), timestamp);
+    }
+
+    public long getStatisticsCacheMillis() {
+        return statisticsCacheMillis;
+    }
+
+    /**
+     * How long the guidepost averages of a table are reused, 0 reads them for every estimate.
+     *
+     * @param statisticsCacheMillis
+     *            the time to live
+     */
+    public void setStatisticsCacheMillis(long statisticsCacheMillis) {
+        this.statisticsCacheMillis = statisticsCacheMillis;
+    }
+
+    private long rowsPerGuidepost(String tableName, Connection conn) {
+        String physicalName = tableName.toUpperCase();
+        long now = System.currentTimeMillis();
+        long[] cached = guidepostRows.get(physicalName);
+        if (cached != null && cached[1] > now) {
+            return cached[0];
+        }
+        long perGuidepost = -1;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = conn.prepareStatement(GUIDEPOST_QUERY);
+            statement.setString(1, physicalName);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                long guideposts = resultSet.getLong(1);
+                long rows = resultSet.getLong(2);
+                if (guideposts > 0) {
+                    perGuidepost = (rows + guideposts - 1) / guideposts;
+                }
+            }
+        } catch (SQLException ex) {
+            // SYSTEM.STATS may not be readable, the estimate is still useful without a bound
+            log.debug("Unable to read the guideposts of {}", physicalName, ex);
+        } finally {
+            closeSafe(resultSet, statement);
+        }
+        guidepostRows.put(physicalName, new long[] { perGuidepost, now + statisticsCacheMillis });
+        return perGuidepost;
+    }
+
+    private boolean filtersBeyondRowKey(QuerySelect<?, ?> query) {
+        Set<String> rowKey = new HashSet<String>();
+        for (EntityPropertyBinding binding : queryTranslator.getEntityPropertiesResolver().getRowKeyPropertyBindings(
+                query.getEntityClass())) {
+            rowKey.add(binding.getName());
+        }
+        return filtersBeyond(query.getCriteria(), rowKey);
+    }
+
+    private static boolean filtersBeyond(Criterion criterion, Set<String> rowKey) {
+        if (criterion instanceof Expression) {
+            return !rowKey.contains(((Expression) criterion).getPropertyName());
+        }
+        if (criterion instanceof Junction) {
+            for (Criterion c : ((Junction) criterion).getCriteria()) {
+                if (filtersBeyond(c, rowKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return criterion != null;
+    }
+
+    private static Long longColumn(ResultSet resultSet, String column) {
+        try {
+            Object value = resultSet.getObject(column);
+            return value instanceof Number ? ((Number) value).longValue() : null;
+        } catch (SQLException ex) {
+            // phoenix releases before 4.14 do not report estimates
+            return null;
+        }
+    }
+
+    private static void closeSafe(ResultSet resultSet, Statement statement) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            log.warn("Exception while closing the statement", ex);
+        }
+    }
+}
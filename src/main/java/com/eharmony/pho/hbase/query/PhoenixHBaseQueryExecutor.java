@@ -1,21 +1,40 @@
 package com.eharmony.pho.hbase.query;
 
+import java.io.File;
+import java.lang.reflect.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.metrics.PhoenixFlightRecorder;
+import com.eharmony.pho.hbase.metrics.PhoenixQueryMetrics;
+import com.eharmony.pho.hbase.metrics.QueryStatisticsRegistry;
+import com.eharmony.pho.hbase.metrics.SlowQueryLog;
 import com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper;
 import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.hbase.translator.QueryTemplate;
+import com.eharmony.pho.mapper.EntityChangeTracker;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.Aggregates;
+import com.eharmony.pho.query.GroupKey;
+import com.eharmony.pho.query.OrderingComparator;
 import com.eharmony.pho.query.QuerySelect;
 import com.eharmony.pho.query.QueryUpdate;
 import com.eharmony.pho.query.builder.QueryUpdateBuilder;
@@ -35,9 +54,19 @@ public class PhoenixHBaseQueryExecutor {
     private final PhoenixHBaseQueryTranslator queryTranslator;
     private final PhoenixProjectedResultMapper resultMapper;
     private boolean showSQL = true;
+    private volatile QueryStatisticsRegistry queryStatistics = new QueryStatisticsRegistry();
+    private volatile SlowQueryLog slowQueryLog = new SlowQueryLog();
+    private final PreparedStatementCache statementCache = new PreparedStatementCache();
+    private final PhoenixCountEstimator countEstimator;
+    private long spillHeapBudgetBytes = 64L << 20;
+    private File spillDirectory;
+    private volatile boolean coalesceReads;
+    private final SingleFlight<List<Object>, Iterable<?>> inFlightReads = new SingleFlight<List<Object>, Iterable<?>>();
     //Holder for statement properties like queryTimeOut.
     private final Map<String, String> statementProperties;
     private static final String QUERY_TIMEOUT_SEC = "queryTimeoutSec";
+    // connection property of the phoenix tenant, PhoenixRuntime.TENANT_ID_ATTRIB
+    private static final String TENANT_ID = "TenantId";
 
     public PhoenixHBaseQueryExecutor(final PhoenixHBaseQueryTranslator queryTranslator,
             final PhoenixProjectedResultMapper resultMapper) {
@@ -49,20 +78,298 @@ public class PhoenixHBaseQueryExecutor {
         this.queryTranslator = Preconditions.checkNotNull(queryTranslator);
         this.resultMapper = Preconditions.checkNotNull(resultMapper);
         this.statementProperties = Preconditions.checkNotNull(statementProperties);
+        this.countEstimator = new PhoenixCountEstimator(queryTranslator);
     }
 
-    public <T, R> Iterable<R> find(QuerySelect<T, R> query, Connection conn) throws SQLException {
+    public <T, R> Iterable<R> find(final QuerySelect<T, R> query, final Connection conn) throws SQLException {
+        final ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        try {
+            final String queryStr = queryTranslator.translateIfSatisfiable(query);
+            trace.translated(queryStr);
+            if (queryStr == null) {
+                // the criteria contradict each other, no need for a round trip
+                finish(trace, 0, 0, false);
+                return Collections.<R> emptyList();
+            }
+            Iterable<R> results;
+            if (coalesceReads) {
+                // the same sql reads other rows on another cluster or for another tenant
+                List<Object> key = Arrays.<Object> asList(queryStr, query.getEntityClass(), query.getReturnType(),
+                        conn.getMetaData().getURL(), conn.getClientInfo(TENANT_ID));
+                Iterable<?> shared = inFlightReads.execute(key, new Callable<Iterable<?>>() {
+                    @Override
+                    public Iterable<?> call() throws Exception {
+                        return executeSelect(query, queryStr, conn, trace);
+                    }
+                });
+                // every caller gets its own list of the shared rows
+                @SuppressWarnings("unchecked")
+                Collection<R> rows = (Collection<R>) shared;
+                results = new ArrayList<R>(rows);
+            } else {
+                results = executeSelect(query, queryStr, conn, trace);
+            }
+            // callers that shared the select of another spent their time waiting for its execution
+            trace.executed();
+            finish(trace, results instanceof Collection ? ((Collection<?>) results).size() : 0, 0, false);
+            return results;
+        } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
+            throw new DataStoreException(hx.getMessage(), hx);
+        }
+    }
+
+    private <T, R> Iterable<R> executeSelect(QuerySelect<T, R> query, String queryStr, Connection conn,
+            ExecutionTrace trace) throws Exception {
         ResultSet resultSet = null;
         Statement statement = null;
         try {
-            String queryStr = queryTranslator.translate(query);
             if (showSQL) {
                 log.info("Query String: {}", queryStr);
             }
             statement = createStatement(conn);
             resultSet = statement.executeQuery(queryStr);
-            return resultMapper.mapResults(resultSet, query.getReturnType());
+            trace.executed();
+            return resultMapper.mapResults(resultSet, query);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    public boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    /**
+     * Share one execution of {@link #find(QuerySelect, Connection)} between concurrent callers of the same select:
+     * while a select is in flight, callers translating to the same sql and return type wait for it instead of running
+     * their own, which removes thundering herds on hot rows. Only selects on connections to the same url and tenant
+     * are shared. Nothing is cached once the select completes, and its exception is thrown to every caller. Callers
+     * get their own result list, but share the mapped entities, which must then be treated as read only. Off by
+     * default.
+     * 
+     * A caller joining a select in flight gets rows read before the caller started, so coalescing gives up
+     * read-your-writes: a select following a commit of the same thread may not see that commit. Leave it off for
+     * callers that read back what they just wrote.
+     * 
+     * @param coalesceReads
+     *            true to coalesce concurrent identical selects
+     */
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    /**
+     * @return the number of selects that shared the execution of an identical select in flight
+     */
+    public long getCoalescedReads() {
+        return inFlightReads.getShared();
+    }
+
+    /**
+     * Execute a select with group by and aggregate projections and key the aggregates by their group.
+     * 
+     * @param query
+     *            the aggregated select
+     * @param conn
+     *            the connection
+     * @return the aggregates of every group, in the order of the rows
+     * @throws SQLException
+     *             if the result set can not be closed
+     */
+    public <T, R> Map<GroupKey, Aggregates> aggregate(QuerySelect<T, R> query, Connection conn) throws SQLException {
+        ResultSet resultSet = null;
+        Statement statement = null;
+        ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        try {
+            String queryStr = queryTranslator.translateIfSatisfiable(query);
+            trace.translated(queryStr);
+            if (queryStr == null) {
+                finish(trace, 0, 0, false);
+                return Collections.<GroupKey, Aggregates> emptyMap();
+            }
+            if (showSQL) {
+                log.info("Query String: {}", queryStr);
+            }
+            statement = createStatement(conn);
+            resultSet = statement.executeQuery(queryStr);
+            trace.executed();
+            Map<GroupKey, Aggregates> groups = resultMapper.mapAggregates(resultSet, query);
+            finish(trace, groups.size(), 0, false);
+            return groups;
+        } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
+            throw new DataStoreException(hx.getMessage(), hx);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Execute a select and materialize its entities in a re-iterable result that keeps them on the heap up to
+     * {@link #getSpillHeapBudgetBytes()} and spills them to a memory mapped file past it, see {@link SpillableResult}.
+     * The caller closes the result to delete the file.
+     * 
+     * @param query
+     *            the select, returning its entity class
+     * @param conn
+     *            the connection
+     * @return the sealed result
+     * @throws SQLException
+     *             if the result set can not be closed
+     * @throws IllegalArgumentException
+     *             if the query does not return entities or the entity can not be encoded
+     */
+    public <T> SpillableResult<T> materialize(QuerySelect<T, T> query, Connection conn) throws SQLException {
+        Preconditions.checkArgument(query.getEntityClass().equals(query.getReturnType()),
+                "Only entities can be materialized, not %s", query.getReturnType().getName());
+        SpillableResult<T> results = new SpillableResult<T>(resultMapper.getBinaryCodec(query.getEntityClass()),
+                spillHeapBudgetBytes, spillDirectory);
+        ResultSet resultSet = null;
+        Statement statement = null;
+        ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        try {
+            String queryStr = queryTranslator.translateIfSatisfiable(query);
+            trace.translated(queryStr);
+            if (queryStr == null) {
+                results.seal();
+                finish(trace, 0, 0, false);
+                return results;
+            }
+            if (showSQL) {
+                log.info("Query String: {}", queryStr);
+            }
+            statement = createStatement(conn);
+            resultSet = statement.executeQuery(queryStr);
+            trace.executed();
+            resultMapper.mapResults(resultSet, query.getEntityClass(), results);
+            finish(trace, results.size(), 0, false);
+            return results;
+        } catch (final Exception hx) {
+            results.close();
+            finish(trace, 0, 0, true);
+            throw new DataStoreException(hx.getMessage(), hx);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    public long getSpillHeapBudgetBytes() {
+        return spillHeapBudgetBytes;
+    }
+
+    /**
+     * Bound the estimated heap a materialized result may use before its rows are spilled to disk. Default is 64 MB.
+     * 
+     * @param spillHeapBudgetBytes
+     *            the budget in bytes, 0 spills every non empty result
+     */
+    public void setSpillHeapBudgetBytes(long spillHeapBudgetBytes) {
+        Preconditions.checkArgument(spillHeapBudgetBytes >= 0, "spillHeapBudgetBytes must not be negative");
+        this.spillHeapBudgetBytes = spillHeapBudgetBytes;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Set the directory of the spill files and delete the files left in it by results never closed, see
+     * {@link SpillableResult#deleteSpillFiles(File)}. Set it once, before results are materialized, to a directory
+     * used by this executor only.
+     * 
+     * @param spillDirectory
+     *            the directory of the spill files, null for <code>java.io.tmpdir</code> which is never cleaned up
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        if (spillDirectory != null) {
+            int deleted = SpillableResult.deleteSpillFiles(spillDirectory);
+            if (deleted > 0) {
+                log.info("Deleted {} spill files left in {}", deleted, spillDirectory);
+            }
+        }
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Execute a select of a single numeric column and read it with {@link ResultSet#getLong(int)}, without boxing.
+     * Null values are skipped.
+     * 
+     * @param query
+     *            the select, with one return field or one aggregate projection
+     * @param conn
+     *            the connection
+     * @return the values, in the order of the rows
+     * @throws SQLException
+     *             if the result set can not be closed
+     */
+    public <T, R> long[] findLongs(QuerySelect<T, R> query, Connection conn) throws SQLException {
+        return (long[]) findPrimitives(query, conn, long.class);
+    }
+
+    /**
+     * Execute a select of a single numeric column and read it with {@link ResultSet#getInt(int)}, see
+     * {@link #findLongs(QuerySelect, Connection)}.
+     */
+    public <T, R> int[] findInts(QuerySelect<T, R> query, Connection conn) throws SQLException {
+        return (int[]) findPrimitives(query, conn, int.class);
+    }
+
+    /**
+     * Execute a select of a single numeric column and read it with {@link ResultSet#getDouble(int)}, see
+     * {@link #findLongs(QuerySelect, Connection)}.
+     */
+    public <T, R> double[] findDoubles(QuerySelect<T, R> query, Connection conn) throws SQLException {
+        return (double[]) findPrimitives(query, conn, double.class);
+    }
+
+    private <T, R> Object findPrimitives(QuerySelect<T, R> query, Connection conn, Class<?> componentType)
+            throws SQLException {
+        ResultSet resultSet = null;
+        Statement statement = null;
+        ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        try {
+            String queryStr = queryTranslator.translateIfSatisfiable(query);
+            trace.translated(queryStr);
+            if (queryStr == null) {
+                finish(trace, 0, 0, false);
+                return Array.newInstance(componentType, 0);
+            }
+            if (showSQL) {
+                log.info("Query String: {}", queryStr);
+            }
+            statement = createStatement(conn);
+            resultSet = statement.executeQuery(queryStr);
+            trace.executed();
+            Integer maxResults = query.getMaxResults();
+            int expectedRows = maxResults != null && maxResults > 0 ? maxResults : statement.getFetchSize();
+            Object values;
+            if (componentType == long.class) {
+                values = resultMapper.mapLongs(resultSet, expectedRows);
+            } else if (componentType == int.class) {
+                values = resultMapper.mapInts(resultSet, expectedRows);
+            } else {
+                values = resultMapper.mapDoubles(resultSet, expectedRows);
+            }
+            finish(trace, Array.getLength(values), 0, false);
+            return values;
         } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
             throw new DataStoreException(hx.getMessage(), hx);
         } finally {
             if (resultSet != null) {
@@ -74,6 +381,149 @@ public class PhoenixHBaseQueryExecutor {
         }
     }
 
+    /**
+     * Execute a select and read its rows into primitive columns instead of entities, see {@link ColumnarResult}.
+     * 
+     * @param query
+     *            the select, usually with the few return fields to read
+     * @param conn
+     *            the connection
+     * @return the columns
+     * @throws SQLException
+     *             if the result set can not be closed
+     */
+    public <T, R> ColumnarResult findColumns(QuerySelect<T, R> query, Connection conn) throws SQLException {
+        ResultSet resultSet = null;
+        Statement statement = null;
+        ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        try {
+            String queryStr = queryTranslator.translateIfSatisfiable(query);
+            trace.translated(queryStr);
+            if (queryStr == null) {
+                finish(trace, 0, 0, false);
+                return resultMapper.emptyColumns(query);
+            }
+            if (showSQL) {
+                log.info("Query String: {}", queryStr);
+            }
+            statement = createStatement(conn);
+            resultSet = statement.executeQuery(queryStr);
+            trace.executed();
+            Integer maxResults = query.getMaxResults();
+            ColumnarResult columns = resultMapper.mapColumns(resultSet, query,
+                    maxResults != null && maxResults > 0 ? maxResults : statement.getFetchSize());
+            finish(trace, columns.getRowCount(), 0, false);
+            return columns;
+        } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
+            throw new DataStoreException(hx.getMessage(), hx);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Compile a select with {@link com.eharmony.pho.query.criterion.Parameter} placeholders once, see
+     * {@link #find(QueryTemplate, Object[], Connection)}.
+     * 
+     * @param query
+     *            the select
+     * @return the compiled template
+     */
+    public <T, R> QueryTemplate<T, R> compile(QuerySelect<T, R> query) {
+        return queryTranslator.compile(query);
+    }
+
+    /**
+     * Execute a compiled template with the given values through a statement prepared once per connection. The
+     * statement stays open until the connection is passed to {@link #release(Connection)}, which the owner of the
+     * connection calls before closing it.
+     * 
+     * @param template
+     *            the compiled select
+     * @param values
+     *            one value per parameter, in the order of {@link QueryTemplate#getParameterNames()}
+     * @param conn
+     *            the connection
+     * @return the mapped results
+     * @throws SQLException
+     *             if the result set can not be closed
+     */
+    public <T, R> Iterable<R> find(QueryTemplate<T, R> template, Object[] values, Connection conn)
+            throws SQLException {
+        QuerySelect<T, R> query = template.getQuery();
+        ExecutionTrace trace = new ExecutionTrace(query.getEntityClass(), "select");
+        trace.translated(template.getSql());
+        if (template.isUnsatisfiable()) {
+            finish(trace, 0, 0, false);
+            return Collections.<R> emptyList();
+        }
+        ResultSet resultSet = null;
+        PreparedStatement ps = null;
+        boolean cached = true;
+        try {
+            ps = statementCache.get(conn, template.getSql());
+            if (ps == null) {
+                if (showSQL) {
+                    log.info("Query String: {}", template.getSql());
+                }
+                ps = createPreparedStatement(conn, template.getSql());
+                cached = statementCache.put(conn, template.getSql(), ps);
+            }
+            template.bind(ps, values);
+            resultSet = ps.executeQuery();
+            trace.executed();
+            Iterable<R> results = resultMapper.mapResults(resultSet, query);
+            finish(trace, results instanceof Collection ? ((Collection<?>) results).size() : 0, 0, false);
+            return results;
+        } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
+            throw new DataStoreException(hx.getMessage(), hx);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (!cached) {
+                closeStatementSafe(ps);
+            }
+        }
+    }
+
+    public <T, R> R findOne(QueryTemplate<T, R> template, Object[] values, Connection conn) throws SQLException {
+        Iterator<R> results = find(template, values, conn).iterator();
+        return results.hasNext() ? results.next() : null;
+    }
+
+    /**
+     * Close the template statements cached for a connection, see {@link #find(QueryTemplate, Object[], Connection)}.
+     * 
+     * @param conn
+     *            the connection about to be closed
+     */
+    public void release(Connection conn) {
+        statementCache.release(conn);
+    }
+
+    public int getMaxCachedStatementsPerConnection() {
+        return statementCache.getMaxStatementsPerConnection();
+    }
+
+    /**
+     * Bound the number of template statements kept open per connection, the least recently used one is closed when
+     * the bound is reached. Default is 32.
+     * 
+     * @param maxCachedStatementsPerConnection
+     *            0 disables caching, statements are then prepared and closed on every execution
+     */
+    public void setMaxCachedStatementsPerConnection(int maxCachedStatementsPerConnection) {
+        statementCache.setMaxStatementsPerConnection(maxCachedStatementsPerConnection);
+    }
+
     private void closeStatementSafe(PreparedStatement ps) {
         if (ps != null) {
             try {
@@ -84,6 +534,23 @@ public class PhoenixHBaseQueryExecutor {
         }
     }
 
+    /**
+     * Estimate the number of rows matching the criteria of a select from the table statistics, without scanning.
+     * 
+     * @param query
+     *            the select
+     * @param conn
+     *            the connection
+     * @return the estimate and its error bound
+     */
+    public <T, R> CountEstimate estimateCount(QuerySelect<T, R> query, Connection conn) {
+        return countEstimator.estimate(query, conn);
+    }
+
+    public PhoenixCountEstimator getCountEstimator() {
+        return countEstimator;
+    }
+
     public <T, R> R findOne(QuerySelect<T, R> query, Connection conn) {
         try {
             Iterable<R> results = find(query, conn);
@@ -98,19 +565,27 @@ public class PhoenixHBaseQueryExecutor {
 
     public <T> T save(QueryUpdate<T> query, Connection conn) {
         PreparedStatement ps = null;
+        ExecutionTrace trace = new ExecutionTrace(query.getEntity() != null ? query.getEntity().getClass() : null,
+                "upsert");
         try {
             String queryStr = queryTranslator.translate(query);
+            trace.translated(queryStr);
             if (showSQL) {
                 log.info("Query String {}", queryStr);
             }
             ps = createPreparedStatement(conn, queryStr);
             
             int result = ps.executeUpdate();
+            trace.executed();
+            finish(trace, result, 0, result == 0);
             if (result == 0) {
                 throw new DataStoreException("Save Failed for query...");
             }
             return null;
+        } catch (final DataStoreException hx) {
+            throw hx;
         } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
             throw new DataStoreException(hx.getMessage(), hx);
         } finally {
             closeStatementSafe(ps);
@@ -118,26 +593,105 @@ public class PhoenixHBaseQueryExecutor {
     }
 
     public <T> T save(T entity, Connection conn) {
+        EntityChangeTracker changeTracker = resultMapper.getChangeTracker();
+        if (changeTracker != null) {
+            List<String> changedProperties = changeTracker.changedProperties(entity);
+            if (changedProperties != null) {
+                return saveChanges(entity, changedProperties, changeTracker, conn);
+            }
+        }
         PreparedStatement ps = null;
+        ExecutionTrace trace = new ExecutionTrace(entity.getClass(), "upsert");
         try {
             QueryUpdate<T> query = QueryUpdateBuilder.builderFor(entity).build();
             String queryStr = queryTranslator.translate(query);
+            trace.translated(queryStr);
             if (showSQL) {
                 log.info("Query String {}", queryStr);
             }
             ps = createPreparedStatement(conn, queryStr);
             int result = ps.executeUpdate();
+            trace.executed();
+            finish(trace, result, 0, result == 0);
             if (result == 0) {
                 throw new DataStoreException("Save Failed for query...");
             }
+            if (changeTracker != null) {
+                getQueryMetrics().recordColumnWrites(boundColumnCount(entity, null), 0);
+                changeTracker.snapshot(entity);
+            }
             return entity;
+        } catch (final DataStoreException hx) {
+            throw hx;
         } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
             throw new DataStoreException(hx.getMessage(), hx);
         } finally {
             closeStatementSafe(ps);
         }
     }
 
+    /**
+     * Upsert only the changed properties of a tracked entity, along with its row key. Nothing is sent when no
+     * property changed.
+     */
+    private <T> T saveChanges(T entity, List<String> changedProperties, EntityChangeTracker changeTracker,
+            Connection conn) {
+        int columns = mappedColumnCount(entity);
+        if (changedProperties.isEmpty()) {
+            if (showSQL) {
+                log.info("No changes for {}, skipping save", entity.getClass().getSimpleName());
+            }
+            getQueryMetrics().recordColumnWrites(0, columns);
+            return entity;
+        }
+        List<EntityPropertyBinding> rowKeyBindings = queryTranslator.getEntityPropertiesResolver()
+                .getRowKeyPropertyBindings(entity.getClass());
+        if (rowKeyBindings.isEmpty()) {
+            log.debug("No row key declared for {}, saving all properties", entity.getClass().getSimpleName());
+            changeTracker.forget(entity);
+            return save(entity, conn);
+        }
+        Set<String> selectedFields = new LinkedHashSet<String>();
+        for (EntityPropertyBinding rowKeyBinding : rowKeyBindings) {
+            selectedFields.add(rowKeyBinding.getName());
+        }
+        selectedFields.addAll(changedProperties);
+        save(QueryUpdateBuilder.builderFor(entity).update(new ArrayList<String>(selectedFields)).build(), conn);
+        getQueryMetrics().recordColumnWrites(boundColumnCount(entity, selectedFields),
+                columns - selectedFields.size());
+        changeTracker.snapshot(entity);
+        return entity;
+    }
+
+    private int mappedColumnCount(Object entity) {
+        Map<String, EntityPropertyBinding> bindings = queryTranslator.getEntityPropertiesResolver()
+                .getEntityPropertyNamePropertyBindingMap(entity.getClass());
+        return bindings != null ? bindings.size() : 0;
+    }
+
+    /**
+     * The number of columns an upsert of the properties binds: the translator leaves out null properties.
+     *
+     * @param properties
+     *            the saved properties, null for all mapped properties
+     */
+    private int boundColumnCount(Object entity, Collection<String> properties) {
+        Map<String, EntityPropertyBinding> bindings = queryTranslator.getEntityPropertiesResolver()
+                .getEntityPropertyNamePropertyBindingMap(entity.getClass());
+        if (bindings == null) {
+            return 0;
+        }
+        int bound = 0;
+        for (String property : properties != null ? properties : bindings.keySet()) {
+            EntityPropertyBinding binding = bindings.get(property);
+            if (binding != null && OrderingComparator.propertyValue(entity, binding.getNameFullPath()) != null) {
+                bound++;
+            }
+        }
+        return bound;
+    }
+
     public <T> Iterable<T> save(Iterable<T> entities, Connection conn) {
         try {
             final List<T> saved = new ArrayList<T>();
@@ -152,10 +706,19 @@ public class PhoenixHBaseQueryExecutor {
 
     public <T> int[] saveBatch(Iterable<T> entities, Connection conn) {
         PreparedStatement ps = null;
+        ExecutionTrace trace = new ExecutionTrace(null, "upsert batch");
         try {
-            ps = buildStatementWithBatch(entities, conn);
-            return ps.executeBatch();
+            ps = buildStatementWithBatch(entities, conn, trace);
+            int[] results = ps.executeBatch();
+            trace.executed();
+            long rows = 0;
+            for (int result : results) {
+                rows += Math.max(result, 0);
+            }
+            finish(trace, rows, results.length, false);
+            return results;
         } catch (final Exception hx) {
+            finish(trace, 0, 0, true);
             throw new DataStoreException(hx.getMessage(), hx);
         } finally {
             closeStatementSafe(ps);
@@ -163,7 +726,14 @@ public class PhoenixHBaseQueryExecutor {
     }
 
     public <T> PreparedStatement buildStatementWithBatch(Iterable<T> entities, Connection conn) throws SQLException {
+        return buildStatementWithBatch(entities, conn, null);
+    }
+
+    // entities may be a one shot iterable, the trace is named after the first entity of the single pass
+    private <T> PreparedStatement buildStatementWithBatch(Iterable<T> entities, Connection conn, ExecutionTrace trace)
+            throws SQLException {
         PreparedStatement preparedStatement = null;
+        String firstQuery = null;
         for (final T entity : entities) {
             QueryUpdate<T> query = QueryUpdateBuilder.builderFor(entity).build();
             String queryStr = queryTranslator.translate(query);
@@ -172,9 +742,16 @@ public class PhoenixHBaseQueryExecutor {
             }
             if (preparedStatement == null) {
                 preparedStatement = createPreparedStatement(conn, queryStr);
+                firstQuery = queryStr;
+                if (trace != null) {
+                    trace.setEntityClass(entity.getClass());
+                }
             }
             preparedStatement.addBatch(queryStr);
         }
+        if (trace != null) {
+            trace.translated(firstQuery);
+        }
         return preparedStatement;
     }
 
@@ -206,10 +783,81 @@ public class PhoenixHBaseQueryExecutor {
     	
     }
     
+    public PhoenixHBaseQueryTranslator getQueryTranslator() {
+        return queryTranslator;
+    }
+
     protected PhoenixProjectedResultMapper getMapper() {
         return resultMapper;
     }
 
+    private void finish(ExecutionTrace trace, long rows, int batchSize, boolean error) {
+        long end = System.nanoTime();
+        long total = end - trace.getStart();
+        QueryStatisticsRegistry statistics = queryStatistics;
+        if (statistics != null && trace.getSql() != null) {
+            statistics.record(trace.getSql(), total, rows, error);
+        }
+        SlowQueryLog slowQueries = slowQueryLog;
+        if (slowQueries != null && slowQueries.isSlow(total)) {
+            slowQueries.record(trace.getSql(), trace.getEntityClass(), trace.getOperation(), trace.translateNanos(),
+                    trace.executeNanos(), trace.mapNanos(end), total, rows, batchSize, error);
+        }
+        PhoenixFlightRecorder.commitQuery(trace.getFlightRecorderEvent(), trace.getEntityClass(),
+                trace.getOperation(), trace.getSql(), trace.translateNanos(), trace.executeNanos(),
+                trace.mapNanos(end), rows, batchSize, error);
+    }
+
+    public QueryStatisticsRegistry getQueryStatistics() {
+        return queryStatistics;
+    }
+
+    /**
+     * Collect execution statistics per query shape, see {@link QueryStatisticsRegistry#registerMBean(String)} to
+     * expose them through JMX.
+     * 
+     * @param queryStatistics
+     *            the registry, null disables statistics
+     */
+    public void setQueryStatistics(QueryStatisticsRegistry queryStatistics) {
+        this.queryStatistics = queryStatistics;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Keep the most recent executions slower than the log's threshold, see {@link SlowQueryLog#registerMBean(String)}
+     * to expose them through JMX.
+     * 
+     * @param slowQueryLog
+     *            the log, null disables slow query recording
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public PhoenixQueryMetrics getQueryMetrics() {
+        return queryTranslator.getQueryMetrics();
+    }
+
+    /**
+     * Enable change tracking: entities loaded through this executor are snapshotted and a later
+     * {@link #save(Object, Connection)} of the same instance upserts only the properties that changed, plus the row
+     * key. Entities must declare their row key with {@link com.eharmony.pho.mapper.annotation.RowKey}.
+     * 
+     * @param changeTracker
+     *            the tracker, null disables tracking
+     */
+    public void setChangeTracker(EntityChangeTracker changeTracker) {
+        resultMapper.setChangeTracker(changeTracker);
+    }
+
+    public EntityChangeTracker getChangeTracker() {
+        return resultMapper.getChangeTracker();
+    }
+
     public boolean isShowSQL() {
         return showSQL;
     }
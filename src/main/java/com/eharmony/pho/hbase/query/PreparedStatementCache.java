@@ -0,0 +1,157 @@
+package com.eharmony.pho.hbase.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepared statements per connection and sql, least recently used ones are closed once a connection holds
+ * <code>maxStatementsPerConnection</code>. A statement keeps its connection reachable, so entries are not weak: the
+ * owner of a connection releases its statements with {@link #release(Connection)} before closing it, and the
+ * statements of connections found closed are dropped whenever a statement is cached. Like the connection itself, a
+ * cached statement must only be used by one thread at a time.
+ */
+final class PreparedStatementCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+    private final Map<Connection, Map<String, PreparedStatement>> statements =
+            new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+    private volatile int maxStatementsPerConnection = 32;
+
+    /**
+     * @return the open statement prepared earlier for the sql on this connection, or null
+     */
+    PreparedStatement get(Connection conn, String sql) throws SQLException {
+        Map<String, PreparedStatement> cached;
+        synchronized (statements) {
+            cached = statements.get(conn);
+        }
+        if (cached == null) {
+            return null;
+        }
+        PreparedStatement ps = cached.get(sql);
+        if (ps != null && ps.isClosed()) {
+            cached.remove(sql);
+            return null;
+        }
+        return ps;
+    }
+
+    /**
+     * @return false if caching is disabled and the caller remains responsible for closing the statement
+     */
+    boolean put(Connection conn, String sql, PreparedStatement ps) {
+        final int max = maxStatementsPerConnection;
+        if (max <= 0) {
+            return false;
+        }
+        Map<String, PreparedStatement> cached;
+        List<Map<String, PreparedStatement>> abandoned;
+        synchronized (statements) {
+            abandoned = removeClosedConnections();
+            cached = statements.get(conn);
+            if (cached == null) {
+                cached = Collections.synchronizedMap(new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() > max) {
+                            close(eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                });
+                statements.put(conn, cached);
+            }
+        }
+        for (Map<String, PreparedStatement> closedConnection : abandoned) {
+            closeAll(closedConnection);
+        }
+        PreparedStatement previous = cached.put(sql, ps);
+        if (previous != null && previous != ps) {
+            close(previous);
+        }
+        return true;
+    }
+
+    /**
+     * Close and forget the statements cached for a connection.
+     */
+    void release(Connection conn) {
+        Map<String, PreparedStatement> cached;
+        synchronized (statements) {
+            cached = statements.remove(conn);
+        }
+        if (cached != null) {
+            closeAll(cached);
+        }
+    }
+
+    /**
+     * @return the number of connections with cached statements
+     */
+    int getConnectionCount() {
+        synchronized (statements) {
+            return statements.size();
+        }
+    }
+
+    int getMaxStatementsPerConnection() {
+        return maxStatementsPerConnection;
+    }
+
+    void setMaxStatementsPerConnection(int maxStatementsPerConnection) {
+        this.maxStatementsPerConnection = maxStatementsPerConnection;
+    }
+
+    private List<Map<String, PreparedStatement>> removeClosedConnections() {
+        List<Map<String, PreparedStatement>> abandoned = new ArrayList<Map<String, PreparedStatement>>(0);
+        Iterator<Map.Entry<Connection, Map<String, PreparedStatement>>> entries = statements.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Connection, Map<String, PreparedStatement>> entry = entries.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            } catch (SQLException ex) {
+                closed = true;
+            }
+            if (closed) {
+                abandoned.add(entry.getValue());
+                entries.remove();
+            }
+        }
+        return abandoned;
+    }
+
+    private static void closeAll(Map<String, PreparedStatement> cached) {
+        List<PreparedStatement> open;
+        synchronized (cached) {
+            open = new ArrayList<PreparedStatement>(cached.values());
+            cached.clear();
+        }
+        for (PreparedStatement ps : open) {
+            close(ps);
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            log.warn("Exception while closing a cached PreparedStatement", ex);
+        }
+    }
+}
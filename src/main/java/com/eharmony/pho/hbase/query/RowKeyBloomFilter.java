@@ -0,0 +1,401 @@
+package com.eharmony.pho.hbase.query;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.QueryOperationType;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.Parameter;
+import com.eharmony.pho.query.criterion.expression.EqualityExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.primitives.Primitives;
+
+/**
+ * A Bloom filter of the row keys present in the table of one entity class, used as a negative cache for point reads.
+ * A select pinning every <code>@RowKey</code> property with an equality, whose key the filter has never seen, can not
+ * match a row and is answered without a round trip. Keys the filter might contain, and every other select, run as
+ * usual.
+ *
+ * The filter answers only once it was built by {@link #rebuild(PhoenixHBaseQueryExecutor, Connection)} from a scan of
+ * the row key columns. Saved entities must be added with {@link #put(Object)} after they are committed; keys saved
+ * during a rebuild are added to the filter being built as well. Deleted rows stay in the filter until the next rebuild,
+ * which only costs their lookups a round trip.
+ *
+ * Key values are converted to the type of their property before they are hashed, so the values a scan reads back, the
+ * values of saved entities and the values of queries hash alike: a <code>BigInteger</code> key read back as a
+ * <code>BigDecimal</code>, or a <code>long</code> key queried with an <code>int</code>, is found. A point read whose
+ * value can not be converted to the type of its property is not filtered.
+ */
+public class RowKeyBloomFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RowKeyBloomFilter.class);
+
+    private final Class<?> entityClass;
+    private final List<EntityPropertyBinding> rowKeyBindings;
+    private final long expectedKeys;
+    private final double falsePositiveRate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private BloomFilter<List<Object>> filter;
+    private BloomFilter<List<Object>> building;
+    private long keys;
+    private long buildingKeys;
+    private final AtomicLong checkedLookups = new AtomicLong();
+    private final AtomicLong skippedLookups = new AtomicLong();
+
+    /**
+     * @param entityClass
+     *            the entity class
+     * @param rowKeyBindings
+     *            the row key properties of the entity, in row key order
+     * @param expectedKeys
+     *            the number of rows the filter is sized for, the false positive rate grows past it
+     * @param falsePositiveRate
+     *            the rate of absent keys the filter reports as possibly present at the expected number of rows
+     */
+    public RowKeyBloomFilter(Class<?> entityClass, List<EntityPropertyBinding> rowKeyBindings, long expectedKeys,
+            double falsePositiveRate) {
+        Preconditions.checkArgument(!CollectionUtils.isEmpty(rowKeyBindings), "%s declares no @RowKey properties",
+                entityClass.getName());
+        Preconditions.checkArgument(expectedKeys > 0, "expectedKeys must be positive");
+        Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1,
+                "falsePositiveRate must be between 0 and 1");
+        this.entityClass = entityClass;
+        this.rowKeyBindings = new ArrayList<EntityPropertyBinding>(rowKeyBindings);
+        this.expectedKeys = expectedKeys;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Build a new filter from a scan of the row key columns and replace the current one with it.
+     *
+     * @param executor
+     *            the executor of the scan
+     * @param conn
+     *            the connection of the scan
+     * @return the number of keys scanned
+     * @throws SQLException
+     *             if the scan fails, the current filter is kept
+     */
+    public synchronized long rebuild(PhoenixHBaseQueryExecutor executor, Connection conn) throws SQLException {
+        String[] names = new String[rowKeyBindings.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = rowKeyBindings.get(i).getNameFullPath();
+        }
+        lock.writeLock().lock();
+        try {
+            building = BloomFilter.create(RowKeyFunnel.INSTANCE, expectedKeys, falsePositiveRate);
+            buildingKeys = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long start = System.currentTimeMillis();
+        ColumnarResult result = null;
+        try {
+            result = executor.findColumns(QueryBuilder.builderFor(entityClass, entityClass, names).select().build(),
+                    conn);
+        } finally {
+            if (result == null) {
+                lock.writeLock().lock();
+                try {
+                    building = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+        ColumnarResult.Column[] columns = new ColumnarResult.Column[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = result.getColumn(names[i]);
+        }
+        lock.writeLock().lock();
+        try {
+            for (int row = 0; row < result.getRowCount(); row++) {
+                Object[] key = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    key[i] = storedKeyValue(i, columns[i].get(row));
+                }
+                building.put(Arrays.asList(key));
+            }
+            filter = building;
+            keys = buildingKeys + result.getRowCount();
+            building = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Built the row key filter of {} from {} keys in {} ms: {}", entityClass.getSimpleName(),
+                result.getRowCount(), System.currentTimeMillis() - start, this);
+        return result.getRowCount();
+    }
+
+    /**
+     * Add the row key of a saved entity.
+     *
+     * @param entity
+     *            the entity, committed to the table
+     */
+    public void put(Object entity) {
+        Object[] key = new Object[rowKeyBindings.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = storedKeyValue(i,
+                    OrderingComparator.propertyValue(entity, rowKeyBindings.get(i).getNameFullPath()));
+        }
+        List<Object> rowKey = Arrays.asList(key);
+        lock.writeLock().lock();
+        try {
+            if (filter != null) {
+                filter.put(rowKey);
+                keys++;
+            }
+            if (building != null) {
+                building.put(rowKey);
+                buildingKeys++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param query
+     *            a select of the entity class of the filter
+     * @return false if the select is a point read of a row key that is not in the table, true if it might match rows
+     */
+    public boolean mightMatch(QuerySelect<?, ?> query) {
+        List<Object> rowKey = pinnedRowKey(query);
+        if (rowKey == null) {
+            return true;
+        }
+        boolean mightContain;
+        lock.readLock().lock();
+        try {
+            if (filter == null) {
+                return true;
+            }
+            mightContain = filter.mightContain(rowKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+        checkedLookups.incrementAndGet();
+        if (!mightContain) {
+            skippedLookups.incrementAndGet();
+        }
+        return mightContain;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public boolean isBuilt() {
+        lock.readLock().lock();
+        try {
+            return filter != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getExpectedKeys() {
+        return expectedKeys;
+    }
+
+    /**
+     * @return the configured false positive rate at the expected number of keys
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return the false positive rate estimated from the bits currently set, 0 if the filter is not built
+     */
+    public double getExpectedFalsePositiveRate() {
+        lock.readLock().lock();
+        try {
+            return filter != null ? filter.expectedFpp() : 0d;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the keys added since the last rebuild, including keys saved more than once
+     */
+    public long getKeyCount() {
+        lock.readLock().lock();
+        try {
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the bit array of the filter, derived from the expected keys and the false positive rate
+     */
+    public long getSizeBytes() {
+        double bits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        return ((long) bits + 63) / 64 * 8;
+    }
+
+    /**
+     * @return the point reads checked against the filter
+     */
+    public long getCheckedLookups() {
+        return checkedLookups.get();
+    }
+
+    /**
+     * @return the point reads answered without a round trip
+     */
+    public long getSkippedLookups() {
+        return skippedLookups.get();
+    }
+
+    @Override
+    public String toString() {
+        return entityClass.getSimpleName() + " row key filter: " + getKeyCount() + " keys, " + getSizeBytes()
+                + " bytes, false positive rate " + getExpectedFalsePositiveRate() + " (configured "
+                + falsePositiveRate + "), " + getSkippedLookups() + " of " + getCheckedLookups()
+                + " lookups skipped";
+    }
+
+    private List<Object> pinnedRowKey(QuerySelect<?, ?> query) {
+        if (query.getCriteria() == null || query.getGroupCriteria() != null
+                || CollectionUtils.isNotEmpty(query.getProjection())
+                || (query.getQueryOperationType() != null
+                        && query.getQueryOperationType() != QueryOperationType.SELECT)) {
+            return null;
+        }
+        List<Criterion> conjuncts = query.getCriteria() instanceof Conjunction ? ((Conjunction) query
+                .getCriteria()).getCriteria() : Collections.singletonList(query.getCriteria());
+        Object[] key = new Object[rowKeyBindings.size()];
+        int found = 0;
+        for (Criterion conjunct : conjuncts) {
+            if (conjunct instanceof EqualityExpression
+                    && ((EqualityExpression) conjunct).getOperator() == Operator.EQUAL) {
+                EqualityExpression eq = (EqualityExpression) conjunct;
+                if (eq.getValue() == null || eq.getValue() instanceof Parameter) {
+                    continue;
+                }
+                for (int i = 0; i < key.length; i++) {
+                    if (key[i] == null && rowKeyBindings.get(i).getNameFullPath().equals(eq.getPropertyName())) {
+                        key[i] = keyValue(i, eq.getValue());
+                        if (key[i] == null) {
+                            return null;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found == key.length ? Arrays.asList(key) : null;
+    }
+
+    private Object storedKeyValue(int i, Object value) {
+        Object keyValue = keyValue(i, value);
+        return keyValue != null ? keyValue : value;
+    }
+
+    /**
+     * @return the value converted to the type of the row key property at position i, the value itself if the type
+     *         needs no conversion, or null if the value can not be converted
+     */
+    private Object keyValue(int i, Object value) {
+        Type type = rowKeyBindings.get(i).getType();
+        if (value == null || !(type instanceof Class)) {
+            return value;
+        }
+        Class<?> propertyType = Primitives.wrap((Class<?>) type);
+        if (Date.class.isAssignableFrom(propertyType)) {
+            return value instanceof Date ? value : null;
+        }
+        if (!Number.class.isAssignableFrom(propertyType)) {
+            return value;
+        }
+        if (!(value instanceof Number)) {
+            return null;
+        }
+        Number number = (Number) value;
+        if (propertyType == Long.class || propertyType == Integer.class || propertyType == Short.class
+                || propertyType == Byte.class) {
+            return number.longValue();
+        } else if (propertyType == Double.class) {
+            return number.doubleValue();
+        } else if (propertyType == Float.class) {
+            // float columns are read back as the double of the float
+            return (double) number.floatValue();
+        } else if (propertyType == BigDecimal.class || propertyType == BigInteger.class) {
+            return decimal(number);
+        }
+        return value;
+    }
+
+    private static BigDecimal decimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        } else if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            return Double.isNaN(d) || Double.isInfinite(d) ? null : BigDecimal.valueOf(d);
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    /**
+     * Hashes the values of a row key by value, normalizing the types the same column may be read or queried as.
+     */
+    private enum RowKeyFunnel implements Funnel<List<Object>> {
+        INSTANCE;
+
+        @Override
+        public void funnel(List<Object> rowKey, PrimitiveSink into) {
+            for (Object value : rowKey) {
+                if (value == null) {
+                    into.putByte((byte) 0);
+                } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                        || value instanceof Byte) {
+                    into.putByte((byte) 1).putLong(((Number) value).longValue());
+                } else if (value instanceof Double || value instanceof Float) {
+                    into.putByte((byte) 2).putDouble(((Number) value).doubleValue());
+                } else if (value instanceof Date) {
+                    into.putByte((byte) 3).putLong(((Date) value).getTime());
+                } else if (value instanceof byte[]) {
+                    byte[] bytes = (byte[]) value;
+                    into.putByte((byte) 4).putInt(bytes.length).putBytes(bytes);
+                } else {
+                    String string = value instanceof Enum ? ((Enum<?>) value).name()
+                            : value instanceof BigDecimal ? ((BigDecimal) value).stripTrailingZeros().toPlainString()
+                                    : value.toString();
+                    into.putByte((byte) 5).putInt(string.length()).putString(string, StandardCharsets.UTF_8);
+                }
+            }
+        }
+    }
+}
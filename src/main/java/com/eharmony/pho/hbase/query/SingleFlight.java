@@ -0,0 +1,71 @@
+package com.eharmony.pho.hbase.query;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Runs one call per key at a time: callers arriving while a call of their key is in flight wait for it and share its
+ * value, or its exception, instead of running their own. A key is forgotten as soon as its call completes, nothing is
+ * cached beyond the in-flight window.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> flights = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * @param key
+     *            the key of the call
+     * @param call
+     *            the call, run by the first caller of the key only
+     * @return the value of the call in flight
+     * @throws Exception
+     *             the exception of the call in flight
+     */
+    V execute(K key, Callable<V> call) throws Exception {
+        FutureTask<V> flight = new FutureTask<V>(call);
+        FutureTask<V> leader = flights.putIfAbsent(key, flight);
+        if (leader == null) {
+            try {
+                flight.run();
+            } finally {
+                flights.remove(key, flight);
+            }
+            leader = flight;
+        } else {
+            shared.incrementAndGet();
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(leader);
+        } catch (ExecutionException ex) {
+            Throwables.propagateIfPossible(ex.getCause(), Exception.class);
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the number of calls that shared the value of a call in flight
+     */
+    long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * @return the number of keys in flight
+     */
+    int getInFlight() {
+        return flights.size();
+    }
+}
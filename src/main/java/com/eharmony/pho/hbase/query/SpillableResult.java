@@ -0,0 +1,293 @@
+package com.eharmony.pho.hbase.query;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.mapper.EntityBinaryCodec;
+import com.google.common.base.Preconditions;
+
+/**
+ * A fully materialized, re-iterable result whose rows stay on the heap up to a budget. Past the budget, the rows are
+ * encoded with an {@link EntityBinaryCodec} into a temporary file that is memory mapped once the result is complete,
+ * and decoded lazily on every iteration. Large results thus live in the page cache instead of the heap, small ones
+ * are never written.
+ *
+ * Rows are added with {@link #add(Object)} and the result becomes iterable after {@link #seal()}. Decoded rows are
+ * new instances on every iteration. {@link #close()} deletes the file. Files of results that were never closed, e.g.
+ * by a process that crashed, are deleted by {@link #deleteSpillFiles(File)}.
+ *
+ * @param <T>
+ *            the entity type
+ */
+public class SpillableResult<T> implements Iterable<T>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillableResult.class);
+
+    static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    private static final String FILE_PREFIX = "pho-spill-";
+    private static final String FILE_SUFFIX = ".bin";
+
+    private final EntityBinaryCodec<T> codec;
+    private final long heapBudgetBytes;
+    private final File directory;
+    private final int segmentBytes;
+    private final List<T> heapRows = new ArrayList<T>();
+    private long heapBytes;
+    private int size;
+
+    private File file;
+    private RandomAccessFile output;
+    private ByteBuffer rowBuffer;
+    private ByteBuffer pending;
+    private final List<long[]> segments = new ArrayList<long[]>();
+    private long segmentStart;
+    private long written;
+    private List<MappedByteBuffer> mapped;
+    private boolean sealed;
+    private boolean closed;
+
+    /**
+     * @param codec
+     *            the codec of the rows
+     * @param heapBudgetBytes
+     *            the estimated heap the rows may use before they are spilled, see
+     *            {@link EntityBinaryCodec#estimateHeapBytes(Object)}
+     * @param directory
+     *            the directory of the spill file, null for the default temporary directory
+     */
+    public SpillableResult(EntityBinaryCodec<T> codec, long heapBudgetBytes, File directory) {
+        this(codec, heapBudgetBytes, directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    SpillableResult(EntityBinaryCodec<T> codec, long heapBudgetBytes, File directory, int segmentBytes) {
+        Preconditions.checkArgument(heapBudgetBytes >= 0, "heapBudgetBytes must not be negative");
+        this.codec = Preconditions.checkNotNull(codec);
+        this.heapBudgetBytes = heapBudgetBytes;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Append a row, spilling all rows to the file once the heap budget is exceeded.
+     *
+     * @param row
+     *            the row
+     * @throws IOException
+     *             if the row can not be written
+     */
+    public void add(T row) throws IOException {
+        Preconditions.checkState(!sealed, "The result is sealed");
+        size++;
+        if (output == null) {
+            heapRows.add(row);
+            heapBytes += codec.estimateHeapBytes(row);
+            if (heapBytes > heapBudgetBytes) {
+                spill();
+            }
+        } else {
+            write(row);
+        }
+    }
+
+    /**
+     * Complete the result: flush and map the spill file. No rows can be added afterwards.
+     *
+     * @throws IOException
+     *             if the file can not be mapped
+     */
+    public void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        if (output == null) {
+            return;
+        }
+        segments.add(new long[] { segmentStart, written - segmentStart });
+        try {
+            flush();
+            FileChannel channel = output.getChannel();
+            mapped = new ArrayList<MappedByteBuffer>(segments.size());
+            for (long[] segment : segments) {
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, segment[0], segment[1]));
+            }
+        } finally {
+            output.close();
+            output = null;
+            rowBuffer = null;
+            pending = null;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the rows were written to the spill file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return the bytes of the spill file, 0 if the rows are on the heap
+     */
+    public long getSpilledBytes() {
+        return written;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        Preconditions.checkState(sealed, "The result is not sealed");
+        Preconditions.checkState(!closed, "The result is closed");
+        if (mapped == null) {
+            return heapRows.iterator();
+        }
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(mapped.size());
+        for (MappedByteBuffer segment : mapped) {
+            buffers.add(segment.duplicate());
+        }
+        return new Iterator<T>() {
+
+            private int segment;
+
+            @Override
+            public boolean hasNext() {
+                while (segment < buffers.size() && !buffers.get(segment).hasRemaining()) {
+                    segment++;
+                }
+                return segment < buffers.size();
+            }
+
+            @Override
+            public T next() {
+                if (closed) {
+                    throw new IllegalStateException("The result is closed");
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return codec.decode(buffers.get(segment));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Delete the spill file. The result can not be iterated afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heapRows.clear();
+        mapped = null;
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+        } catch (IOException ex) {
+            log.warn("Exception while closing the spill file...", ex);
+        }
+        if (file != null && !file.delete()) {
+            log.warn("Unable to delete the spill file {}", file);
+        }
+    }
+
+    /**
+     * Delete the spill files left in a directory. Spill files still in use by a result are deleted as well, so the
+     * directory must not be shared with other processes or executors in use.
+     *
+     * @param directory
+     *            the directory of the spill files
+     * @return the number of files deleted
+     */
+    public static int deleteSpillFiles(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        int deleted = 0;
+        if (files != null) {
+            for (File leftover : files) {
+                if (leftover.delete()) {
+                    deleted++;
+                } else {
+                    log.warn("Unable to delete the spill file {}", leftover);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, directory);
+        output = new RandomAccessFile(file, "rw");
+        rowBuffer = ByteBuffer.allocate(8192);
+        pending = ByteBuffer.allocate(1 << 20);
+        log.debug("Spilling {} rows of {} to {}", heapRows.size(), codec.getEntityClass().getSimpleName(), file);
+        for (T row : heapRows) {
+            write(row);
+        }
+        heapRows.clear();
+        heapBytes = 0;
+    }
+
+    private void write(T row) throws IOException {
+        rowBuffer.clear();
+        rowBuffer = codec.encode(row, rowBuffer);
+        rowBuffer.flip();
+        int length = rowBuffer.remaining();
+        // rows never straddle two mappings
+        if (written > segmentStart && written - segmentStart + length > segmentBytes) {
+            segments.add(new long[] { segmentStart, written - segmentStart });
+            segmentStart = written;
+        }
+        if (pending.remaining() < length) {
+            flush();
+        }
+        if (pending.remaining() < length) {
+            writeFully(rowBuffer);
+        } else {
+            pending.put(rowBuffer);
+        }
+        written += length;
+    }
+
+    private void flush() throws IOException {
+        pending.flip();
+        writeFully(pending);
+        pending.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        FileChannel channel = output.getChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
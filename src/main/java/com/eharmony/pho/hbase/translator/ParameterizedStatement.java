@@ -0,0 +1,68 @@
+package com.eharmony.pho.hbase.translator;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A translated statement with <code>?</code> placeholders and the values to bind to them, in order.
+ */
+public class ParameterizedStatement {
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    public ParameterizedStatement(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Bind the parameters to a statement prepared from {@link #getSql()}.
+     * 
+     * @param ps
+     *            the prepared statement
+     * @throws SQLException
+     *             if a value can not be bound
+     */
+    public void bind(PreparedStatement ps) throws SQLException {
+        int position = 1;
+        for (Object parameter : parameters) {
+            ps.setObject(position++, toJdbcValue(parameter));
+        }
+    }
+
+    /**
+     * Convert an entity property value to the type the phoenix driver expects for it.
+     * 
+     * @param value
+     *            the property value
+     * @return the value to bind
+     */
+    public static Object toJdbcValue(Object value) {
+        if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Timestamp)
+                && !(value instanceof java.sql.Time)) {
+            return new Timestamp(((Date) value).getTime());
+        } else if (value instanceof Character) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ParameterizedStatement [sql=" + sql + ", parameters=" + parameters + "]";
+    }
+
+}
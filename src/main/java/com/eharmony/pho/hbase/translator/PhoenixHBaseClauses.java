@@ -10,7 +10,8 @@ public enum PhoenixHBaseClauses implements Symbolic {
     WHERE("WHERE"),
     HAVING("HAVING"),
     ORDER_BY("ORDER BY"),
-    LIMIT("LIMIT");
+    LIMIT("LIMIT"),
+    EXPLAIN("EXPLAIN");
 
     private final String symbol;
 
@@ -20,7 +20,11 @@ public enum PhoenixHBaseOperator implements Symbolic {
     LIKE_CASE_INSENSITIVE("ILIKE"),
     
     IS_NULL("IS NULL"),
-    IS_NOT_NULL("IS NOT NULL");
+    IS_NOT_NULL("IS NOT NULL"),
+
+    IN("IN"),
+    NOT_IN("NOT IN"),
+    BETWEEN("BETWEEN");
 
     private final String symbol;
 
@@ -3,6 +3,7 @@ package com.eharmony.pho.hbase.translator;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,6 +14,7 @@ import com.eharmony.pho.query.criterion.expression.Expression;
 import com.eharmony.pho.query.criterion.projection.AggregateProjection;
 import com.eharmony.pho.query.criterion.projection.GroupProjection;
 import com.eharmony.pho.query.criterion.projection.Projection;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.collections.CollectionUtils;
@@ -22,19 +24,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.metrics.PhoenixFlightRecorder;
+import com.eharmony.pho.hbase.metrics.PhoenixQueryMetrics;
 import com.eharmony.pho.hbase.util.PhoenixDateFormatUtil;
 import com.eharmony.pho.mapper.EntityPropertiesResolver;
 import com.eharmony.pho.mapper.EntityPropertyBinding;
 import com.eharmony.pho.mapper.EntityPropertyValueBinding;
+import com.eharmony.pho.mapper.SecondaryIndexBinding;
+import com.eharmony.pho.query.QueryOperationType;
 import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.QuerySelectImpl;
 import com.eharmony.pho.query.QueryUpdate;
 import com.eharmony.pho.query.criterion.Criterion;
 import com.eharmony.pho.query.criterion.Ordering;
 import com.eharmony.pho.query.criterion.Orderings;
+import com.eharmony.pho.query.criterion.Parameter;
+import com.eharmony.pho.query.criterion.Projections;
 import com.eharmony.pho.query.criterion.Ordering.NullOrdering;
 import com.eharmony.pho.query.criterion.Ordering.Order;
 import com.eharmony.pho.query.criterion.expression.NativeExpression;
 import com.eharmony.pho.translator.AbstractQueryTranslator;
+import com.eharmony.pho.translator.CriteriaOptimizer;
 import com.eharmony.pho.translator.QueryTranslator;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -56,9 +66,16 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     private final MorphiaEntityResolver entityResolver = new MorphiaEntityResolver();
     private EntityPropertiesResolver entityPropertiesResolver;
+    private final PhoenixIndexSelector indexSelector;
+    private PhoenixQueryMetrics queryMetrics = new PhoenixQueryMetrics();
+    private boolean indexHintsEnabled = true;
+    private boolean criteriaOptimizationEnabled = true;
+    // the names of the parameters rendered so far, in sql order, while compiling a QueryTemplate on this thread
+    private final ThreadLocal<List<String>> compiledParameters = new ThreadLocal<List<String>>();
     private static final String PROJECTION_ALL = "*";
     private static final String SELECT = "SELECT";
     private static final String STRING_OPERAND_WITH_WILDCARD = "%%%s%%";
+    private static final String PARAMETER_PLACEHOLDER = "?";
 
     private static final Logger logger = LoggerFactory.getLogger(PhoenixHBaseQueryTranslator.class);
 
@@ -68,27 +85,110 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
                                        EntityPropertiesResolver propertyResolver) {
         super(queryClass, orderClass, propertyResolver);
         this.entityPropertiesResolver = propertyResolver;
+        this.indexSelector = new PhoenixIndexSelector(propertyResolver);
     }
 
     public PhoenixHBaseQueryTranslator(final EntityPropertiesResolver propertyResolver) {
         super(String.class, String.class, propertyResolver);
         this.entityPropertiesResolver = propertyResolver;
+        this.indexSelector = new PhoenixIndexSelector(propertyResolver);
+    }
+
+    /**
+     * Translate the criteria of a select into the EXPLAIN of a plain scan, whose row and byte estimates cover the key
+     * range the criteria imply. Ordering, limit, projections and group criteria do not change the rows scanned and are
+     * left out.
+     *
+     * @param query QuerySelect
+     * @return String, null if the optimized criteria cannot match any row
+     */
+    public <T, R> String translateExplain(QuerySelect<T, R> query) {
+        QuerySelect<T, T> scan = new QuerySelectImpl<T, T>(query.getEntityClass(), query.getEntityClass(),
+                query.getCriteria(), null, new Orderings(), null, Collections.<String> emptyList(),
+                Collections.<Projection> emptyList(), QueryOperationType.SELECT, query.getQueryHint());
+        String select = translateIfSatisfiable(scan);
+        return select == null ? null : Joiner.on(" ").join(PhoenixHBaseClauses.EXPLAIN.symbol(), select);
+    }
+
+    /**
+     * @param entityClass the entity
+     * @return the table the entity is stored in
+     */
+    public String resolveTableName(Class<?> entityClass) {
+        return entityResolver.resolve(entityClass);
     }
 
     /**
      * translates given QuerySelect object to select query string
      *
      * @param query QuerySelect
-     * @return String
+     * @return String, never null: criteria the optimizer finds unsatisfiable are translated as built, see
+     *         {@link #translateIfSatisfiable(QuerySelect)} to skip their round trip
      */
     @Override
     public <T, R> String translate(QuerySelect<T, R> query) {
-        return translateSelectQuery(query);
+        return translateSelect(query, false);
+    }
+
+    /**
+     * Translate a select unless its optimized criteria cannot match any row.
+     *
+     * @param query QuerySelect
+     * @return String, null if the optimized criteria cannot match any row and the select needs no round trip
+     */
+    public <T, R> String translateIfSatisfiable(QuerySelect<T, R> query) {
+        return translateSelect(query, true);
+    }
+
+    private <T, R> String translateSelect(QuerySelect<T, R> query, boolean skipUnsatisfiable) {
+        Object event = PhoenixFlightRecorder.beginTranslate();
+        String sql = translateSelectQuery(query, skipUnsatisfiable);
+        PhoenixFlightRecorder.commitTranslate(event, query.getEntityClass(), "select", sql);
+        return sql;
+    }
+
+    /**
+     * Translate a select whose restrictions use {@link Parameter} placeholders once, into sql with <code>?</code>
+     * placeholders and the plan to bind values to them.
+     *
+     * @param query QuerySelect
+     * @return the compiled template
+     */
+    public <T, R> QueryTemplate<T, R> compile(QuerySelect<T, R> query) {
+        List<String> occurrences = new ArrayList<>();
+        String sql;
+        compiledParameters.set(occurrences);
+        try {
+            sql = translateIfSatisfiable(query);
+        } finally {
+            compiledParameters.remove();
+        }
+        List<String> names = new ArrayList<>();
+        int[] bindingPlan = new int[sql == null ? 0 : occurrences.size()];
+        for (int i = 0; i < bindingPlan.length; i++) {
+            String name = occurrences.get(i);
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+            }
+            bindingPlan[i] = index;
+        }
+        return new QueryTemplate<T, R>(query, sql, names, bindingPlan);
     }
 
-    private <T, R> String translateSelectQuery(QuerySelect<T, R> query) {
+    private <T, R> String translateSelectQuery(QuerySelect<T, R> query, boolean skipUnsatisfiable) {
         List<String> fields = query.getReturnFields();
         Criterion rootCriterion = query.getCriteria();
+        if (criteriaOptimizationEnabled) {
+            Criterion optimized = CriteriaOptimizer.optimize(rootCriterion);
+            if (!CriteriaOptimizer.isUnsatisfiable(optimized)) {
+                rootCriterion = optimized;
+            } else if (skipUnsatisfiable) {
+                logger.debug("Criteria {} cannot match any row", query.getCriteria());
+                return null;
+            }
+        }
         Criterion groupCriterion = query.getGroupCriteria();
         Orderings orders = query.getOrder();
         Integer maxResults = query.getMaxResults();
@@ -116,28 +216,35 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
                         entityPropertiesResolver.resolveEntityMappingPropertyNames(properties, entityClass));
             }
         }
-        //Add query hint if available
-        projection = Strings.isNullOrEmpty(query.getQueryHint()) ? projection : spaceJoiner.join(query.getQueryHint(), PROJECTION_ALL);
+        String tableName = entityResolver.resolve(entityClass);
+        //Add query hint if available, otherwise hint the best declared secondary index
+        if (!Strings.isNullOrEmpty(query.getQueryHint())) {
+            projection = spaceJoiner.join(query.getQueryHint(), PROJECTION_ALL);
+        } else if (indexHintsEnabled) {
+            String indexHint = translateIndexHint(query, tableName);
+            if (indexHint != null) {
+                projection = spaceJoiner.join(indexHint, projection);
+            }
+        }
         String queryString = spaceJoiner.join(new String[]{SELECT, projection, PhoenixHBaseClauses.FROM.symbol(),
-                entityResolver.resolve(entityClass)});
+                tableName});
 
         if (rootCriterion != null) {
             queryString = spaceJoiner.join(queryString, PhoenixHBaseClauses.WHERE.symbol(), translate(rootCriterion, entityClass));
         }
 
-        if (orders != null && CollectionUtils.isNotEmpty(orders.get())) {
-            queryString = spaceJoiner.join(queryString, PhoenixHBaseClauses.ORDER_BY.symbol(), translateOrder(query));
-        }
-
-        if (maxResults != null && maxResults > 0) {
-            queryString = spaceJoiner.join(queryString, PhoenixHBaseClauses.LIMIT.symbol(), maxResults);
-        }
+        // clauses in the order phoenix expects: GROUP BY, HAVING, ORDER BY, LIMIT
         if (projections != null && CollectionUtils.isNotEmpty(projections)) {
+            List<String> groupByNames = new ArrayList<>();
             for (Projection p : projections) {
                 if (p instanceof GroupProjection) {
-                    queryString = spaceJoiner.join(queryString, translate(p, entityClass));
+                    groupByNames.addAll(p.getPropertyNames());
                 }
             }
+            if (!groupByNames.isEmpty()) {
+                queryString = spaceJoiner.join(queryString, translate(Projections.groupBy(
+                        groupByNames.toArray(new String[groupByNames.size()])), entityClass));
+            }
         }
         if (groupCriterion != null) {
             if (groupCriterion instanceof Expression) {
@@ -148,9 +255,104 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
                         translate(groupCriterion, entityClass));
             }
         }
+
+        if (orders != null && CollectionUtils.isNotEmpty(orders.get())) {
+            queryString = spaceJoiner.join(queryString, PhoenixHBaseClauses.ORDER_BY.symbol(), translateOrder(query));
+        }
+
+        if (maxResults != null && maxResults > 0) {
+            queryString = spaceJoiner.join(queryString, PhoenixHBaseClauses.LIMIT.symbol(), maxResults);
+        }
         return queryString;
     }
 
+    /**
+     * Build the INDEX hint for the declared secondary index that best matches the query criteria and projection.
+     * Phoenix only picks non covered indexes on its own when hinted.
+     *
+     * @param query     the select query
+     * @param tableName the resolved table name
+     * @return the hint or null if the entity declares no index usable for this query
+     */
+    protected <T, R> String translateIndexHint(QuerySelect<T, R> query, String tableName) {
+        Class<T> entityClass = query.getEntityClass();
+        List<SecondaryIndexBinding> indexes = entityPropertiesResolver.getSecondaryIndexBindings(entityClass);
+        if (CollectionUtils.isEmpty(indexes)) {
+            return null;
+        }
+        SecondaryIndexBinding index = indexSelector.select(indexes, query.getCriteria(),
+                referencedColumns(query), entityClass);
+        queryMetrics.recordIndexHint(tableName, index != null ? index.getName() : null);
+        if (index == null) {
+            return null;
+        }
+        return "/*+ INDEX(" + tableName + " " + index.getName() + ") */";
+    }
+
+    private <T, R> List<String> referencedColumns(QuerySelect<T, R> query) {
+        Class<T> entityClass = query.getEntityClass();
+        List<String> columns = new ArrayList<>();
+        List<Projection> projections = query.getProjection();
+        if (CollectionUtils.isNotEmpty(projections)) {
+            for (Projection p : projections) {
+                for (String propertyName : p.getPropertyNames()) {
+                    columns.add(entityPropertiesResolver.resolve(propertyName, entityClass));
+                }
+            }
+        } else if (CollectionUtils.isNotEmpty(query.getReturnFields())) {
+            columns.addAll(entityPropertiesResolver.resolveEntityMappingPropertyNames(query.getReturnFields(),
+                    entityClass));
+        } else {
+            Map<String, EntityPropertyBinding> bindings = entityPropertiesResolver
+                    .getEntityPropertyNamePropertyBindingMap(entityClass);
+            if (bindings != null) {
+                for (EntityPropertyBinding binding : bindings.values()) {
+                    columns.add(binding.getStoreFieldName());
+                }
+            }
+        }
+        if (query.getOrder() != null) {
+            for (Ordering ordering : query.getOrder().get()) {
+                columns.add(entityPropertiesResolver.resolve(ordering.getPropertyName(), entityClass));
+            }
+        }
+        return columns;
+    }
+
+    public EntityPropertiesResolver getEntityPropertiesResolver() {
+        return entityPropertiesResolver;
+    }
+
+    public PhoenixQueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public void setQueryMetrics(PhoenixQueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    public boolean isIndexHintsEnabled() {
+        return indexHintsEnabled;
+    }
+
+    public void setIndexHintsEnabled(boolean indexHintsEnabled) {
+        this.indexHintsEnabled = indexHintsEnabled;
+    }
+
+    public boolean isCriteriaOptimizationEnabled() {
+        return criteriaOptimizationEnabled;
+    }
+
+    /**
+     * Simplify the criteria with {@link CriteriaOptimizer} before translating a select. Enabled by default.
+     *
+     * @param criteriaOptimizationEnabled
+     *            false to translate the criteria exactly as built
+     */
+    public void setCriteriaOptimizationEnabled(boolean criteriaOptimizationEnabled) {
+        this.criteriaOptimizationEnabled = criteriaOptimizationEnabled;
+    }
+
     private String resolveMappingName(String fieldName) {
         return fieldName;
     }
@@ -192,6 +394,7 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     @Override
     public String insensitiveLike(String fieldName, Object value) {
+        Preconditions.checkArgument(!(value instanceof Parameter), "ILIKE does not support parameters");
         return join(resolveMappingName(fieldName),
                 PhoenixHBaseOperator.LIKE_CASE_INSENSITIVE,
                 String.format(STRING_OPERAND_WITH_WILDCARD, value));
@@ -199,6 +402,7 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     @Override
     public String like(String fieldName, Object value) {
+        Preconditions.checkArgument(!(value instanceof Parameter), "LIKE does not support parameters");
         return join(resolveMappingName(fieldName),
                 PhoenixHBaseOperator.LIKE,
                 String.format(STRING_OPERAND_WITH_WILDCARD, value));
@@ -206,17 +410,17 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     @Override
     public String between(String fieldName, Object from, Object to) {
-        throw new UnsupportedOperationException("BETWEEN operator is not supported in phoenix hbase library...");
+        return join(resolveMappingName(fieldName), PhoenixHBaseOperator.BETWEEN, from, PhoenixHBaseOperator.AND, to);
     }
 
     @Override
     public String in(String fieldName, Object[] values) {
-        throw new UnsupportedOperationException("IN operator is not supported in phoenix hbase library...");
+        return joinValueList(resolveMappingName(fieldName), PhoenixHBaseOperator.IN, values);
     }
 
     @Override
     public String notIn(String fieldName, Object[] values) {
-        throw new UnsupportedOperationException("NOTIN operator is not supported in phoenix hbase library...");
+        return joinValueList(resolveMappingName(fieldName), PhoenixHBaseOperator.NOT_IN, values);
     }
 
     @Override
@@ -286,6 +490,12 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
         return fieldName + " " + Joiner.on(" ").join(Lists.transform(Arrays.asList(parts), toString));
     }
 
+    protected String joinValueList(String fieldName, PhoenixHBaseOperator operator, Object[] values) {
+        Preconditions.checkArgument(values != null && values.length > 0, "%s requires at least one value", operator);
+        return fieldName + " " + operator + " (" + Joiner.on(", ").join(Lists.transform(Arrays.asList(values), toString))
+                + ")";
+    }
+
     protected String joinAggregateFunc(PhoenixHBaseAggregate function, String... fieldNames) {
         return function + "(" + resolveMappingNames(fieldNames) + ")";
     }
@@ -302,6 +512,13 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
             return "[" + Joiner.on(",").join(Lists.transform(Arrays.asList((Object[]) o), toString)) + "]";
         } else if (o instanceof String) {
             return "'" + sanitizeString((String) o) + "'";
+        } else if (o instanceof Parameter) {
+            // values are rendered in sql order, so the n-th placeholder binds the n-th recorded name
+            List<String> parameters = compiledParameters.get();
+            if (parameters != null) {
+                parameters.add(((Parameter) o).getName());
+            }
+            return PARAMETER_PLACEHOLDER;
         } else if (o instanceof Character) {
             logger.debug("Converting char type, value {}", o);
             return "'" + sanitizeString(o.toString()) + "'";
@@ -327,6 +544,14 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     @Override
     public <T> String translate(QueryUpdate<T> updateQuery) {
+        Object event = PhoenixFlightRecorder.beginTranslate();
+        String sql = translateUpdateQuery(updateQuery);
+        PhoenixFlightRecorder.commitTranslate(event, updateQuery.getEntity() != null ? updateQuery.getEntity()
+                .getClass() : null, "upsert", sql);
+        return sql;
+    }
+
+    private <T> String translateUpdateQuery(QueryUpdate<T> updateQuery) {
         T entity = updateQuery.getEntity();
         List<String> selectedFields = updateQuery.getSelectedFields();
         try {
@@ -377,6 +602,40 @@ public class PhoenixHBaseQueryTranslator extends AbstractQueryTranslator<String,
 
     }
 
+    /**
+     * Translates the entity to a parameterized upsert. As with {@link #translate(QueryUpdate)} properties without a
+     * value are left out, so entities with different null properties produce different statements.
+     *
+     * @param updateQuery the update query
+     * @return the upsert statement and its parameters
+     */
+    public <T> ParameterizedStatement translateParameterized(QueryUpdate<T> updateQuery) {
+        T entity = updateQuery.getEntity();
+        List<EntityPropertyValueBinding> entityPropertyValueBindings;
+        try {
+            entityPropertyValueBindings = buildParameterBindings(entity, updateQuery.getSelectedFields());
+        } catch (Exception ex) {
+            throw new DataStoreException(ex);
+        }
+        List<String> columns = new ArrayList<>(entityPropertyValueBindings.size());
+        List<Object> parameters = new ArrayList<>(entityPropertyValueBindings.size());
+        for (EntityPropertyValueBinding propertyValueBinding : entityPropertyValueBindings) {
+            if (propertyValueBinding.getValue() != null) {
+                columns.add(propertyValueBinding.getEntityPropertyBinding().getStoreFieldName());
+                parameters.add(propertyValueBinding.getValue());
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new DataStoreException("Invalid Entity to save :" + (entity != null ? entity.getClass() : ""));
+        }
+        Joiner joiner = Joiner.on(", ");
+        StringBuilder finalQuery = new StringBuilder("UPSERT INTO ");
+        finalQuery.append(entityResolver.resolve(entity.getClass())).append("(").append(joiner.join(columns))
+                .append(")").append(" values ").append("(")
+                .append(joiner.join(Collections.nCopies(columns.size(), "?"))).append(")");
+        return new ParameterizedStatement(finalQuery.toString(), parameters);
+    }
+
     private <T> List<EntityPropertyValueBinding> buildParameterBindings(T entity, List<String> selectedFields)
             throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 
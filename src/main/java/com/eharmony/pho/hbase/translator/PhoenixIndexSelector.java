@@ -0,0 +1,191 @@
+package com.eharmony.pho.hbase.translator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.mapper.SecondaryIndexBinding;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.expression.Expression;
+import com.eharmony.pho.query.criterion.expression.SetExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.eharmony.pho.query.criterion.junction.Disjunction;
+import com.eharmony.pho.query.criterion.junction.Junction;
+import com.eharmony.pho.translator.PropertyResolver;
+
+/**
+ * Picks the declared secondary index that best serves a query.
+ * 
+ * An index is usable when the query restricts a leading prefix of its indexed columns. Every leading column pinned by
+ * an equality (or an IN list) extends the prefix, and a range restriction ends it. Among usable indexes the longest
+ * restricted prefix wins, then an index covering every referenced column, then the narrower index. No index is
+ * selected when the row key prefix is restricted at least as far, the data table already serves the query.
+ */
+public class PhoenixIndexSelector {
+
+    private enum PredicateType {
+        EQUALITY, RANGE
+    }
+
+    private final PropertyResolver propertyResolver;
+
+    public PhoenixIndexSelector(PropertyResolver propertyResolver) {
+        this.propertyResolver = propertyResolver;
+    }
+
+    /**
+     * Select the index for a query.
+     * 
+     * @param indexes
+     *            the indexes declared for the entity
+     * @param criteria
+     *            the root criterion of the query, may be null
+     * @param referencedColumns
+     *            the store columns the query returns or orders by, filter columns are added from the criteria
+     * @param entityClass
+     *            the queried entity
+     * @return the best matching index or null if no index can serve the query
+     */
+    public SecondaryIndexBinding select(List<SecondaryIndexBinding> indexes, Criterion criteria,
+            Collection<String> referencedColumns, Class<?> entityClass) {
+        if (indexes == null || indexes.isEmpty() || criteria == null) {
+            return null;
+        }
+        Map<String, PredicateType> predicates = predicates(criteria, entityClass);
+        if (predicates.isEmpty()) {
+            return null;
+        }
+        Set<String> columns = new HashSet<String>();
+        if (referencedColumns != null) {
+            columns.addAll(referencedColumns);
+        }
+        collectColumns(criteria, entityClass, columns);
+        SecondaryIndexBinding best = null;
+        int bestScore = 0;
+        boolean bestCovers = false;
+        int rowKeyScore = rowKeyScore(entityClass, predicates);
+        for (SecondaryIndexBinding index : indexes) {
+            int score = prefixScore(index, predicates);
+            if (score == 0 || score <= rowKeyScore) {
+                continue;
+            }
+            boolean covers = covers(index, columns);
+            if (best == null || score > bestScore || (score == bestScore && covers && !bestCovers)
+                    || (score == bestScore && covers == bestCovers
+                            && index.getIndexedStoreFieldNames().size() < best.getIndexedStoreFieldNames().size())) {
+                best = index;
+                bestScore = score;
+                bestCovers = covers;
+            }
+        }
+        return best;
+    }
+
+    private int prefixScore(SecondaryIndexBinding index, Map<String, PredicateType> predicates) {
+        return prefixScore(index.getIndexedStoreFieldNames(), predicates);
+    }
+
+    // the data table itself is an index on the row key, a secondary index only helps if it restricts a longer prefix
+    private int rowKeyScore(Class<?> entityClass, Map<String, PredicateType> predicates) {
+        List<String> rowKeyColumns = new ArrayList<String>();
+        for (EntityPropertyBinding binding : propertyResolver.getRowKeyPropertyBindings(entityClass)) {
+            rowKeyColumns.add(binding.getStoreFieldName());
+        }
+        return prefixScore(rowKeyColumns, predicates);
+    }
+
+    private int prefixScore(List<String> indexedColumns, Map<String, PredicateType> predicates) {
+        int score = 0;
+        for (String column : indexedColumns) {
+            PredicateType type = predicates.get(column.toUpperCase());
+            if (type == PredicateType.EQUALITY) {
+                score += 2;
+            } else {
+                if (type == PredicateType.RANGE) {
+                    score += 1;
+                }
+                break;
+            }
+        }
+        return score;
+    }
+
+    private boolean covers(SecondaryIndexBinding index, Collection<String> referencedColumns) {
+        for (String column : referencedColumns) {
+            if (!index.isAvailable(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collectColumns(Criterion criterion, Class<?> entityClass, Set<String> columns) {
+        if (criterion instanceof Expression) {
+            columns.add(propertyResolver.resolve(((Expression) criterion).getPropertyName(), entityClass));
+        } else if (criterion instanceof Junction) {
+            for (Criterion c : ((Junction) criterion).getCriteria()) {
+                collectColumns(c, entityClass, columns);
+            }
+        }
+    }
+
+    private Map<String, PredicateType> predicates(Criterion criterion, Class<?> entityClass) {
+        Map<String, PredicateType> predicates = new HashMap<String, PredicateType>();
+        if (criterion instanceof Expression) {
+            Expression e = (Expression) criterion;
+            PredicateType type = predicateType(e);
+            if (type != null && e.getAggregateProjection() == null) {
+                predicates.put(propertyResolver.resolve(e.getPropertyName(), entityClass).toUpperCase(), type);
+            }
+        } else if (criterion instanceof Conjunction) {
+            for (Criterion c : ((Conjunction) criterion).getCriteria()) {
+                for (Map.Entry<String, PredicateType> entry : predicates(c, entityClass).entrySet()) {
+                    if (predicates.get(entry.getKey()) != PredicateType.EQUALITY) {
+                        predicates.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } else if (criterion instanceof Disjunction) {
+            // a column is restricted by an OR only if every branch restricts it
+            boolean first = true;
+            for (Criterion c : ((Disjunction) criterion).getCriteria()) {
+                Map<String, PredicateType> branch = predicates(c, entityClass);
+                if (first) {
+                    predicates.putAll(branch);
+                    first = false;
+                    continue;
+                }
+                predicates.keySet().retainAll(branch.keySet());
+                for (Map.Entry<String, PredicateType> entry : predicates.entrySet()) {
+                    if (branch.get(entry.getKey()) == PredicateType.RANGE) {
+                        entry.setValue(PredicateType.RANGE);
+                    }
+                }
+            }
+        }
+        return predicates;
+    }
+
+    private PredicateType predicateType(Expression e) {
+        switch (e.getOperator()) {
+            case EQUAL:
+                return PredicateType.EQUALITY;
+            case IN:
+                return e instanceof SetExpression ? PredicateType.EQUALITY : null;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case BETWEEN:
+                return PredicateType.RANGE;
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.eharmony.pho.hbase.translator;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.criterion.Parameter;
+import com.google.common.base.Preconditions;
+
+/**
+ * A select compiled once by {@link PhoenixHBaseQueryTranslator#compile(QuerySelect)}: the sql with a <code>?</code>
+ * for every {@link Parameter} occurrence and the plan binding each of them to a value. Immutable and thread safe,
+ * execute it as often as needed with different values.
+ *
+ * @param <T>
+ *            the entity type queried
+ * @param <R>
+ *            the return type
+ */
+public class QueryTemplate<T, R> {
+
+    private final QuerySelect<T, R> query;
+    private final String sql;
+    private final List<String> parameterNames;
+    private final int[] bindingPlan;
+
+    QueryTemplate(QuerySelect<T, R> query, String sql, List<String> parameterNames, int[] bindingPlan) {
+        this.query = query;
+        this.sql = sql;
+        this.parameterNames = Collections.unmodifiableList(parameterNames);
+        this.bindingPlan = bindingPlan;
+    }
+
+    public QuerySelect<T, R> getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the sql with <code>?</code> placeholders, null if the criteria cannot match any row
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean isUnsatisfiable() {
+        return sql == null;
+    }
+
+    /**
+     * @return the distinct parameter names in order of first appearance, the order of the values passed to
+     *         {@link #bind(PreparedStatement, Object[])}
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Bind parameter values to a statement prepared from {@link #getSql()}.
+     *
+     * @param ps
+     *            the prepared statement
+     * @param values
+     *            one value per parameter name, in the order of {@link #getParameterNames()}
+     * @throws SQLException
+     *             if a value can not be bound
+     */
+    public void bind(PreparedStatement ps, Object[] values) throws SQLException {
+        Preconditions.checkArgument(values.length == parameterNames.size(), "Expected %s values for %s but got %s",
+                parameterNames.size(), parameterNames, values.length);
+        for (int i = 0; i < bindingPlan.length; i++) {
+            ps.setObject(i + 1, ParameterizedStatement.toJdbcValue(values[bindingPlan[i]]));
+        }
+    }
+
+    /**
+     * Order named values for {@link #bind(PreparedStatement, Object[])}.
+     *
+     * @param values
+     *            value by parameter name
+     * @return the values in the order of {@link #getParameterNames()}
+     */
+    public Object[] values(Map<String, ?> values) {
+        Object[] ordered = new Object[parameterNames.size()];
+        for (int i = 0; i < ordered.length; i++) {
+            String name = parameterNames.get(i);
+            Preconditions.checkArgument(values.containsKey(name), "No value for parameter %s", name);
+            ordered[i] = values.get(name);
+        }
+        return ordered;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryTemplate [sql=" + sql + ", parameterNames=" + parameterNames + "]";
+    }
+}
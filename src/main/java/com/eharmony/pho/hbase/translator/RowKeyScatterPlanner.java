@@ -0,0 +1,209 @@
+package com.eharmony.pho.hbase.translator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.QueryOperationType;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.QuerySelectImpl;
+import com.eharmony.pho.query.SortedMergeIterator;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Parameter;
+import com.eharmony.pho.query.criterion.Restrictions;
+import com.eharmony.pho.query.criterion.expression.EqualityExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.eharmony.pho.query.criterion.junction.Disjunction;
+import com.eharmony.pho.translator.PropertyResolver;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+/**
+ * Splits a select whose criteria contain a disjunction over different leading row key values into one select per
+ * branch, so each branch runs as a range scan instead of the whole OR being planned as a full scan.
+ *
+ * A query is split when its root criterion is such a disjunction, or a conjunction containing one (the other conjuncts
+ * are added to every branch). Every branch must pin the leading <code>@RowKey</code> property with an equality, on
+ * its own or inside a conjunction, and the pinned values must differ so the branches return disjoint rows. Queries
+ * with projections or group criteria are not split, nor are ordered queries whose ordering properties are not
+ * returned. Ordering and limit are pushed into every branch and applied again by {@link #merge(QuerySelect, List)}.
+ */
+public class RowKeyScatterPlanner {
+
+    private final PropertyResolver propertyResolver;
+    private int maxBranches = 32;
+
+    public RowKeyScatterPlanner(PropertyResolver propertyResolver) {
+        this.propertyResolver = propertyResolver;
+    }
+
+    /**
+     * Split a select into one select per row key prefix.
+     *
+     * @param query
+     *            the select
+     * @return the branch selects, or null if the query can not be split
+     */
+    public <T, R> List<QuerySelect<T, R>> split(QuerySelect<T, R> query) {
+        if (query.getCriteria() == null || query.getGroupCriteria() != null
+                || (query.getProjection() != null && !query.getProjection().isEmpty())
+                || (query.getQueryOperationType() != null
+                        && query.getQueryOperationType() != QueryOperationType.SELECT)
+                || !orderingIsReturned(query)) {
+            return null;
+        }
+        List<EntityPropertyBinding> rowKey = propertyResolver.getRowKeyPropertyBindings(query.getEntityClass());
+        if (rowKey.isEmpty()) {
+            return null;
+        }
+        String leadingProperty = rowKey.get(0).getName();
+
+        Disjunction disjunction = null;
+        List<Criterion> shared = new ArrayList<Criterion>();
+        if (query.getCriteria() instanceof Disjunction) {
+            disjunction = (Disjunction) query.getCriteria();
+        } else if (query.getCriteria() instanceof Conjunction) {
+            for (Criterion conjunct : ((Conjunction) query.getCriteria()).getCriteria()) {
+                if (disjunction == null && conjunct instanceof Disjunction
+                        && pinsDistinctValues((Disjunction) conjunct, leadingProperty)) {
+                    disjunction = (Disjunction) conjunct;
+                } else {
+                    shared.add(conjunct);
+                }
+            }
+        }
+        if (disjunction == null || !pinsDistinctValues(disjunction, leadingProperty)) {
+            return null;
+        }
+
+        List<QuerySelect<T, R>> branches = new ArrayList<QuerySelect<T, R>>();
+        for (Criterion branch : disjunction.getCriteria()) {
+            Criterion criteria = branch;
+            if (!shared.isEmpty()) {
+                List<Criterion> conjuncts = new ArrayList<Criterion>(shared);
+                conjuncts.add(branch);
+                criteria = Restrictions.and(conjuncts.toArray(new Criterion[conjuncts.size()]));
+            }
+            branches.add(new QuerySelectImpl<T, R>(query.getEntityClass(), query.getReturnType(), criteria, null,
+                    query.getOrder(), query.getMaxResults(), query.getReturnFields(), query.getProjection(),
+                    query.getQueryOperationType(), query.getQueryHint()));
+        }
+        return branches;
+    }
+
+    /**
+     * Merge the results of the branches of a split select, applying its ordering and limit (no limit when max results
+     * is 0, like in the translated select). Every branch is sorted by the ordering of the query already, so ordered
+     * results are merged with a {@link SortedMergeIterator}.
+     *
+     * @param query
+     *            the original select
+     * @param branchResults
+     *            the results of every branch
+     * @return the merged results
+     */
+    public <T, R> List<R> merge(QuerySelect<T, R> query, List<? extends Iterable<? extends R>> branchResults) {
+        Integer maxResults = query.getMaxResults();
+        int limit = maxResults != null && maxResults > 0 ? maxResults : -1;
+        List<R> merged = new ArrayList<R>();
+        OrderingComparator comparator = new OrderingComparator(query.getOrder());
+        if (!comparator.isEmpty()) {
+            List<Iterator<? extends R>> cursors = new ArrayList<Iterator<? extends R>>(branchResults.size());
+            for (Iterable<? extends R> results : branchResults) {
+                cursors.add(results.iterator());
+            }
+            Iterators.addAll(merged, new SortedMergeIterator<R>(comparator, limit, cursors));
+            return merged;
+        }
+        for (Iterable<? extends R> results : branchResults) {
+            for (R result : results) {
+                if (limit >= 0 && merged.size() >= limit) {
+                    return merged;
+                }
+                merged.add(result);
+            }
+        }
+        return merged;
+    }
+
+    public int getMaxBranches() {
+        return maxBranches;
+    }
+
+    /**
+     * Disjunctions with more branches are executed as a single query.
+     *
+     * @param maxBranches
+     *            the maximum number of branch queries
+     */
+    public void setMaxBranches(int maxBranches) {
+        Preconditions.checkArgument(maxBranches > 1, "maxBranches must be greater than 1");
+        this.maxBranches = maxBranches;
+    }
+
+    private boolean pinsDistinctValues(Disjunction disjunction, String leadingProperty) {
+        List<Criterion> branches = disjunction.getCriteria();
+        if (branches.size() < 2 || branches.size() > maxBranches) {
+            return false;
+        }
+        List<Object> pinned = new ArrayList<Object>(branches.size());
+        for (Criterion branch : branches) {
+            Object value = pinnedValue(branch, leadingProperty);
+            if (value == null) {
+                return false;
+            }
+            for (Object other : pinned) {
+                try {
+                    if (OrderingComparator.compareValues(value, other) == 0) {
+                        return false;
+                    }
+                } catch (IllegalArgumentException ex) {
+                    return false;
+                }
+            }
+            pinned.add(value);
+        }
+        return true;
+    }
+
+    private static Object pinnedValue(Criterion branch, String leadingProperty) {
+        if (branch instanceof EqualityExpression) {
+            EqualityExpression expression = (EqualityExpression) branch;
+            if (expression.getOperator() == Operator.EQUAL && leadingProperty.equals(expression.getPropertyName())
+                    && !(expression.getValue() instanceof Parameter)) {
+                return expression.getValue();
+            }
+        } else if (branch instanceof Conjunction) {
+            for (Criterion conjunct : ((Conjunction) branch).getCriteria()) {
+                Object value = pinnedValue(conjunct, leadingProperty);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean orderingIsReturned(QuerySelect<?, ?> query) {
+        if (query.getOrder() == null || query.getOrder().get().isEmpty()) {
+            return true;
+        }
+        if (!query.getEntityClass().equals(query.getReturnType())) {
+            return false;
+        }
+        List<String> returnFields = query.getReturnFields();
+        if (returnFields == null || returnFields.isEmpty()) {
+            return true;
+        }
+        for (Ordering ordering : query.getOrder().get()) {
+            if (!returnFields.contains(ordering.getPropertyName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -10,8 +10,22 @@ import java.sql.DriverManager;
  */
 public class PhoenixConnectionManager {
 
+    private static volatile boolean driverLoaded;
+
     public static Connection getConnection(final String connectionString) throws Exception {
-        Class.forName("org.apache.phoenix.jdbc.PhoenixDriver");
+        loadDriver();
         return DriverManager.getConnection(connectionString);
     }
+
+    // the driver registers itself once, loading the class on every connection only costs a lookup under a lock
+    private static void loadDriver() throws ClassNotFoundException {
+        if (!driverLoaded) {
+            synchronized (PhoenixConnectionManager.class) {
+                if (!driverLoaded) {
+                    Class.forName("org.apache.phoenix.jdbc.PhoenixDriver");
+                    driverLoaded = true;
+                }
+            }
+        }
+    }
 }
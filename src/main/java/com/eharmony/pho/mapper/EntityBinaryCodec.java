@@ -0,0 +1,436 @@
+package com.eharmony.pho.mapper;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Encodes the mapped properties of an entity into a compact binary row and back. The layout is derived from the
+ * entity bindings: a null bitmap followed by the non null values in property name order, numbers in their fixed width,
+ * dates as epoch millis (timestamps followed by their nanos), enums as ordinals and strings as length prefixed UTF-8. No type or name information is
+ * written, rows can only be decoded by a codec of the same entity class.
+ *
+ * Only entities whose mapped properties are top level fields of these types and that have a no argument constructor
+ * can be encoded, {@link #forEntity(Class, EntityPropertiesResolver)} rejects the others.
+ *
+ * @param <T>
+ *            the entity type
+ */
+public final class EntityBinaryCodec<T> {
+
+    private enum Kind {
+        LONG, INT, SHORT, BYTE, DOUBLE, FLOAT, BOOLEAN, CHAR, STRING, DATE, TIMESTAMP, ENUM, DECIMAL, BYTES
+    }
+
+    private final Class<T> entityClass;
+    private final Constructor<T> constructor;
+    private final Field[] fields;
+    private final Kind[] kinds;
+    private final int bitmapBytes;
+    private final long schemaFingerprint;
+
+    private EntityBinaryCodec(Class<T> entityClass, Constructor<T> constructor, Field[] fields, Kind[] kinds,
+            String schema) {
+        this.entityClass = entityClass;
+        this.constructor = constructor;
+        this.fields = fields;
+        this.kinds = kinds;
+        this.bitmapBytes = (fields.length + 7) / 8;
+        this.schemaFingerprint = Hashing.murmur3_128().hashString(schema, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Derive the codec of an entity from its property bindings.
+     *
+     * @param entityClass
+     *            the entity class
+     * @param resolver
+     *            the resolver of the entity bindings
+     * @return the codec
+     * @throws IllegalArgumentException
+     *             if a mapped property is nested or of an unsupported type, or the entity has no no argument
+     *             constructor
+     */
+    public static <T> EntityBinaryCodec<T> forEntity(Class<T> entityClass, EntityPropertiesResolver resolver) {
+        Preconditions.checkNotNull(entityClass);
+        Map<String, EntityPropertyBinding> bindings = resolver.getStoreFieldNamePropertyBindingMap(entityClass);
+        Preconditions.checkArgument(bindings != null && !bindings.isEmpty(), "%s is not a mapped entity",
+                entityClass.getName());
+        List<EntityPropertyBinding> sorted = new ArrayList<EntityPropertyBinding>(bindings.values());
+        Collections.sort(sorted, new Comparator<EntityPropertyBinding>() {
+            @Override
+            public int compare(EntityPropertyBinding b1, EntityPropertyBinding b2) {
+                return b1.getNameFullPath().compareTo(b2.getNameFullPath());
+            }
+        });
+        Field[] fields = new Field[sorted.size()];
+        Kind[] kinds = new Kind[fields.length];
+        StringBuilder schema = new StringBuilder(entityClass.getName());
+        for (int i = 0; i < fields.length; i++) {
+            String name = sorted.get(i).getNameFullPath();
+            Preconditions.checkArgument(name.indexOf('.') < 0, "Nested property %s of %s can not be encoded", name,
+                    entityClass.getName());
+            fields[i] = field(entityClass, name);
+            kinds[i] = kind(fields[i].getType());
+            Preconditions.checkArgument(kinds[i] != null, "Property %s of %s has the unsupported type %s", name,
+                    entityClass.getName(), fields[i].getType().getName());
+            fields[i].setAccessible(true);
+            schema.append('|').append(name).append(':').append(sorted.get(i).getStoreFieldName()).append(':')
+                    .append(fields[i].getType().getName());
+            if (kinds[i] == Kind.ENUM) {
+                schema.append(Arrays.toString(fields[i].getType().getEnumConstants()));
+            } else if (kinds[i] == Kind.TIMESTAMP) {
+                schema.append(":nanos");
+            }
+        }
+        try {
+            Constructor<T> constructor = entityClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new EntityBinaryCodec<T>(entityClass, constructor, fields, kinds, schema.toString());
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(entityClass.getName() + " has no no argument constructor", ex);
+        }
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return a hash of the encoded properties, their columns and types (and enum constants), which changes whenever
+     *         rows encoded by this codec could no longer be decoded correctly
+     */
+    public long getSchemaFingerprint() {
+        return schemaFingerprint;
+    }
+
+    /**
+     * Encode an entity.
+     *
+     * @param entity
+     *            the entity
+     * @param buffer
+     *            the buffer to append to, grown when too small
+     * @return the buffer holding the row, positioned after it
+     */
+    public ByteBuffer encode(T entity, ByteBuffer buffer) {
+        Object[] values = new Object[fields.length];
+        byte[] bitmap = new byte[bitmapBytes];
+        int size = bitmapBytes;
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = read(fields[i], entity);
+            if (values[i] == null) {
+                bitmap[i >>> 3] |= 1 << (i & 7);
+            } else {
+                if (kinds[i] == Kind.STRING || kinds[i] == Kind.DECIMAL) {
+                    values[i] = (kinds[i] == Kind.STRING ? (String) values[i] : values[i].toString())
+                            .getBytes(StandardCharsets.UTF_8);
+                }
+                size += width(kinds[i], values[i]);
+            }
+        }
+        buffer = ensure(buffer, size);
+        buffer.put(bitmap);
+        for (int i = 0; i < fields.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            switch (kinds[i]) {
+            case LONG:
+                buffer.putLong((Long) value);
+                break;
+            case INT:
+                buffer.putInt((Integer) value);
+                break;
+            case SHORT:
+                buffer.putShort((Short) value);
+                break;
+            case BYTE:
+                buffer.put((Byte) value);
+                break;
+            case DOUBLE:
+                buffer.putDouble((Double) value);
+                break;
+            case FLOAT:
+                buffer.putFloat((Float) value);
+                break;
+            case BOOLEAN:
+                buffer.put((byte) ((Boolean) value ? 1 : 0));
+                break;
+            case CHAR:
+                buffer.putChar((Character) value);
+                break;
+            case DATE:
+                buffer.putLong(((Date) value).getTime());
+                break;
+            case TIMESTAMP:
+                buffer.putLong(((Timestamp) value).getTime());
+                buffer.putInt(((Timestamp) value).getNanos());
+                break;
+            case ENUM:
+                buffer.putInt(((Enum<?>) value).ordinal());
+                break;
+            default:
+                byte[] bytes = (byte[]) value;
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Decode the entity starting at the position of the buffer.
+     *
+     * @param buffer
+     *            the buffer, positioned after the row on return
+     * @return a new entity
+     */
+    public T decode(ByteBuffer buffer) {
+        byte[] bitmap = new byte[bitmapBytes];
+        buffer.get(bitmap);
+        T entity = newEntity();
+        for (int i = 0; i < fields.length; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                continue;
+            }
+            Object value;
+            Class<?> type = fields[i].getType();
+            switch (kinds[i]) {
+            case LONG:
+                value = buffer.getLong();
+                break;
+            case INT:
+                value = buffer.getInt();
+                break;
+            case SHORT:
+                value = buffer.getShort();
+                break;
+            case BYTE:
+                value = buffer.get();
+                break;
+            case DOUBLE:
+                value = buffer.getDouble();
+                break;
+            case FLOAT:
+                value = buffer.getFloat();
+                break;
+            case BOOLEAN:
+                value = buffer.get() != 0;
+                break;
+            case CHAR:
+                value = buffer.getChar();
+                break;
+            case DATE:
+                value = date(type, buffer.getLong());
+                break;
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                value = timestamp;
+                break;
+            case ENUM:
+                value = type.getEnumConstants()[buffer.getInt()];
+                break;
+            default:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                value = kinds[i] == Kind.BYTES ? bytes
+                        : kinds[i] == Kind.DECIMAL ? new BigDecimal(new String(bytes, StandardCharsets.UTF_8))
+                                : new String(bytes, StandardCharsets.UTF_8);
+            }
+            write(fields[i], entity, value);
+        }
+        return entity;
+    }
+
+    /**
+     * Copy the mapped properties of an entity into a new entity, as encoding and decoding it would. Dates and byte
+     * arrays are copied, the values of the other supported types are immutable.
+     *
+     * @param entity
+     *            the entity
+     * @return a new entity
+     */
+    public T copy(T entity) {
+        T copy = newEntity();
+        for (Field field : fields) {
+            Object value = read(field, entity);
+            if (value instanceof Date) {
+                value = ((Date) value).clone();
+            } else if (value instanceof byte[]) {
+                value = ((byte[]) value).clone();
+            }
+            if (value != null) {
+                write(field, copy, value);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Estimate the heap retained by an entity: object headers, field slots and the size of strings, dates, decimals
+     * and arrays. Used to decide when a materialized result has to spill.
+     *
+     * @param entity
+     *            the entity
+     * @return the estimated bytes
+     */
+    public long estimateHeapBytes(T entity) {
+        long bytes = 16 + 8L * fields.length;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType().isPrimitive()) {
+                continue;
+            }
+            Object value = read(fields[i], entity);
+            if (value == null || kinds[i] == Kind.ENUM) {
+                continue;
+            }
+            switch (kinds[i]) {
+            case STRING:
+                bytes += 40 + ((String) value).length();
+                break;
+            case BYTES:
+                bytes += 16 + ((byte[]) value).length;
+                break;
+            case DECIMAL:
+                bytes += 64;
+                break;
+            default:
+                bytes += 24;
+            }
+        }
+        return bytes;
+    }
+
+    private T newEntity() {
+        try {
+            return constructor.newInstance();
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Unable to create " + entityClass.getName(), ex.getCause());
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to create " + entityClass.getName(), ex);
+        }
+    }
+
+    private static void write(Field field, Object entity, Object value) {
+        try {
+            field.set(entity, value);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to set " + field.getName(), ex);
+        }
+    }
+
+    private static Object read(Field field, Object entity) {
+        try {
+            return field.get(entity);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to read " + field.getName(), ex);
+        }
+    }
+
+    private static int width(Kind kind, Object value) {
+        switch (kind) {
+        case LONG:
+        case DOUBLE:
+        case DATE:
+            return 8;
+        case TIMESTAMP:
+            return 12;
+        case INT:
+        case FLOAT:
+        case ENUM:
+            return 4;
+        case SHORT:
+        case CHAR:
+            return 2;
+        case BYTE:
+        case BOOLEAN:
+            return 1;
+        default:
+            return 4 + ((byte[]) value).length;
+        }
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static Date date(Class<?> type, long millis) {
+        if (type == java.sql.Date.class) {
+            return new java.sql.Date(millis);
+        }
+        return new Date(millis);
+    }
+
+    private static Field field(Class<?> type, String name) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                    return field;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + type.getName());
+    }
+
+    private static Kind kind(Class<?> type) {
+        if (type == long.class || type == Long.class) {
+            return Kind.LONG;
+        } else if (type == int.class || type == Integer.class) {
+            return Kind.INT;
+        } else if (type == short.class || type == Short.class) {
+            return Kind.SHORT;
+        } else if (type == byte.class || type == Byte.class) {
+            return Kind.BYTE;
+        } else if (type == double.class || type == Double.class) {
+            return Kind.DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return Kind.FLOAT;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (type == char.class || type == Character.class) {
+            return Kind.CHAR;
+        } else if (type == String.class) {
+            return Kind.STRING;
+        } else if (type == Date.class || type == java.sql.Date.class) {
+            return Kind.DATE;
+        } else if (type == Timestamp.class) {
+            return Kind.TIMESTAMP;
+        } else if (type.isEnum()) {
+            return Kind.ENUM;
+        } else if (type == BigDecimal.class) {
+            return Kind.DECIMAL;
+        } else if (type == byte[].class) {
+            return Kind.BYTES;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityBinaryCodec [entityClass=" + entityClass.getName() + ", fields=" + Arrays.toString(kinds) + "]";
+    }
+}
@@ -0,0 +1,110 @@
+package com.eharmony.pho.mapper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.beanutils.NestedNullException;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.translator.PropertyResolver;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps a snapshot of the mapped property values of loaded entities so that a later save can write only the
+ * properties that changed since the entity was read.
+ * 
+ * Snapshots are held against the entity instance (identity, weakly referenced), so they go away with the entity.
+ */
+public class EntityChangeTracker {
+
+    private final PropertyResolver propertyResolver;
+    private final ConcurrentMap<Object, Map<String, Object>> snapshots = new MapMaker().weakKeys().makeMap();
+
+    public EntityChangeTracker(final PropertyResolver propertyResolver) {
+        this.propertyResolver = propertyResolver;
+    }
+
+    /**
+     * Record the current values of the mapped properties of the entity. Entities of classes that are not registered
+     * with the mapping context are ignored.
+     * 
+     * @param entity
+     *            the loaded or saved entity
+     */
+    public void snapshot(Object entity) {
+        if (entity == null) {
+            return;
+        }
+        Map<String, EntityPropertyBinding> bindings = propertyResolver.getEntityPropertyNamePropertyBindingMap(entity
+                .getClass());
+        if (bindings == null || bindings.isEmpty()) {
+            return;
+        }
+        Map<String, Object> snapshot = new HashMap<String, Object>(bindings.size() * 2);
+        for (Map.Entry<String, EntityPropertyBinding> binding : bindings.entrySet()) {
+            snapshot.put(binding.getKey(), copy(readProperty(entity, binding.getValue())));
+        }
+        snapshots.put(entity, snapshot);
+    }
+
+    public boolean isTracked(Object entity) {
+        return entity != null && snapshots.containsKey(entity);
+    }
+
+    public void forget(Object entity) {
+        if (entity != null) {
+            snapshots.remove(entity);
+        }
+    }
+
+    /**
+     * Compare the entity with its snapshot.
+     * 
+     * @param entity
+     *            the entity about to be saved
+     * @return the names of the properties whose value differs from the snapshot, or null if the entity is not tracked
+     */
+    public List<String> changedProperties(Object entity) {
+        Map<String, Object> snapshot = entity != null ? snapshots.get(entity) : null;
+        if (snapshot == null) {
+            return null;
+        }
+        Map<String, EntityPropertyBinding> bindings = propertyResolver.getEntityPropertyNamePropertyBindingMap(entity
+                .getClass());
+        List<String> changed = new ArrayList<String>();
+        for (Map.Entry<String, EntityPropertyBinding> binding : bindings.entrySet()) {
+            Object current = readProperty(entity, binding.getValue());
+            if (!Objects.deepEquals(current, snapshot.get(binding.getKey()))) {
+                changed.add(binding.getKey());
+            }
+        }
+        return changed;
+    }
+
+    private Object readProperty(Object entity, EntityPropertyBinding binding) {
+        try {
+            return PropertyUtils.getProperty(entity, binding.getNameFullPath());
+        } catch (NestedNullException ex) {
+            // embedded parent object is not set
+            return null;
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to read property " + binding.getNameFullPath() + " of "
+                    + entity.getClass().getSimpleName(), ex);
+        }
+    }
+
+    private Object copy(Object value) {
+        // dates are the only mutable values the mapper sets on entities
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        return value;
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.eharmony.pho.mapper;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -10,6 +13,8 @@ import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.eharmony.pho.mapper.annotation.RowKey;
+import com.eharmony.pho.mapper.annotation.SecondaryIndex;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Property;
 
@@ -25,6 +30,8 @@ public class EntityPropertiesMappingContext {
 
     private Map<String, Map<String, EntityPropertyBinding>> storeFieldToEntityPropertyBindingMap = new HashMap<String, Map<String, EntityPropertyBinding>>();
     private Map<String, Map<String, EntityPropertyBinding>> entityPropertyToStoreFieldBindingMap = new HashMap<String, Map<String, EntityPropertyBinding>>();
+    private Map<String, List<SecondaryIndexBinding>> secondaryIndexBindingMap = new HashMap<String, List<SecondaryIndexBinding>>();
+    private Map<String, List<EntityPropertyBinding>> rowKeyBindingMap = new HashMap<String, List<EntityPropertyBinding>>();
 
     private static final String PROPERTY_SEPARATOR = ".";
 
@@ -50,6 +57,57 @@ public class EntityPropertiesMappingContext {
                 entityPropertiesSet, clz);
         entityPropertyToStoreFieldBindingMap.put(className, entityFieldPropertiesMap);
 
+        secondaryIndexBindingMap.put(className, buildSecondaryIndexBindings(clz, entityFieldPropertiesMap));
+        rowKeyBindingMap.put(className, buildRowKeyBindings(entityPropertiesSet));
+    }
+
+    private List<EntityPropertyBinding> buildRowKeyBindings(Set<EntityPropertyBinding> entityPropertiesSet) {
+        List<EntityPropertyBinding> rowKeyBindings = new ArrayList<EntityPropertyBinding>();
+        for (EntityPropertyBinding entityProperty : entityPropertiesSet) {
+            if (entityProperty.isRowKey()) {
+                rowKeyBindings.add(entityProperty);
+            }
+        }
+        Collections.sort(rowKeyBindings, new Comparator<EntityPropertyBinding>() {
+            @Override
+            public int compare(EntityPropertyBinding o1, EntityPropertyBinding o2) {
+                return Integer.compare(o1.getRowKeyPosition(), o2.getRowKeyPosition());
+            }
+        });
+        return Collections.unmodifiableList(rowKeyBindings);
+    }
+
+    private List<SecondaryIndexBinding> buildSecondaryIndexBindings(Class<?> clz,
+            Map<String, EntityPropertyBinding> entityFieldPropertiesMap) {
+        SecondaryIndex[] indexes = clz.getAnnotationsByType(SecondaryIndex.class);
+        if (indexes == null || indexes.length == 0) {
+            return Collections.emptyList();
+        }
+        List<SecondaryIndexBinding> indexBindings = new ArrayList<SecondaryIndexBinding>(indexes.length);
+        for (SecondaryIndex index : indexes) {
+            if (StringUtils.isBlank(index.name()) || index.indexed().length == 0) {
+                throw new IllegalArgumentException("Secondary index on " + clz.getSimpleName()
+                        + " must declare a name and at least one indexed property");
+            }
+            indexBindings.add(new SecondaryIndexBinding(index.name(),
+                    resolveIndexColumns(clz, index.indexed(), entityFieldPropertiesMap),
+                    resolveIndexColumns(clz, index.covered(), entityFieldPropertiesMap)));
+        }
+        return Collections.unmodifiableList(indexBindings);
+    }
+
+    private List<String> resolveIndexColumns(Class<?> clz, String[] propertyNames,
+            Map<String, EntityPropertyBinding> entityFieldPropertiesMap) {
+        List<String> storeFieldNames = new ArrayList<String>(propertyNames.length);
+        for (String propertyName : propertyNames) {
+            EntityPropertyBinding entityProperty = entityFieldPropertiesMap.get(propertyName);
+            if (entityProperty == null || StringUtils.isBlank(entityProperty.getStoreFieldName())) {
+                throw new IllegalArgumentException("Invalid index property " + propertyName + " for entity "
+                        + clz.getSimpleName());
+            }
+            storeFieldNames.add(entityProperty.getStoreFieldName());
+        }
+        return storeFieldNames;
     }
 
     private Map<String, EntityPropertyBinding> populateEntityMappingPropertiesMap(
@@ -167,6 +225,10 @@ public class EntityPropertiesMappingContext {
         entityProperty.setStoreFieldName(propertyAnnotation.value());
         entityProperty.setName(simpleField.getName());
         entityProperty.setType(simpleField.getType());
+        RowKey rowKeyAnnotation = simpleField.getAnnotation(RowKey.class);
+        if (rowKeyAnnotation != null) {
+            entityProperty.setRowKeyPosition(rowKeyAnnotation.order());
+        }
         StringBuilder nameBuilder = new StringBuilder();
         if (StringUtils.isNotEmpty(parentProperty)) {
             nameBuilder.append(parentProperty).append(PROPERTY_SEPARATOR);
@@ -199,4 +261,25 @@ public class EntityPropertiesMappingContext {
         return entityPropertyToStoreFieldBindingMap.get(clz.getSimpleName());
     }
 
+    /**
+     * @param clz
+     *            the entity class
+     * @return the properties annotated as row key, in row key order. Empty if the entity declares no row key
+     */
+    public List<EntityPropertyBinding> getRowKeyPropertyBindings(Class<?> clz) {
+        List<EntityPropertyBinding> rowKeyBindings = rowKeyBindingMap.get(clz.getSimpleName());
+        if (rowKeyBindings == null) {
+            return Collections.emptyList();
+        }
+        return rowKeyBindings;
+    }
+
+    public List<SecondaryIndexBinding> getSecondaryIndexBindings(Class<?> clz) {
+        List<SecondaryIndexBinding> indexBindings = secondaryIndexBindingMap.get(clz.getSimpleName());
+        if (indexBindings == null) {
+            return Collections.emptyList();
+        }
+        return indexBindings;
+    }
+
 }
@@ -45,4 +45,14 @@ public class EntityPropertiesResolver implements PropertyResolver {
         return entityPropertiesMappingContext.getEntityPropertyNamePropertyBindingMap(clz);
     }
 
+    @Override
+    public List<EntityPropertyBinding> getRowKeyPropertyBindings(Class<?> clz) {
+        return entityPropertiesMappingContext.getRowKeyPropertyBindings(clz);
+    }
+
+    @Override
+    public List<SecondaryIndexBinding> getSecondaryIndexBindings(Class<?> clz) {
+        return entityPropertiesMappingContext.getSecondaryIndexBindings(clz);
+    }
+
 }
@@ -14,6 +14,7 @@ public class EntityPropertyBinding {
     private Type type;
     private String storeFieldName;
     private String nameFullPath;
+    private int rowKeyPosition = -1;
 
     public String getName() {
         return name;
@@ -47,4 +48,19 @@ public class EntityPropertyBinding {
         this.nameFullPath = nameFullPath;
     }
 
+    /**
+     * @return position of the property in the row key, or -1 if the property is not part of the row key
+     */
+    public int getRowKeyPosition() {
+        return rowKeyPosition;
+    }
+
+    public void setRowKeyPosition(int rowKeyPosition) {
+        this.rowKeyPosition = rowKeyPosition;
+    }
+
+    public boolean isRowKey() {
+        return rowKeyPosition >= 0;
+    }
+
 }
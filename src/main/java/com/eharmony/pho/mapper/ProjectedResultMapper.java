@@ -1,6 +1,15 @@
 package com.eharmony.pho.mapper;
 
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -8,11 +17,19 @@ import com.google.common.collect.Maps;
 
 /**
  * Map an array of properties and an array of associated property names to an
- * Object of a specified type.
+ * Object of a specified type. Values are bound through a {@link ProjectionPlan}
+ * compiled once per type and property names when doing so gives the same result
+ * as Jackson. Types a plan can not be compiled for, types using Jackson
+ * annotations, beans Jackson can create that have no target for some of the
+ * properties, and rows a plan fails to convert are converted by Jackson.
  */
 public class ProjectedResultMapper {
+
+    private static final String JACKSON_PACKAGE = "org.codehaus.jackson.";
     
     private final ObjectMapper mapper;
+    private final ConcurrentMap<List<Object>, ProjectionPlan<?>> plans = new ConcurrentHashMap<List<Object>, ProjectionPlan<?>>();
+    private final Set<List<Object>> unsupported = ConcurrentHashMap.<List<Object>> newKeySet();
     
     public ProjectedResultMapper(ObjectMapper mapper) {
         this.mapper = mapper;
@@ -52,9 +69,98 @@ public class ProjectedResultMapper {
      */
     public <R> R mapTo(Class<R> resultClass, Object properties,
             String[] propertyNames) {
-        return propertyNames.length == 1
-            ? resultClass.cast(properties)
-            : mapper.convertValue(propertyMap((Object[]) properties, propertyNames), resultClass);
+        if (propertyNames.length == 1) {
+            return resultClass.cast(properties);
+        }
+        return mapTo(resultClass, plan(resultClass, propertyNames), (Object[]) properties, propertyNames);
+    }
+
+    /**
+     * Map an Object array with an associated array of property names to the
+     * provided type through a plan looked up once for many rows.
+     * @param <R> return type
+     * @param resultClass
+     *            the desired mapped type
+     * @param plan
+     *            the plan returned by {@link #plan(Class, String[])}, may be null
+     * @param properties
+     *            the properties to be mapped
+     * @param propertyNames
+     *            an array of associated property names
+     * @return the mapped object of type R
+     */
+    public <R> R mapTo(Class<R> resultClass, ProjectionPlan<R> plan, Object[] properties,
+            String[] propertyNames) {
+        if (plan != null) {
+            try {
+                return plan.map(properties);
+            } catch (IllegalArgumentException ex) {
+                // let Jackson try its conversions, e.g. a number to a date
+            }
+        }
+        return mapper.convertValue(propertyMap(properties, propertyNames), resultClass);
+    }
+
+    /**
+     * The cached plan binding the given properties to the result class.
+     * @param <R> return type
+     * @param resultClass
+     *            the desired mapped type
+     * @param propertyNames
+     *            the names of the projected properties
+     * @return the plan, or null if the result class is left to Jackson
+     */
+    @SuppressWarnings("unchecked")
+    public <R> ProjectionPlan<R> plan(Class<R> resultClass, String[] propertyNames) {
+        Object[] keyParts = new Object[propertyNames.length + 1];
+        keyParts[0] = resultClass;
+        System.arraycopy(propertyNames, 0, keyParts, 1, propertyNames.length);
+        List<Object> key = Arrays.asList(keyParts);
+        ProjectionPlan<R> plan = (ProjectionPlan<R>) plans.get(key);
+        if (plan == null && !unsupported.contains(key)) {
+            try {
+                plan = ProjectionPlan.compile(resultClass, propertyNames);
+            } catch (IllegalArgumentException ex) {
+                plan = null;
+            }
+            if (plan == null || hasJacksonAnnotations(resultClass)
+                    || (!plan.bindsAllProperties() && hasDefaultConstructor(resultClass))) {
+                unsupported.add(key);
+                return null;
+            }
+            plans.putIfAbsent(key, plan);
+        }
+        return plan;
+    }
+
+    private static boolean hasDefaultConstructor(Class<?> type) {
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasJacksonAnnotations(Class<?> type) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            List<AnnotatedElement> elements = new ArrayList<AnnotatedElement>();
+            elements.add(current);
+            elements.addAll(Arrays.asList(current.getDeclaredFields()));
+            elements.addAll(Arrays.asList(current.getDeclaredMethods()));
+            elements.addAll(Arrays.asList(current.getDeclaredConstructors()));
+            for (Constructor<?> constructor : current.getDeclaredConstructors()) {
+                elements.addAll(Arrays.asList(constructor.getParameters()));
+            }
+            for (AnnotatedElement element : elements) {
+                for (Annotation annotation : element.getDeclaredAnnotations()) {
+                    if (annotation.annotationType().getName().startsWith(JACKSON_PACKAGE)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,378 @@
+package com.eharmony.pho.mapper;
+
+import java.beans.BeanInfo;
+import java.beans.ConstructorProperties;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Defaults;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Binds an array of projected values directly to a new instance of a return type, without an intermediate map.
+ * Values are passed to a constructor with named parameters (the canonical constructor of a record, a constructor
+ * annotated with {@link ConstructorProperties}, or any constructor of a class compiled with <code>-parameters</code>),
+ * the remaining ones are written through setters or fields. Names are matched ignoring case, values without a target
+ * are dropped.
+ *
+ * A plan is compiled once per return type and property names and is safe to share between threads.
+ *
+ * @param <R>
+ *            the return type
+ */
+public final class ProjectionPlan<R> {
+
+    private final Class<R> type;
+    private final List<String> propertyNames;
+    private final Constructor<R> constructor;
+    private final int[] argumentSlots;
+    private final Converter[] argumentConverters;
+    private final int[] writerSlots;
+    private final Writer[] writers;
+    private final boolean bindsAllProperties;
+
+    private ProjectionPlan(Class<R> type, List<String> propertyNames, Constructor<R> constructor, int[] argumentSlots,
+            Converter[] argumentConverters, int[] writerSlots, Writer[] writers, boolean bindsAllProperties) {
+        this.type = type;
+        this.propertyNames = propertyNames;
+        this.constructor = constructor;
+        this.argumentSlots = argumentSlots;
+        this.argumentConverters = argumentConverters;
+        this.writerSlots = writerSlots;
+        this.writers = writers;
+        this.bindsAllProperties = bindsAllProperties;
+    }
+
+    /**
+     * Compile the plan binding values of the given properties, in this order, to the return type.
+     *
+     * @param type
+     *            the return type
+     * @param propertyNames
+     *            the names of the projected properties
+     * @return the plan
+     * @throws IllegalArgumentException
+     *             if the type has no constructor the properties can be bound to
+     */
+    public static <R> ProjectionPlan<R> compile(Class<R> type, String... propertyNames) {
+        Preconditions.checkNotNull(type);
+        Preconditions.checkNotNull(propertyNames);
+        boolean[] bound = new boolean[propertyNames.length];
+
+        Constructor<R> constructor = null;
+        String[] parameterNames = null;
+        Constructor<R> record = recordConstructor(type);
+        if (record != null) {
+            constructor = record;
+            parameterNames = recordComponentNames(type);
+        } else {
+            int best = -1;
+            for (Constructor<?> candidate : type.getDeclaredConstructors()) {
+                String[] names = parameterNames(candidate);
+                if (names == null || names.length <= best) {
+                    continue;
+                }
+                boolean matchesAll = true;
+                for (String name : names) {
+                    matchesAll &= slotOf(name, propertyNames) >= 0;
+                }
+                if (matchesAll) {
+                    @SuppressWarnings("unchecked")
+                    Constructor<R> typed = (Constructor<R>) candidate;
+                    constructor = typed;
+                    parameterNames = names;
+                    best = names.length;
+                }
+            }
+        }
+        if (constructor == null || Modifier.isAbstract(type.getModifiers())) {
+            throw new IllegalArgumentException("No constructor of " + type.getName()
+                    + " can be bound to the properties " + Arrays.toString(propertyNames));
+        }
+        constructor.setAccessible(true);
+
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        int[] argumentSlots = new int[parameterTypes.length];
+        Converter[] argumentConverters = new Converter[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            argumentSlots[i] = slotOf(parameterNames[i], propertyNames);
+            argumentConverters[i] = new Converter(parameterNames[i], parameterTypes[i]);
+            if (argumentSlots[i] >= 0) {
+                bound[argumentSlots[i]] = true;
+            }
+        }
+
+        List<Integer> writerSlots = new ArrayList<Integer>();
+        List<Writer> writers = new ArrayList<Writer>();
+        for (int slot = 0; slot < propertyNames.length; slot++) {
+            if (bound[slot]) {
+                continue;
+            }
+            Writer writer = writer(type, propertyNames[slot]);
+            if (writer != null) {
+                writerSlots.add(slot);
+                writers.add(writer);
+                bound[slot] = true;
+            }
+        }
+        boolean bindsAllProperties = true;
+        for (boolean slotBound : bound) {
+            bindsAllProperties &= slotBound;
+        }
+        int[] writerSlotArray = new int[writerSlots.size()];
+        for (int i = 0; i < writerSlotArray.length; i++) {
+            writerSlotArray[i] = writerSlots.get(i);
+        }
+        return new ProjectionPlan<R>(type, Collections.unmodifiableList(Arrays.asList(propertyNames.clone())),
+                constructor, argumentSlots, argumentConverters, writerSlotArray,
+                writers.toArray(new Writer[writers.size()]), bindsAllProperties);
+    }
+
+    /**
+     * Create an instance of the return type from one row of values.
+     *
+     * @param values
+     *            the values, in the order of {@link #getPropertyNames()}
+     * @return the new instance
+     * @throws IllegalArgumentException
+     *             if a value can not be converted or the instance can not be created
+     */
+    public R map(Object[] values) {
+        Preconditions.checkArgument(values.length == propertyNames.size(), "Expected %s values but got %s",
+                propertyNames.size(), values.length);
+        Object[] arguments = new Object[argumentSlots.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = argumentConverters[i].convert(argumentSlots[i] < 0 ? null : values[argumentSlots[i]]);
+        }
+        try {
+            R instance = constructor.newInstance(arguments);
+            for (int i = 0; i < writers.length; i++) {
+                writers[i].write(instance, values[writerSlots[i]]);
+            }
+            return instance;
+        } catch (InvocationTargetException ex) {
+            throw new IllegalArgumentException("Unable to map projection to " + type.getName(), ex.getCause());
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new IllegalArgumentException("Unable to map projection to " + type.getName(), ex);
+        }
+    }
+
+    public Class<R> getType() {
+        return type;
+    }
+
+    public List<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    /**
+     * @return false if the values of some properties have no constructor parameter, setter or field to go to and are
+     *         dropped by {@link #map(Object[])}
+     */
+    public boolean bindsAllProperties() {
+        return bindsAllProperties;
+    }
+
+    private static int slotOf(String name, String[] propertyNames) {
+        for (int i = 0; i < propertyNames.length; i++) {
+            if (propertyNames[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String[] parameterNames(Constructor<?> constructor) {
+        ConstructorProperties properties = constructor.getAnnotation(ConstructorProperties.class);
+        if (properties != null) {
+            return properties.value().length == constructor.getParameterCount() ? properties.value() : null;
+        }
+        Parameter[] parameters = constructor.getParameters();
+        String[] names = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            if (!parameters[i].isNamePresent()) {
+                return null;
+            }
+            names[i] = parameters[i].getName();
+        }
+        return names;
+    }
+
+    // records are looked up reflectively, the library targets java 8
+    private static <R> Constructor<R> recordConstructor(Class<R> type) {
+        Object[] components = recordComponents(type);
+        if (components == null) {
+            return null;
+        }
+        try {
+            Class<?>[] types = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                types[i] = (Class<?>) components[i].getClass().getMethod("getType").invoke(components[i]);
+            }
+            return type.getDeclaredConstructor(types);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    private static String[] recordComponentNames(Class<?> type) {
+        Object[] components = recordComponents(type);
+        String[] names = new String[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                names[i] = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+            }
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Unable to read the components of " + type.getName(), ex);
+        }
+        return names;
+    }
+
+    private static Object[] recordComponents(Class<?> type) {
+        try {
+            Method isRecord = Class.class.getMethod("isRecord");
+            if (!Boolean.TRUE.equals(isRecord.invoke(type))) {
+                return null;
+            }
+            return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    private static Writer writer(Class<?> type, String propertyName) {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(type);
+            for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                Method setter = descriptor.getWriteMethod();
+                if (setter != null && descriptor.getName().equalsIgnoreCase(propertyName)) {
+                    setter.setAccessible(true);
+                    return new SetterWriter(setter, new Converter(propertyName, setter.getParameterTypes()[0]));
+                }
+            }
+        } catch (IntrospectionException ex) {
+            // fall back to the fields
+        }
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)
+                        && field.getName().equalsIgnoreCase(propertyName)) {
+                    field.setAccessible(true);
+                    return new FieldWriter(field, new Converter(propertyName, field.getType()));
+                }
+            }
+        }
+        return null;
+    }
+
+    private abstract static class Writer {
+
+        protected final Converter converter;
+
+        Writer(Converter converter) {
+            this.converter = converter;
+        }
+
+        abstract void write(Object target, Object value) throws IllegalAccessException, InvocationTargetException;
+    }
+
+    private static final class SetterWriter extends Writer {
+
+        private final Method setter;
+
+        SetterWriter(Method setter, Converter converter) {
+            super(converter);
+            this.setter = setter;
+        }
+
+        @Override
+        void write(Object target, Object value) throws IllegalAccessException, InvocationTargetException {
+            setter.invoke(target, converter.convert(value));
+        }
+    }
+
+    private static final class FieldWriter extends Writer {
+
+        private final Field field;
+
+        FieldWriter(Field field, Converter converter) {
+            super(converter);
+            this.field = field;
+        }
+
+        @Override
+        void write(Object target, Object value) throws IllegalAccessException {
+            field.set(target, converter.convert(value));
+        }
+    }
+
+    /**
+     * Converts the values returned by the driver to the declared type: numbers are widened or narrowed, strings are
+     * turned into enum constants and nulls into the default of primitive types.
+     */
+    private static final class Converter {
+
+        private final String propertyName;
+        private final Class<?> target;
+        private final Object nullValue;
+
+        Converter(String propertyName, Class<?> declared) {
+            this.propertyName = propertyName;
+            this.target = Primitives.wrap(declared);
+            this.nullValue = Defaults.defaultValue(declared);
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object convert(Object value) {
+            if (value == null) {
+                return nullValue;
+            }
+            if (target.isInstance(value)) {
+                return value;
+            }
+            if (value instanceof Number) {
+                Number number = (Number) value;
+                if (target == Long.class) {
+                    return number.longValue();
+                } else if (target == Integer.class) {
+                    return number.intValue();
+                } else if (target == Double.class) {
+                    return number.doubleValue();
+                } else if (target == Float.class) {
+                    return number.floatValue();
+                } else if (target == Short.class) {
+                    return number.shortValue();
+                } else if (target == Byte.class) {
+                    return number.byteValue();
+                } else if (target == BigDecimal.class) {
+                    return new BigDecimal(number.toString());
+                } else if (target == BigInteger.class) {
+                    return new BigDecimal(number.toString()).toBigInteger();
+                }
+            }
+            if (target == String.class) {
+                return value.toString();
+            }
+            if (target.isEnum() && value instanceof String) {
+                return Enum.valueOf((Class<? extends Enum>) target, (String) value);
+            }
+            throw new IllegalArgumentException("Cannot convert " + value.getClass().getName() + " to "
+                    + target.getName() + " for property " + propertyName);
+        }
+    }
+}
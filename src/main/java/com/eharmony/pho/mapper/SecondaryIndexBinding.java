@@ -0,0 +1,65 @@
+package com.eharmony.pho.mapper;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Contains the information about a secondary index declared on an entity, with columns resolved to store field names.
+ */
+public class SecondaryIndexBinding {
+
+    private final String name;
+    private final List<String> indexedStoreFieldNames;
+    private final Set<String> coveredStoreFieldNames;
+
+    public SecondaryIndexBinding(String name, List<String> indexedStoreFieldNames, List<String> coveredStoreFieldNames) {
+        this.name = name;
+        this.indexedStoreFieldNames = Collections.unmodifiableList(indexedStoreFieldNames);
+        this.coveredStoreFieldNames = Collections.unmodifiableSet(new LinkedHashSet<String>(coveredStoreFieldNames));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the indexed store columns, in index key order
+     */
+    public List<String> getIndexedStoreFieldNames() {
+        return indexedStoreFieldNames;
+    }
+
+    public Set<String> getCoveredStoreFieldNames() {
+        return coveredStoreFieldNames;
+    }
+
+    /**
+     * Check whether the given store column can be read from the index without going back to the data table.
+     * 
+     * @param storeFieldName
+     *            the store column name
+     * @return true if the column is indexed or covered
+     */
+    public boolean isAvailable(String storeFieldName) {
+        for (String indexed : indexedStoreFieldNames) {
+            if (indexed.equalsIgnoreCase(storeFieldName)) {
+                return true;
+            }
+        }
+        for (String covered : coveredStoreFieldNames) {
+            if (covered.equalsIgnoreCase(storeFieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "SecondaryIndexBinding [name=" + name + ", indexed=" + indexedStoreFieldNames + ", covered="
+                + coveredStoreFieldNames + "]";
+    }
+
+}
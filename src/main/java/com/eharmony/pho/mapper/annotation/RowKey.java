@@ -0,0 +1,34 @@
+package com.eharmony.pho.mapper.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a mapped property as part of the table primary key (the HBase row key).
+ * 
+ * Composite keys annotate every key property and give their position in the primary key constraint.
+ * 
+ * <pre>
+ * &#64;RowKey(order = 0)
+ * &#64;Property("UID")
+ * private long userId;
+ * 
+ * &#64;RowKey(order = 1)
+ * &#64;Property("MID")
+ * private long matchId;
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RowKey {
+
+    /**
+     * @return position of the column in the primary key, starting at 0
+     */
+    int order() default 0;
+
+}
@@ -0,0 +1,43 @@
+package com.eharmony.pho.mapper.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a secondary index defined on the table of the annotated entity.
+ * 
+ * Columns are given as entity property names and resolved to store columns by the
+ * {@link com.eharmony.pho.mapper.EntityPropertiesMappingContext}, the same way query properties are.
+ * 
+ * <pre>
+ * &#64;Entity("user_matches")
+ * &#64;SecondaryIndex(name = "IDX_STATUS", indexed = { "status", "deliveredDate" }, covered = { "matchId" })
+ * public class MatchElement { ... }
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(SecondaryIndexes.class)
+public @interface SecondaryIndex {
+
+    /**
+     * @return the index name as created in the datastore
+     */
+    String name();
+
+    /**
+     * @return the indexed properties, in index key order
+     */
+    String[] indexed();
+
+    /**
+     * @return the properties stored in the index through an INCLUDE clause
+     */
+    String[] covered() default {};
+
+}
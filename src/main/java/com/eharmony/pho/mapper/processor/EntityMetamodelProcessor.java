@@ -0,0 +1,142 @@
+package com.eharmony.pho.mapper.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Property;
+
+/**
+ * Generates a metamodel class <code>Entity_</code> next to every <code>@Entity</code>, with one
+ * {@link com.eharmony.pho.query.criterion.EntityProperty} constant per <code>@Property</code> field, including the
+ * fields of <code>@Embedded</code> types. Property names and store columns follow
+ * {@link com.eharmony.pho.mapper.EntityPropertiesMappingContext}: the field name and the <code>@Property</code> value.
+ *
+ * Registered in <code>META-INF/services</code>, so it runs whenever pho is on the compile classpath of entity classes.
+ */
+@SupportedAnnotationTypes("com.google.code.morphia.annotations.Entity")
+public class EntityMetamodelProcessor extends AbstractProcessor {
+
+    static final String METAMODEL_SUFFIX = "_";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Entity.class)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                generate((TypeElement) element);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement entity) {
+        Map<String, String[]> properties = new LinkedHashMap<String, String[]>();
+        collectProperties(entity, entity, properties);
+        String packageName = packageOf(entity).getQualifiedName().toString();
+        String simpleName = entity.getSimpleName() + METAMODEL_SUFFIX;
+        String entityName = entity.getQualifiedName().toString();
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.eharmony.pho.query.criterion.EntityProperty;\n\n");
+        source.append("/**\n * Metamodel of {@link ").append(entityName)
+                .append("}, generated by ").append(getClass().getName()).append(".\n */\n");
+        source.append("public final class ").append(simpleName).append(" {\n\n");
+        for (Map.Entry<String, String[]> property : properties.entrySet()) {
+            String name = property.getKey();
+            String valueType = property.getValue()[0];
+            String storeFieldName = property.getValue()[1];
+            source.append("    public static final EntityProperty<").append(entityName).append(", ")
+                    .append(valueType).append("> ").append(name).append(" = new EntityProperty<")
+                    .append(entityName).append(", ").append(valueType).append(">(").append(entityName)
+                    .append(".class, \"").append(name).append("\", \"").append(escape(storeFieldName))
+                    .append("\");\n\n");
+        }
+        source.append("    private ").append(simpleName).append("() {\n    }\n}\n");
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, entity).openWriter();
+            try {
+                writer.write(source.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to generate " + qualifiedName + ": " + ex.getMessage(), entity);
+        }
+    }
+
+    private void collectProperties(TypeElement entity, TypeElement type, Map<String, String[]> properties) {
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (field.getAnnotation(Embedded.class) != null && field.asType().getKind() == TypeKind.DECLARED) {
+                collectProperties(entity, (TypeElement) ((DeclaredType) field.asType()).asElement(), properties);
+                continue;
+            }
+            Property property = field.getAnnotation(Property.class);
+            if (property == null) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            if (properties.containsKey(name)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Property " + name + " of " + entity.getSimpleName() + " is declared more than once, "
+                                + "the metamodel keeps the first declaration", field);
+                continue;
+            }
+            properties.put(name, new String[] { valueType(field.asType()), property.value() });
+        }
+    }
+
+    private String valueType(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        if (type.getKind() == TypeKind.TYPEVAR) {
+            return processingEnv.getTypeUtils().erasure(type).toString();
+        }
+        return type.toString();
+    }
+
+    private static PackageElement packageOf(Element element) {
+        Element enclosing = element;
+        while (enclosing.getKind() != ElementKind.PACKAGE) {
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return (PackageElement) enclosing;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
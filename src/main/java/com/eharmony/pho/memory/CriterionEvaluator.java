@@ -0,0 +1,264 @@
+package com.eharmony.pho.memory;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.expression.EqualityExpression;
+import com.eharmony.pho.query.criterion.expression.Expression;
+import com.eharmony.pho.query.criterion.expression.NativeExpression;
+import com.eharmony.pho.query.criterion.expression.RangeExpression;
+import com.eharmony.pho.query.criterion.expression.SetExpression;
+import com.eharmony.pho.query.criterion.expression.UnaryExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.eharmony.pho.query.criterion.junction.Disjunction;
+
+/**
+ * Evaluates a criteria tree against a single entity (or an aggregated row held in a map) with SQL semantics: any
+ * comparison with a null property value is false, only the <code>NULL</code>/<code>EMPTY</code> operators match it.
+ *
+ * A {@link NativeExpression} is supported when its expression is a {@link Predicate} over the entity.
+ */
+public class CriterionEvaluator {
+
+    private static final int MAX_CACHED_PATTERNS = 1024;
+
+    private final Map<String, Pattern> likePatterns = new ConcurrentHashMap<String, Pattern>();
+
+    public boolean matches(Object entity, Criterion criterion) {
+        if (criterion == null) {
+            return true;
+        }
+        if (criterion instanceof Conjunction) {
+            for (Criterion c : ((Conjunction) criterion).getCriteria()) {
+                if (!matches(entity, c)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (criterion instanceof Disjunction) {
+            boolean empty = true;
+            for (Criterion c : ((Disjunction) criterion).getCriteria()) {
+                if (matches(entity, c)) {
+                    return true;
+                }
+                empty = false;
+            }
+            return empty;
+        }
+        if (criterion instanceof EqualityExpression) {
+            return matches(entity, (EqualityExpression) criterion);
+        }
+        if (criterion instanceof RangeExpression) {
+            RangeExpression range = (RangeExpression) criterion;
+            Object value = value(entity, range);
+            return value != null && range.getFrom() != null && range.getTo() != null
+                    && OrderingComparator.compareValues(value, range.getFrom()) >= 0
+                    && OrderingComparator.compareValues(value, range.getTo()) <= 0;
+        }
+        if (criterion instanceof SetExpression) {
+            return matches(entity, (SetExpression) criterion);
+        }
+        if (criterion instanceof UnaryExpression) {
+            return matches(entity, (UnaryExpression) criterion);
+        }
+        if (criterion instanceof NativeExpression) {
+            return matches(entity, (NativeExpression) criterion);
+        }
+        throw new UnsupportedOperationException("Unsupported criterion " + criterion);
+    }
+
+    private boolean matches(Object entity, EqualityExpression expression) {
+        Object value = value(entity, expression);
+        Object expected = expression.getValue();
+        if (value == null || expected == null) {
+            return false;
+        }
+        switch (expression.getOperator()) {
+        case EQUAL:
+            return valuesEqual(value, expected);
+        case NOT_EQUAL:
+            return !valuesEqual(value, expected);
+        case LESS_THAN:
+            return OrderingComparator.compareValues(value, expected) < 0;
+        case LESS_THAN_OR_EQUAL:
+            return OrderingComparator.compareValues(value, expected) <= 0;
+        case GREATER_THAN:
+            return OrderingComparator.compareValues(value, expected) > 0;
+        case GREATER_THAN_OR_EQUAL:
+            return OrderingComparator.compareValues(value, expected) >= 0;
+        case LIKE:
+            return likePattern(expected, false).matcher(value.toString()).matches();
+        case ILIKE:
+            return likePattern(expected, true).matcher(value.toString()).matches();
+        default:
+            throw new UnsupportedOperationException("Unsupported operator " + expression.getOperator());
+        }
+    }
+
+    private boolean matches(Object entity, SetExpression expression) {
+        Object value = value(entity, expression);
+        Object[] values = expression.getValues();
+        switch (expression.getOperator()) {
+        case IN:
+            return value != null && indexOf(value, values) >= 0;
+        case NOT_IN:
+            return value != null && indexOf(value, values) < 0;
+        case CONTAINS:
+            if (value == null) {
+                return false;
+            }
+            for (Object v : values) {
+                if (!containsElement(value, v)) {
+                    return false;
+                }
+            }
+            return true;
+        default:
+            throw new UnsupportedOperationException("Unsupported operator " + expression.getOperator());
+        }
+    }
+
+    private boolean matches(Object entity, UnaryExpression expression) {
+        Object value = value(entity, expression);
+        switch (expression.getOperator()) {
+        case NULL:
+            return value == null;
+        case NOT_NULL:
+            return value != null;
+        case EMPTY:
+            return isEmpty(value);
+        case NOT_EMPTY:
+            return !isEmpty(value);
+        default:
+            throw new UnsupportedOperationException("Unsupported operator " + expression.getOperator());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean matches(Object entity, NativeExpression expression) {
+        if (expression.getExpression() instanceof Predicate) {
+            return ((Predicate<Object>) expression.getExpression()).test(entity);
+        }
+        throw new UnsupportedOperationException("Native expressions must be a java.util.function.Predicate: "
+                + expression);
+    }
+
+    /**
+     * Value equality as the data store sees it: numbers by value, dates by time, enums by name.
+     *
+     * @param v1
+     *            first value, not null
+     * @param v2
+     *            second value, not null
+     * @return true if equal
+     */
+    public static boolean valuesEqual(Object v1, Object v2) {
+        if (v1.equals(v2)) {
+            return true;
+        }
+        try {
+            return OrderingComparator.compareValues(v1, v2) == 0;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private Object value(Object entity, Expression expression) {
+        if (entity instanceof Map && expression.getAggregateProjection() != null) {
+            return ((Map<?, ?>) entity).get(expression.getAggregateProjection().getName());
+        }
+        return OrderingComparator.propertyValue(entity, expression.getPropertyName());
+    }
+
+    private static int indexOf(Object value, Object[] values) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && valuesEqual(value, values[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean containsElement(Object container, Object element) {
+        if (container instanceof Collection) {
+            for (Object e : (Collection<?>) container) {
+                if (e != null && element != null && valuesEqual(e, element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (container.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(container); i++) {
+                Object e = Array.get(container, i);
+                if (e != null && element != null && valuesEqual(e, element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return element != null && container.toString().contains(element.toString());
+    }
+
+    private static boolean isEmpty(Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() == 0;
+        }
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).isEmpty();
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).isEmpty();
+        }
+        return value.getClass().isArray() && Array.getLength(value) == 0;
+    }
+
+    // the phoenix translator wraps LIKE values in wildcards, so they match anywhere in the value
+    private Pattern likePattern(Object expected, boolean ignoreCase) {
+        String like = "%" + expected + "%";
+        String key = (ignoreCase ? "i:" : "c:") + like;
+        Pattern pattern = likePatterns.get(key);
+        if (pattern == null) {
+            if (likePatterns.size() >= MAX_CACHED_PATTERNS) {
+                likePatterns.clear();
+            }
+            pattern = compileLike(like, ignoreCase);
+            likePatterns.put(key, pattern);
+        }
+        return pattern;
+    }
+
+    private static Pattern compileLike(String like, boolean ignoreCase) {
+        StringBuilder regex = new StringBuilder(like.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+                : Pattern.DOTALL);
+    }
+}
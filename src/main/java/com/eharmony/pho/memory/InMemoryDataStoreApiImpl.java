@@ -0,0 +1,648 @@
+package com.eharmony.pho.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.api.DataStoreApi;
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.mapper.EntityBinaryCodec;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.criterion.Aggregate;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
+import com.eharmony.pho.query.criterion.projection.GroupProjection;
+import com.eharmony.pho.query.criterion.projection.Projection;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Datastore api implementation that keeps entities in memory, keyed by their {@link com.eharmony.pho.mapper.annotation.RowKey}
+ * properties. Queries are evaluated locally against the same criteria, orderings, projections and limits the phoenix
+ * implementation translates to sql, which makes it usable for tests, local benchmarks and small read mostly reference
+ * tables.
+ *
+ * Entities are copied when they are saved and when they are returned, so changing a saved entity or a query result
+ * does not change the table. Entities with an {@link EntityBinaryCodec} keep their mapped properties only, like a row
+ * of the data store; the others are copied property by property, sharing the values of their properties.
+ *
+ * The tables can be written to a binary snapshot file, periodically with {@link #startSnapshots(File, long, TimeUnit)},
+ * and loaded back on startup with {@link #loadSnapshot(File, long)} instead of being reloaded from the data store.
+ */
+public class InMemoryDataStoreApiImpl implements DataStoreApi {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryDataStoreApiImpl.class);
+
+    static final int SNAPSHOT_MAGIC = 0x50484f53;
+    static final int SNAPSHOT_FORMAT_VERSION = 1;
+
+    private final EntityPropertiesResolver entityPropertiesResolver;
+    private final ConcurrentMap<Class<?>, InMemoryTable> tables = new ConcurrentHashMap<Class<?>, InMemoryTable>();
+    private final CriterionEvaluator evaluator = new CriterionEvaluator();
+    private ScheduledExecutorService snapshotScheduler;
+
+    public InMemoryDataStoreApiImpl(final EntityPropertiesResolver entityPropertiesResolver) {
+        this.entityPropertiesResolver = Preconditions.checkNotNull(entityPropertiesResolver);
+    }
+
+    /**
+     * Index a property for equality and <code>in</code> lookups.
+     *
+     * @param entityClass
+     *            entity class
+     * @param propertyName
+     *            entity property name
+     */
+    public void addHashIndex(Class<?> entityClass, String propertyName) {
+        table(entityClass).addIndex(Preconditions.checkNotNull(propertyName), false);
+    }
+
+    /**
+     * Index a property for equality, <code>in</code> and range lookups.
+     *
+     * @param entityClass
+     *            entity class
+     * @param propertyName
+     *            entity property name
+     */
+    public void addSortedIndex(Class<?> entityClass, String propertyName) {
+        table(entityClass).addIndex(Preconditions.checkNotNull(propertyName), true);
+    }
+
+    @Override
+    public <T> T save(T entity) {
+        InMemoryTable table = table(entity.getClass());
+        table.put(table.copy(entity));
+        return entity;
+    }
+
+    @Override
+    public <T> Iterable<T> save(Iterable<T> entities) {
+        for (T entity : entities) {
+            save(entity);
+        }
+        return entities;
+    }
+
+    @Override
+    public <T> int[] saveBatch(Iterable<T> entities) {
+        int count = 0;
+        for (T entity : entities) {
+            save(entity);
+            count++;
+        }
+        int[] result = new int[count];
+        Arrays.fill(result, 1);
+        return result;
+    }
+
+    /**
+     * Update the selected properties of the row with the row key of the entity, like an upsert of their columns. A
+     * missing row is created with the row key and the selected properties only. An empty or null list saves the whole
+     * entity.
+     */
+    @Override
+    public <T> T save(final T entity, List<String> selectedFields) {
+        if (CollectionUtils.isEmpty(selectedFields)) {
+            return save(entity);
+        }
+        final List<String> fields = new ArrayList<String>(selectedFields);
+        final InMemoryTable table = table(entity.getClass());
+        table.update(entity, new Function<Object, Object>() {
+            @Override
+            public Object apply(Object existing) {
+                Object updated;
+                if (existing != null) {
+                    updated = table.copy(existing);
+                } else {
+                    updated = newInstance(entity.getClass());
+                    for (EntityPropertyBinding binding : entityPropertiesResolver
+                            .getRowKeyPropertyBindings(entity.getClass())) {
+                        setProperty(updated, binding.getNameFullPath(), entity);
+                    }
+                }
+                for (String field : fields) {
+                    setProperty(updated, field, entity);
+                }
+                return updated;
+            }
+        });
+        return entity;
+    }
+
+    /**
+     * Remove the row with the row key of the given entity.
+     *
+     * @param entity
+     *            entity with its row key properties set
+     * @return true if a row was removed
+     */
+    public boolean delete(Object entity) {
+        return table(entity.getClass()).remove(entity);
+    }
+
+    public void clear(Class<?> entityClass) {
+        InMemoryTable table = tables.get(entityClass);
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    public int size(Class<?> entityClass) {
+        InMemoryTable table = tables.get(entityClass);
+        return table != null ? table.size() : 0;
+    }
+
+    /**
+     * Write all tables to a snapshot file. Every table is written with the schema fingerprint of its
+     * {@link EntityBinaryCodec}, followed by its rows in row key order. The file is written next to the target and
+     * atomically moved over it, so readers never see a partial snapshot. Tables whose entities can not be encoded are
+     * skipped.
+     *
+     * @param file
+     *            the snapshot file
+     * @return the number of rows written
+     * @throws IOException
+     *             if the file can not be written
+     */
+    public long writeSnapshot(File file) throws IOException {
+        Preconditions.checkNotNull(file);
+        List<EntityBinaryCodec<Object>> codecs = new ArrayList<EntityBinaryCodec<Object>>();
+        List<List<Object>> contents = new ArrayList<List<Object>>();
+        for (Map.Entry<Class<?>, InMemoryTable> table : tables.entrySet()) {
+            try {
+                codecs.add(codec(table.getKey()));
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipping {} in the snapshot: {}", table.getKey().getName(), ex.getMessage());
+                continue;
+            }
+            contents.add(table.getValue().all());
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        long rows = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(codecs.size());
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                for (int i = 0; i < codecs.size(); i++) {
+                    EntityBinaryCodec<Object> codec = codecs.get(i);
+                    byte[] name = codec.getEntityClass().getName().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeLong(codec.getSchemaFingerprint());
+                    out.writeInt(contents.get(i).size());
+                    for (Object row : contents.get(i)) {
+                        buffer.clear();
+                        buffer = codec.encode(row, buffer);
+                        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+                    }
+                    rows += contents.get(i).size();
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                log.warn("Unable to delete the temporary snapshot {}", temp);
+            }
+        }
+        log.debug("Wrote {} rows of {} tables to {}", rows, codecs.size(), file);
+        return rows;
+    }
+
+    /**
+     * Load the tables of a snapshot written by {@link #writeSnapshot(File)}. The file is memory mapped and decoded
+     * completely before any table is changed; the snapshot is rejected as a whole, leaving the tables untouched, if it
+     * is missing, older than the maximum age, written by another format version, unreadable, or if the schema of any
+     * of its entities changed since it was written. Loaded tables replace the current rows of the same entity in one
+     * step, concurrent reads see the old or the new rows, never a partly loaded table; the other tables are kept.
+     *
+     * @param file
+     *            the snapshot file
+     * @param maxAgeMillis
+     *            the maximum age of the snapshot, negative for no maximum
+     * @return true if the snapshot was loaded
+     */
+    public boolean loadSnapshot(File file, long maxAgeMillis) {
+        Preconditions.checkNotNull(file);
+        if (!file.isFile()) {
+            log.info("No snapshot at {}", file);
+            return false;
+        }
+        Map<Class<?>, List<Object>> loaded = new LinkedHashMap<Class<?>, List<Object>>();
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer;
+            try {
+                buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            } finally {
+                input.close();
+            }
+            if (buffer.remaining() < 20 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                log.warn("Rejecting snapshot {}: not a snapshot file", file);
+                return false;
+            }
+            int version = buffer.getInt();
+            if (version != SNAPSHOT_FORMAT_VERSION) {
+                log.warn("Rejecting snapshot {}: format version {} instead of {}", file, version,
+                        SNAPSHOT_FORMAT_VERSION);
+                return false;
+            }
+            long age = System.currentTimeMillis() - buffer.getLong();
+            if (maxAgeMillis >= 0 && age > maxAgeMillis) {
+                log.warn("Rejecting snapshot {}: {} ms old, the maximum is {} ms", file, age, maxAgeMillis);
+                return false;
+            }
+            int tableCount = buffer.getInt();
+            for (int t = 0; t < tableCount; t++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                String className = new String(name, StandardCharsets.UTF_8);
+                EntityBinaryCodec<Object> codec = codec(Class.forName(className));
+                long fingerprint = buffer.getLong();
+                if (fingerprint != codec.getSchemaFingerprint()) {
+                    log.warn("Rejecting snapshot {}: the schema of {} changed", file, className);
+                    return false;
+                }
+                int rowCount = buffer.getInt();
+                List<Object> rows = new ArrayList<Object>(rowCount);
+                for (int i = 0; i < rowCount; i++) {
+                    rows.add(codec.decode(buffer));
+                }
+                loaded.put(codec.getEntityClass(), rows);
+            }
+        } catch (IOException ex) {
+            log.warn("Rejecting snapshot " + file + ": unable to read it", ex);
+            return false;
+        } catch (ClassNotFoundException ex) {
+            log.warn("Rejecting snapshot {}: unknown entity {}", file, ex.getMessage());
+            return false;
+        } catch (BufferUnderflowException ex) {
+            log.warn("Rejecting snapshot {}: truncated", file);
+            return false;
+        } catch (RuntimeException ex) {
+            log.warn("Rejecting snapshot " + file + ": unable to decode it", ex);
+            return false;
+        }
+        long rows = 0;
+        for (Map.Entry<Class<?>, List<Object>> table : loaded.entrySet()) {
+            table(table.getKey()).replaceAll(table.getValue());
+            rows += table.getValue().size();
+        }
+        log.info("Loaded {} rows of {} tables from snapshot {}", rows, loaded.size(), file);
+        return true;
+    }
+
+    /**
+     * Write a snapshot of all tables at a fixed rate on a daemon thread, replacing any previous schedule. Failed
+     * snapshots are logged and retried at the next run.
+     *
+     * @param file
+     *            the snapshot file
+     * @param period
+     *            the time between two snapshots
+     * @param unit
+     *            the unit of the period
+     */
+    public synchronized void startSnapshots(final File file, long period, TimeUnit unit) {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        stopSnapshots();
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("pho-snapshot-%d").build());
+        snapshotScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(file);
+                } catch (Exception ex) {
+                    log.warn("Unable to write snapshot " + file, ex);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop the periodic snapshots, a snapshot being written is completed.
+     */
+    public synchronized void stopSnapshots() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            snapshotScheduler = null;
+        }
+    }
+
+    @Override
+    public <T, R> Iterable<R> findAll(QuerySelect<T, R> query) {
+        InMemoryTable table = table(query.getEntityClass());
+        List<Object> rows = table.select(query.getCriteria(), evaluator);
+        List<AggregateProjection> aggregates = new ArrayList<AggregateProjection>();
+        boolean projected = CollectionUtils.isNotEmpty(query.getProjection());
+        if (projected) {
+            rows = aggregate(rows, query.getProjection(), aggregates);
+            if (query.getGroupCriteria() != null) {
+                List<Object> having = new ArrayList<Object>(rows.size());
+                for (Object row : rows) {
+                    if (evaluator.matches(row, query.getGroupCriteria())) {
+                        having.add(row);
+                    }
+                }
+                rows = having;
+            }
+        }
+        OrderingComparator ordering = new OrderingComparator(query.getOrder());
+        if (!ordering.isEmpty()) {
+            Collections.sort(rows, ordering);
+        }
+        Integer maxResults = query.getMaxResults();
+        // like the translator, 0 is no limit
+        if (maxResults != null && maxResults > 0 && rows.size() > maxResults) {
+            rows = rows.subList(0, maxResults);
+        }
+        List<R> results = new ArrayList<R>(rows.size());
+        for (Object row : rows) {
+            results.add(projected ? mapAggregated(row, query.getReturnType(), aggregates) : map(table, row, query));
+        }
+        return results;
+    }
+
+    @Override
+    public <T, R> R findOne(QuerySelect<T, R> query) {
+        Iterable<R> results = findAll(query);
+        return results.iterator().hasNext() ? results.iterator().next() : null;
+    }
+
+    private InMemoryTable table(Class<?> entityClass) {
+        InMemoryTable table = tables.get(entityClass);
+        if (table == null) {
+            EntityBinaryCodec<Object> codec;
+            try {
+                codec = codec(entityClass);
+            } catch (IllegalArgumentException ex) {
+                codec = null;
+            }
+            InMemoryTable created = new InMemoryTable(entityClass,
+                    entityPropertiesResolver.getRowKeyPropertyBindings(entityClass), codec);
+            table = tables.putIfAbsent(entityClass, created);
+            if (table == null) {
+                table = created;
+            }
+        }
+        return table;
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntityBinaryCodec<Object> codec(Class<?> entityClass) {
+        return (EntityBinaryCodec<Object>) EntityBinaryCodec.forEntity(entityClass, entityPropertiesResolver);
+    }
+
+    private List<Object> aggregate(List<Object> rows, List<Projection> projections,
+            List<AggregateProjection> aggregates) {
+        List<String> groupBy = new ArrayList<String>();
+        for (Projection projection : projections) {
+            if (projection instanceof GroupProjection) {
+                groupBy.addAll(projection.getPropertyNames());
+            } else if (projection instanceof AggregateProjection) {
+                aggregates.add((AggregateProjection) projection);
+            }
+        }
+        Map<List<Object>, List<Object>> groups = new LinkedHashMap<List<Object>, List<Object>>();
+        if (groupBy.isEmpty()) {
+            groups.put(Collections.emptyList(), rows);
+        } else {
+            for (Object row : rows) {
+                Object[] key = new Object[groupBy.size()];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = OrderingComparator.propertyValue(row, groupBy.get(i));
+                }
+                List<Object> group = groups.get(Arrays.asList(key));
+                if (group == null) {
+                    group = new ArrayList<Object>();
+                    groups.put(Arrays.asList(key), group);
+                }
+                group.add(row);
+            }
+        }
+        List<Object> result = new ArrayList<Object>(groups.size());
+        for (Map.Entry<List<Object>, List<Object>> group : groups.entrySet()) {
+            Map<String, Object> row = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < groupBy.size(); i++) {
+                row.put(groupBy.get(i), group.getKey().get(i));
+            }
+            for (AggregateProjection aggregate : aggregates) {
+                Object value = aggregate(aggregate, group.getValue());
+                row.put(aggregate.getName(), value);
+                // also exposed under the property name so it maps onto the return type's property
+                if (!row.containsKey(aggregate.getPropertyName())) {
+                    row.put(aggregate.getPropertyName(), value);
+                }
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    private Object aggregate(AggregateProjection aggregate, List<Object> rows) {
+        String propertyName = aggregate.getPropertyName();
+        Aggregate function = aggregate.getAggregate();
+        if (function == Aggregate.COUNT && (propertyName == null || "*".equals(propertyName))) {
+            return (long) rows.size();
+        }
+        long count = 0;
+        long longSum = 0;
+        double doubleSum = 0;
+        boolean integral = true;
+        Object extreme = null;
+        for (Object row : rows) {
+            Object value = OrderingComparator.propertyValue(row, propertyName);
+            if (value == null) {
+                continue;
+            }
+            count++;
+            switch (function) {
+            case SUM:
+            case AVG:
+                Number n = (Number) value;
+                if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+                    longSum += n.longValue();
+                } else {
+                    integral = false;
+                }
+                doubleSum += n.doubleValue();
+                break;
+            case MAX:
+                if (extreme == null || OrderingComparator.compareValues(value, extreme) > 0) {
+                    extreme = value;
+                }
+                break;
+            case MIN:
+                if (extreme == null || OrderingComparator.compareValues(value, extreme) < 0) {
+                    extreme = value;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        switch (function) {
+        case COUNT:
+            return count;
+        case SUM:
+            return count == 0 ? null : integral ? (Object) longSum : (Object) doubleSum;
+        case AVG:
+            return count == 0 ? null : doubleSum / count;
+        case MAX:
+        case MIN:
+            return extreme;
+        default:
+            throw new UnsupportedOperationException("Unsupported aggregate " + function);
+        }
+    }
+
+    private <R> R mapAggregated(Object row, Class<R> returnType, List<AggregateProjection> aggregates) {
+        Map<?, ?> values = (Map<?, ?>) row;
+        if (Map.class.isAssignableFrom(returnType)) {
+            return returnType.cast(row);
+        }
+        if (isValueType(returnType)) {
+            Object value = aggregates.isEmpty() ? (values.isEmpty() ? null : values.values().iterator().next())
+                    : values.get(aggregates.get(0).getName());
+            return convert(value, returnType);
+        }
+        R instance = newInstance(returnType);
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            String name = entry.getKey().toString();
+            if (entry.getValue() != null && name.indexOf('(') < 0) {
+                copyProperty(instance, name, entry.getValue());
+            }
+        }
+        return instance;
+    }
+
+    private <T, R> R map(InMemoryTable table, Object entity, QuerySelect<T, R> query) {
+        Class<R> returnType = query.getReturnType();
+        List<String> returnFields = query.getReturnFields();
+        if (CollectionUtils.isEmpty(returnFields) && returnType.isInstance(entity)) {
+            return returnType.cast(table.copy(entity));
+        }
+        if (returnFields != null && returnFields.size() == 1 && isValueType(returnType)) {
+            return convert(OrderingComparator.propertyValue(entity, returnFields.get(0)), returnType);
+        }
+        List<String> fields = returnFields;
+        if (CollectionUtils.isEmpty(fields)) {
+            fields = new ArrayList<String>();
+            for (String name : entityPropertiesResolver.getEntityPropertyNamePropertyBindingMap(entity.getClass())
+                    .keySet()) {
+                if (name.indexOf('.') < 0) {
+                    fields.add(name);
+                }
+            }
+        }
+        R instance = newInstance(returnType);
+        for (String field : fields) {
+            Object value = OrderingComparator.propertyValue(entity, field);
+            if (value != null) {
+                copyProperty(instance, field, value);
+            }
+        }
+        return instance;
+    }
+
+    private static boolean isValueType(Class<?> type) {
+        return Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)
+                || Date.class.isAssignableFrom(type) || Boolean.class == type || Character.class == type
+                || type.isEnum();
+    }
+
+    private static <R> R convert(Object value, Class<R> type) {
+        if (value == null || type.isInstance(value)) {
+            return type.cast(value);
+        }
+        if (value instanceof Number) {
+            Number n = (Number) value;
+            Object converted = null;
+            if (type == Long.class) {
+                converted = n.longValue();
+            } else if (type == Integer.class) {
+                converted = n.intValue();
+            } else if (type == Double.class) {
+                converted = n.doubleValue();
+            } else if (type == Float.class) {
+                converted = n.floatValue();
+            } else if (type == Short.class) {
+                converted = n.shortValue();
+            } else if (type == Byte.class) {
+                converted = n.byteValue();
+            }
+            if (converted != null) {
+                return type.cast(converted);
+            }
+        }
+        if (type == String.class) {
+            return type.cast(value.toString());
+        }
+        throw new DataStoreException("Unable to convert " + value.getClass().getName() + " to " + type.getName());
+    }
+
+    private static <R> R newInstance(Class<R> type) {
+        try {
+            return type.newInstance();
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to instantiate " + type.getName(), ex);
+        }
+    }
+
+    private static void setProperty(Object bean, String name, Object source) {
+        try {
+            PropertyUtils.setProperty(bean, name, OrderingComparator.propertyValue(source, name));
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to set " + name + " of " + bean.getClass().getSimpleName(), ex);
+        }
+    }
+
+    private static void copyProperty(Object bean, String name, Object value) {
+        try {
+            BeanUtils.copyProperty(bean, name, value);
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to set " + name + " of " + bean.getClass().getSimpleName(), ex);
+        }
+    }
+}
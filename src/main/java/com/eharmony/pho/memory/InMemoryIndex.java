@@ -0,0 +1,157 @@
+package com.eharmony.pho.memory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.eharmony.pho.query.OrderingComparator;
+
+/**
+ * Secondary index of an {@link InMemoryTable} over one entity property, mapping property values to row keys. A hash
+ * index only answers equality lookups, a sorted index also answers range lookups. Not thread safe, guarded by the
+ * table lock.
+ */
+class InMemoryIndex {
+
+    private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+            return OrderingComparator.compareValues(o1, o2);
+        }
+    };
+
+    private final String propertyName;
+    private final boolean sorted;
+    private final Map<Object, Set<List<Object>>> entries;
+    private final Set<List<Object>> nullEntries = new LinkedHashSet<List<Object>>();
+
+    InMemoryIndex(String propertyName, boolean sorted) {
+        this.propertyName = propertyName;
+        this.sorted = sorted;
+        this.entries = sorted ? new TreeMap<Object, Set<List<Object>>>(VALUE_ORDER)
+                : new HashMap<Object, Set<List<Object>>>();
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+
+    void add(Object value, List<Object> rowKey) {
+        if (value == null) {
+            nullEntries.add(rowKey);
+            return;
+        }
+        Object key = key(value);
+        Set<List<Object>> rowKeys = entries.get(key);
+        if (rowKeys == null) {
+            rowKeys = new LinkedHashSet<List<Object>>();
+            entries.put(key, rowKeys);
+        }
+        rowKeys.add(rowKey);
+    }
+
+    void remove(Object value, List<Object> rowKey) {
+        if (value == null) {
+            nullEntries.remove(rowKey);
+            return;
+        }
+        Object key = key(value);
+        Set<List<Object>> rowKeys = entries.get(key);
+        if (rowKeys != null) {
+            rowKeys.remove(rowKey);
+            if (rowKeys.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        nullEntries.clear();
+    }
+
+    void lookup(Object value, Collection<List<Object>> result) {
+        if (value == null) {
+            return;
+        }
+        Set<List<Object>> rowKeys = entries.get(key(value));
+        if (rowKeys != null) {
+            result.addAll(rowKeys);
+        }
+    }
+
+    /**
+     * Add the row keys of all values within the bounds, a null bound is unbounded. Only for sorted indexes.
+     */
+    void range(Object from, boolean fromInclusive, Object to, boolean toInclusive, Collection<List<Object>> result) {
+        NavigableMap<Object, Set<List<Object>>> map = (NavigableMap<Object, Set<List<Object>>>) entries;
+        if (from != null && to != null) {
+            if (OrderingComparator.compareValues(from, to) > 0) {
+                return;
+            }
+            map = map.subMap(from, fromInclusive, to, toInclusive);
+        } else if (from != null) {
+            map = map.tailMap(from, fromInclusive);
+        } else if (to != null) {
+            map = map.headMap(to, toInclusive);
+        }
+        for (Set<List<Object>> rowKeys : map.values()) {
+            result.addAll(rowKeys);
+        }
+    }
+
+    /**
+     * Normalize hash keys so that values equal in the data store (an int and a long, a date and a timestamp) land in
+     * the same bucket. Sorted indexes compare values directly.
+     */
+    private Object key(Object value) {
+        if (sorted) {
+            return value;
+        }
+        if (value instanceof Number) {
+            BigDecimal decimal = toDecimal((Number) value);
+            if (decimal == null) {
+                return value;
+            }
+            decimal = decimal.stripTrailingZeros();
+            return decimal.signum() == 0 ? BigDecimal.ZERO : decimal;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private static BigDecimal toDecimal(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(value.longValue());
+        }
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        double d = value.doubleValue();
+        return Double.isNaN(d) || Double.isInfinite(d) ? null : new BigDecimal(value.toString());
+    }
+}
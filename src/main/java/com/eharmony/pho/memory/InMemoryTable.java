@@ -0,0 +1,383 @@
+package com.eharmony.pho.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.mapper.EntityBinaryCodec;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.expression.EqualityExpression;
+import com.eharmony.pho.query.criterion.expression.Expression;
+import com.eharmony.pho.query.criterion.expression.RangeExpression;
+import com.eharmony.pho.query.criterion.expression.SetExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.google.common.base.Function;
+
+/**
+ * The rows of one entity class, kept in row key order like an HBase table, with optional secondary indexes.
+ * Reads share a read lock, writes take the write lock. Rows are stored as given: callers store and hand out copies made
+ * by {@link #copy(Object)}.
+ */
+class InMemoryTable {
+
+    private static final Comparator<List<Object>> ROW_KEY_ORDER = new Comparator<List<Object>>() {
+        @Override
+        public int compare(List<Object> k1, List<Object> k2) {
+            for (int i = 0; i < k1.size(); i++) {
+                Object v1 = k1.get(i);
+                Object v2 = k2.get(i);
+                if (v1 == null || v2 == null) {
+                    if (v1 != v2) {
+                        return v1 == null ? -1 : 1;
+                    }
+                    continue;
+                }
+                int result = OrderingComparator.compareValues(v1, v2);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    };
+
+    private final Class<?> entityClass;
+    private final List<EntityPropertyBinding> rowKeyBindings;
+    private final EntityBinaryCodec<Object> codec;
+    private final TreeMap<List<Object>, Object> rows = new TreeMap<List<Object>, Object>(ROW_KEY_ORDER);
+    private final Map<String, InMemoryIndex> indexes = new LinkedHashMap<String, InMemoryIndex>();
+    /** indexed values of every row as they were when the row was saved, needed to unindex a row */
+    private final Map<List<Object>, Object[]> indexedValues = new TreeMap<List<Object>, Object[]>(ROW_KEY_ORDER);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param codec
+     *            the codec copying the entities, null to copy them as beans
+     */
+    InMemoryTable(Class<?> entityClass, List<EntityPropertyBinding> rowKeyBindings, EntityBinaryCodec<Object> codec) {
+        if (rowKeyBindings.isEmpty()) {
+            throw new DataStoreException(entityClass.getSimpleName()
+                    + " declares no @RowKey properties, it can not be stored in memory");
+        }
+        this.entityClass = entityClass;
+        this.rowKeyBindings = rowKeyBindings;
+        this.codec = codec;
+    }
+
+    void addIndex(String propertyName, boolean sorted) {
+        lock.writeLock().lock();
+        try {
+            indexes.put(propertyName, new InMemoryIndex(propertyName, sorted));
+            rebuildIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void put(Object entity) {
+        List<Object> rowKey = rowKey(entity);
+        lock.writeLock().lock();
+        try {
+            unindex(rowKey);
+            rows.put(rowKey, entity);
+            index(rowKey, indexValues(entity));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the row with the row key of the entity by the result of the update, applied to the current row, or to
+     * null if there is none, under the write lock.
+     */
+    void update(Object entity, Function<Object, Object> update) {
+        List<Object> rowKey = rowKey(entity);
+        lock.writeLock().lock();
+        try {
+            Object updated = update.apply(rows.get(rowKey));
+            unindex(rowKey);
+            rows.put(rowKey, updated);
+            index(rowKey, indexValues(updated));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copy an entity: its mapped properties with the {@link EntityBinaryCodec} of the entity class if it has one,
+     * otherwise all its bean properties, sharing their values.
+     */
+    Object copy(Object entity) {
+        if (codec != null) {
+            return codec.copy(entity);
+        }
+        try {
+            Object copy = entity.getClass().newInstance();
+            PropertyUtils.copyProperties(copy, entity);
+            return copy;
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to copy " + entity.getClass().getSimpleName(), ex);
+        }
+    }
+
+    boolean remove(Object entity) {
+        List<Object> rowKey = rowKey(entity);
+        lock.writeLock().lock();
+        try {
+            unindex(rowKey);
+            return rows.remove(rowKey) != null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            indexedValues.clear();
+            for (InMemoryIndex index : indexes.values()) {
+                index.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace all rows by the given entities under a single write lock, so readers see either the old or the new rows.
+     */
+    void replaceAll(Collection<Object> entities) {
+        TreeMap<List<Object>, Object> replacement = new TreeMap<List<Object>, Object>(ROW_KEY_ORDER);
+        for (Object entity : entities) {
+            replacement.put(rowKey(entity), entity);
+        }
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            rows.putAll(replacement);
+            rebuildIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of all rows, in row key order
+     */
+    List<Object> all() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<Object>(rows.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Select the rows matching the criteria, in row key order. A full row key lookup or the most selective usable
+     * index narrows the candidates, which are then evaluated against the complete criteria.
+     */
+    List<Object> select(Criterion criteria, CriterionEvaluator evaluator) {
+        lock.readLock().lock();
+        try {
+            Collection<Object> candidates = candidates(criteria);
+            List<Object> result = new ArrayList<Object>(candidates.size());
+            for (Object entity : candidates) {
+                if (evaluator.matches(entity, criteria)) {
+                    result.add(entity);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Collection<Object> candidates(Criterion criteria) {
+        List<Criterion> conjuncts = criteria instanceof Conjunction ? ((Conjunction) criteria).getCriteria()
+                : criteria != null ? Collections.singletonList(criteria) : Collections.<Criterion> emptyList();
+        List<Object> rowKey = rowKeyLookup(conjuncts);
+        if (rowKey != null) {
+            try {
+                Object entity = rows.get(rowKey);
+                return entity != null ? Collections.singletonList(entity) : Collections.emptyList();
+            } catch (IllegalArgumentException ex) {
+                // key values not comparable with the stored keys, fall back to the indexes or a scan
+            }
+        }
+        Set<List<Object>> best = null;
+        for (Criterion conjunct : conjuncts) {
+            Set<List<Object>> rowKeys = indexLookup(conjunct);
+            if (rowKeys != null && (best == null || rowKeys.size() < best.size())) {
+                best = rowKeys;
+            }
+        }
+        if (best == null) {
+            return rows.values();
+        }
+        List<List<Object>> ordered = new ArrayList<List<Object>>(best);
+        Collections.sort(ordered, ROW_KEY_ORDER);
+        List<Object> entities = new ArrayList<Object>(ordered.size());
+        for (List<Object> key : ordered) {
+            entities.add(rows.get(key));
+        }
+        return entities;
+    }
+
+    private List<Object> rowKeyLookup(List<Criterion> conjuncts) {
+        Object[] key = new Object[rowKeyBindings.size()];
+        int found = 0;
+        for (Criterion conjunct : conjuncts) {
+            if (conjunct instanceof EqualityExpression
+                    && ((EqualityExpression) conjunct).getOperator() == Operator.EQUAL) {
+                EqualityExpression eq = (EqualityExpression) conjunct;
+                for (int i = 0; i < key.length; i++) {
+                    if (key[i] == null && eq.getValue() != null
+                            && rowKeyBindings.get(i).getNameFullPath().equals(eq.getPropertyName())) {
+                        key[i] = eq.getValue();
+                        found++;
+                    }
+                }
+            }
+        }
+        return found == key.length ? Arrays.asList(key) : null;
+    }
+
+    private Set<List<Object>> indexLookup(Criterion conjunct) {
+        if (!(conjunct instanceof Expression)) {
+            return null;
+        }
+        Expression expression = (Expression) conjunct;
+        InMemoryIndex index = indexes.get(expression.getPropertyName());
+        if (index == null) {
+            return null;
+        }
+        Set<List<Object>> rowKeys = new HashSet<List<Object>>();
+        try {
+            switch (expression.getOperator()) {
+            case EQUAL:
+                index.lookup(((EqualityExpression) expression).getValue(), rowKeys);
+                return rowKeys;
+            case IN:
+                for (Object value : ((SetExpression) expression).getValues()) {
+                    index.lookup(value, rowKeys);
+                }
+                return rowKeys;
+            case BETWEEN:
+                if (!index.isSorted()) {
+                    return null;
+                }
+                RangeExpression range = (RangeExpression) expression;
+                if (range.getFrom() != null && range.getTo() != null) {
+                    index.range(range.getFrom(), true, range.getTo(), true, rowKeys);
+                }
+                return rowKeys;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+                if (!index.isSorted() || expression.getAggregateProjection() != null) {
+                    return null;
+                }
+                Object value = ((EqualityExpression) expression).getValue();
+                if (value != null) {
+                    switch (expression.getOperator()) {
+                    case GREATER_THAN:
+                        index.range(value, false, null, false, rowKeys);
+                        break;
+                    case GREATER_THAN_OR_EQUAL:
+                        index.range(value, true, null, false, rowKeys);
+                        break;
+                    case LESS_THAN:
+                        index.range(null, false, value, false, rowKeys);
+                        break;
+                    default:
+                        index.range(null, false, value, true, rowKeys);
+                        break;
+                    }
+                }
+                return rowKeys;
+            default:
+                return null;
+            }
+        } catch (IllegalArgumentException ex) {
+            // value not comparable with the indexed values, evaluate by scanning instead
+            return null;
+        }
+    }
+
+    private List<Object> rowKey(Object entity) {
+        if (!entityClass.isInstance(entity)) {
+            throw new DataStoreException("Expected " + entityClass.getName() + " but got "
+                    + (entity == null ? null : entity.getClass().getName()));
+        }
+        Object[] key = new Object[rowKeyBindings.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = OrderingComparator.propertyValue(entity, rowKeyBindings.get(i).getNameFullPath());
+        }
+        return Arrays.asList(key);
+    }
+
+    private Object[] indexValues(Object entity) {
+        Object[] values = new Object[indexes.size()];
+        int i = 0;
+        for (InMemoryIndex index : indexes.values()) {
+            values[i++] = OrderingComparator.propertyValue(entity, index.getPropertyName());
+        }
+        return values;
+    }
+
+    private void index(List<Object> rowKey, Object[] values) {
+        int i = 0;
+        for (InMemoryIndex index : indexes.values()) {
+            index.add(values[i++], rowKey);
+        }
+        indexedValues.put(rowKey, values);
+    }
+
+    private void unindex(List<Object> rowKey) {
+        Object[] values = indexedValues.remove(rowKey);
+        if (values != null) {
+            int i = 0;
+            for (InMemoryIndex index : indexes.values()) {
+                index.remove(values[i++], rowKey);
+            }
+        }
+    }
+
+    private void rebuildIndexes() {
+        indexedValues.clear();
+        for (InMemoryIndex index : indexes.values()) {
+            index.clear();
+        }
+        for (Map.Entry<List<Object>, Object> row : rows.entrySet()) {
+            index(row.getKey(), indexValues(row.getValue()));
+        }
+    }
+}
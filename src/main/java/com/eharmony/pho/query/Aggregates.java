@@ -0,0 +1,77 @@
+package com.eharmony.pho.query;
+
+import java.util.List;
+
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
+
+/**
+ * The aggregate values of one group of an aggregated select, in the order of the aggregate projections of the query.
+ * Aggregates over no (non null) value are null, except counts.
+ */
+public final class Aggregates {
+
+    private final List<AggregateProjection> projections;
+    private final Object[] values;
+
+    public Aggregates(List<AggregateProjection> projections, Object... values) {
+        if (projections.size() != values.length) {
+            throw new IllegalArgumentException("Expected " + projections.size() + " values but got " + values.length);
+        }
+        this.projections = projections;
+        this.values = values.clone();
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public Object get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @param projection
+     *            one of the aggregate projections of the query, or an equal one
+     * @return the aggregated value
+     */
+    public Object get(AggregateProjection projection) {
+        return get(projection.getName());
+    }
+
+    /**
+     * @param name
+     *            the name of the aggregate, function and property as in <code>max(userId)</code>
+     * @return the aggregated value
+     */
+    public Object get(String name) {
+        for (int i = 0; i < projections.size(); i++) {
+            if (projections.get(i).getName().equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        throw new IllegalArgumentException("Not an aggregate of the query: " + name);
+    }
+
+    public Long getLong(AggregateProjection projection) {
+        Object value = get(projection);
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    public Double getDouble(AggregateProjection projection) {
+        Object value = get(projection);
+        return value == null ? null : ((Number) value).doubleValue();
+    }
+
+    public List<AggregateProjection> getProjections() {
+        return projections;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Aggregates{");
+        for (int i = 0; i < values.length; i++) {
+            builder.append(i == 0 ? "" : ", ").append(projections.get(i).getName()).append('=').append(values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
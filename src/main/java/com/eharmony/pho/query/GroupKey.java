@@ -0,0 +1,74 @@
+package com.eharmony.pho.query;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The values of the group by properties of one group of an aggregated select, in the order of the
+ * {@link com.eharmony.pho.query.criterion.projection.GroupProjection} properties. Equal when the values are equal,
+ * so it can key a map of groups. A select without group by has a single empty key.
+ */
+public final class GroupKey {
+
+    private final List<String> propertyNames;
+    private final Object[] values;
+
+    public GroupKey(List<String> propertyNames, Object... values) {
+        if (propertyNames.size() != values.length) {
+            throw new IllegalArgumentException("Expected " + propertyNames.size() + " values but got "
+                    + values.length);
+        }
+        this.propertyNames = propertyNames;
+        this.values = values.clone();
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public Object get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @param propertyName
+     *            one of the group by properties
+     * @return the value of the property in this group
+     */
+    public Object get(String propertyName) {
+        int index = propertyNames.indexOf(propertyName);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a group by property: " + propertyName);
+        }
+        return values[index];
+    }
+
+    public List<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    public List<Object> getValues() {
+        return Arrays.asList(values.clone());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(values);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GroupKey)) {
+            return false;
+        }
+        return Arrays.deepEquals(values, ((GroupKey) obj).values);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupKey" + Arrays.deepToString(values);
+    }
+}
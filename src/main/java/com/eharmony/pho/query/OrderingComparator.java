@@ -0,0 +1,154 @@
+package com.eharmony.pho.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.NestedNullException;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Orderings;
+
+/**
+ * Compares entities (or property maps) by the properties of a list of orderings, the way the data store would order
+ * them: null values are placed according to {@link Ordering.NullOrdering} regardless of the sort direction.
+ */
+public class OrderingComparator implements Comparator<Object> {
+
+    private final List<Ordering> orderings;
+
+    public OrderingComparator(Orderings orderings) {
+        this(orderings != null ? orderings.get() : null);
+    }
+
+    public OrderingComparator(List<Ordering> orderings) {
+        this.orderings = orderings != null ? new ArrayList<Ordering>(orderings) : new ArrayList<Ordering>();
+    }
+
+    public boolean isEmpty() {
+        return orderings.isEmpty();
+    }
+
+    @Override
+    public int compare(Object o1, Object o2) {
+        for (Ordering ordering : orderings) {
+            Object v1 = propertyValue(o1, ordering.getPropertyName());
+            Object v2 = propertyValue(o2, ordering.getPropertyName());
+            int result;
+            if (v1 == null || v2 == null) {
+                if (v1 == v2) {
+                    continue;
+                }
+                boolean nullsFirst = ordering.getNullOrdering() != Ordering.NullOrdering.LAST;
+                result = (v1 == null) == nullsFirst ? -1 : 1;
+            } else {
+                result = compareValues(v1, v2);
+                if (ordering.getOrder() == Ordering.Order.DESCENDING) {
+                    result = -result;
+                }
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Read a (possibly nested) property of a bean, or the entry of a map.
+     *
+     * @param bean
+     *            the bean or map
+     * @param propertyName
+     *            the property path
+     * @return the value, null when the value or one of its parents is null
+     */
+    public static Object propertyValue(Object bean, String propertyName) {
+        if (bean == null) {
+            return null;
+        }
+        if (bean instanceof Map) {
+            return ((Map<?, ?>) bean).get(propertyName);
+        }
+        try {
+            return PropertyUtils.getProperty(bean, propertyName);
+        } catch (NestedNullException ex) {
+            return null;
+        } catch (Exception ex) {
+            throw new DataStoreException("Unable to read property " + propertyName + " of "
+                    + bean.getClass().getSimpleName(), ex);
+        }
+    }
+
+    /**
+     * Compare two non null values. Numbers are compared by value regardless of their type, dates by time and enums
+     * with strings by name; anything else must be mutually {@link Comparable}.
+     *
+     * @param v1
+     *            first value
+     * @param v2
+     *            second value
+     * @return negative, zero or positive as v1 is less than, equal to or greater than v2
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compareValues(Object v1, Object v2) {
+        if (v1 instanceof Number && v2 instanceof Number) {
+            return compareNumbers((Number) v1, (Number) v2);
+        }
+        if (v1 instanceof Date && v2 instanceof Date) {
+            return Long.compare(((Date) v1).getTime(), ((Date) v2).getTime());
+        }
+        if (v1 instanceof Enum || v1 instanceof Character) {
+            v1 = v1 instanceof Enum ? ((Enum<?>) v1).name() : v1.toString();
+        }
+        if (v2 instanceof Enum || v2 instanceof Character) {
+            v2 = v2 instanceof Enum ? ((Enum<?>) v2).name() : v2.toString();
+        }
+        if (v1 instanceof Comparable && v1.getClass().isInstance(v2)) {
+            return ((Comparable) v1).compareTo(v2);
+        }
+        if (v2 instanceof Comparable && v2.getClass().isInstance(v1)) {
+            return -((Comparable) v2).compareTo(v1);
+        }
+        throw new IllegalArgumentException("Cannot compare " + v1.getClass().getName() + " with "
+                + v2.getClass().getName());
+    }
+
+    private static int compareNumbers(Number n1, Number n2) {
+        if (isIntegral(n1) && isIntegral(n2)) {
+            return Long.compare(n1.longValue(), n2.longValue());
+        }
+        if (isNonFinite(n1) || isNonFinite(n2)) {
+            return Double.compare(n1.doubleValue(), n2.doubleValue());
+        }
+        return toBigDecimal(n1).compareTo(toBigDecimal(n2));
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    private static boolean isNonFinite(Number n) {
+        return (n instanceof Double || n instanceof Float)
+                && (Double.isNaN(n.doubleValue()) || Double.isInfinite(n.doubleValue()));
+    }
+
+    private static BigDecimal toBigDecimal(Number n) {
+        if (n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        }
+        if (n instanceof BigInteger) {
+            return new BigDecimal((BigInteger) n);
+        }
+        if (isIntegral(n)) {
+            return BigDecimal.valueOf(n.longValue());
+        }
+        return new BigDecimal(n.toString());
+    }
+}
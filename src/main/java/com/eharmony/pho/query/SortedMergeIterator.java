@@ -0,0 +1,157 @@
+package com.eharmony.pho.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.pho.query.criterion.Orderings;
+import com.google.common.base.Preconditions;
+
+/**
+ * Streams the k-way merge of partition cursors that are each already sorted by the same orderings, e.g. the results of
+ * the branches of a split select. A heap holds the head of every cursor, so only one row per partition is buffered and
+ * each returned row costs <code>O(log k)</code> comparisons. Rows that compare equal are returned in partition order.
+ *
+ * Once the limit is reached, or all cursors are exhausted, the cursors implementing {@link Closeable} are closed, so the
+ * remaining partitions stop reading early. Closing the iterator does the same.
+ *
+ * @param <R>
+ *            the row type
+ */
+public class SortedMergeIterator<R> implements Iterator<R>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SortedMergeIterator.class);
+
+    private final List<Iterator<? extends R>> cursors;
+    private final PriorityQueue<Head<R>> heap;
+    private final int limit;
+    private int returned;
+    private boolean closed;
+
+    /**
+     * @param orderings
+     *            the orderings every cursor is sorted by, null values placed by their null ordering
+     * @param limit
+     *            the maximum number of rows to return, negative for no limit
+     * @param cursors
+     *            the sorted partitions
+     */
+    public SortedMergeIterator(Orderings orderings, int limit, List<? extends Iterator<? extends R>> cursors) {
+        this(new OrderingComparator(orderings), limit, cursors);
+    }
+
+    /**
+     * @param comparator
+     *            the order every cursor is sorted by
+     * @param limit
+     *            the maximum number of rows to return, negative for no limit
+     * @param cursors
+     *            the sorted partitions
+     */
+    public SortedMergeIterator(final Comparator<? super R> comparator, int limit,
+            List<? extends Iterator<? extends R>> cursors) {
+        Preconditions.checkNotNull(comparator);
+        Preconditions.checkNotNull(cursors);
+        this.cursors = new ArrayList<Iterator<? extends R>>(cursors);
+        this.limit = limit;
+        this.heap = new PriorityQueue<Head<R>>(Math.max(1, cursors.size()), new Comparator<Head<R>>() {
+            @Override
+            public int compare(Head<R> h1, Head<R> h2) {
+                int result = comparator.compare(h1.row, h2.row);
+                return result != 0 ? result : Integer.compare(h1.partition, h2.partition);
+            }
+        });
+        if (limit == 0) {
+            close();
+            return;
+        }
+        for (int i = 0; i < this.cursors.size(); i++) {
+            advance(i);
+        }
+        if (heap.isEmpty()) {
+            close();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && !heap.isEmpty();
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Head<R> head = heap.poll();
+        returned++;
+        if (limit >= 0 && returned >= limit) {
+            close();
+        } else {
+            advance(head.partition);
+            if (heap.isEmpty()) {
+                close();
+            }
+        }
+        return head.row;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of rows returned so far
+     */
+    public int getReturned() {
+        return returned;
+    }
+
+    /**
+     * Release the heap and close the cursors implementing {@link Closeable}. Failures to close are logged.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heap.clear();
+        for (Iterator<? extends R> cursor : cursors) {
+            if (cursor instanceof Closeable) {
+                try {
+                    ((Closeable) cursor).close();
+                } catch (IOException ex) {
+                    log.warn("Exception while closing a partition cursor...", ex);
+                }
+            }
+        }
+    }
+
+    private void advance(int partition) {
+        Iterator<? extends R> cursor = cursors.get(partition);
+        if (cursor.hasNext()) {
+            heap.add(new Head<R>(cursor.next(), partition));
+        }
+    }
+
+    private static final class Head<R> {
+
+        private final R row;
+        private final int partition;
+
+        Head(R row, int partition) {
+            this.row = row;
+            this.partition = partition;
+        }
+    }
+}
@@ -128,6 +128,16 @@ public class QueryBuilder<T, R> {
         return this;
     }
 
+    @SafeVarargs
+    public final QueryBuilder<T, R> setReturnFields(EntityProperty<T, ?>... returnFields) {
+        List<String> names = new ArrayList<String>(returnFields.length);
+        for (EntityProperty<T, ?> returnField : returnFields) {
+            names.add(returnField.getPropertyName());
+        }
+        this.returnFields = names;
+        return this;
+    }
+
     public QueryBuilder<T, R> setMaxResults(int maxResults) {
         this.maxResults = maxResults;
         return this;
@@ -0,0 +1,71 @@
+package com.eharmony.pho.query.criterion;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Typed descriptor of a mapped entity property, with its store column resolved. Instances are generated as constants
+ * of the <code>Entity_</code> metamodel class next to each <code>@Entity</code> by
+ * {@link com.eharmony.pho.mapper.processor.EntityMetamodelProcessor}, e.g.
+ * <code>Restrictions.eq(MatchDataFeedItemDto_.userId, 42L)</code>, so a misspelled property or a value of the wrong
+ * type fails at compile time and translation needs no name lookup.
+ *
+ * @param <E>
+ *            the entity type
+ * @param <V>
+ *            the property type, boxed for primitives
+ */
+public final class EntityProperty<E, V> implements WithProperty {
+
+    private final Class<E> entityClass;
+    private final String propertyName;
+    private final String storeFieldName;
+
+    public EntityProperty(Class<E> entityClass, String propertyName, String storeFieldName) {
+        this.entityClass = Preconditions.checkNotNull(entityClass);
+        this.propertyName = Preconditions.checkNotNull(propertyName);
+        this.storeFieldName = Preconditions.checkNotNull(storeFieldName);
+    }
+
+    public Class<E> getEntityClass() {
+        return entityClass;
+    }
+
+    @Override
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public String getStoreFieldName() {
+        return storeFieldName;
+    }
+
+    /**
+     * @param entityClass
+     *            the entity class being translated
+     * @param propertyName
+     *            the property name being translated
+     * @return the store column if this descriptor describes that property, null otherwise
+     */
+    public String resolve(Class<?> entityClass, String propertyName) {
+        return this.entityClass == entityClass && this.propertyName.equals(propertyName) ? storeFieldName : null;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * entityClass.hashCode() + propertyName.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof EntityProperty)) {
+            return false;
+        }
+        EntityProperty<?, ?> other = (EntityProperty<?, ?>) obj;
+        return entityClass == other.entityClass && propertyName.equals(other.propertyName);
+    }
+
+    @Override
+    public String toString() {
+        return entityClass.getSimpleName() + "." + propertyName;
+    }
+}
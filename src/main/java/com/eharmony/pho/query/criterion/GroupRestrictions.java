@@ -20,43 +20,43 @@ public class GroupRestrictions {
     }
 
     public static EqualityExpression ne(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.NOT_EQUAL, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.NOT_EQUAL, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression lt(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.LESS_THAN, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.LESS_THAN, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression like(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.LIKE, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.LIKE, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression ilike(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.ILIKE, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.ILIKE, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression lte(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.LESS_THAN_OR_EQUAL, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.LESS_THAN_OR_EQUAL, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression gt(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.GREATER_THAN, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.GREATER_THAN, projection.getPropertyName(), value, projection);
     }
 
     public static EqualityExpression gte(AggregateProjection projection, Object value) {
-        return new EqualityExpression(Operator.GREATER_THAN_OR_EQUAL, projection.getPropertyName(), value);
+        return new EqualityExpression(Operator.GREATER_THAN_OR_EQUAL, projection.getPropertyName(), value, projection);
     }
 
     public static RangeExpression between(AggregateProjection projection, Object from, Object to) {
-        return new RangeExpression(Operator.BETWEEN, projection.getPropertyName(), from, to);
+        return new RangeExpression(Operator.BETWEEN, projection.getPropertyName(), from, to, projection);
     }
 
     public static SetExpression discreteRange(AggregateProjection projection, int from, int to) {
-        return new SetExpression(Operator.IN, projection.getPropertyName(), from <= to ? Restrictions.range(from, to) : Restrictions.range(to, from));
+        return new SetExpression(Operator.IN, projection.getPropertyName(), from <= to ? Restrictions.range(from, to) : Restrictions.range(to, from), projection);
     }
 
     public static SetExpression in(AggregateProjection projection, Object[] values) {
-        return new SetExpression(Operator.IN, projection.getPropertyName(), values);
+        return new SetExpression(Operator.IN, projection.getPropertyName(), values, projection);
     }
 
     public static SetExpression in(AggregateProjection projection, Collection<? extends Object> values) {
@@ -64,7 +64,7 @@ public class GroupRestrictions {
     }
 
     public static SetExpression notIn(AggregateProjection projection, Object[] values) {
-        return new SetExpression(Operator.NOT_IN, projection.getPropertyName(), values);
+        return new SetExpression(Operator.NOT_IN, projection.getPropertyName(), values, projection);
     }
 
     public static SetExpression notIn(AggregateProjection projection, Collection<? extends Object> values) {
@@ -72,18 +72,18 @@ public class GroupRestrictions {
     }
 
     public static UnaryExpression isNull(AggregateProjection projection) {
-        return new UnaryExpression(Operator.NULL, projection.getPropertyName());
+        return new UnaryExpression(Operator.NULL, projection.getPropertyName(), projection);
     }
 
     public static UnaryExpression isNotNull(AggregateProjection projection) {
-        return new UnaryExpression(Operator.NOT_NULL, projection.getPropertyName());
+        return new UnaryExpression(Operator.NOT_NULL, projection.getPropertyName(), projection);
     }
 
     public static UnaryExpression isEmpty(AggregateProjection projection) {
-        return new UnaryExpression(Operator.EMPTY, projection.getPropertyName());
+        return new UnaryExpression(Operator.EMPTY, projection.getPropertyName(), projection);
     }
 
     public static UnaryExpression isNotEmpty(AggregateProjection projection) {
-        return new UnaryExpression(Operator.NOT_EMPTY, projection.getPropertyName());
+        return new UnaryExpression(Operator.NOT_EMPTY, projection.getPropertyName(), projection);
     }
 }
@@ -21,6 +21,7 @@ public class Ordering implements Criterion, WithProperty {
     private final String propertyName;
     private final Order order;
     private final NullOrdering nullOrdering;
+    private final EntityProperty<?, ?> entityProperty;
 
     /**
      * Create an ordering to order results by the given property in ascending order with nulls first
@@ -60,6 +61,27 @@ public class Ordering implements Criterion, WithProperty {
         return new Ordering(propertyName, Order.DESCENDING, nullOrdering);
     }
 
+    /**
+     * Create an ordering to order results by a metamodel property in ascending order with nulls first
+     * @param property the generated property descriptor
+     * @return the ordering
+     */
+    public static Ordering asc(EntityProperty<?, ?> property) {
+        return new Ordering(property, Order.ASCENDING, NullOrdering.FIRST);
+    }
+
+    public static Ordering desc(EntityProperty<?, ?> property) {
+        return new Ordering(property, Order.DESCENDING, NullOrdering.FIRST);
+    }
+
+    public static Ordering asc(EntityProperty<?, ?> property, NullOrdering nullOrdering) {
+        return new Ordering(property, Order.ASCENDING, nullOrdering);
+    }
+
+    public static Ordering desc(EntityProperty<?, ?> property, NullOrdering nullOrdering) {
+        return new Ordering(property, Order.DESCENDING, nullOrdering);
+    }
+
     /**
      * Create an ordering
      * @param propertyName the property to order by
@@ -70,6 +92,14 @@ public class Ordering implements Criterion, WithProperty {
         this.propertyName = propertyName;
         this.order = order;
         this.nullOrdering = nullOrdering;
+        this.entityProperty = null;
+    }
+
+    public Ordering(EntityProperty<?, ?> property, Order order, NullOrdering nullOrdering) {
+        this.propertyName = property.getPropertyName();
+        this.order = order;
+        this.nullOrdering = nullOrdering;
+        this.entityProperty = property;
     }
 
     @Override
@@ -95,6 +125,13 @@ public class Ordering implements Criterion, WithProperty {
     
     }
 
+    /**
+     * @return the metamodel descriptor the ordering was built from, null if built from a property name
+     */
+    public EntityProperty<?, ?> getEntityProperty() {
+        return entityProperty;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -0,0 +1,41 @@
+package com.eharmony.pho.query.criterion;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A named placeholder used in place of a value in a restriction, e.g.
+ * <code>Restrictions.eq("userId", Parameter.named("userId"))</code>. Queries with placeholders are compiled once into a
+ * template and executed with the values bound on each call.
+ */
+public final class Parameter {
+
+    private final String name;
+
+    private Parameter(String name) {
+        this.name = name;
+    }
+
+    public static Parameter named(String name) {
+        Preconditions.checkArgument(name != null && !name.isEmpty(), "parameter name must not be empty");
+        return new Parameter(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Parameter && name.equals(((Parameter) obj).name);
+    }
+
+    @Override
+    public String toString() {
+        return ":" + name;
+    }
+}
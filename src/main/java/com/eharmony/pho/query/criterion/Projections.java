@@ -30,4 +30,8 @@ public class Projections {
     public static AvgProjection avg( String propertyName ) {
         return new AvgProjection( propertyName );
     }
+
+    public static SumProjection sum( String propertyName ) {
+        return new SumProjection( propertyName );
+    }
 }
@@ -285,6 +285,173 @@ public class Restrictions {
         return new UnaryExpression(Operator.NOT_EMPTY, propertyName);
     }
 
+    /**
+     * Apply an "equal" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression eq(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.EQUAL, property, value);
+    }
+
+    /**
+     * Apply a "not equal" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression ne(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.NOT_EQUAL, property, value);
+    }
+
+    /**
+     * Apply a "less than" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression lt(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.LESS_THAN, property, value);
+    }
+
+    /**
+     * Apply a "less than or equal" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression lte(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.LESS_THAN_OR_EQUAL, property, value);
+    }
+
+    /**
+     * Apply a "greater than" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression gt(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.GREATER_THAN, property, value);
+    }
+
+    /**
+     * Apply a "greater than or equal" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param value
+     *            the value, of the property type
+     * @return Criterion
+     */
+    public static <V> EqualityExpression gte(EntityProperty<?, V> property, V value) {
+        return new EqualityExpression(Operator.GREATER_THAN_OR_EQUAL, property, value);
+    }
+
+    /**
+     * Apply a "like" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated descriptor of a String property
+     * @param value
+     *            the pattern
+     * @return Criterion
+     */
+    public static EqualityExpression like(EntityProperty<?, String> property, String value) {
+        return new EqualityExpression(Operator.LIKE, property, value);
+    }
+
+    /**
+     * Apply an "ilike" (case insensitive like) constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated descriptor of a String property
+     * @param value
+     *            the pattern
+     * @return Criterion
+     */
+    public static EqualityExpression ilike(EntityProperty<?, String> property, String value) {
+        return new EqualityExpression(Operator.ILIKE, property, value);
+    }
+
+    /**
+     * Apply a "between" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param from
+     *            the lower bound, of the property type
+     * @param to
+     *            the upper bound, of the property type
+     * @return Criterion
+     */
+    public static <V> RangeExpression between(EntityProperty<?, V> property, V from, V to) {
+        return new RangeExpression(Operator.BETWEEN, property, from, to);
+    }
+
+    /**
+     * Apply an "in" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param values
+     *            the values, of the property type
+     * @return Criterion
+     */
+    public static <V> SetExpression in(EntityProperty<?, V> property, Collection<? extends V> values) {
+        return new SetExpression(Operator.IN, property, values.toArray());
+    }
+
+    /**
+     * Apply a "not in" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @param values
+     *            the values, of the property type
+     * @return Criterion
+     */
+    public static <V> SetExpression notIn(EntityProperty<?, V> property, Collection<? extends V> values) {
+        return new SetExpression(Operator.NOT_IN, property, values.toArray());
+    }
+
+    /**
+     * Apply an "is null" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @return Criterion
+     */
+    public static UnaryExpression isNull(EntityProperty<?, ?> property) {
+        return new UnaryExpression(Operator.NULL, property);
+    }
+
+    /**
+     * Apply an "is not null" constraint to a metamodel property
+     * 
+     * @param property
+     *            the generated property descriptor
+     * @return Criterion
+     */
+    public static UnaryExpression isNotNull(EntityProperty<?, ?> property) {
+        return new UnaryExpression(Operator.NOT_NULL, property);
+    }
+
     public static <T> NativeExpression nativeQuery(Class<T> type, T expression) {
         return new NativeExpression(type, expression);
     }
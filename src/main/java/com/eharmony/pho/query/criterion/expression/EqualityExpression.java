@@ -1,6 +1,7 @@
 package com.eharmony.pho.query.criterion.expression;
 
 import com.eharmony.pho.query.criterion.Aggregate;
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
 import com.eharmony.pho.query.criterion.projection.AggregateProjection;
 
@@ -17,6 +18,11 @@ public class EqualityExpression extends Expression {
         this.value = value;
     }
 
+    public EqualityExpression(Operator operator, EntityProperty<?, ?> entityProperty, Object value) {
+        super(operator, entityProperty);
+        this.value = value;
+    }
+
     public EqualityExpression(Operator operator, String propertyName, Object value, AggregateProjection aggregateProjection) {
         super(operator, propertyName, aggregateProjection);
         this.value = value;
@@ -1,6 +1,7 @@
 package com.eharmony.pho.query.criterion.expression;
 
 import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
 import com.eharmony.pho.query.criterion.WithOperator;
 import com.eharmony.pho.query.criterion.WithProperty;
@@ -14,17 +15,27 @@ public abstract class Expression implements Criterion, WithOperator, WithPropert
     private final Operator operator;
     private final String propertyName;
     private final AggregateProjection aggregateProjection;
+    private final EntityProperty<?, ?> entityProperty;
 
     protected Expression(Operator operator, String propertyName, AggregateProjection aggregateProjection) {
         this.operator = operator;
         this.propertyName = propertyName;
         this.aggregateProjection = aggregateProjection;
+        this.entityProperty = null;
     }
 
     protected Expression(Operator operator, String propertyName) {
         this.operator = operator;
         this.propertyName = propertyName;
         this.aggregateProjection = null;
+        this.entityProperty = null;
+    }
+
+    protected Expression(Operator operator, EntityProperty<?, ?> entityProperty) {
+        this.operator = operator;
+        this.propertyName = entityProperty.getPropertyName();
+        this.aggregateProjection = null;
+        this.entityProperty = entityProperty;
     }
 
     @Override
@@ -41,6 +52,13 @@ public abstract class Expression implements Criterion, WithOperator, WithPropert
         return aggregateProjection;
     }
 
+    /**
+     * @return the metamodel descriptor the expression was built from, null if built from a property name
+     */
+    public EntityProperty<?, ?> getEntityProperty() {
+        return entityProperty;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
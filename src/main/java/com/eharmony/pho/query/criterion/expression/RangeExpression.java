@@ -1,7 +1,9 @@
 
 package com.eharmony.pho.query.criterion.expression;
 
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
 
 /**
  * A closed range expression.
@@ -18,6 +20,19 @@ public class RangeExpression extends Expression {
         this.to = to;
     }
 
+    public RangeExpression(Operator operator, String propertyName, Object from, Object to,
+            AggregateProjection aggregateProjection) {
+        super(operator, propertyName, aggregateProjection);
+        this.from = from;
+        this.to = to;
+    }
+
+    public RangeExpression(Operator operator, EntityProperty<?, ?> entityProperty, Object from, Object to) {
+        super(operator, entityProperty);
+        this.from = from;
+        this.to = to;
+    }
+
     public Object getFrom() {
         return from;
     }
@@ -3,7 +3,9 @@ package com.eharmony.pho.query.criterion.expression;
 
 import java.util.Arrays;
 
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
 import com.google.common.base.Joiner;
 
 /**
@@ -19,6 +21,17 @@ public class SetExpression extends Expression {
         this.values = values;
     }
 
+    public SetExpression(Operator operator, String propertyName, final Object[] values,
+            AggregateProjection aggregateProjection) {
+        super(operator, propertyName, aggregateProjection);
+        this.values = values;
+    }
+
+    public SetExpression(Operator operator, EntityProperty<?, ?> entityProperty, final Object[] values) {
+        super(operator, entityProperty);
+        this.values = values;
+    }
+
     public Object[] getValues() {
         return values;
     }
@@ -1,6 +1,8 @@
 package com.eharmony.pho.query.criterion.expression;
 
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.projection.AggregateProjection;
 
 /**
  * A unary expression (is null, not null, is empty, not empty)
@@ -11,6 +13,14 @@ public class UnaryExpression extends Expression {
         super(operator, propertyName);
     }
 
+    public UnaryExpression(Operator operator, String propertyName, AggregateProjection aggregateProjection) {
+        super(operator, propertyName, aggregateProjection);
+    }
+
+    public UnaryExpression(Operator operator, EntityProperty<?, ?> entityProperty) {
+        super(operator, entityProperty);
+    }
+
     @Override
     public String toString() {
         return getPropertyName() + " " + getOperator();
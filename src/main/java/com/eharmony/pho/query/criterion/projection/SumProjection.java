@@ -0,0 +1,9 @@
+package com.eharmony.pho.query.criterion.projection;
+
+import com.eharmony.pho.query.criterion.Aggregate;
+
+public class SumProjection extends AggregateProjection{
+    public SumProjection(String propertyName) {
+        super(Aggregate.SUM, propertyName);
+    }
+}
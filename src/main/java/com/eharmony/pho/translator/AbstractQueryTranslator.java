@@ -6,6 +6,7 @@ import java.util.List;
 import com.eharmony.pho.query.QuerySelect;
 import com.eharmony.pho.query.criterion.Aggregate;
 import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.EntityProperty;
 import com.eharmony.pho.query.criterion.Operator;
 import com.eharmony.pho.query.criterion.Ordering;
 import com.eharmony.pho.query.criterion.expression.EqualityExpression;
@@ -101,7 +102,7 @@ public abstract class AbstractQueryTranslator<Q, O, P> implements QueryTranslato
     protected abstract <T> Q translate(NativeExpression e, Class<T> entityClass);
 
     protected <T> Q translate(Expression e, Class<T> entityClass, AggregateProjection projection) {
-        String fieldName = propertyResolver.resolve(e.getPropertyName(), entityClass);
+        String fieldName = resolve(e.getEntityProperty(), e.getPropertyName(), entityClass);
         if (e instanceof EqualityExpression) {
             return translate((EqualityExpression) e, fieldName, projection);
         } else if (e instanceof RangeExpression) {
@@ -151,7 +152,7 @@ public abstract class AbstractQueryTranslator<Q, O, P> implements QueryTranslato
         List<Criterion> criteria = j.getCriteria();
         List<Q> translated = new ArrayList<Q>(criteria.size());
         for (Criterion c : criteria) {
-            Q q = translate(c, entityClass, ((Expression) c).getAggregateProjection());
+            Q q = translate(c, entityClass, c instanceof Expression ? ((Expression) c).getAggregateProjection() : null);
             if (q != null) {
                 translated.add(q);
             }
@@ -250,6 +251,8 @@ public abstract class AbstractQueryTranslator<Q, O, P> implements QueryTranslato
                 return min(fieldName);
             case COUNT:
                 return count(fieldName);
+            case SUM:
+                return sum(fieldName);
             default:
                 throw unsupported(aggregate, AggregateProjection.class);
         }
@@ -267,12 +270,21 @@ public abstract class AbstractQueryTranslator<Q, O, P> implements QueryTranslato
         O[] orders = (O[]) Array.newInstance(orderClass, orderingList.size());
         for (int i = 0; i < orders.length; i++) {
             Ordering ordering = orderingList.get(i);
-            orders[i] = order(propertyResolver.resolve(ordering.getPropertyName(), query.getEntityClass()),
+            orders[i] = order(resolve(ordering.getEntityProperty(), ordering.getPropertyName(), query.getEntityClass()),
                     ordering);
         }
         return order(orders);
     }
 
+    /**
+     * Resolve the store field of a property, taking it from the metamodel descriptor when there is one for the
+     * translated entity.
+     */
+    protected String resolve(EntityProperty<?, ?> entityProperty, String propertyName, Class<?> entityClass) {
+        String fieldName = entityProperty != null ? entityProperty.resolve(entityClass, propertyName) : null;
+        return fieldName != null ? fieldName : propertyResolver.resolve(propertyName, entityClass);
+    }
+
     protected UnsupportedOperationException unsupported(Class<? extends Criterion> type) {
         throw new UnsupportedOperationException(type.getSimpleName() + " type not supported.");
     }
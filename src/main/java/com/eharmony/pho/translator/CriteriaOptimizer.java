@@ -0,0 +1,447 @@
+package com.eharmony.pho.translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.eharmony.pho.query.OrderingComparator;
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Operator;
+import com.eharmony.pho.query.criterion.Restrictions;
+import com.eharmony.pho.query.criterion.expression.EqualityExpression;
+import com.eharmony.pho.query.criterion.expression.Expression;
+import com.eharmony.pho.query.criterion.expression.RangeExpression;
+import com.eharmony.pho.query.criterion.expression.SetExpression;
+import com.eharmony.pho.query.criterion.expression.UnaryExpression;
+import com.eharmony.pho.query.criterion.junction.Conjunction;
+import com.eharmony.pho.query.criterion.junction.Disjunction;
+import com.eharmony.pho.query.criterion.junction.Junction;
+
+/**
+ * Rewrites a criteria tree into an equivalent, simpler one before translation:
+ * <ul>
+ * <li>nested junctions of the same kind are flattened and duplicate predicates removed</li>
+ * <li>equalities and <code>in</code> lists on the same property under an <code>or</code> are merged into one
+ * <code>in</code></li>
+ * <li>range, equality, <code>in</code> and null checks on the same property under an <code>and</code> are folded into
+ * the tightest equivalent predicate, e.g. <code>gte</code> and <code>lte</code> into <code>between</code></li>
+ * <li>criteria that no row can satisfy, e.g. <code>a = 1 and a = 2</code>, are reduced to
+ * {@link #isUnsatisfiable(Criterion) unsatisfiable}, so the query need not be executed at all</li>
+ * </ul>
+ * Predicates on aggregates, native expressions and values that cannot be compared with each other are left as they
+ * are. The criteria model has no negation, so a predicate evaluating to unknown (null) filters a row exactly like one
+ * evaluating to false, which keeps these rewrites valid under SQL null semantics.
+ */
+public final class CriteriaOptimizer {
+
+    private static final Criterion UNSATISFIABLE = new Criterion() {
+        @Override
+        public String toString() {
+            return "FALSE";
+        }
+    };
+
+    private CriteriaOptimizer() {
+    }
+
+    /**
+     * @param criterion
+     *            the optimized criteria
+     * @return true if no row can satisfy the criteria
+     */
+    public static boolean isUnsatisfiable(Criterion criterion) {
+        return criterion == UNSATISFIABLE;
+    }
+
+    /**
+     * @param criterion
+     *            the criteria as built by the caller, may be null
+     * @return the equivalent simplified criteria, null if they do not restrict the result, or a criterion for which
+     *         {@link #isUnsatisfiable(Criterion)} is true
+     */
+    public static Criterion optimize(Criterion criterion) {
+        if (criterion instanceof Conjunction || criterion instanceof Disjunction) {
+            return optimize((Junction) criterion);
+        }
+        if (criterion instanceof SetExpression && criterion.getClass() == SetExpression.class) {
+            SetExpression set = (SetExpression) criterion;
+            if (set.getOperator() == Operator.IN && (set.getValues() == null || set.getValues().length == 0)) {
+                return UNSATISFIABLE;
+            }
+        }
+        if (criterion instanceof RangeExpression && ((RangeExpression) criterion).getOperator() == Operator.BETWEEN) {
+            return fold(Collections.<Expression> singletonList((RangeExpression) criterion), criterion);
+        }
+        return criterion;
+    }
+
+    private static Criterion optimize(Junction junction) {
+        boolean and = junction instanceof Conjunction;
+        List<Criterion> criteria = new ArrayList<Criterion>();
+        int unsatisfiable = 0;
+        for (Criterion child : junction.getCriteria()) {
+            Criterion optimized = optimize(child);
+            if (isUnsatisfiable(optimized)) {
+                if (and) {
+                    return UNSATISFIABLE;
+                }
+                unsatisfiable++;
+            } else if (optimized == null) {
+                if (!and) {
+                    // an unrestricted branch makes the whole disjunction unrestricted
+                    return null;
+                }
+            } else if (optimized.getClass() == junction.getClass()) {
+                criteria.addAll(((Junction) optimized).getCriteria());
+            } else {
+                criteria.add(optimized);
+            }
+        }
+        criteria = new ArrayList<Criterion>(new LinkedHashSet<Criterion>(criteria));
+        criteria = and ? foldConjuncts(criteria) : mergeDisjuncts(criteria);
+        if (criteria == null) {
+            return UNSATISFIABLE;
+        }
+        if (criteria.isEmpty()) {
+            return !and && unsatisfiable > 0 ? UNSATISFIABLE : null;
+        }
+        if (criteria.size() == 1) {
+            return criteria.get(0);
+        }
+        Junction optimized = and ? new Conjunction() : new Disjunction();
+        for (Criterion c : criteria) {
+            optimized.add(c);
+        }
+        return optimized;
+    }
+
+    /**
+     * Merge the equalities and <code>in</code> lists of each property into a single <code>in</code>.
+     */
+    private static List<Criterion> mergeDisjuncts(List<Criterion> criteria) {
+        Map<String, Set<Object>> values = new HashMap<String, Set<Object>>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Criterion c : criteria) {
+            String property = mergeableProperty(c);
+            if (property != null) {
+                Set<Object> propertyValues = values.get(property);
+                if (propertyValues == null) {
+                    propertyValues = new LinkedHashSet<Object>();
+                    values.put(property, propertyValues);
+                }
+                if (c instanceof EqualityExpression) {
+                    propertyValues.add(((EqualityExpression) c).getValue());
+                } else {
+                    Collections.addAll(propertyValues, ((SetExpression) c).getValues());
+                }
+                Integer count = counts.get(property);
+                counts.put(property, count == null ? 1 : count + 1);
+            }
+        }
+        List<Criterion> merged = new ArrayList<Criterion>(criteria.size());
+        for (Criterion c : criteria) {
+            String property = mergeableProperty(c);
+            if (property == null || counts.get(property) < 2) {
+                merged.add(c);
+            } else if (values.containsKey(property)) {
+                Set<Object> propertyValues = values.remove(property);
+                merged.add(propertyValues.size() == 1 ? Restrictions.eq(property, propertyValues.iterator().next())
+                        : Restrictions.in(property, propertyValues.toArray()));
+            }
+        }
+        return merged;
+    }
+
+    private static String mergeableProperty(Criterion c) {
+        if (c instanceof EqualityExpression) {
+            EqualityExpression e = (EqualityExpression) c;
+            if (e.getOperator() == Operator.EQUAL && e.getAggregateProjection() == null && e.getValue() != null) {
+                return e.getPropertyName();
+            }
+        } else if (c instanceof SetExpression && c.getClass() == SetExpression.class) {
+            SetExpression e = (SetExpression) c;
+            if (e.getOperator() == Operator.IN && e.getValues() != null && e.getValues().length > 0) {
+                return e.getPropertyName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fold the foldable predicates of each property into the tightest equivalent ones.
+     *
+     * @return the folded criteria, null on a contradiction
+     */
+    private static List<Criterion> foldConjuncts(List<Criterion> criteria) {
+        Map<String, List<Expression>> byProperty = new LinkedHashMap<String, List<Expression>>();
+        for (Criterion c : criteria) {
+            if (isFoldable(c)) {
+                Expression e = (Expression) c;
+                List<Expression> expressions = byProperty.get(e.getPropertyName());
+                if (expressions == null) {
+                    expressions = new ArrayList<Expression>();
+                    byProperty.put(e.getPropertyName(), expressions);
+                }
+                expressions.add(e);
+            }
+        }
+        List<Criterion> folded = new ArrayList<Criterion>(criteria.size());
+        for (Criterion c : criteria) {
+            if (!isFoldable(c)) {
+                folded.add(c);
+                continue;
+            }
+            List<Expression> expressions = byProperty.remove(((Expression) c).getPropertyName());
+            if (expressions == null) {
+                // already folded with an earlier predicate on the same property
+                continue;
+            }
+            Criterion replacement = expressions.size() == 1 ? optimize(c) : fold(expressions, null);
+            if (isUnsatisfiable(replacement)) {
+                return null;
+            }
+            if (replacement == null) {
+                folded.addAll(expressions);
+            } else if (replacement instanceof Conjunction) {
+                folded.addAll(((Conjunction) replacement).getCriteria());
+            } else {
+                folded.add(replacement);
+            }
+        }
+        return folded;
+    }
+
+    private static boolean isFoldable(Criterion c) {
+        if (!(c instanceof Expression) || ((Expression) c).getAggregateProjection() != null
+                || ((Expression) c).getPropertyName() == null) {
+            return false;
+        }
+        switch (((Expression) c).getOperator()) {
+            case EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+                return c instanceof EqualityExpression && ((EqualityExpression) c).getValue() != null;
+            case BETWEEN:
+                return c instanceof RangeExpression && ((RangeExpression) c).getFrom() != null
+                        && ((RangeExpression) c).getTo() != null;
+            case IN:
+                return c.getClass() == SetExpression.class && ((SetExpression) c).getValues() != null
+                        && !containsNull(((SetExpression) c).getValues());
+            case NULL:
+            case NOT_NULL:
+                return c instanceof UnaryExpression;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean containsNull(Object[] values) {
+        for (Object value : values) {
+            if (value == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fold the conjunction of predicates on one property.
+     *
+     * @param expressions
+     *            foldable predicates on the same property
+     * @param unchanged
+     *            returned when the values cannot be compared with each other
+     * @return the folded predicate(s), null to keep the expressions unchanged, or {@link #UNSATISFIABLE}
+     */
+    private static Criterion fold(List<Expression> expressions, Criterion unchanged) {
+        try {
+            Bounds bounds = new Bounds();
+            for (Expression e : expressions) {
+                if (!bounds.add(e)) {
+                    return UNSATISFIABLE;
+                }
+            }
+            return bounds.toCriterion(expressions.get(0).getPropertyName());
+        } catch (IllegalArgumentException incomparable) {
+            return unchanged;
+        }
+    }
+
+    private static int compare(Object v1, Object v2) {
+        return OrderingComparator.compareValues(v1, v2);
+    }
+
+    /**
+     * What the conjunction of the predicates on one property allows.
+     */
+    private static final class Bounds {
+
+        private Object lower;
+        private boolean lowerInclusive;
+        private Object upper;
+        private boolean upperInclusive;
+        private Object equal;
+        private List<Object> in;
+        private boolean isNull;
+        private boolean notNull;
+
+        /**
+         * @return false if the predicate contradicts the earlier ones
+         */
+        boolean add(Expression e) {
+            switch (e.getOperator()) {
+                case EQUAL:
+                    Object value = ((EqualityExpression) e).getValue();
+                    if (equal != null && compare(equal, value) != 0) {
+                        return false;
+                    }
+                    equal = value;
+                    return true;
+                case GREATER_THAN:
+                    lower(((EqualityExpression) e).getValue(), false);
+                    return true;
+                case GREATER_THAN_OR_EQUAL:
+                    lower(((EqualityExpression) e).getValue(), true);
+                    return true;
+                case LESS_THAN:
+                    upper(((EqualityExpression) e).getValue(), false);
+                    return true;
+                case LESS_THAN_OR_EQUAL:
+                    upper(((EqualityExpression) e).getValue(), true);
+                    return true;
+                case BETWEEN:
+                    lower(((RangeExpression) e).getFrom(), true);
+                    upper(((RangeExpression) e).getTo(), true);
+                    return true;
+                case IN:
+                    in = in == null ? distinct(((SetExpression) e).getValues()) : intersect(in,
+                            ((SetExpression) e).getValues());
+                    return true;
+                case NULL:
+                    isNull = true;
+                    return true;
+                case NOT_NULL:
+                    notNull = true;
+                    return true;
+                default:
+                    throw new IllegalStateException("Unexpected operator " + e.getOperator());
+            }
+        }
+
+        private void lower(Object value, boolean inclusive) {
+            int c = lower == null ? 1 : compare(value, lower);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                lower = value;
+                lowerInclusive = inclusive;
+            }
+        }
+
+        private void upper(Object value, boolean inclusive) {
+            int c = upper == null ? -1 : compare(value, upper);
+            if (c < 0 || (c == 0 && !inclusive)) {
+                upper = value;
+                upperInclusive = inclusive;
+            }
+        }
+
+        private boolean allows(Object value) {
+            if (lower != null) {
+                int c = compare(value, lower);
+                if (c < 0 || (c == 0 && !lowerInclusive)) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                int c = compare(value, upper);
+                if (c > 0 || (c == 0 && !upperInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Criterion toCriterion(String property) {
+            if (isNull) {
+                boolean restricted = notNull || equal != null || in != null || lower != null || upper != null;
+                return restricted ? UNSATISFIABLE : Restrictions.isNull(property);
+            }
+            if (equal != null || in != null) {
+                List<Object> candidates = new ArrayList<Object>();
+                for (Object value : equal == null ? in : Collections.singletonList(equal)) {
+                    if ((in == null || contains(in, value)) && allows(value)) {
+                        candidates.add(value);
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    return UNSATISFIABLE;
+                }
+                return candidates.size() == 1 ? Restrictions.eq(property, candidates.get(0)) : Restrictions.in(
+                        property, candidates.toArray());
+            }
+            if (lower != null && upper != null) {
+                int c = compare(lower, upper);
+                if (c > 0 || (c == 0 && !(lowerInclusive && upperInclusive))) {
+                    return UNSATISFIABLE;
+                }
+                if (c == 0) {
+                    return Restrictions.eq(property, lower);
+                }
+                if (lowerInclusive && upperInclusive) {
+                    return Restrictions.between(property, lower, upper);
+                }
+                return Restrictions.and(lowerBound(property), upperBound(property));
+            }
+            if (lower != null) {
+                return lowerBound(property);
+            }
+            if (upper != null) {
+                return upperBound(property);
+            }
+            return Restrictions.isNotNull(property);
+        }
+
+        private Criterion lowerBound(String property) {
+            return lowerInclusive ? Restrictions.gte(property, lower) : Restrictions.gt(property, lower);
+        }
+
+        private Criterion upperBound(String property) {
+            return upperInclusive ? Restrictions.lte(property, upper) : Restrictions.lt(property, upper);
+        }
+
+        private static List<Object> distinct(Object[] values) {
+            List<Object> distinct = new ArrayList<Object>(values.length);
+            for (Object value : values) {
+                if (!contains(distinct, value)) {
+                    distinct.add(value);
+                }
+            }
+            return distinct;
+        }
+
+        private static List<Object> intersect(List<Object> values, Object[] others) {
+            List<Object> intersection = new ArrayList<Object>(values.size());
+            for (Object other : others) {
+                if (contains(values, other) && !contains(intersection, other)) {
+                    intersection.add(other);
+                }
+            }
+            return intersection;
+        }
+
+        private static boolean contains(List<Object> values, Object value) {
+            for (Object v : values) {
+                if (compare(v, value) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.eharmony.pho.translator;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import com.eharmony.pho.mapper.EntityPropertyBinding;
+import com.eharmony.pho.mapper.SecondaryIndexBinding;
 
 /**
  * Resolve datastore specific names for properties of an entity class.
@@ -24,4 +26,22 @@ public interface PropertyResolver {
 
     public <T> Map<String, EntityPropertyBinding> getEntityPropertyNamePropertyBindingMap(Class<T> clz);
 
+    /**
+     * @param clz
+     *            the entity class
+     * @return the <code>@RowKey</code> properties of the entity in row key order, none unless the resolver reads them
+     */
+    public default List<EntityPropertyBinding> getRowKeyPropertyBindings(Class<?> clz) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param clz
+     *            the entity class
+     * @return the secondary indexes declared by the entity, none unless the resolver reads their declarations
+     */
+    public default List<SecondaryIndexBinding> getSecondaryIndexBindings(Class<?> clz) {
+        return Collections.emptyList();
+    }
+
 }
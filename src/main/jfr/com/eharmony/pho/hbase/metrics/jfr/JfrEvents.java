@@ -0,0 +1,85 @@
+package com.eharmony.pho.hbase.metrics.jfr;
+
+import jdk.jfr.FlightRecorder;
+
+import com.eharmony.pho.hbase.metrics.SqlFingerprint;
+
+/**
+ * Creates and commits the pho flight recorder events. Only loaded when the <code>jdk.jfr</code> module is present,
+ * use {@link com.eharmony.pho.hbase.metrics.PhoenixFlightRecorder} instead of calling this class directly.
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    public static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    public static Object beginQuery() {
+        PhoenixQueryEvent event = new PhoenixQueryEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public static void commitQuery(Object token, Class<?> entityClass, String operation, String sql,
+            long translateNanos, long executeNanos, long mapNanos, long rows, int batchSize, boolean failed) {
+        PhoenixQueryEvent event = (PhoenixQueryEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.fingerprint = SqlFingerprint.of(sql);
+            event.entityClass = entityClass != null ? entityClass.getName() : null;
+            event.operation = operation;
+            event.translateNanos = translateNanos;
+            event.executeNanos = executeNanos;
+            event.mapNanos = mapNanos;
+            event.rows = rows;
+            event.batchSize = batchSize;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    public static Object beginTranslate() {
+        PhoenixTranslateEvent event = new PhoenixTranslateEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public static void commitTranslate(Object token, Class<?> entityClass, String operation, String sql) {
+        PhoenixTranslateEvent event = (PhoenixTranslateEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.fingerprint = SqlFingerprint.of(sql);
+            event.entityClass = entityClass != null ? entityClass.getName() : null;
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
+    public static Object beginMap() {
+        PhoenixMapEvent event = new PhoenixMapEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public static void commitMap(Object token, Class<?> resultClass, long rows) {
+        PhoenixMapEvent event = (PhoenixMapEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.resultClass = resultClass != null ? resultClass.getName() : null;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.eharmony.pho.hbase.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Fetching the rows of a result set and mapping them to objects by
+ * {@link com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper}. Phoenix streams results, so the time includes
+ * the server round trips of the scan.
+ */
+@Name("com.eharmony.pho.Map")
+@Label("Pho Fetch And Map")
+@Category({ "Pho", "Phoenix" })
+@Description("Result set rows fetched and mapped to objects")
+@Enabled(false)
+@StackTrace(false)
+public class PhoenixMapEvent extends Event {
+
+    @Label("Result Class")
+    String resultClass;
+
+    @Label("Rows")
+    long rows;
+}
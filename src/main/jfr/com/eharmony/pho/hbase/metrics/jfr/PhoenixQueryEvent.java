@@ -0,0 +1,54 @@
+package com.eharmony.pho.hbase.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One statement executed by {@link com.eharmony.pho.hbase.query.PhoenixHBaseQueryExecutor}, spanning translation,
+ * execution and result mapping.
+ */
+@Name("com.eharmony.pho.Query")
+@Label("Pho Query")
+@Category({ "Pho", "Phoenix" })
+@Description("Statement executed through the pho query executor")
+@Enabled(false)
+@StackTrace(false)
+public class PhoenixQueryEvent extends Event {
+
+    @Label("Fingerprint")
+    @Description("Translated sql with literal values replaced by ?")
+    String fingerprint;
+
+    @Label("Entity Class")
+    String entityClass;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Translate Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long translateNanos;
+
+    @Label("Execute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long executeNanos;
+
+    @Label("Fetch And Map Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long mapNanos;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,28 @@
+package com.eharmony.pho.hbase.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Translation of a query into sql by {@link com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator}.
+ */
+@Name("com.eharmony.pho.Translate")
+@Label("Pho Translate")
+@Category({ "Pho", "Phoenix" })
+@Enabled(false)
+@StackTrace(false)
+public class PhoenixTranslateEvent extends Event {
+
+    @Label("Fingerprint")
+    String fingerprint;
+
+    @Label("Entity Class")
+    String entityClass;
+
+    @Label("Operation")
+    String operation;
+}
@@ -0,0 +1,546 @@
+package com.eharmony.pho.hbase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+import com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper;
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.hbase.query.CoalescingWriter;
+import com.eharmony.pho.hbase.query.ColumnarResult;
+import com.eharmony.pho.hbase.query.CountEstimate;
+import com.eharmony.pho.hbase.query.MultiQueryResult;
+import com.eharmony.pho.hbase.query.PhoenixBatchLoader;
+import com.eharmony.pho.hbase.query.PhoenixHBaseQueryExecutor;
+import com.eharmony.pho.hbase.query.RowKeyBloomFilter;
+import com.eharmony.pho.hbase.query.SpillableResult;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.hbase.translator.QueryTemplate;
+import com.eharmony.pho.hbase.util.PhoenixConnectionManager;
+import com.eharmony.pho.hbase.util.PhoenixDateFormatUtil;
+import com.eharmony.pho.hbase.metrics.PhoenixQueryMetrics;
+import com.eharmony.pho.mapper.EntityChangeTracker;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.Aggregates;
+import com.eharmony.pho.query.GroupKey;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Parameter;
+import com.eharmony.pho.query.criterion.Projections;
+import com.eharmony.pho.query.criterion.Restrictions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+
+public class PhoenixHBaseDataStoreApiImplTest {
+
+    private StubPhoenixDriver driver;
+    private PhoenixHBaseDataStoreApiImpl api;
+    private PhoenixHBaseQueryExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = StubPhoenixDriver.register();
+        driver.setRowsPerQuery(2);
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("UID", 1L);
+        row.put("MID", 2L);
+        row.put("STATUS", 1);
+        row.put("DLVRYDT", new Date());
+        driver.setRow(row);
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(IndexedTestClass.class.getName())));
+        executor = new PhoenixHBaseQueryExecutor(new PhoenixHBaseQueryTranslator(
+                resolver), new PhoenixProjectedResultMapper(resolver));
+        api = new PhoenixHBaseDataStoreApiImpl(StubPhoenixDriver.URL_PREFIX + "multi", executor);
+        api.setMultiQueryThreads(2);
+    }
+
+    @After
+    public void tearDown() {
+        driver.setRoundTripMicros(0);
+        driver.setRow("EXPLAIN SELECT * FROM matches WHERE uid = 1", null);
+        driver.setRow("SELECT COUNT(*), SUM(GUIDE_POSTS_ROW_COUNT)", null);
+        api.getMultiQueryExecutor().shutdownNow();
+    }
+
+    @Test
+    public void testFindAllMultiKeepsOrderAndPartialResults() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> byUser = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.eq("userId", 1L)).build();
+        QuerySelect<IndexedTestClass, IndexedTestClass> failing = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.like("status", Parameter.named("status"))).build();
+        QuerySelect<IndexedTestClass, IndexedTestClass> byMatch = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.eq("matchId", 2L)).build();
+        List<QuerySelect<?, ?>> queries = new ArrayList<QuerySelect<?, ?>>();
+        queries.add(byUser);
+        queries.add(failing);
+        queries.add(byMatch);
+
+        MultiQueryResult result = api.findAllMulti(queries);
+        Assert.assertEquals(3, result.size());
+        Assert.assertFalse(result.isComplete());
+        Assert.assertTrue(result.isSuccessful(0));
+        Assert.assertFalse(result.isSuccessful(1));
+        Assert.assertNotNull(result.getError(1));
+        Iterator<IndexedTestClass> matches = result.get(byMatch).iterator();
+        Assert.assertEquals(2L, matches.next().getMatchId());
+        Assert.assertTrue(matches.hasNext());
+        Assert.assertEquals(1L, result.get(byUser).iterator().next().getUserId());
+    }
+
+    @Test
+    public void testFindAllScattersDisjunctionOverRowKeys() {
+        api.setScatterGatherEnabled(true);
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.or(Restrictions.eq("userId", 1L), Restrictions.eq("userId", 2L),
+                        Restrictions.eq("userId", 3L)))
+                .setMaxResults(5).build();
+        long before = driver.getStatementsExecuted();
+        List<IndexedTestClass> results = new ArrayList<IndexedTestClass>();
+        for (IndexedTestClass result : api.findAll(query)) {
+            results.add(result);
+        }
+        Assert.assertEquals(3, driver.getStatementsExecuted() - before);
+        Assert.assertEquals(5, results.size());
+    }
+
+    @Test
+    public void testEstimateCountFromExplainAndGuideposts() {
+        Map<String, Object> plan = new LinkedHashMap<String, Object>();
+        plan.put("PLAN", "CLIENT 1-CHUNK PARALLEL 1-WAY RANGE SCAN OVER MATCHES [1]");
+        plan.put("EST_BYTES_READ", 52000L);
+        plan.put("EST_ROWS_READ", 1300L);
+        plan.put("EST_INFO_TS", 1700000000000L);
+        driver.setRow("EXPLAIN SELECT * FROM matches WHERE uid = 1", plan);
+        Map<String, Object> guideposts = new LinkedHashMap<String, Object>();
+        guideposts.put("COUNT(*)", 10L);
+        guideposts.put("SUM(GUIDE_POSTS_ROW_COUNT)", 1000L);
+        driver.setRow("SELECT COUNT(*), SUM(GUIDE_POSTS_ROW_COUNT)", guideposts);
+
+        CountEstimate estimate = api.estimateCount(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 1L)).addOrder(Ordering.desc("deliveredDate")).setMaxResults(5)
+                .build());
+        Assert.assertTrue(estimate.isAvailable());
+        Assert.assertEquals(1300L, estimate.getEstimatedRows());
+        Assert.assertEquals(52000L, estimate.getEstimatedBytes());
+        Assert.assertEquals(200L, estimate.getErrorBound());
+        Assert.assertFalse(estimate.isFiltered());
+        Assert.assertEquals(1100L, estimate.getLowerBound());
+        Assert.assertEquals(1500L, estimate.getUpperBound());
+
+        driver.setRow("EXPLAIN SELECT * FROM matches WHERE (uid = 1) AND (status > 1)", plan);
+        CountEstimate filtered = api.estimateCount(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 1L)).add(Restrictions.gt("status", 1)).build());
+        driver.setRow("EXPLAIN SELECT * FROM matches WHERE (uid = 1) AND (status > 1)", null);
+        Assert.assertTrue(filtered.isFiltered());
+        Assert.assertEquals(0L, filtered.getLowerBound());
+        Assert.assertFalse(api.estimateCount(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 2L)).build()).isAvailable());
+        Assert.assertEquals(0, api.estimateCount(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 1L)).add(Restrictions.eq("userId", 2L)).build()).getEstimatedRows());
+    }
+
+    @Test
+    public void testAggregateByGroupKeys() {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("UID", 1L);
+        row.put("COUNT(MID)", 12L);
+        row.put("STATUS", 3);
+        row.put("SUM(MID)", 40L);
+        driver.setRow("SELECT uid, COUNT(mid), status, SUM(mid)", row);
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.gt("userId", 0L))
+                .addProjection(Projections.groupBy("userId"), Projections.count("matchId"))
+                .addProjection(Projections.groupBy("status"), Projections.sum("matchId")).build();
+        try {
+            Map<GroupKey, Aggregates> groups = api.aggregate(query);
+            Assert.assertEquals(1, groups.size());
+            GroupKey key = groups.keySet().iterator().next();
+            Assert.assertEquals(Arrays.asList("userId", "status"), key.getPropertyNames());
+            Assert.assertEquals(new GroupKey(Arrays.asList("userId", "status"), 1L, 3), key);
+            Aggregates aggregates = groups.get(key);
+            Assert.assertEquals(Long.valueOf(12), aggregates.getLong(Projections.count("matchId")));
+            Assert.assertEquals(40L, aggregates.get("sum(matchId)"));
+
+            // the first aggregate over a property binds to it, like in the in memory store
+            Iterator<IndexedTestClass> typed = api.findAll(query).iterator();
+            IndexedTestClass first = typed.next();
+            Assert.assertEquals(1L, first.getUserId());
+            Assert.assertEquals(3, first.getStatus());
+            Assert.assertEquals(12L, first.getMatchId());
+        } finally {
+            driver.setRow("SELECT uid, COUNT(mid), status, SUM(mid)", null);
+        }
+    }
+
+    @Test
+    public void testFindColumnsReadsPrimitiveArrays() {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("UID", 7L);
+        row.put("STATUS", null);
+        row.put("DLVRYDT", new Date(0));
+        driver.setRow("SELECT uid, status, dlvrydt FROM matches", row);
+        driver.setRowsPerQuery(40);
+        try {
+            ColumnarResult columns = api.findColumns(QueryBuilder.builderFor(IndexedTestClass.class)
+                    .select(Arrays.asList("userId", "status", "deliveredDate")).setMaxResults(20).build());
+            Assert.assertEquals(40, columns.getRowCount());
+            Assert.assertEquals(Arrays.asList("userId", "status", "deliveredDate"), columns.getColumnNames());
+            long[] userIds = columns.getLongColumn("userId").values();
+            Assert.assertEquals(40, userIds.length);
+            Assert.assertEquals(7L, userIds[39]);
+            ColumnarResult.IntColumn status = columns.getIntColumn("status");
+            Assert.assertEquals(40, status.getNullCount());
+            Assert.assertNull(status.get(0));
+            Assert.assertEquals(new Date(0), columns.getColumn("deliveredDate").get(3));
+
+            ColumnarResult none = api.findColumns(QueryBuilder.builderFor(IndexedTestClass.class)
+                    .select(Arrays.asList("userId")).add(Restrictions.eq("userId", 1L))
+                    .add(Restrictions.eq("userId", 2L)).build());
+            Assert.assertEquals(0, none.getRowCount());
+            Assert.assertEquals(0, none.getLongColumn("userId").values().length);
+        } finally {
+            driver.setRowsPerQuery(2);
+            driver.setRow("SELECT uid, status, dlvrydt FROM matches", null);
+        }
+    }
+
+    @Test
+    public void testFindPrimitivesAndScalarHelpers() {
+        Map<String, Object> ids = new LinkedHashMap<String, Object>();
+        ids.put("MID", 42L);
+        driver.setRow("SELECT mid FROM matches", ids);
+        Map<String, Object> count = new LinkedHashMap<String, Object>();
+        count.put("COUNT(*)", 1234L);
+        driver.setRow("SELECT COUNT(*) FROM matches WHERE uid = 1", count);
+        Map<String, Object> sum = new LinkedHashMap<String, Object>();
+        sum.put("SUM(STATUS)", null);
+        driver.setRow("SELECT SUM(status) FROM matches WHERE uid = 1", sum);
+        try {
+            QuerySelect<IndexedTestClass, Long> matchIds = QueryBuilder.builderFor(IndexedTestClass.class, Long.class,
+                    "matchId").select().build();
+            Assert.assertArrayEquals(new long[] { 42L, 42L }, api.findLongs(matchIds));
+            Assert.assertArrayEquals(new int[] { 42, 42 }, api.findInts(matchIds));
+            Assert.assertArrayEquals(new double[] { 42d, 42d }, api.findDoubles(matchIds), 0d);
+            // the limit sizes the array up to a bound, not past it
+            Assert.assertArrayEquals(new long[] { 42L, 42L }, api.findLongs(QueryBuilder.builderFor(
+                    IndexedTestClass.class, Long.class, "matchId").select().setMaxResults(Integer.MAX_VALUE).build()));
+
+            QuerySelect<IndexedTestClass, IndexedTestClass> byUser = QueryBuilder
+                    .builderFor(IndexedTestClass.class).select().add(Restrictions.eq("userId", 1L))
+                    .addOrder(Ordering.desc("deliveredDate")).setMaxResults(5).build();
+            Assert.assertEquals(1234L, api.count(byUser));
+            Assert.assertEquals(0L, api.sumLongs(byUser, "status"));
+            Assert.assertEquals(0L, api.count(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                    .add(Restrictions.eq("userId", 1L)).add(Restrictions.eq("userId", 2L)).build()));
+        } finally {
+            driver.setRow("SELECT mid FROM matches", null);
+            driver.setRow("SELECT COUNT(*) FROM matches WHERE uid = 1", null);
+            driver.setRow("SELECT SUM(status) FROM matches WHERE uid = 1", null);
+        }
+    }
+
+    @Test
+    public void testFindLongsRejectsSeveralColumns() {
+        try {
+            api.findLongs(QueryBuilder.builderFor(IndexedTestClass.class).select().build());
+            Assert.fail("expected a single column check");
+        } catch (RuntimeException ex) {
+            Assert.assertTrue(Throwables.getRootCause(ex) instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testMaterializeSpillsPastTheHeapBudget() {
+        executor.setSpillHeapBudgetBytes(0);
+        driver.setRowsPerQuery(50);
+        SpillableResult<IndexedTestClass> results = api.materialize(QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.eq("userId", 1L)).build());
+        try {
+            Assert.assertTrue(results.isSpilled());
+            Assert.assertEquals(50, results.size());
+            int read = 0;
+            for (IndexedTestClass match : results) {
+                Assert.assertEquals(2L, match.getMatchId());
+                read++;
+            }
+            Assert.assertEquals(50, read);
+        } finally {
+            results.close();
+            driver.setRowsPerQuery(2);
+        }
+    }
+
+    @Test
+    public void testRowKeyFilterSkipsAbsentPointReads() {
+        Map<String, Object> key = new LinkedHashMap<String, Object>();
+        key.put("UID", 1L);
+        key.put("MID", 2L);
+        driver.setRow("SELECT uid, mid FROM matches", key);
+        try {
+            RowKeyBloomFilter filter = api.addRowKeyFilter(IndexedTestClass.class, 1000, 0.001);
+            Assert.assertTrue(filter.isBuilt());
+            Assert.assertEquals(2, filter.getKeyCount());
+            Assert.assertTrue(filter.getSizeBytes() > 0 && filter.getSizeBytes() < 4096);
+
+            long executed = driver.getStatementsExecuted();
+            Assert.assertNull(api.findOne(byRowKey(1, 3)));
+            Assert.assertFalse(api.findAll(byRowKey(7, 2)).iterator().hasNext());
+            Assert.assertEquals(executed, driver.getStatementsExecuted());
+            Assert.assertEquals(2, filter.getSkippedLookups());
+
+            // saved keys, present keys and selects that do not pin the whole row key still run
+            IndexedTestClass saved = new IndexedTestClass();
+            saved.setUserId(7);
+            saved.setMatchId(2);
+            saved.setDeliveredDate(new Date());
+            api.save(saved);
+            executed = driver.getStatementsExecuted();
+            Assert.assertNotNull(api.findOne(byRowKey(1, 2)));
+            Assert.assertNotNull(api.findOne(byRowKey(7, 2)));
+            Assert.assertNotNull(api.findOne(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                    .add(Restrictions.eq("userId", 9L)).build()));
+            Assert.assertEquals(executed + 3, driver.getStatementsExecuted());
+            Assert.assertEquals(4, filter.getCheckedLookups());
+        } finally {
+            api.removeRowKeyFilter(IndexedTestClass.class);
+            driver.setRow("SELECT uid, mid FROM matches", null);
+        }
+    }
+
+    @Test
+    public void testSavesRecordTheColumnsTheyBind() {
+        executor.setChangeTracker(new EntityChangeTracker(executor.getQueryTranslator()
+                .getEntityPropertiesResolver()));
+        PhoenixQueryMetrics metrics = executor.getQueryMetrics();
+        metrics.reset();
+        IndexedTestClass match = new IndexedTestClass();
+        match.setUserId(1);
+        match.setMatchId(2);
+        match.setStatus(3);
+        // the null delivered date is left out of the upsert
+        api.save(match);
+        Assert.assertEquals(3, metrics.getColumnsWritten());
+        Assert.assertEquals(0, metrics.getColumnsSkipped());
+
+        match.setStatus(4);
+        api.save(match);
+        Assert.assertEquals(6, metrics.getColumnsWritten());
+        Assert.assertEquals(1, metrics.getColumnsSkipped());
+    }
+
+    @Test
+    public void testBatchLoaderReadsConcurrentKeysInOneSelect() throws Exception {
+        PhoenixBatchLoader<IndexedTestClass> loader = api.getBatchLoader(IndexedTestClass.class);
+        Assert.assertSame(loader, api.getBatchLoader(IndexedTestClass.class));
+        loader.setBatchWindowMicros(TimeUnit.SECONDS.toMicros(10));
+        loader.setMaxBatchSize(3);
+        try {
+            long executed = driver.getStatementsExecuted();
+            CompletableFuture<IndexedTestClass> present = loader.load(1L, 2L);
+            CompletableFuture<IndexedTestClass> again = loader.load(1, 2);
+            CompletableFuture<IndexedTestClass> absent = loader.load(1L, 3L);
+            Assert.assertFalse(present.isDone());
+            // the third distinct key fills the batch long before the window ends
+            CompletableFuture<IndexedTestClass> other = loader.load(4L, 2L);
+            Assert.assertEquals(2L, present.get(5, TimeUnit.SECONDS).getMatchId());
+            Assert.assertSame(present.get(), again.get(5, TimeUnit.SECONDS));
+            Assert.assertNull(absent.get(5, TimeUnit.SECONDS));
+            Assert.assertNull(other.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(executed + 1, driver.getStatementsExecuted());
+            Assert.assertEquals(4, loader.getLoads());
+            Assert.assertEquals(1, loader.getBatches());
+
+            CompletableFuture<IndexedTestClass> pending = loader.load(1L, 2L);
+            loader.flush();
+            Assert.assertTrue(pending.isDone());
+        } finally {
+            api.closeBatchLoaders();
+        }
+    }
+
+    @Test
+    public void testCoalescedSavesMergeByColumn() throws Exception {
+        CoalescingWriter writer = api.getCoalescingWriter();
+        writer.setFlushWindowMillis(TimeUnit.SECONDS.toMillis(10));
+        IndexedTestClass other = new IndexedTestClass();
+        other.setUserId(3);
+        other.setMatchId(4);
+        other.setStatus(9);
+        IndexedTestClass match = new IndexedTestClass();
+        match.setUserId(1);
+        match.setMatchId(2);
+        match.setStatus(1);
+        match.setDeliveredDate(new Date(1000));
+        CompletableFuture<Void> first = api.saveCoalesced(other);
+        CompletableFuture<Void> full = api.saveCoalesced(match);
+
+        IndexedTestClass status = new IndexedTestClass();
+        status.setUserId(1);
+        status.setMatchId(2);
+        status.setStatus(2);
+        api.saveCoalesced(status, Arrays.asList("status"));
+        IndexedTestClass delivered = new IndexedTestClass();
+        delivered.setUserId(1);
+        delivered.setMatchId(2);
+        delivered.setStatus(5);
+        delivered.setDeliveredDate(new Date(2000));
+        CompletableFuture<Void> last = api.saveCoalesced(delivered, Arrays.asList("deliveredDate"));
+        // saved values are read when saved
+        delivered.setDeliveredDate(new Date(3000));
+        Assert.assertEquals(2, writer.getPendingRows());
+        Assert.assertFalse(full.isDone());
+
+        long executed = driver.getStatementsExecuted();
+        writer.flush();
+        Assert.assertTrue(first.isDone() && full.isDone() && last.isDone());
+        Assert.assertEquals(2, writer.getRowsWritten());
+        Assert.assertEquals(4, writer.getSaves());
+        // two upserts and one commit
+        Assert.assertEquals(executed + 3, driver.getStatementsExecuted());
+        // the last status and delivered date, the later status of the date only save is not written
+        Assert.assertEquals("UPSERT INTO matches(uid, mid, dlvrydt, status) values (1, 2, "
+                + PhoenixDateFormatUtil.formatDate(new Date(2000)) + ", 2)", driver.getLastUpdate());
+    }
+
+    @Test
+    public void testTemplateStatementIsPreparedOncePerConnection() throws Exception {
+        QueryTemplate<IndexedTestClass, IndexedTestClass> byUser = executor.compile(QueryBuilder
+                .builderFor(IndexedTestClass.class).select().add(Restrictions.eq("userId", Parameter.named("userId")))
+                .build());
+        long open = driver.getOpenStatements();
+        long prepared = driver.getStatementsPrepared();
+        Connection conn = PhoenixConnectionManager.getConnection(StubPhoenixDriver.URL_PREFIX + "template");
+        try {
+            Assert.assertEquals(1L, executor.find(byUser, new Object[] { 1L }, conn).iterator().next().getUserId());
+            Assert.assertNotNull(executor.findOne(byUser, new Object[] { 2L }, conn));
+            Assert.assertEquals(prepared + 1, driver.getStatementsPrepared());
+            Assert.assertEquals(open + 1, driver.getOpenStatements());
+
+            executor.release(conn);
+            Assert.assertEquals(open, driver.getOpenStatements());
+            executor.find(byUser, new Object[] { 1L }, conn);
+            Assert.assertEquals(prepared + 2, driver.getStatementsPrepared());
+        } finally {
+            executor.release(conn);
+            conn.close();
+        }
+        Assert.assertEquals(open, driver.getOpenStatements());
+
+        // connections opened per call leave no statement behind
+        Assert.assertEquals(2, Iterables.size(api.findAll(byUser, 1L)));
+        Assert.assertNotNull(api.findOne(byUser, 1L));
+        Assert.assertEquals(open, driver.getOpenStatements());
+    }
+
+    @Test
+    public void testSaveBatchReadsOneShotIterableOnce() throws Exception {
+        final Iterator<IndexedTestClass> entities = Arrays.asList(byIds(1, 2), byIds(1, 3)).iterator();
+        Iterable<IndexedTestClass> oneShot = new Iterable<IndexedTestClass>() {
+            @Override
+            public Iterator<IndexedTestClass> iterator() {
+                return entities;
+            }
+        };
+        Connection conn = PhoenixConnectionManager.getConnection(StubPhoenixDriver.URL_PREFIX + "batch");
+        try {
+            Assert.assertEquals(2, executor.saveBatch(oneShot, conn).length);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static IndexedTestClass byIds(long userId, long matchId) {
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(userId);
+        entity.setMatchId(matchId);
+        return entity;
+    }
+
+    private static QuerySelect<IndexedTestClass, IndexedTestClass> byRowKey(long userId, long matchId) {
+        return QueryBuilder.builderFor(IndexedTestClass.class).select().add(Restrictions.eq("userId", userId))
+                .add(Restrictions.eq("matchId", matchId)).build();
+    }
+
+    @Test
+    public void testFindAllMultiReportsQueriesPastTheDeadline() {
+        driver.setRoundTripMicros(TimeUnit.MILLISECONDS.toMicros(200));
+        List<QuerySelect<?, ?>> queries = new ArrayList<QuerySelect<?, ?>>();
+        for (int i = 0; i < 3; i++) {
+            queries.add(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                    .add(Restrictions.eq("userId", (long) i)).build());
+        }
+        long start = System.nanoTime();
+        MultiQueryResult result = api.findAllMulti(queries, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 190);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(result.isSuccessful(i));
+        }
+        Assert.assertTrue(result.getError(2).getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    public void testCoalescedReadsAreSharedPerUrlAndTenant() throws Exception {
+        driver.setRoundTripMicros(TimeUnit.MILLISECONDS.toMicros(300));
+        executor.setCoalesceReads(true);
+        final QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder
+                .builderFor(IndexedTestClass.class).select().add(Restrictions.eq("userId", 1L)).build();
+        List<Connection> connections = Arrays.asList(connect("multi", "a"), connect("multi", "a"),
+                connect("multi", "b"), connect("other", "a"));
+        ExecutorService callers = Executors.newFixedThreadPool(connections.size());
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Iterable<IndexedTestClass>>> results = new ArrayList<Future<Iterable<IndexedTestClass>>>();
+            for (final Connection conn : connections) {
+                results.add(callers.submit(new Callable<Iterable<IndexedTestClass>>() {
+                    @Override
+                    public Iterable<IndexedTestClass> call() throws Exception {
+                        start.await();
+                        return executor.find(query, conn);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Iterable<IndexedTestClass>> result : results) {
+                Assert.assertEquals(1L, result.get(5, TimeUnit.SECONDS).iterator().next().getUserId());
+            }
+            // only the two connections to the same url and tenant shared their select
+            Assert.assertEquals(1, executor.getCoalescedReads());
+        } finally {
+            executor.setCoalesceReads(false);
+            callers.shutdownNow();
+            for (Connection conn : connections) {
+                conn.close();
+            }
+        }
+    }
+
+    private static Connection connect(String database, String tenant) throws Exception {
+        Properties info = new Properties();
+        info.setProperty("TenantId", tenant);
+        return DriverManager.getConnection(StubPhoenixDriver.URL_PREFIX + database, info);
+    }
+}
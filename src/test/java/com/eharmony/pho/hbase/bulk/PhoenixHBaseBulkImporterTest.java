@@ -0,0 +1,220 @@
+package com.eharmony.pho.hbase.bulk;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.api.DataStoreException;
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.builder.QueryUpdateBuilder;
+
+public class PhoenixHBaseBulkImporterTest {
+
+    private StubPhoenixDriver driver;
+    private PhoenixHBaseQueryTranslator translator;
+    private PhoenixHBaseBulkImporter importer;
+    private List<String> columns;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = StubPhoenixDriver.register();
+        driver.startRecording();
+        translator = new PhoenixHBaseQueryTranslator(new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(IndexedTestClass.class.getName()))));
+        importer = new PhoenixHBaseBulkImporter(StubPhoenixDriver.URL_PREFIX + "bulk", translator);
+        importer.setRetryBackoffMillis(1);
+        String sql = translator.translateParameterized(QueryUpdateBuilder.builderFor(entity(0, 0)).build()).getSql();
+        columns = Arrays.asList(sql.substring(sql.indexOf('(') + 1, sql.indexOf(')')).split(", "));
+    }
+
+    @After
+    public void tearDown() {
+        driver.reset();
+    }
+
+    @Test
+    public void testRowsOfOneRowKeyGoThroughOneWriterInOrder() {
+        importer.setWriterThreads(3);
+        importer.setBatchSize(2);
+        importer.setCommitSize(4);
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < 40; i++) {
+            entities.add(entity(i % 4, i));
+        }
+
+        BulkImportResult result = importer.importAll(entities.iterator());
+        Assert.assertEquals(40, result.getRowsSubmitted());
+        Assert.assertEquals(40, result.getRowsWritten());
+        Assert.assertEquals(0, result.getRowsFailed());
+        Assert.assertEquals(0, result.getRetries());
+
+        Map<Integer, List<List<Object>>> committed = driver.getCommittedRows();
+        Assert.assertTrue(committed.size() <= 3);
+        Map<Object, Integer> writerOfKey = new HashMap<Object, Integer>();
+        Map<Object, Integer> lastStatusOfKey = new HashMap<Object, Integer>();
+        int rows = 0;
+        for (Map.Entry<Integer, List<List<Object>>> writer : committed.entrySet()) {
+            for (List<Object> row : writer.getValue()) {
+                rows++;
+                List<Object> key = Arrays.asList(row.get(columns.indexOf("uid")), row.get(columns.indexOf("mid")));
+                Integer previousWriter = writerOfKey.put(key, writer.getKey());
+                Assert.assertTrue(previousWriter == null || previousWriter.equals(writer.getKey()));
+                Integer previousStatus = lastStatusOfKey.put(key, status(row));
+                Assert.assertTrue(previousStatus == null || previousStatus < status(row));
+            }
+        }
+        Assert.assertEquals(40, rows);
+        Assert.assertEquals(4, writerOfKey.size());
+    }
+
+    @Test
+    public void testUpsertsOfOneRowWithOtherColumnsKeepInputOrder() {
+        importer.setWriterThreads(1);
+        importer.setBatchSize(10);
+        importer.setCommitSize(10);
+        IndexedTestClass dated = entity(1, 1);
+        dated.setDeliveredDate(new Date(1));
+        IndexedTestClass undated = entity(1, 2);
+        IndexedTestClass datedAgain = entity(1, 3);
+        datedAgain.setDeliveredDate(new Date(3));
+        Assert.assertFalse(translator.translateParameterized(QueryUpdateBuilder.builderFor(dated).build()).getSql()
+                .equals(translator.translateParameterized(QueryUpdateBuilder.builderFor(undated).build()).getSql()));
+
+        BulkImportResult result = importer.importAll(Arrays.<Object> asList(dated, undated, datedAgain).iterator());
+        Assert.assertEquals(3, result.getRowsWritten());
+        List<Integer> statuses = new ArrayList<Integer>();
+        for (List<List<Object>> rows : driver.getCommittedRows().values()) {
+            for (List<Object> row : rows) {
+                // the row key is bound as longs and the date as a date, whatever the column order
+                for (Object value : row) {
+                    if (value instanceof Integer) {
+                        statuses.add((Integer) value);
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(Arrays.asList(1, 2, 3), statuses);
+    }
+
+    @Test
+    public void testFailedCommitWindowIsReplayed() {
+        importer.setWriterThreads(1);
+        importer.setBatchSize(2);
+        importer.setCommitSize(5);
+        importer.setMaxRetries(3);
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            entities.add(entity(i, i));
+        }
+        driver.failNextCommits(2);
+
+        BulkImportResult result = importer.importAll(entities.iterator());
+        Assert.assertEquals(10, result.getRowsWritten());
+        Assert.assertEquals(0, result.getRowsFailed());
+        // the first window failed twice, it is one window replayed
+        Assert.assertEquals(1, result.getRetries());
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), committedStatuses());
+    }
+
+    @Test
+    public void testWindowFailingPastRetriesIsWrittenRowByRow() {
+        importer.setWriterThreads(1);
+        importer.setBatchSize(2);
+        importer.setCommitSize(5);
+        importer.setMaxRetries(1);
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < 5; i++) {
+            entities.add(entity(i, i));
+        }
+        driver.failNextCommits(2);
+
+        BulkImportResult result = importer.importAll(entities.iterator());
+        Assert.assertEquals(5, result.getRowsWritten());
+        Assert.assertEquals(0, result.getRowsFailed());
+        Assert.assertEquals(1, result.getRetries());
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), committedStatuses());
+    }
+
+    @Test
+    public void testOnlyFailingRowsAreReportedInInputOrder() {
+        importer.setWriterThreads(2);
+        importer.setBatchSize(5);
+        importer.setCommitSize(5);
+        importer.setMaxRetries(1);
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < 12; i++) {
+            entities.add(i == 2 ? new Object() : entity(i, i));
+        }
+        driver.setFailingValue(7);
+
+        BulkImportResult result = importer.importAll(entities.iterator());
+        Assert.assertEquals(12, result.getRowsSubmitted());
+        Assert.assertEquals(10, result.getRowsWritten());
+        Assert.assertEquals(2, result.getRowsFailed());
+        Assert.assertEquals(1, result.getRetries());
+        BulkImportError untranslatable = result.getErrors().get(0);
+        Assert.assertEquals(2, untranslatable.getSequence());
+        Assert.assertSame(entities.get(2), untranslatable.getEntity());
+        Assert.assertTrue(untranslatable.getCause() instanceof DataStoreException);
+        BulkImportError rejected = result.getErrors().get(1);
+        Assert.assertEquals(7, rejected.getSequence());
+        Assert.assertTrue(rejected.getCause() instanceof SQLException);
+
+        List<Integer> statuses = committedStatuses();
+        Assert.assertEquals(10, statuses.size());
+        Assert.assertFalse(statuses.contains(7));
+    }
+
+    @Test
+    public void testRowsOfWriterWithoutConnectionAreReported() {
+        importer = new PhoenixHBaseBulkImporter("jdbc:phoenix-unreachable:bulk", translator);
+        importer.setWriterThreads(2);
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < 6; i++) {
+            entities.add(entity(i, i));
+        }
+
+        BulkImportResult result = importer.importAll(entities.iterator());
+        Assert.assertEquals(6, result.getRowsSubmitted());
+        Assert.assertEquals(0, result.getRowsWritten());
+        Assert.assertEquals(6, result.getRowsFailed());
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(i, result.getErrors().get(i).getSequence());
+        }
+    }
+
+    private List<Integer> committedStatuses() {
+        List<Integer> statuses = new ArrayList<Integer>();
+        for (List<List<Object>> rows : driver.getCommittedRows().values()) {
+            for (List<Object> row : rows) {
+                statuses.add(status(row));
+            }
+        }
+        return statuses;
+    }
+
+    private Integer status(List<Object> row) {
+        return (Integer) row.get(columns.indexOf("status"));
+    }
+
+    private static IndexedTestClass entity(long userId, int status) {
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(userId);
+        entity.setMatchId(userId);
+        entity.setStatus(status);
+        return entity;
+    }
+}
@@ -0,0 +1,278 @@
+package com.eharmony.pho.hbase.loadtest;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eharmony.pho.hbase.PhoenixHBaseDataStoreApiImpl;
+import com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper;
+import com.eharmony.pho.hbase.metrics.LatencyHistogram;
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.hbase.query.PhoenixHBaseQueryExecutor;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Restrictions;
+
+/**
+ * Drives a weighted mix of save, saveBatch, findAll and findOne calls through {@link PhoenixHBaseDataStoreApiImpl}
+ * from many threads against {@link StubPhoenixDriver}, and writes throughput and latency percentiles per operation as
+ * JSON. Only the driver is simulated, so the numbers measure pho's own overhead (translation, statement handling and
+ * result mapping) plus the configured round trip time.
+ *
+ * Arguments are <code>key=value</code> pairs, for example:
+ *
+ * <pre>
+ * java -cp ... com.eharmony.pho.hbase.loadtest.PhoenixLoadTest threads=16 durationSeconds=30 \
+ *     mix=save:20,saveBatch:5,findAll:50,findOne:25 roundTripMicros=200 output=run.json label=1.2.0
+ * </pre>
+ */
+public class PhoenixLoadTest {
+
+    static final String SAVE = "save";
+    static final String SAVE_BATCH = "saveBatch";
+    static final String FIND_ALL = "findAll";
+    static final String FIND_ONE = "findOne";
+
+    private final Map<String, String> config = new LinkedHashMap<String, String>();
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<String, AtomicLong>();
+    private final String[] operations;
+    private final int[] cumulativeWeights;
+
+    public PhoenixLoadTest(Map<String, String> overrides) {
+        config.put("label", "");
+        config.put("threads", "8");
+        config.put("warmupSeconds", "2");
+        config.put("durationSeconds", "10");
+        config.put("mix", "save:20,saveBatch:5,findAll:50,findOne:25");
+        config.put("batchSize", "50");
+        config.put("rowsPerQuery", "20");
+        config.put("roundTripMicros", "0");
+        config.put("output", "");
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            if (!config.containsKey(override.getKey())) {
+                throw new IllegalArgumentException("Unknown setting " + override.getKey() + ", expected one of "
+                        + config.keySet());
+            }
+            config.put(override.getKey(), override.getValue());
+        }
+        List<String> names = new ArrayList<String>();
+        List<Integer> weights = new ArrayList<Integer>();
+        int total = 0;
+        for (String entry : config.get("mix").split(",")) {
+            String[] parts = entry.trim().split(":");
+            String name = parts[0].trim();
+            if (!Arrays.asList(SAVE, SAVE_BATCH, FIND_ALL, FIND_ONE).contains(name)) {
+                throw new IllegalArgumentException("Unknown operation " + name);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                total += weight;
+                names.add(name);
+                weights.add(total);
+                latencies.put(name, new LatencyHistogram());
+                errors.put(name, new AtomicLong());
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix is empty");
+        }
+        operations = names.toArray(new String[names.size()]);
+        cumulativeWeights = new int[weights.size()];
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] = weights.get(i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> overrides = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            overrides.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        PhoenixLoadTest loadTest = new PhoenixLoadTest(overrides);
+        String report = loadTest.run();
+        String output = loadTest.config.get("output");
+        if (output.isEmpty()) {
+            System.out.println(report);
+        } else {
+            Writer writer = new FileWriter(output);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Run the configured load and return the JSON report.
+     */
+    public String run() throws Exception {
+        StubPhoenixDriver driver = StubPhoenixDriver.register();
+        driver.setRowsPerQuery(intSetting("rowsPerQuery"));
+        driver.setRoundTripMicros(Long.parseLong(config.get("roundTripMicros")));
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("UID", 1L);
+        row.put("MID", 2L);
+        row.put("STATUS", 1);
+        row.put("DLVRYDT", new Date());
+        driver.setRow(row);
+
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(IndexedTestClass.class.getName())));
+        PhoenixHBaseQueryExecutor executor = new PhoenixHBaseQueryExecutor(new PhoenixHBaseQueryTranslator(
+                resolver), new PhoenixProjectedResultMapper(resolver));
+        executor.setShowSQL(false);
+        final PhoenixHBaseDataStoreApiImpl api = new PhoenixHBaseDataStoreApiImpl(StubPhoenixDriver.URL_PREFIX
+                + "loadtest", executor);
+
+        int threads = intSetting("threads");
+        long start = System.nanoTime();
+        final long measureFrom = start + intSetting("warmupSeconds") * 1000000000L;
+        final long end = measureFrom + intSetting("durationSeconds") * 1000000000L;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            String operation = nextOperation();
+                            boolean failed = false;
+                            try {
+                                execute(api, operation);
+                            } catch (RuntimeException ex) {
+                                failed = true;
+                            }
+                            if (now >= measureFrom) {
+                                latencies.get(operation).record(System.nanoTime() - now);
+                                if (failed) {
+                                    errors.get(operation).incrementAndGet();
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "pho-loadtest-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        return report((System.nanoTime() - measureFrom) / 1e9, driver.getStatementsExecuted());
+    }
+
+    private String nextOperation() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private void execute(PhoenixHBaseDataStoreApiImpl api, String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long userId = random.nextLong(1, 1000000);
+        if (SAVE.equals(operation)) {
+            api.save(entity(userId, random.nextLong(1, 1000)));
+        } else if (SAVE_BATCH.equals(operation)) {
+            int batchSize = intSetting("batchSize");
+            List<IndexedTestClass> batch = new ArrayList<IndexedTestClass>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(entity(userId, i));
+            }
+            api.saveBatch(batch);
+        } else if (FIND_ALL.equals(operation)) {
+            QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                    .select().add(Restrictions.eq("userId", userId)).add(Restrictions.eq("status", 1))
+                    .addOrder(Ordering.desc("deliveredDate")).setMaxResults(intSetting("rowsPerQuery")).build();
+            for (IndexedTestClass match : api.findAll(query)) {
+                match.getMatchId();
+            }
+        } else {
+            QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                    .select().add(Restrictions.eq("userId", userId))
+                    .add(Restrictions.eq("matchId", random.nextLong(1, 1000))).build();
+            api.findOne(query);
+        }
+    }
+
+    private static IndexedTestClass entity(long userId, long matchId) {
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(userId);
+        entity.setMatchId(matchId);
+        entity.setStatus((int) (matchId % 3));
+        entity.setDeliveredDate(new Date());
+        return entity;
+    }
+
+    private int intSetting(String name) {
+        return Integer.parseInt(config.get(name));
+    }
+
+    private String report(double seconds, long statements) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"label\": \"").append(config.get("label").replace("\"", "\\\"")).append("\",\n");
+        json.append("  \"config\": {");
+        String separator = "";
+        for (Map.Entry<String, String> setting : config.entrySet()) {
+            if (!"label".equals(setting.getKey()) && !"output".equals(setting.getKey())) {
+                json.append(separator).append('"').append(setting.getKey()).append("\": \"")
+                        .append(setting.getValue()).append('"');
+                separator = ", ";
+            }
+        }
+        json.append("},\n");
+        json.append("  \"measuredSeconds\": ").append(format(seconds)).append(",\n");
+        json.append("  \"jdbcRoundTrips\": ").append(statements).append(",\n");
+        long totalOps = 0;
+        json.append("  \"operations\": {\n");
+        separator = "";
+        for (Map.Entry<String, LatencyHistogram> operation : latencies.entrySet()) {
+            LatencyHistogram histogram = operation.getValue();
+            totalOps += histogram.getCount();
+            json.append(separator).append("    \"").append(operation.getKey()).append("\": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"errors\": ").append(errors.get(operation.getKey()).get())
+                    .append(", \"throughputPerSec\": ").append(format(histogram.getCount() / seconds))
+                    .append(", \"meanMicros\": ").append(format(histogram.getMeanNanos() / 1000))
+                    .append(", \"p50Micros\": ").append(micros(histogram.getPercentileNanos(50)))
+                    .append(", \"p99Micros\": ").append(micros(histogram.getPercentileNanos(99)))
+                    .append(", \"p999Micros\": ").append(micros(histogram.getPercentileNanos(99.9)))
+                    .append(", \"maxMicros\": ").append(micros(histogram.getMaxNanos())).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        json.append("  \"totalThroughputPerSec\": ").append(format(totalOps / seconds)).append("\n}");
+        return json.toString();
+    }
+
+    private static String micros(long nanos) {
+        return format(nanos / 1000d);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
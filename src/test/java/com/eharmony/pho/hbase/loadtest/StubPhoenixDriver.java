@@ -0,0 +1,509 @@
+package com.eharmony.pho.hbase.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In process stand-in for the phoenix JDBC driver, accepting <code>jdbc:phoenix-stub:</code> urls. Connections,
+ * statements and result sets are dynamic proxies: updates report one row written, queries return
+ * <code>rowsPerQuery</code> copies of a configured row, and every round trip can be delayed to simulate server time.
+ * The full pho stack (translator, executor, mapper) runs unchanged on top of it.
+ *
+ * Writes can be made to fail: the next commits, or every prepared update binding a given value. While recording, the
+ * parameters of the prepared updates are kept per connection once committed, and dropped on rollback.
+ */
+public class StubPhoenixDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:phoenix-stub:";
+
+    private static final StubPhoenixDriver INSTANCE = new StubPhoenixDriver();
+    private static volatile boolean registered;
+
+    private final Map<String, Object> row = new LinkedHashMap<String, Object>();
+    private final Map<String, Map<String, Object>> rowsBySqlPrefix = new LinkedHashMap<String, Map<String, Object>>();
+    private volatile int rowsPerQuery = 10;
+    private volatile long roundTripMicros;
+    private final AtomicLong statementsExecuted = new AtomicLong();
+    private final AtomicLong statementsPrepared = new AtomicLong();
+    private final AtomicLong openStatements = new AtomicLong();
+    private volatile String lastUpdate;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger failingCommits = new AtomicInteger();
+    private volatile Object failingValue;
+    private volatile boolean recording;
+    private final Map<Integer, List<List<Object>>> committedRows = new TreeMap<Integer, List<List<Object>>>();
+
+    public static synchronized StubPhoenixDriver register() throws SQLException {
+        if (!registered) {
+            DriverManager.registerDriver(INSTANCE);
+            registered = true;
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Set the columns of every returned row, keyed by store column name.
+     */
+    public synchronized void setRow(Map<String, Object> columns) {
+        row.clear();
+        row.putAll(columns);
+    }
+
+    /**
+     * Set the columns of the rows returned for statements starting with the given sql, null restores the default row.
+     */
+    public synchronized void setRow(String sqlPrefix, Map<String, Object> columns) {
+        if (columns == null) {
+            rowsBySqlPrefix.remove(sqlPrefix);
+        } else {
+            rowsBySqlPrefix.put(sqlPrefix, new LinkedHashMap<String, Object>(columns));
+        }
+    }
+
+    public void setRowsPerQuery(int rowsPerQuery) {
+        this.rowsPerQuery = rowsPerQuery;
+    }
+
+    public void setRoundTripMicros(long roundTripMicros) {
+        this.roundTripMicros = roundTripMicros;
+    }
+
+    public long getStatementsExecuted() {
+        return statementsExecuted.get();
+    }
+
+    /**
+     * @return the number of statements prepared
+     */
+    public long getStatementsPrepared() {
+        return statementsPrepared.get();
+    }
+
+    /**
+     * @return the number of statements created and not closed yet
+     */
+    public long getOpenStatements() {
+        return openStatements.get();
+    }
+
+    /**
+     * @return the sql of the last executed update
+     */
+    public String getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * Fail the next commits with an {@link SQLException}, the rows of a failed commit are dropped.
+     */
+    public void failNextCommits(int count) {
+        failingCommits.set(count);
+    }
+
+    /**
+     * Fail every prepared update and batch binding the given value, null fails none.
+     */
+    public void setFailingValue(Object value) {
+        failingValue = value;
+    }
+
+    /**
+     * Drop the rows recorded so far and record the rows committed from now on.
+     */
+    public synchronized void startRecording() {
+        committedRows.clear();
+        recording = true;
+    }
+
+    /**
+     * Stop recording, and clear the recorded rows and the configured failures.
+     */
+    public synchronized void reset() {
+        recording = false;
+        committedRows.clear();
+        failingCommits.set(0);
+        failingValue = null;
+    }
+
+    /**
+     * @return the bound parameters of the committed updates, in commit order, by connection number
+     */
+    public synchronized Map<Integer, List<List<Object>>> getCommittedRows() {
+        Map<Integer, List<List<Object>>> rows = new TreeMap<Integer, List<List<Object>>>();
+        for (Map.Entry<Integer, List<List<Object>>> connection : committedRows.entrySet()) {
+            rows.put(connection.getKey(), new ArrayList<List<Object>>(connection.getValue()));
+        }
+        return rows;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        return proxy(Connection.class, new ConnectionHandler(connections.incrementAndGet(), url, info));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private void roundTrip() {
+        statementsExecuted.incrementAndGet();
+        long micros = roundTripMicros;
+        if (micros > 0) {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+            if (micros >= 1000) {
+                try {
+                    TimeUnit.MICROSECONDS.sleep(micros);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            while (System.nanoTime() < deadline) {
+                // spin for the sub millisecond remainder
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubPhoenixDriver.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == void.class || !type.isPrimitive()) {
+            return null;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        return (char) 0;
+    }
+
+    private static String sqlArgument(Object[] args, String defaultSql) {
+        return args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : defaultSql;
+    }
+
+    private abstract static class Handler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return getClass().getSimpleName();
+            }
+            return handle(name, method, args);
+        }
+
+        protected Object handle(String name, Method method, Object[] args) throws SQLException {
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private final class ConnectionHandler extends Handler {
+
+        private final int number;
+        private final String url;
+        private final Properties info;
+        private final List<List<Object>> uncommitted = Collections.synchronizedList(new ArrayList<List<Object>>());
+        private volatile boolean closed;
+
+        private ConnectionHandler(int number, String url, Properties info) {
+            this.number = number;
+            this.url = url;
+            this.info = info;
+        }
+
+        @Override
+        protected Object handle(String name, Method method, Object[] args) throws SQLException {
+            if ("createStatement".equals(name) || "prepareStatement".equals(name)) {
+                Class<? extends Statement> type = "prepareStatement".equals(name) ? PreparedStatement.class
+                        : Statement.class;
+                if (type == PreparedStatement.class) {
+                    statementsPrepared.incrementAndGet();
+                }
+                openStatements.incrementAndGet();
+                return proxy(type, new StatementHandler(this, sqlArgument(args, null)));
+            }
+            if ("commit".equals(name)) {
+                roundTrip();
+                List<List<Object>> rows;
+                synchronized (uncommitted) {
+                    rows = new ArrayList<List<Object>>(uncommitted);
+                    uncommitted.clear();
+                }
+                if (takeFailingCommit()) {
+                    throw new SQLException("stub commit failure");
+                }
+                record(number, rows);
+                return null;
+            }
+            if ("rollback".equals(name)) {
+                uncommitted.clear();
+                return null;
+            }
+            if ("close".equals(name)) {
+                closed = true;
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return closed;
+            }
+            if ("getAutoCommit".equals(name)) {
+                return false;
+            }
+            if ("getMetaData".equals(name)) {
+                return proxy(DatabaseMetaData.class, new Handler() {
+                    @Override
+                    protected Object handle(String name, Method method, Object[] args) throws SQLException {
+                        return "getURL".equals(name) ? url : super.handle(name, method, args);
+                    }
+                });
+            }
+            if ("getClientInfo".equals(name) && args != null && args.length == 1) {
+                return info != null ? info.getProperty((String) args[0]) : null;
+            }
+            return super.handle(name, method, args);
+        }
+    }
+
+    private boolean takeFailingCommit() {
+        int remaining;
+        do {
+            remaining = failingCommits.get();
+            if (remaining <= 0) {
+                return false;
+            }
+        } while (!failingCommits.compareAndSet(remaining, remaining - 1));
+        return true;
+    }
+
+    private synchronized void record(int connection, List<List<Object>> rows) {
+        if (!recording || rows.isEmpty()) {
+            return;
+        }
+        List<List<Object>> committed = committedRows.get(connection);
+        if (committed == null) {
+            committed = new ArrayList<List<Object>>();
+            committedRows.put(connection, committed);
+        }
+        committed.addAll(rows);
+    }
+
+    private final class StatementHandler extends Handler {
+
+        private final ConnectionHandler connection;
+        private final String preparedSql;
+        private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+        private final List<List<Object>> batch = new ArrayList<List<Object>>();
+        private volatile boolean closed;
+
+        private StatementHandler(ConnectionHandler connection, String preparedSql) {
+            this.connection = connection;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        protected Object handle(String name, Method method, Object[] args) throws SQLException {
+            if ("executeQuery".equals(name)) {
+                roundTrip();
+                return proxy(ResultSet.class, new ResultSetHandler(sqlArgument(args, preparedSql)));
+            }
+            if ("executeUpdate".equals(name)) {
+                roundTrip();
+                lastUpdate = sqlArgument(args, preparedSql);
+                if (preparedSql != null) {
+                    List<Object> row = new ArrayList<Object>(parameters.values());
+                    checkFailing(row);
+                    connection.uncommitted.add(row);
+                }
+                return 1;
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], args[1]);
+                return null;
+            }
+            if ("close".equals(name)) {
+                if (!closed) {
+                    closed = true;
+                    openStatements.decrementAndGet();
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return closed;
+            }
+            if ("clearParameters".equals(name)) {
+                parameters.clear();
+                return null;
+            }
+            if ("addBatch".equals(name)) {
+                batch.add(new ArrayList<Object>(parameters.values()));
+                return null;
+            }
+            if ("clearBatch".equals(name)) {
+                batch.clear();
+                return null;
+            }
+            if ("executeBatch".equals(name)) {
+                roundTrip();
+                List<List<Object>> rows = new ArrayList<List<Object>>(batch);
+                batch.clear();
+                for (List<Object> row : rows) {
+                    checkFailing(row);
+                }
+                connection.uncommitted.addAll(rows);
+                int[] counts = new int[rows.size()];
+                Arrays.fill(counts, 1);
+                return counts;
+            }
+            return super.handle(name, method, args);
+        }
+
+        private void checkFailing(List<Object> row) throws SQLException {
+            Object failing = failingValue;
+            if (failing != null && row.contains(failing)) {
+                throw new SQLException("stub update failure on " + failing);
+            }
+        }
+    }
+
+    private final class ResultSetHandler extends Handler {
+
+        private final List<String> columns;
+        private final Map<String, Object> values;
+        private int remaining = rowsPerQuery;
+        private boolean wasNull;
+
+        private ResultSetHandler(String sql) {
+            synchronized (StubPhoenixDriver.this) {
+                Map<String, Object> matching = row;
+                for (Map.Entry<String, Map<String, Object>> entry : rowsBySqlPrefix.entrySet()) {
+                    if (sql != null && sql.startsWith(entry.getKey())) {
+                        matching = entry.getValue();
+                        break;
+                    }
+                }
+                values = new LinkedHashMap<String, Object>(matching);
+            }
+            columns = new ArrayList<String>(values.keySet());
+        }
+
+        @Override
+        protected Object handle(String name, Method method, Object[] args) throws SQLException {
+            if ("next".equals(name)) {
+                return remaining-- > 0;
+            }
+            if ("getObject".equals(name) || "getLong".equals(name) || "getInt".equals(name)
+                    || "getDouble".equals(name) || "getString".equals(name)) {
+                Object column = args[0];
+                Object value = column instanceof Integer ? values.get(columns.get((Integer) column - 1))
+                        : values.get(column.toString().toUpperCase());
+                wasNull = value == null;
+                if ("getLong".equals(name)) {
+                    return value instanceof Number ? ((Number) value).longValue() : 0L;
+                } else if ("getInt".equals(name)) {
+                    return value instanceof Number ? ((Number) value).intValue() : 0;
+                } else if ("getDouble".equals(name)) {
+                    return value instanceof Number ? ((Number) value).doubleValue() : 0d;
+                } else if ("getString".equals(name)) {
+                    return value == null ? null : value.toString();
+                }
+                return value;
+            }
+            if ("wasNull".equals(name)) {
+                return wasNull;
+            }
+            if ("getMetaData".equals(name)) {
+                return proxy(ResultSetMetaData.class, new Handler() {
+                    @Override
+                    protected Object handle(String name, Method method, Object[] args) throws SQLException {
+                        if ("getColumnCount".equals(name)) {
+                            return columns.size();
+                        }
+                        if ("getColumnName".equals(name) || "getColumnLabel".equals(name)) {
+                            return columns.get((Integer) args[0] - 1);
+                        }
+                        return super.handle(name, method, args);
+                    }
+                });
+            }
+            return super.handle(name, method, args);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.eharmony.pho.hbase.mapper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.mapper.EntityChangeTracker;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.mapper.EntityPropertyBinding;
+
+public class EntityChangeTrackerTest {
+
+    private EntityPropertiesResolver resolver;
+    private EntityChangeTracker tracker;
+
+    @Before
+    public void setUp() throws ClassNotFoundException {
+        EntityPropertiesMappingContext context = new EntityPropertiesMappingContext(
+                Arrays.asList("com.eharmony.pho.hbase.model.IndexedTestClass"));
+        resolver = new EntityPropertiesResolver(context);
+        tracker = new EntityChangeTracker(resolver);
+    }
+
+    @Test
+    public void testRowKeyBindingsAreOrdered() {
+        List<EntityPropertyBinding> rowKey = resolver.getRowKeyPropertyBindings(IndexedTestClass.class);
+        Assert.assertEquals(2, rowKey.size());
+        Assert.assertEquals("userId", rowKey.get(0).getName());
+        Assert.assertEquals("matchId", rowKey.get(1).getName());
+    }
+
+    @Test
+    public void testUntrackedEntity() {
+        Assert.assertNull(tracker.changedProperties(new IndexedTestClass()));
+    }
+
+    @Test
+    public void testChangedProperties() {
+        IndexedTestClass entity = buildEntity();
+        tracker.snapshot(entity);
+        Assert.assertEquals(Collections.emptyList(), tracker.changedProperties(entity));
+
+        entity.setStatus(3);
+        Assert.assertEquals(Arrays.asList("status"), tracker.changedProperties(entity));
+    }
+
+    @Test
+    public void testMutatedDateIsDetected() {
+        IndexedTestClass entity = buildEntity();
+        tracker.snapshot(entity);
+        entity.getDeliveredDate().setTime(0L);
+        Assert.assertEquals(Arrays.asList("deliveredDate"), tracker.changedProperties(entity));
+    }
+
+    private IndexedTestClass buildEntity() {
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(1L);
+        entity.setMatchId(2L);
+        entity.setStatus(2);
+        entity.setDeliveredDate(new Date(1000L));
+        return entity;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.eharmony.pho.hbase.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        assertWithin(5000000, histogram.getPercentileNanos(50));
+        assertWithin(9900000, histogram.getPercentileNanos(99));
+        assertWithin(9990000, histogram.getPercentileNanos(99.9));
+        Assert.assertEquals(10000000, histogram.getMaxNanos());
+        Assert.assertEquals(5000500, histogram.getMeanNanos(), 0.001);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        Assert.assertEquals(3, histogram.getPercentileNanos(50));
+        Assert.assertEquals(7, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(100);
+        b.record(Long.MAX_VALUE);
+        a.add(b);
+        Assert.assertEquals(2, a.getCount());
+        Assert.assertEquals(Long.MAX_VALUE, a.getPercentileNanos(100));
+        a.reset();
+        Assert.assertEquals(0, a.getCount());
+        Assert.assertEquals(0, a.getPercentileNanos(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected * 0.035);
+    }
+}
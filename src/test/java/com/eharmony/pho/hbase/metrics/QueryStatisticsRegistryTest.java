@@ -0,0 +1,49 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryStatisticsRegistryTest {
+
+    @Test
+    public void testFingerprintRemovesLiterals() {
+        Assert.assertEquals("SELECT * FROM user WHERE uid = ? AND fname = ? AND col1 IN (?) LIMIT ?",
+                SqlFingerprint.of("SELECT *  FROM user WHERE uid = 42 AND fname = 'O''Brien'\n"
+                        + " AND col1 IN (1, 2,3) LIMIT 10"));
+        Assert.assertEquals(SqlFingerprint.of("UPSERT INTO t(a, b) values (1, 'x')"),
+                SqlFingerprint.of("UPSERT INTO t(a, b) values (2.5, 'yy')"));
+    }
+
+    @Test
+    public void testTopQueriesByTotalTime() {
+        QueryStatisticsRegistry registry = new QueryStatisticsRegistry();
+        registry.record("SELECT * FROM t WHERE a = 1", 1000000, 3, false);
+        registry.record("SELECT * FROM t WHERE a = 2", 2000000, 2, false);
+        registry.record("SELECT * FROM u WHERE b = 'x'", 500000, 0, true);
+
+        List<QueryStatisticsSnapshot> top = registry.getTopQueries(1);
+        Assert.assertEquals(1, top.size());
+        Assert.assertEquals("SELECT * FROM t WHERE a = ?", top.get(0).getFingerprint());
+        Assert.assertEquals(2, top.get(0).getCalls());
+        Assert.assertEquals(5, top.get(0).getRows());
+        Assert.assertEquals(3.0, top.get(0).getTotalMillis(), 0.0001);
+        Assert.assertEquals(1, registry.getStatistics("SELECT * FROM u WHERE b = ?").getErrors());
+
+        registry.reset();
+        Assert.assertEquals(0, registry.getFingerprintCount());
+    }
+
+    @Test
+    public void testFingerprintsAreBounded() {
+        QueryStatisticsRegistry registry = new QueryStatisticsRegistry();
+        registry.setMaxFingerprints(2);
+        registry.record("SELECT a FROM t", 1, 0, false);
+        registry.record("SELECT b FROM t", 1, 0, false);
+        registry.record("SELECT c FROM t", 1, 0, false);
+        registry.record("SELECT d FROM t", 1, 0, false);
+        Assert.assertEquals(3, registry.getFingerprintCount());
+        Assert.assertEquals(2, registry.getStatistics(QueryStatisticsRegistry.OTHER_FINGERPRINT).getCalls());
+    }
+}
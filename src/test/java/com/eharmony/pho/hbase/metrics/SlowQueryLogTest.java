@@ -0,0 +1,51 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlowQueryLogTest {
+
+    private static final long MILLI = 1000000;
+
+    @Test
+    public void testOnlySlowExecutionsAreKept() {
+        SlowQueryLog slowQueries = new SlowQueryLog(4);
+        slowQueries.setThresholdMillis(10);
+        slowQueries.record("SELECT * FROM t WHERE a = 1", String.class, "select", MILLI, 2 * MILLI, MILLI,
+                4 * MILLI, 1, 0, false);
+        slowQueries.record("SELECT * FROM t WHERE a = 2", String.class, "select", MILLI, 20 * MILLI, 3 * MILLI,
+                24 * MILLI, 7, 0, false);
+
+        List<SlowQuery> recorded = slowQueries.getSlowQueries();
+        Assert.assertEquals(1, recorded.size());
+        SlowQuery slow = recorded.get(0);
+        Assert.assertEquals("SELECT * FROM t WHERE a = 2", slow.getSql());
+        Assert.assertEquals("java.lang.String", slow.getEntityClass());
+        Assert.assertEquals(20.0, slow.getExecuteMillis(), 0.0001);
+        Assert.assertEquals(24.0, slow.getTotalMillis(), 0.0001);
+        Assert.assertEquals(7, slow.getRows());
+        Assert.assertEquals(Thread.currentThread().getName(), slow.getThread());
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecentFirst() {
+        SlowQueryLog slowQueries = new SlowQueryLog(3);
+        slowQueries.setThresholdMillis(0);
+        slowQueries.setRedactLiterals(true);
+        for (int i = 1; i <= 5; i++) {
+            slowQueries.record("UPSERT INTO t(a) VALUES (" + i + ")", null, "upsert", 0, 0, 0, i * MILLI, 1, 0,
+                    false);
+        }
+        List<SlowQuery> recorded = slowQueries.getSlowQueries();
+        Assert.assertEquals(3, recorded.size());
+        Assert.assertEquals(5.0, recorded.get(0).getTotalMillis(), 0.0001);
+        Assert.assertEquals(3.0, recorded.get(2).getTotalMillis(), 0.0001);
+        Assert.assertEquals("UPSERT INTO t(a) VALUES (?)", recorded.get(0).getSql());
+        Assert.assertEquals(5, slowQueries.getRecordedCount());
+
+        slowQueries.clear();
+        Assert.assertTrue(slowQueries.getSlowQueries().isEmpty());
+    }
+}
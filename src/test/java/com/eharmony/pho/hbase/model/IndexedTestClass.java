@@ -0,0 +1,61 @@
+package com.eharmony.pho.hbase.model;
+
+import java.util.Date;
+
+import com.eharmony.pho.mapper.annotation.RowKey;
+import com.eharmony.pho.mapper.annotation.SecondaryIndex;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Property;
+
+@Entity(value = "matches")
+@SecondaryIndex(name = "IDX_STATUS_DATE", indexed = { "status", "deliveredDate" })
+@SecondaryIndex(name = "IDX_MATCH", indexed = { "matchId" }, covered = { "status" })
+public class IndexedTestClass {
+
+    @RowKey(order = 0)
+    @Property(value = "uid")
+    private long userId;
+
+    @RowKey(order = 1)
+    @Property(value = "mid")
+    private long matchId;
+
+    @Property(value = "status")
+    private int status;
+
+    @Property(value = "dlvrydt")
+    private Date deliveredDate;
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(long userId) {
+        this.userId = userId;
+    }
+
+    public long getMatchId() {
+        return matchId;
+    }
+
+    public void setMatchId(long matchId) {
+        this.matchId = matchId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Date getDeliveredDate() {
+        return deliveredDate;
+    }
+
+    public void setDeliveredDate(Date deliveredDate) {
+        this.deliveredDate = deliveredDate;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.eharmony.pho.hbase.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import com.eharmony.pho.mapper.annotation.RowKey;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Property;
+
+@Entity(value = "ledger")
+public class LedgerTestClass {
+
+    @RowKey(order = 0)
+    @Property(value = "acct")
+    private String account;
+
+    @RowKey(order = 1)
+    @Property(value = "seq")
+    private BigInteger sequence;
+
+    @RowKey(order = 2)
+    @Property(value = "amt")
+    private BigDecimal amount;
+
+    @Property(value = "note")
+    private String note;
+
+    public String getAccount() {
+        return account;
+    }
+
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    public BigInteger getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(BigInteger sequence) {
+        this.sequence = sequence;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getNote() {
+        return note;
+    }
+
+    public void setNote(String note) {
+        this.note = note;
+    }
+}
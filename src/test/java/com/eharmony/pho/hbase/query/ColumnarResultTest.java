@@ -0,0 +1,94 @@
+package com.eharmony.pho.hbase.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+import com.eharmony.pho.hbase.query.ColumnarResult.ColumnType;
+
+public class ColumnarResultTest {
+
+    private static final String SELECT = "SELECT id, amount FROM ledger";
+
+    private StubPhoenixDriver driver;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = StubPhoenixDriver.register();
+        conn = DriverManager.getConnection(StubPhoenixDriver.URL_PREFIX + "columns");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.setRow(SELECT, null);
+        driver.setRowsPerQuery(2);
+        conn.close();
+    }
+
+    @Test
+    public void testDecimalsAreStoredAsObjects() {
+        Assert.assertEquals(ColumnType.OBJECT, ColumnType.of(BigDecimal.class, Types.DECIMAL));
+        Assert.assertEquals(ColumnType.OBJECT, ColumnType.of(BigInteger.class, Types.DECIMAL));
+        Assert.assertEquals(ColumnType.OBJECT, ColumnType.of(null, Types.DECIMAL));
+        Assert.assertEquals(ColumnType.OBJECT, ColumnType.of(null, Types.NUMERIC));
+        Assert.assertEquals(ColumnType.LONG, ColumnType.of(Long.class, Types.DECIMAL));
+        Assert.assertEquals(ColumnType.DOUBLE, ColumnType.of(null, Types.DOUBLE));
+    }
+
+    @Test
+    public void testDecimalValuesAreNotRounded() throws Exception {
+        BigDecimal amount = new BigDecimal("12345678901234567890.123456789");
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("ID", 7L);
+        row.put("AMOUNT", amount);
+        driver.setRow(SELECT, row);
+        driver.setRowsPerQuery(3);
+
+        ColumnarResult result = read(Integer.MAX_VALUE);
+        Assert.assertEquals(3, result.getRowCount());
+        Assert.assertEquals(7L, result.getLongColumn("id").getLong(2));
+        Assert.assertEquals(amount, result.getColumn("amount").get(2));
+    }
+
+    @Test
+    public void testColumnsGrowPastTheInitialCapacity() throws Exception {
+        Assert.assertEquals(16, ColumnarResult.initialCapacity(0));
+        Assert.assertEquals(ColumnarResult.MAX_INITIAL_CAPACITY, ColumnarResult.initialCapacity(Integer.MAX_VALUE));
+
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("ID", 7L);
+        row.put("AMOUNT", null);
+        driver.setRow(SELECT, row);
+        driver.setRowsPerQuery(ColumnarResult.MAX_INITIAL_CAPACITY * 3);
+
+        ColumnarResult result = read(Integer.MAX_VALUE);
+        Assert.assertEquals(ColumnarResult.MAX_INITIAL_CAPACITY * 3, result.getRowCount());
+        Assert.assertEquals(result.getRowCount(), result.getLongColumn("id").values().length);
+        Assert.assertEquals(result.getRowCount(), result.getColumn("amount").getNullCount());
+    }
+
+    private ColumnarResult read(int expectedRows) throws Exception {
+        Statement statement = conn.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(SELECT);
+            return ColumnarResult.read(resultSet, new String[] { "id", "amount" },
+                    new ColumnType[] { ColumnType.of(Long.class, Types.BIGINT),
+                            ColumnType.of(BigDecimal.class, Types.DECIMAL) }, expectedRows);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.eharmony.pho.hbase.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+import com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper;
+import com.eharmony.pho.hbase.model.LedgerTestClass;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+
+public class PhoenixBatchLoaderTest {
+
+    private static final String SELECT = "SELECT * FROM ledger";
+
+    private StubPhoenixDriver driver;
+    private PhoenixBatchLoader<LedgerTestClass> loader;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = StubPhoenixDriver.register();
+        driver.setRowsPerQuery(1);
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("ACCT", "a-1");
+        row.put("SEQ", BigInteger.valueOf(12));
+        row.put("AMT", new BigDecimal("1.50"));
+        driver.setRow(SELECT, row);
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(LedgerTestClass.class.getName())));
+        PhoenixHBaseQueryExecutor executor = new PhoenixHBaseQueryExecutor(new PhoenixHBaseQueryTranslator(
+                resolver), new PhoenixProjectedResultMapper(resolver));
+        loader = new PhoenixBatchLoader<LedgerTestClass>(LedgerTestClass.class,
+                StubPhoenixDriver.URL_PREFIX + "ledger", executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loader.close();
+        driver.setRow(SELECT, null);
+        driver.setRowsPerQuery(10);
+    }
+
+    @Test
+    public void testDecimalKeysMatchWhateverTheirScale() throws Exception {
+        CompletableFuture<LedgerTestClass> scaled = loader.load("a-1", BigInteger.valueOf(12),
+                new BigDecimal("1.5"));
+        CompletableFuture<LedgerTestClass> same = loader.load("a-1", BigInteger.valueOf(12),
+                new BigDecimal("1.500"));
+        loader.flush();
+        LedgerTestClass entry = scaled.get(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(0, new BigDecimal("1.5").compareTo(entry.getAmount()));
+        Assert.assertSame(entry, same.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,98 @@
+package com.eharmony.pho.hbase.query;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+
+public class PreparedStatementCacheTest {
+
+    private PreparedStatementCache cache;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        StubPhoenixDriver.register();
+        cache = new PreparedStatementCache();
+        conn = connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.release(conn);
+        conn.close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatementIsClosed() throws Exception {
+        cache.setMaxStatementsPerConnection(2);
+        PreparedStatement a = prepare(conn, "a");
+        PreparedStatement b = prepare(conn, "b");
+        Assert.assertSame(a, cache.get(conn, "a"));
+        PreparedStatement c = prepare(conn, "c");
+
+        Assert.assertTrue(b.isClosed());
+        Assert.assertNull(cache.get(conn, "b"));
+        Assert.assertSame(a, cache.get(conn, "a"));
+        Assert.assertSame(c, cache.get(conn, "c"));
+        Assert.assertFalse(a.isClosed() || c.isClosed());
+    }
+
+    @Test
+    public void testClosedStatementIsEvicted() throws Exception {
+        PreparedStatement a = prepare(conn, "a");
+        a.close();
+        Assert.assertNull(cache.get(conn, "a"));
+
+        PreparedStatement again = prepare(conn, "a");
+        Assert.assertSame(again, cache.get(conn, "a"));
+    }
+
+    @Test
+    public void testReleasedAndClosedConnectionsDropTheirStatements() throws Exception {
+        Connection released = connect();
+        Connection closed = connect();
+        PreparedStatement ofReleased = prepare(released, "a");
+        PreparedStatement ofClosed = prepare(closed, "a");
+        prepare(conn, "a");
+        Assert.assertEquals(3, cache.getConnectionCount());
+
+        cache.release(released);
+        released.close();
+        Assert.assertTrue(ofReleased.isClosed());
+        Assert.assertNull(cache.get(released, "a"));
+        Assert.assertEquals(2, cache.getConnectionCount());
+
+        // a connection closed without release is dropped by the next statement cached
+        closed.close();
+        prepare(conn, "b");
+        Assert.assertEquals(1, cache.getConnectionCount());
+        Assert.assertTrue(ofClosed.isClosed());
+    }
+
+    @Test
+    public void testDisabledCacheLeavesStatementsToTheCaller() throws Exception {
+        cache.setMaxStatementsPerConnection(0);
+        PreparedStatement a = conn.prepareStatement("a");
+        Assert.assertFalse(cache.put(conn, "a", a));
+        Assert.assertNull(cache.get(conn, "a"));
+        Assert.assertEquals(0, cache.getConnectionCount());
+        a.close();
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql) throws Exception {
+        PreparedStatement ps = connection.prepareStatement(sql);
+        Assert.assertTrue(cache.put(connection, sql, ps));
+        return ps;
+    }
+
+    private static Connection connect() throws Exception {
+        return DriverManager.getConnection(StubPhoenixDriver.URL_PREFIX + "cache");
+    }
+}
@@ -0,0 +1,93 @@
+package com.eharmony.pho.hbase.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.loadtest.StubPhoenixDriver;
+import com.eharmony.pho.hbase.mapper.PhoenixProjectedResultMapper;
+import com.eharmony.pho.hbase.model.LedgerTestClass;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Restrictions;
+
+public class RowKeyBloomFilterTest {
+
+    private static final String SCAN = "SELECT acct, seq, amt FROM ledger";
+
+    private StubPhoenixDriver driver;
+    private RowKeyBloomFilter filter;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = StubPhoenixDriver.register();
+        driver.setRowsPerQuery(1);
+        // decimal columns are read back as BigDecimal whatever the type of their property
+        Map<String, Object> key = new LinkedHashMap<String, Object>();
+        key.put("ACCT", "a-1");
+        key.put("SEQ", new BigDecimal("12"));
+        key.put("AMT", new BigDecimal("1.50"));
+        driver.setRow(SCAN, key);
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(LedgerTestClass.class.getName())));
+        PhoenixHBaseQueryExecutor executor = new PhoenixHBaseQueryExecutor(new PhoenixHBaseQueryTranslator(
+                resolver), new PhoenixProjectedResultMapper(resolver));
+        filter = new RowKeyBloomFilter(LedgerTestClass.class,
+                resolver.getRowKeyPropertyBindings(LedgerTestClass.class), 1000, 0.001);
+        conn = DriverManager.getConnection(StubPhoenixDriver.URL_PREFIX + "ledger");
+        Assert.assertEquals(1, filter.rebuild(executor, conn));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.setRow(SCAN, null);
+        driver.setRowsPerQuery(10);
+        conn.close();
+    }
+
+    @Test
+    public void testScannedDecimalKeysMatchQueryValuesOfAnyNumberType() {
+        Assert.assertTrue(filter.mightMatch(byKey("a-1", new BigInteger("12"), new BigDecimal("1.5"))));
+        Assert.assertTrue(filter.mightMatch(byKey("a-1", 12L, new BigDecimal("1.500"))));
+        Assert.assertTrue(filter.mightMatch(byKey("a-1", 12, 1.5d)));
+        Assert.assertFalse(filter.mightMatch(byKey("a-1", new BigInteger("13"), new BigDecimal("1.5"))));
+        Assert.assertFalse(filter.mightMatch(byKey("a-2", new BigInteger("12"), new BigDecimal("1.5"))));
+        Assert.assertEquals(2, filter.getSkippedLookups());
+
+        // values that can not be compared to the property are not filtered
+        Assert.assertTrue(filter.mightMatch(byKey("a-2", "12", new BigDecimal("1.5"))));
+        Assert.assertEquals(5, filter.getCheckedLookups());
+    }
+
+    @Test
+    public void testSavedDecimalKeysMatchQueries() {
+        LedgerTestClass saved = new LedgerTestClass();
+        saved.setAccount("a-2");
+        saved.setSequence(new BigInteger("40000000000000000000"));
+        saved.setAmount(new BigDecimal("100"));
+        Assert.assertFalse(filter.mightMatch(byKey("a-2", new BigDecimal("4E+19"), new BigDecimal("1E+2"))));
+        filter.put(saved);
+
+        Assert.assertTrue(filter.mightMatch(byKey("a-2", new BigDecimal("4E+19"), new BigDecimal("1E+2"))));
+        Assert.assertTrue(filter.mightMatch(byKey("a-2", new BigInteger("40000000000000000000"), 100L)));
+    }
+
+    private static QuerySelect<LedgerTestClass, LedgerTestClass> byKey(String account, Object sequence,
+            Object amount) {
+        return QueryBuilder.builderFor(LedgerTestClass.class).select().add(Restrictions.eq("account", account))
+                .add(Restrictions.eq("sequence", sequence)).add(Restrictions.eq("amount", amount)).build();
+    }
+}
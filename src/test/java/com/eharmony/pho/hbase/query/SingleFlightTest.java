@@ -0,0 +1,112 @@
+package com.eharmony.pho.hbase.query;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private ExecutorService callers;
+    private SingleFlight<String, String> flights;
+    private AtomicInteger calls;
+    private CountDownLatch started;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        callers = Executors.newFixedThreadPool(5);
+        flights = new SingleFlight<String, String>();
+        calls = new AtomicInteger();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        List<Future<String>> results = callConcurrently(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return "row " + calls.incrementAndGet();
+            }
+        });
+        for (Future<String> result : results) {
+            Assert.assertEquals("row 1", result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(4, flights.getShared());
+        Assert.assertEquals(0, flights.getInFlight());
+
+        // nothing is kept once the call completed
+        Assert.assertEquals("again", flights.execute("key", new Callable<String>() {
+            @Override
+            public String call() {
+                return "again";
+            }
+        }));
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheException() throws Exception {
+        List<Future<String>> results = callConcurrently(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                calls.incrementAndGet();
+                throw new SQLException("region unavailable");
+            }
+        });
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the exception of the shared call");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof SQLException);
+                Assert.assertEquals("region unavailable", ex.getCause().getMessage());
+            }
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(0, flights.getInFlight());
+    }
+
+    private List<Future<String>> callConcurrently(final Callable<String> call) throws Exception {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        Callable<String> caller = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flights.execute("key", call);
+            }
+        };
+        results.add(callers.submit(caller));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            results.add(callers.submit(caller));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flights.getShared() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        return results;
+    }
+}
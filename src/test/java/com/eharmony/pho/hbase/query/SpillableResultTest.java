@@ -0,0 +1,150 @@
+package com.eharmony.pho.hbase.query;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.mapper.EntityBinaryCodec;
+import com.eharmony.pho.hbase.model.TranslationTestClass;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.mapper.annotation.RowKey;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Property;
+
+public class SpillableResultTest {
+
+    @Entity(value = "postings")
+    public static class Posting {
+
+        @RowKey(order = 0)
+        @Property(value = "id")
+        private long id;
+
+        @Property(value = "pstdat")
+        private Timestamp postedAt;
+    }
+
+    private EntityBinaryCodec<TranslationTestClass> codec;
+
+    @Before
+    public void setUp() throws ClassNotFoundException {
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(TranslationTestClass.class.getName())));
+        codec = EntityBinaryCodec.forEntity(TranslationTestClass.class, resolver);
+    }
+
+    private static TranslationTestClass user(int userId, String name) {
+        TranslationTestClass user = new TranslationTestClass();
+        user.setUserId(userId);
+        user.setName(name);
+        user.setCreatedAt(name == null ? null : new Date(1000L * userId));
+        return user;
+    }
+
+    @Test
+    public void testCodecRoundTripsValuesAndNulls() {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer = codec.encode(user(7, "s\u00e9bastien"), buffer);
+        buffer = codec.encode(user(8, null), buffer);
+        buffer.flip();
+        TranslationTestClass first = codec.decode(buffer);
+        TranslationTestClass second = codec.decode(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(7, first.getUserId());
+        Assert.assertEquals("s\u00e9bastien", first.getName());
+        Assert.assertEquals(new Date(7000L), first.getCreatedAt());
+        Assert.assertNull(first.getPassword());
+        Assert.assertEquals(8, second.getUserId());
+        Assert.assertNull(second.getName());
+        Assert.assertNull(second.getCreatedAt());
+    }
+
+    @Test
+    public void testCodecRoundTripsTimestampNanos() throws ClassNotFoundException {
+        EntityBinaryCodec<Posting> postingCodec = EntityBinaryCodec.forEntity(Posting.class,
+                new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                        Arrays.asList(Posting.class.getName()))));
+        Posting posting = new Posting();
+        posting.id = 1L;
+        posting.postedAt = new Timestamp(1500L);
+        posting.postedAt.setNanos(500123456);
+        ByteBuffer buffer = postingCodec.encode(posting, ByteBuffer.allocate(4));
+        buffer.flip();
+        Posting decoded = postingCodec.decode(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(posting.postedAt, decoded.postedAt);
+        Assert.assertEquals(500123456, decoded.postedAt.getNanos());
+        Assert.assertEquals(500123456, postingCodec.copy(posting).postedAt.getNanos());
+    }
+
+    @Test
+    public void testSmallResultsStayOnTheHeap() throws Exception {
+        SpillableResult<TranslationTestClass> result = new SpillableResult<TranslationTestClass>(codec, 1 << 20, null);
+        TranslationTestClass user = user(1, "a");
+        result.add(user);
+        result.seal();
+        Assert.assertFalse(result.isSpilled());
+        Assert.assertSame(user, result.iterator().next());
+        result.close();
+    }
+
+    @Test
+    public void testSpillsPastTheBudgetAcrossSegments() throws Exception {
+        SpillableResult<TranslationTestClass> result = new SpillableResult<TranslationTestClass>(codec, 500, null,
+                256);
+        for (int i = 0; i < 1000; i++) {
+            result.add(user(i, "user" + i));
+        }
+        result.seal();
+        Assert.assertTrue(result.isSpilled());
+        Assert.assertEquals(1000, result.size());
+        for (int pass = 0; pass < 2; pass++) {
+            List<Integer> userIds = new ArrayList<Integer>();
+            for (TranslationTestClass user : result) {
+                Assert.assertEquals("user" + user.getUserId(), user.getName());
+                userIds.add(user.getUserId());
+            }
+            Assert.assertEquals(1000, userIds.size());
+            Assert.assertEquals(Integer.valueOf(999), userIds.get(999));
+        }
+        File spillFile = (File) field(result, "file");
+        Assert.assertTrue(spillFile.exists());
+        result.close();
+        Assert.assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testLeftoverSpillFilesAreDeleted() throws Exception {
+        File directory = File.createTempFile("pho-spill-test", "");
+        Assert.assertTrue(directory.delete() && directory.mkdir());
+        File other = new File(directory, "other.bin");
+        Assert.assertTrue(other.createNewFile());
+        SpillableResult<TranslationTestClass> leftover = new SpillableResult<TranslationTestClass>(codec, 0,
+                directory);
+        leftover.add(user(1, "a"));
+        leftover.seal();
+        File spillFile = (File) field(leftover, "file");
+        Assert.assertTrue(spillFile.exists());
+
+        Assert.assertEquals(1, SpillableResult.deleteSpillFiles(directory));
+        Assert.assertFalse(spillFile.exists());
+        Assert.assertTrue(other.exists());
+        leftover.close();
+        Assert.assertTrue(other.delete() && directory.delete());
+    }
+
+    private static Object field(Object target, String name) throws Exception {
+        java.lang.reflect.Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+}
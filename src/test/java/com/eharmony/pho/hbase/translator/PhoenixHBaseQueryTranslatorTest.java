@@ -4,18 +4,24 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import com.eharmony.pho.query.criterion.GroupRestrictions;
+import com.eharmony.pho.query.criterion.Parameter;
 import com.eharmony.pho.query.criterion.Projections;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.eharmony.pho.hbase.model.IndexedTestClass;
 import com.eharmony.pho.hbase.model.TranslationTestClass;
+import com.eharmony.pho.hbase.model.TranslationTestClass_;
 import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
 import com.eharmony.pho.mapper.EntityPropertiesResolver;
 import com.eharmony.pho.query.QuerySelect;
@@ -36,6 +42,7 @@ public class PhoenixHBaseQueryTranslatorTest {
         final List<String> classesList = new ArrayList<String>();
         classesList.add("com.eharmony.pho.hbase.model.TranslationTestClass");
         classesList.add("com.eharmony.pho.hbase.model.EmbededEntityExample");
+        classesList.add("com.eharmony.pho.hbase.model.IndexedTestClass");
         EntityPropertiesMappingContext context = new EntityPropertiesMappingContext(classesList);
         entityPropertiesResolver = new EntityPropertiesResolver(context);
     }
@@ -410,6 +417,24 @@ public class PhoenixHBaseQueryTranslatorTest {
         Assert.assertEquals(expected, queryStr);
     }
 
+    @Test
+    public void testTranslateSelectWithGroupsAggregatesOrderAndLimit() throws ClassNotFoundException {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .add(Restrictions.gt("userId", 2))
+                .addProjection(Projections.groupBy("name"), Projections.count("userId"))
+                .addProjection(Projections.groupBy("password"), Projections.sum("userId"))
+                .addGroupCriterion(GroupRestrictions.gt(Projections.count("userId"), 1))
+                .addOrder(Ordering.asc("name"))
+                .setMaxResults(10)
+                .build();
+        String queryStr = translator.translate(query);
+        String expected = "SELECT user_name, COUNT(uid), pwd, SUM(uid) FROM user WHERE uid > 2 "
+                + "GROUP BY(user_name, pwd) HAVING COUNT(uid) > 1 ORDER BY user_name ASC NULLS FIRST LIMIT 10";
+        Assert.assertEquals(expected, queryStr);
+    }
+
     @Test
     public void testCountAll() throws ParseException, ClassNotFoundException {
         PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
@@ -418,6 +443,180 @@ public class PhoenixHBaseQueryTranslatorTest {
         Assert.assertEquals("COUNT(*)", result);
     }
 
+    @Test
+    public void testTranslateSelectWithIndexHint() throws ClassNotFoundException {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder
+                .builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 2))
+                .add(Restrictions.gt("deliveredDate", 100))
+                .build();
+        String queryStr = translator.translate(query);
+        Assert.assertEquals("SELECT /*+ INDEX(matches IDX_STATUS_DATE) */ * FROM matches WHERE (status = 2) AND (dlvrydt > 100)",
+                queryStr);
+        Assert.assertEquals(Long.valueOf(1),
+                translator.getQueryMetrics().getIndexHintCounts().get("matches.IDX_STATUS_DATE"));
+    }
+
+    @Test
+    public void testTranslateSelectPrefersCoveringIndex() throws ClassNotFoundException {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder
+                .builderFor(IndexedTestClass.class, IndexedTestClass.class, "status")
+                .add(Restrictions.eq("matchId", 7))
+                .build();
+        String queryStr = translator.translate(query);
+        Assert.assertEquals("SELECT /*+ INDEX(matches IDX_MATCH) */ status FROM matches WHERE mid = 7", queryStr);
+    }
+
+    @Test
+    public void testTranslateSelectWithoutUsableIndex() throws ClassNotFoundException {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder
+                .builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.gt("deliveredDate", 100))
+                .build();
+        String queryStr = translator.translate(query);
+        Assert.assertEquals("SELECT * FROM matches WHERE dlvrydt > 100", queryStr);
+        Assert.assertEquals(Long.valueOf(1),
+                translator.getQueryMetrics().getIndexHintCounts().get("matches.<none>"));
+    }
+
+    @Test
+    public void testInNotInAndBetween() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        Assert.assertEquals("uid IN (1, 2)", translator.in("uid", new Object[] { 1, 2 }));
+        Assert.assertEquals("user_name NOT IN ('a', 'b''c')", translator.notIn("user_name", new Object[] { "a", "b'c" }));
+        Assert.assertEquals("uid BETWEEN 1 AND 5", translator.between("uid", 1, 5));
+    }
+
+    @Test
+    public void testTranslateSelectWithOptimizedCriteria() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .add(Restrictions.or(Restrictions.eq("name", "a"),
+                        Restrictions.or(Restrictions.eq("name", "b"), Restrictions.eq("name", "a"))))
+                .add(Restrictions.gte("userId", 2))
+                .add(Restrictions.lte("userId", 9))
+                .add(Restrictions.gt("userId", 1))
+                .build();
+        Assert.assertEquals("SELECT * FROM user WHERE (user_name IN ('a', 'b')) AND (uid BETWEEN 2 AND 9)",
+                translator.translate(query));
+
+        translator.setCriteriaOptimizationEnabled(false);
+        Assert.assertEquals("SELECT * FROM user WHERE ((user_name = 'a') OR ((user_name = 'b') OR (user_name = 'a')))"
+                + " AND (uid >= 2) AND (uid <= 9) AND (uid > 1)", translator.translate(query));
+    }
+
+    @Test
+    public void testTranslateSelectWithMetamodel() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .setReturnFields(TranslationTestClass_.name, TranslationTestClass_.userId)
+                .add(Restrictions.eq(TranslationTestClass_.userId, 2))
+                .add(Restrictions.like(TranslationTestClass_.name, "a"))
+                .addOrder(Ordering.desc(TranslationTestClass_.createdAt))
+                .build();
+        Assert.assertEquals("SELECT user_name, uid FROM user WHERE (uid = 2) AND (user_name LIKE '%a%')"
+                + " ORDER BY created_date DESC NULLS FIRST", translator.translate(query));
+        Assert.assertEquals("created_date", TranslationTestClass_.createdAt.getStoreFieldName());
+    }
+
+    @Test
+    public void testTranslateSelectWithContradiction() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .add(Restrictions.in("userId", new Object[] { 1, 2, 3 }))
+                .add(Restrictions.gt("userId", 3))
+                .build();
+        Assert.assertNull(translator.translateIfSatisfiable(query));
+        // the public translation stays valid sql, translated as built
+        Assert.assertEquals("SELECT * FROM user WHERE (uid IN (1, 2, 3)) AND (uid > 3)", translator.translate(query));
+    }
+
+    @Test
+    public void testCompileTemplate() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .add(Restrictions.eq("name", Parameter.named("name")))
+                .add(Restrictions.or(Restrictions.eq("userId", Parameter.named("first")),
+                        Restrictions.eq("userId", Parameter.named("second"))))
+                .add(Restrictions.ne("password", Parameter.named("name")))
+                .build();
+        QueryTemplate<TranslationTestClass, TranslationTestClass> template = translator.compile(query);
+        Assert.assertEquals("SELECT * FROM user WHERE (user_name = ?) AND (uid IN (?, ?)) AND (pwd != ?)",
+                template.getSql());
+        Assert.assertEquals(Arrays.asList("name", "first", "second"), template.getParameterNames());
+
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("first", 1);
+        values.put("second", 2);
+        values.put("name", "x");
+        Assert.assertArrayEquals(new Object[] { "x", 1, 2 }, template.values(values));
+    }
+
+    @Test
+    public void testCompileTemplateWithMarkerLikeLiterals() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        QuerySelect<TranslationTestClass, TranslationTestClass> query = QueryBuilder
+                .builderFor(TranslationTestClass.class).select()
+                .add(Restrictions.eq("name", "a\u0000b\u0000c"))
+                .add(Restrictions.eq("password", "?"))
+                .add(Restrictions.eq("userId", Parameter.named("userId")))
+                .build();
+        QueryTemplate<TranslationTestClass, TranslationTestClass> template = translator.compile(query);
+        Assert.assertEquals("SELECT * FROM user WHERE (user_name = 'a\u0000b\u0000c') AND (pwd = '?') AND (uid = ?)",
+                template.getSql());
+        Assert.assertEquals(Arrays.asList("userId"), template.getParameterNames());
+        Assert.assertEquals(template.getSql(), translator.translate(query));
+    }
+
+    @Test
+    public void testTranslateParameterizedUpsert() throws Exception {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(entityPropertiesResolver);
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(1);
+        entity.setMatchId(2);
+        entity.setStatus(3);
+        entity.setDeliveredDate(new Date(1000));
+
+        ParameterizedStatement statement = translator.translateParameterized(QueryUpdateBuilder.builderFor(entity)
+                .build());
+        String sql = statement.getSql();
+        Assert.assertTrue(sql, sql.startsWith("UPSERT INTO matches("));
+        Assert.assertTrue(sql, sql.endsWith(") values (?, ?, ?, ?)"));
+        // the columns follow the property order of the mapping, the parameters follow the columns
+        List<String> columns = Arrays.asList(sql.substring(sql.indexOf('(') + 1, sql.indexOf(')')).split(", "));
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < columns.size(); i++) {
+            values.put(columns.get(i), statement.getParameters().get(i));
+        }
+        Assert.assertEquals(4, values.size());
+        Assert.assertEquals(1L, values.get("uid"));
+        Assert.assertEquals(2L, values.get("mid"));
+        Assert.assertEquals(3, values.get("status"));
+        Assert.assertEquals(new Date(1000), values.get("dlvrydt"));
+
+        // null properties are left out, selected fields keep their order
+        entity.setDeliveredDate(null);
+        statement = translator.translateParameterized(QueryUpdateBuilder.builderFor(entity)
+                .update(Arrays.asList("status", "userId", "deliveredDate")).build());
+        Assert.assertEquals("UPSERT INTO matches(status, uid) values (?, ?)", statement.getSql());
+        Assert.assertEquals(Arrays.<Object> asList(3, 1L), statement.getParameters());
+    }
+
+    @Test
+    public void testParameterizedStatementBindsJdbcValues() {
+        Assert.assertEquals(new java.sql.Timestamp(1000), ParameterizedStatement.toJdbcValue(new Date(1000)));
+        Assert.assertEquals(new java.sql.Date(1000), ParameterizedStatement.toJdbcValue(new java.sql.Date(1000)));
+        Assert.assertEquals("c", ParameterizedStatement.toJdbcValue('c'));
+        Assert.assertEquals(5L, ParameterizedStatement.toJdbcValue(5L));
+    }
+
     private TranslationTestClass buildTestClassObjectA() {
         TranslationTestClass testClass = new TranslationTestClass();
         testClass.setName("Plain'fiekd'\\\\\\");
@@ -0,0 +1,94 @@
+package com.eharmony.pho.hbase.translator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Restrictions;
+
+public class RowKeyScatterPlannerTest {
+
+    private PhoenixHBaseQueryTranslator translator;
+    private RowKeyScatterPlanner planner;
+
+    @Before
+    public void setUp() throws Exception {
+        EntityPropertiesResolver resolver = new EntityPropertiesResolver(new EntityPropertiesMappingContext(
+                Arrays.asList(IndexedTestClass.class.getName())));
+        translator = new PhoenixHBaseQueryTranslator(resolver);
+        planner = new RowKeyScatterPlanner(resolver);
+    }
+
+    @Test
+    public void testSplitsDisjunctionOverLeadingRowKey() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select()
+                .add(Restrictions.or(Restrictions.eq("userId", 1L),
+                        Restrictions.and(Restrictions.eq("userId", 2L), Restrictions.gt("matchId", 5L))))
+                .add(Restrictions.eq("status", 3))
+                .addOrder(Ordering.desc("deliveredDate"))
+                .setMaxResults(10)
+                .build();
+        List<QuerySelect<IndexedTestClass, IndexedTestClass>> branches = planner.split(query);
+        Assert.assertEquals(2, branches.size());
+        Assert.assertEquals("SELECT * FROM matches WHERE (status = 3) AND (uid = 1)"
+                + " ORDER BY dlvrydt DESC NULLS FIRST LIMIT 10", translator.translate(branches.get(0)));
+        Assert.assertEquals("SELECT * FROM matches WHERE (status = 3) AND (uid = 2) AND (mid > 5)"
+                + " ORDER BY dlvrydt DESC NULLS FIRST LIMIT 10", translator.translate(branches.get(1)));
+    }
+
+    @Test
+    public void testDoesNotSplitOverlappingOrUnpinnedBranches() {
+        Assert.assertNull(planner.split(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.or(Restrictions.eq("userId", 1L), Restrictions.eq("userId", 1))).build()));
+        Assert.assertNull(planner.split(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.or(Restrictions.eq("userId", 1L), Restrictions.eq("matchId", 2L))).build()));
+        Assert.assertNull(planner.split(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 1L)).build()));
+        Assert.assertNull(planner.split(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .setReturnFields("userId")
+                .add(Restrictions.or(Restrictions.eq("userId", 1L), Restrictions.eq("userId", 2L)))
+                .addOrder(Ordering.asc("status")).build()));
+    }
+
+    @Test
+    public void testMergeAppliesOrderingAndLimit() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().addOrder(Ordering.asc("matchId")).setMaxResults(3).build();
+        List<List<IndexedTestClass>> branchResults = new ArrayList<List<IndexedTestClass>>();
+        branchResults.add(Arrays.asList(match(1, 2), match(1, 5)));
+        branchResults.add(Arrays.asList(match(2, 1), match(2, 4)));
+        List<IndexedTestClass> merged = planner.merge(query, branchResults);
+        Assert.assertEquals(3, merged.size());
+        Assert.assertEquals(1L, merged.get(0).getMatchId());
+        Assert.assertEquals(2L, merged.get(1).getMatchId());
+        Assert.assertEquals(4L, merged.get(2).getMatchId());
+    }
+
+    @Test
+    public void testMergeWithZeroMaxResultsIsUnlimited() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().setMaxResults(0).build();
+        List<List<IndexedTestClass>> branchResults = new ArrayList<List<IndexedTestClass>>();
+        branchResults.add(Arrays.asList(match(1, 2), match(1, 5)));
+        branchResults.add(Arrays.asList(match(2, 1)));
+        Assert.assertEquals(3, planner.merge(query, branchResults).size());
+    }
+
+    private static IndexedTestClass match(long userId, long matchId) {
+        IndexedTestClass match = new IndexedTestClass();
+        match.setUserId(userId);
+        match.setMatchId(matchId);
+        return match;
+    }
+}
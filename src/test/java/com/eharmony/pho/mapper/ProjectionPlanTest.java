@@ -0,0 +1,135 @@
+package com.eharmony.pho.mapper;
+
+import java.beans.ConstructorProperties;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectionPlanTest {
+
+    public enum Status {
+        OPEN, CLOSED
+    }
+
+    public static final class ImmutableMatch {
+
+        private final long userId;
+        private final String name;
+        private final Date deliveredDate;
+        private Status status;
+
+        @ConstructorProperties({ "userId", "name", "deliveredDate" })
+        public ImmutableMatch(long userId, String name, Date deliveredDate) {
+            this.userId = userId;
+            this.name = name;
+            this.deliveredDate = deliveredDate;
+        }
+    }
+
+    public static class MatchBean {
+
+        private int score;
+        private BigDecimal distance;
+        private boolean flagged;
+
+        public int getScore() {
+            return score;
+        }
+
+        public void setScore(int score) {
+            this.score = score;
+        }
+    }
+
+    public static class AnnotatedBean {
+
+        @JsonProperty("user_id")
+        private long userId;
+        private String name;
+    }
+
+    public static class DatedBean {
+
+        private long userId;
+        private Date deliveredDate;
+    }
+
+    /**
+     * Records the maps handed to Jackson instead of converting them.
+     */
+    private static final class RecordingObjectMapper extends ObjectMapper {
+
+        private Object converted;
+
+        @Override
+        public <T> T convertValue(Object from, Class<T> to) {
+            converted = from;
+            return null;
+        }
+    }
+
+    @Test
+    public void testBindsConstructorAndFields() {
+        ProjectionPlan<ImmutableMatch> plan = ProjectionPlan.compile(ImmutableMatch.class, "USERID", "name",
+                "deliveredDate", "status", "unknown");
+        Timestamp delivered = new Timestamp(1000L);
+        ImmutableMatch match = plan.map(new Object[] { 42, "bob", delivered, "CLOSED", "ignored" });
+        Assert.assertEquals(42L, match.userId);
+        Assert.assertEquals("bob", match.name);
+        Assert.assertSame(delivered, match.deliveredDate);
+        Assert.assertEquals(Status.CLOSED, match.status);
+    }
+
+    @Test
+    public void testBindsSettersAndConvertsValues() {
+        ProjectionPlan<MatchBean> plan = ProjectionPlan.compile(MatchBean.class, "score", "distance", "flagged");
+        MatchBean bean = plan.map(new Object[] { 7L, 1.5d, null });
+        Assert.assertEquals(7, bean.getScore());
+        Assert.assertEquals(new BigDecimal("1.5"), bean.distance);
+        Assert.assertFalse(bean.flagged);
+        try {
+            plan.map(new Object[] { "seven", null, null });
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("score"));
+        }
+    }
+
+    @Test
+    public void testMapperCachesPlans() {
+        ProjectedResultMapper mapper = new ProjectedResultMapper();
+        String[] names = { "userId", "name", "deliveredDate" };
+        ImmutableMatch match = mapper.mapTo(ImmutableMatch.class, new Object[] { 1L, "a", null }, names);
+        Assert.assertEquals("a", match.name);
+        Assert.assertSame(mapper.plan(ImmutableMatch.class, names), mapper.plan(ImmutableMatch.class, names));
+        Assert.assertNull(mapper.plan(Number.class, names));
+    }
+
+    @Test
+    public void testMapperLeavesJacksonBeansToJackson() {
+        ProjectedResultMapper mapper = new ProjectedResultMapper();
+        Assert.assertNull(mapper.plan(AnnotatedBean.class, new String[] { "user_id", "name" }));
+        Assert.assertNull(mapper.plan(MatchBean.class, new String[] { "score", "unknown" }));
+        Assert.assertNotNull(mapper.plan(MatchBean.class, new String[] { "score", "distance" }));
+        Assert.assertNotNull(mapper.plan(ImmutableMatch.class, new String[] { "userId", "name", "deliveredDate", "unknown" }));
+    }
+
+    @Test
+    public void testMapperFallsBackToJacksonWhenConversionFails() {
+        RecordingObjectMapper jackson = new RecordingObjectMapper();
+        ProjectedResultMapper mapper = new ProjectedResultMapper(jackson);
+        String[] names = { "userId", "deliveredDate" };
+        DatedBean bean = mapper.mapTo(DatedBean.class, new Object[] { 1L, new Date(5L) }, names);
+        Assert.assertEquals(5L, bean.deliveredDate.getTime());
+        Assert.assertNull(jackson.converted);
+
+        mapper.mapTo(DatedBean.class, new Object[] { 1L, 5L }, names);
+        Assert.assertEquals(5L, ((Map<?, ?>) jackson.converted).get("deliveredDate"));
+    }
+}
@@ -0,0 +1,243 @@
+package com.eharmony.pho.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.pho.hbase.model.IndexedTestClass;
+import com.eharmony.pho.hbase.translator.PhoenixHBaseQueryTranslator;
+import com.eharmony.pho.mapper.EntityPropertiesMappingContext;
+import com.eharmony.pho.mapper.EntityPropertiesResolver;
+import com.eharmony.pho.query.QuerySelect;
+import com.eharmony.pho.query.builder.QueryBuilder;
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Projections;
+import com.eharmony.pho.query.criterion.Restrictions;
+
+public class InMemoryDataStoreApiImplTest {
+
+    private InMemoryDataStoreApiImpl store;
+    private EntityPropertiesResolver resolver;
+
+    @Before
+    public void setUp() throws ClassNotFoundException {
+        EntityPropertiesMappingContext context = new EntityPropertiesMappingContext(
+                Arrays.asList("com.eharmony.pho.hbase.model.IndexedTestClass"));
+        resolver = new EntityPropertiesResolver(context);
+        store = new InMemoryDataStoreApiImpl(resolver);
+        store.addHashIndex(IndexedTestClass.class, "status");
+        store.addSortedIndex(IndexedTestClass.class, "deliveredDate");
+        for (long uid = 1; uid <= 3; uid++) {
+            for (long mid = 1; mid <= 4; mid++) {
+                store.save(entity(uid, mid, (int) (mid % 2), new Date(uid * 1000 + mid)));
+            }
+        }
+    }
+
+    @Test
+    public void testSaveReplacesRowWithSameRowKey() {
+        Assert.assertEquals(12, store.size(IndexedTestClass.class));
+        store.save(entity(1, 1, 7, new Date(0)));
+        Assert.assertEquals(12, store.size(IndexedTestClass.class));
+
+        List<IndexedTestClass> found = find(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 7)).build());
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(1L, found.get(0).getMatchId());
+        Assert.assertTrue(find(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 1)).add(Restrictions.eq("matchId", 1))
+                .add(Restrictions.eq("status", 1)).build()).isEmpty());
+    }
+
+    @Test
+    public void testSavedEntitiesAndResultsAreCopies() {
+        IndexedTestClass saved = entity(5, 1, 7, new Date(0));
+        store.save(saved);
+        saved.setStatus(8);
+        saved.getDeliveredDate().setTime(1);
+        IndexedTestClass found = store.findOne(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 7)).build());
+        Assert.assertEquals(5L, found.getUserId());
+        Assert.assertEquals(new Date(0), found.getDeliveredDate());
+
+        found.setStatus(9);
+        Assert.assertEquals(1, find(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 7)).build()).size());
+        Assert.assertTrue(find(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 9)).build()).isEmpty());
+    }
+
+    @Test
+    public void testSaveSelectedFieldsUpsertsTheirColumns() {
+        store.save(entity(1, 1, 7, null), Arrays.asList("status"));
+        IndexedTestClass updated = store.findOne(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 7)).build());
+        Assert.assertEquals(1L, updated.getMatchId());
+        Assert.assertEquals(new Date(1001), updated.getDeliveredDate());
+
+        // a missing row gets the row key and the selected properties only
+        store.save(entity(9, 9, 3, new Date(9)), Arrays.asList("status"));
+        IndexedTestClass created = store.findOne(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("userId", 9)).add(Restrictions.eq("matchId", 9)).build());
+        Assert.assertEquals(3, created.getStatus());
+        Assert.assertNull(created.getDeliveredDate());
+
+        store.save(entity(9, 9, 4, new Date(9)), null);
+        Assert.assertEquals(1, find(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 4)).add(Restrictions.eq("deliveredDate", new Date(9))).build())
+                .size());
+    }
+
+    @Test
+    public void testZeroMaxResultsIsNoLimit() {
+        Assert.assertEquals(12, find(QueryBuilder.builderFor(IndexedTestClass.class).select().setMaxResults(0)
+                .build()).size());
+    }
+
+    @Test
+    public void testCriteriaOrderingAndLimit() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select()
+                .add(Restrictions.or(Restrictions.eq("status", 1), Restrictions.in("matchId", new Object[] { 4L })))
+                .add(Restrictions.between("deliveredDate", new Date(2000), new Date(4000)))
+                .addOrder(Ordering.desc("userId"), Ordering.asc("matchId")).setMaxResults(3).build();
+        List<IndexedTestClass> found = find(query);
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals(3L, found.get(0).getUserId());
+        Assert.assertEquals(1L, found.get(0).getMatchId());
+        Assert.assertEquals(3L, found.get(1).getMatchId());
+        Assert.assertEquals(4L, found.get(2).getMatchId());
+    }
+
+    @Test
+    public void testRangeOnSortedIndex() {
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.gt("deliveredDate", new Date(3002)))
+                .add(Restrictions.isNotNull("status")).build();
+        List<IndexedTestClass> found = find(query);
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(3L, found.get(0).getMatchId());
+        Assert.assertEquals(4L, found.get(1).getMatchId());
+    }
+
+    @Test
+    public void testGroupedAggregate() {
+        QuerySelect<IndexedTestClass, Long> count = QueryBuilder.builderFor(IndexedTestClass.class, Long.class)
+                .select().add(Restrictions.eq("status", 0)).addProjection(Projections.count("matchId")).build();
+        Assert.assertEquals(Long.valueOf(6), store.findOne(count));
+
+        QuerySelect<IndexedTestClass, IndexedTestClass> maxPerUser = QueryBuilder
+                .builderFor(IndexedTestClass.class).select()
+                .addProjection(Projections.groupBy("userId"), Projections.max("matchId"))
+                .addOrder(Ordering.desc("userId")).build();
+        List<IndexedTestClass> found = find(maxPerUser);
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals(3L, found.get(0).getUserId());
+        Assert.assertEquals(4L, found.get(0).getMatchId());
+    }
+
+    @Test
+    public void testReturnField() {
+        QuerySelect<IndexedTestClass, Integer> query = QueryBuilder.builderFor(IndexedTestClass.class, Integer.class)
+                .select(Arrays.asList("status")).add(Restrictions.eq("userId", 2))
+                .add(Restrictions.eq("matchId", 3)).build();
+        Assert.assertEquals(Integer.valueOf(1), store.findOne(query));
+    }
+
+    @Test
+    public void testLikeMatchesAnywhereLikePhoenix() {
+        PhoenixHBaseQueryTranslator translator = new PhoenixHBaseQueryTranslator(resolver);
+        Assert.assertEquals("status LIKE '%1%'", translator.like("status", 1));
+        Assert.assertEquals("status ILIKE '%1%'", translator.insensitiveLike("status", 1));
+
+        CriterionEvaluator evaluator = new CriterionEvaluator();
+        Assert.assertTrue(evaluator.matches(entity(1, 1, 210, null), Restrictions.like("status", 1)));
+        Assert.assertTrue(evaluator.matches(entity(1, 1, 210, null), Restrictions.like("status", "1_")));
+        Assert.assertFalse(evaluator.matches(entity(1, 1, 200, null), Restrictions.like("status", 1)));
+
+        QuerySelect<IndexedTestClass, IndexedTestClass> query = QueryBuilder.builderFor(IndexedTestClass.class)
+                .select().add(Restrictions.ilike("status", 1)).build();
+        Assert.assertEquals(6, find(query).size());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        File file = snapshotFile();
+        Assert.assertEquals(12, store.writeSnapshot(file));
+
+        InMemoryDataStoreApiImpl restored = new InMemoryDataStoreApiImpl(resolver);
+        restored.addHashIndex(IndexedTestClass.class, "status");
+        restored.save(entity(9, 9, 9, new Date(9)));
+        Assert.assertTrue(restored.loadSnapshot(file, 60000));
+        Assert.assertEquals(12, restored.size(IndexedTestClass.class));
+        List<IndexedTestClass> found = new ArrayList<IndexedTestClass>();
+        for (IndexedTestClass entity : restored.findAll(QueryBuilder.builderFor(IndexedTestClass.class).select()
+                .add(Restrictions.eq("status", 0)).add(Restrictions.eq("userId", 2)).build())) {
+            found.add(entity);
+        }
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(2L, found.get(0).getMatchId());
+        Assert.assertEquals(new Date(2002), found.get(0).getDeliveredDate());
+    }
+
+    @Test
+    public void testStaleOrChangedSnapshotIsRejected() throws IOException {
+        File file = snapshotFile();
+        store.writeSnapshot(file);
+        InMemoryDataStoreApiImpl restored = new InMemoryDataStoreApiImpl(resolver);
+        Assert.assertFalse(restored.loadSnapshot(new File(file.getParentFile(), file.getName() + ".missing"), -1));
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            // created at the epoch
+            raw.seek(8);
+            raw.writeLong(0);
+            Assert.assertFalse(restored.loadSnapshot(file, 60000));
+            Assert.assertTrue(restored.loadSnapshot(file, -1));
+            restored.clear(IndexedTestClass.class);
+
+            // schema fingerprint of the first table, after its name
+            raw.seek(20);
+            int nameLength = raw.readInt();
+            raw.seek(24 + nameLength);
+            long fingerprint = raw.readLong();
+            raw.seek(24 + nameLength);
+            raw.writeLong(fingerprint + 1);
+        } finally {
+            raw.close();
+        }
+        Assert.assertFalse(restored.loadSnapshot(file, -1));
+        Assert.assertEquals(0, restored.size(IndexedTestClass.class));
+    }
+
+    private static File snapshotFile() throws IOException {
+        File file = File.createTempFile("pho-test-", ".snapshot");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private <R> List<R> find(QuerySelect<IndexedTestClass, R> query) {
+        List<R> results = new ArrayList<R>();
+        for (R r : store.findAll(query)) {
+            results.add(r);
+        }
+        return results;
+    }
+
+    private static IndexedTestClass entity(long userId, long matchId, int status, Date deliveredDate) {
+        IndexedTestClass entity = new IndexedTestClass();
+        entity.setUserId(userId);
+        entity.setMatchId(matchId);
+        entity.setStatus(status);
+        entity.setDeliveredDate(deliveredDate);
+        return entity;
+    }
+}
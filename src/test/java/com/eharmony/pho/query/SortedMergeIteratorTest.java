@@ -0,0 +1,113 @@
+package com.eharmony.pho.query;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eharmony.pho.query.criterion.Ordering;
+import com.eharmony.pho.query.criterion.Orderings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class SortedMergeIteratorTest {
+
+    private static final class Cursor implements Iterator<Map<String, Object>>, Closeable {
+
+        private final Iterator<Map<String, Object>> rows;
+        private int read;
+        private boolean closed;
+
+        Cursor(Map<String, Object>... rows) {
+            this.rows = Arrays.asList(rows).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && rows.hasNext();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            read++;
+            return rows.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static Map<String, Object> row(Integer score, String name) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("score", score);
+        row.put("name", name);
+        return row;
+    }
+
+    private static List<Object> names(Iterator<Map<String, Object>> merged) {
+        List<Object> names = new ArrayList<Object>();
+        while (merged.hasNext()) {
+            names.add(merged.next().get("name"));
+        }
+        return names;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMergesDescendingWithNullsLast() {
+        Orderings orderings = new Orderings(Ordering.desc("score", Ordering.NullOrdering.LAST), Ordering.asc("name"));
+        List<Cursor> cursors = Arrays.asList(new Cursor(row(9, "a"), row(5, "d"), row(null, "g")),
+                new Cursor(row(7, "b"), row(5, "c")), new Cursor(), new Cursor(row(8, "e"), row(null, "f")));
+        SortedMergeIterator<Map<String, Object>> merged = new SortedMergeIterator<Map<String, Object>>(orderings, -1,
+                cursors);
+        Assert.assertEquals(Arrays.<Object> asList("a", "e", "b", "c", "d", "f", "g"), names(merged));
+        Assert.assertEquals(7, merged.getReturned());
+        for (Cursor cursor : cursors) {
+            Assert.assertTrue(cursor.closed);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStopsCursorsAtTheLimit() {
+        Orderings orderings = new Orderings(Ordering.asc("score"));
+        Cursor first = new Cursor(row(1, "a"), row(2, "b"), row(3, "c"), row(4, "d"), row(5, "e"));
+        Cursor second = new Cursor(row(10, "x"), row(11, "y"), row(12, "z"));
+        SortedMergeIterator<Map<String, Object>> merged = new SortedMergeIterator<Map<String, Object>>(orderings, 3,
+                Arrays.asList(first, second));
+        Assert.assertEquals(Arrays.<Object> asList("a", "b", "c"), names(merged));
+        // one head per partition is buffered, nothing past the limit is read
+        Assert.assertEquals(3, first.read);
+        Assert.assertEquals(1, second.read);
+        Assert.assertTrue(first.closed);
+        Assert.assertTrue(second.closed);
+    }
+
+    @Test
+    public void testKeepsPartitionOrderOfEqualRows() {
+        List<Iterator<Map<String, Object>>> cursors = new ArrayList<Iterator<Map<String, Object>>>();
+        cursors.add(Lists.<Map<String, Object>> newArrayList(ImmutableMap.<String, Object> of("score", 1, "name",
+                "first")).iterator());
+        cursors.add(Lists.<Map<String, Object>> newArrayList(ImmutableMap.<String, Object> of("score", 1, "name",
+                "second")).iterator());
+        SortedMergeIterator<Map<String, Object>> merged = new SortedMergeIterator<Map<String, Object>>(
+                new Orderings(Ordering.asc("score")), -1, cursors);
+        Assert.assertEquals(Arrays.<Object> asList("first", "second"), names(merged));
+        Assert.assertFalse(new SortedMergeIterator<Map<String, Object>>(new Orderings(Ordering.asc("score")), 0,
+                Collections.<Iterator<Map<String, Object>>> emptyList()).hasNext());
+    }
+}
@@ -0,0 +1,63 @@
+package com.eharmony.pho.translator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eharmony.pho.query.criterion.Criterion;
+import com.eharmony.pho.query.criterion.Restrictions;
+
+public class CriteriaOptimizerTest {
+
+    @Test
+    public void testFlattensAndRemovesDuplicates() {
+        Criterion optimized = CriteriaOptimizer.optimize(Restrictions.and(Restrictions.like("name", "x"),
+                Restrictions.and(Restrictions.like("name", "x"), Restrictions.isNotNull("city"))));
+        Assert.assertEquals(Restrictions.and(Restrictions.like("name", "x"), Restrictions.isNotNull("city")),
+                optimized);
+        Assert.assertEquals(Restrictions.eq("a", 1), CriteriaOptimizer.optimize(Restrictions.or(
+                Restrictions.and(Restrictions.eq("a", 1)))));
+        Assert.assertNull(CriteriaOptimizer.optimize(Restrictions.and()));
+    }
+
+    @Test
+    public void testMergesEqualitiesIntoIn() {
+        Criterion optimized = CriteriaOptimizer.optimize(Restrictions.or(Restrictions.eq("a", 1),
+                Restrictions.eq("b", 1), Restrictions.in("a", new Object[] { 2, 1 }), Restrictions.eq("a", 3)));
+        Assert.assertEquals(Restrictions.or(Restrictions.in("a", new Object[] { 1, 2, 3 }), Restrictions.eq("b", 1)),
+                optimized);
+    }
+
+    @Test
+    public void testFoldsRanges() {
+        Assert.assertEquals(Restrictions.between("a", 2, 8), CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.gte("a", 1), Restrictions.lte("a", 8), Restrictions.gte("a", 2))));
+        Assert.assertEquals(Restrictions.and(Restrictions.gt("a", 2L), Restrictions.lt("a", 5),
+                Restrictions.eq("b", "x")), CriteriaOptimizer.optimize(Restrictions.and(Restrictions.gte("a", 2),
+                Restrictions.eq("b", "x"), Restrictions.gt("a", 2L), Restrictions.lt("a", 5),
+                Restrictions.isNotNull("a"))));
+        Assert.assertEquals(Restrictions.in("a", new Object[] { 3, 4 }), CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.in("a", new Object[] { 1, 3, 4, 9 }), Restrictions.between("a", 2, 5))));
+        Assert.assertEquals(Restrictions.eq("a", 4), CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.gte("a", 4), Restrictions.lte("a", 4))));
+    }
+
+    @Test
+    public void testDetectsContradictions() {
+        Assert.assertTrue(CriteriaOptimizer.isUnsatisfiable(CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.eq("a", 1), Restrictions.eq("a", 2)))));
+        Assert.assertTrue(CriteriaOptimizer.isUnsatisfiable(CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.gt("a", 5), Restrictions.lte("a", 5)))));
+        Assert.assertTrue(CriteriaOptimizer.isUnsatisfiable(CriteriaOptimizer.optimize(Restrictions.and(
+                Restrictions.isNull("a"), Restrictions.eq("a", 1)))));
+        Assert.assertTrue(CriteriaOptimizer.isUnsatisfiable(CriteriaOptimizer.optimize(Restrictions.or(
+                Restrictions.between("a", 3, 1), Restrictions.in("b", new Object[0])))));
+        Assert.assertEquals(Restrictions.eq("c", 1), CriteriaOptimizer.optimize(Restrictions.or(
+                Restrictions.and(Restrictions.eq("a", 1), Restrictions.eq("a", 2)), Restrictions.eq("c", 1))));
+    }
+
+    @Test
+    public void testLeavesIncomparableValuesAlone() {
+        Criterion criteria = Restrictions.and(Restrictions.gt("a", "x"), Restrictions.lt("a", 5));
+        Assert.assertEquals(criteria, CriteriaOptimizer.optimize(criteria));
+    }
+}
@@ -0,0 +1,63 @@
+package com.eharmony.pho.hbase.metrics;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PhoenixFlightRecorderTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(PhoenixFlightRecorder.isAvailable());
+    }
+
+    @Test
+    public void testEventsAreDisabledByDefault() {
+        Assert.assertNull(PhoenixFlightRecorder.beginQuery());
+        Assert.assertNull(PhoenixFlightRecorder.beginTranslate());
+        Assert.assertNull(PhoenixFlightRecorder.beginMap());
+        PhoenixFlightRecorder.commitQuery(null, String.class, "select", "SELECT 1", 1, 1, 1, 1, 0, false);
+    }
+
+    @Test
+    public void testQueryEventIsRecordedWhenEnabled() throws Exception {
+        File file = File.createTempFile("pho", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("com.eharmony.pho.Query");
+                recording.start();
+                Object token = PhoenixFlightRecorder.beginQuery();
+                Assert.assertNotNull(token);
+                PhoenixFlightRecorder.commitQuery(token, String.class, "select", "SELECT * FROM t WHERE a = 7",
+                        1000, 2000, 3000, 4, 0, false);
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            RecordedEvent query = null;
+            for (RecordedEvent event : events) {
+                if ("com.eharmony.pho.Query".equals(event.getEventType().getName())) {
+                    query = event;
+                }
+            }
+            Assert.assertNotNull(query);
+            Assert.assertEquals("SELECT * FROM t WHERE a = ?", query.getString("fingerprint"));
+            Assert.assertEquals("java.lang.String", query.getString("entityClass"));
+            Assert.assertEquals(2000, query.getDuration("executeNanos").toNanos());
+            Assert.assertEquals(4, query.getLong("rows"));
+        } finally {
+            file.delete();
+        }
+    }
+}